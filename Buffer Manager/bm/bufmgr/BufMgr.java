@@ -4,7 +4,11 @@ import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import diskmgr.IOEngine;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <h3>Minibase Buffer Manager</h3> The buffer manager manages an array of main
@@ -227,12 +231,48 @@ public class BufMgr implements GlobalConst {
 
     /**
      * Write all valid and dirty frames to disk. Note flushing involves only
-     * writing, not unpinning or freeing or the like.
+     * writing, not unpinning or freeing or the like. Runs of consecutive
+     * pages are written with one call each; if there are several, they are
+     * written at once through the disk manager's I/O engine.
      *
      */
     public void flushAllFrames() {
-        for (PageId p : buffmap.keySet()) {
-            flushPage(p);
+
+        // collect the dirty frames in page order
+        ArrayList<FrameDesc> dirty = new ArrayList<FrameDesc>();
+        for (FrameDesc frame : buffmap.values()) {
+            if (frame.dirtyBit && frame.validBit) {
+                dirty.add(frame);
+            }
+        }
+        Collections.sort(dirty, (a, b) -> Integer.compare(a.pageNum.pid,
+                b.pageNum.pid));
+
+        // write each run of consecutive pages at once, overlapping the runs
+        ArrayList<CompletableFuture<Page[]>> pending =
+                new ArrayList<CompletableFuture<Page[]>>();
+        for (int i = 0; i < dirty.size();) {
+            int j = i + 1;
+            while (j < dirty.size() && dirty.get(j).pageNum.pid
+                    == dirty.get(j - 1).pageNum.pid + 1) {
+                j++;
+            }
+            Page[] run = dirty.subList(i, j).toArray(new Page[j - i]);
+            if (j - i == dirty.size()) {
+                Minibase.DiskManager.write_pages(dirty.get(i).pageId(), j - i, run);
+            } else {
+                pending.add(Minibase.DiskManager.getIOEngine().submitWrites(
+                        dirty.get(i).pageId(), j - i, run));
+            }
+            i = j;
+        }
+
+        // the pages are clean once every run is written
+        for (CompletableFuture<Page[]> run : pending) {
+            IOEngine.await(run);
+        }
+        for (FrameDesc frame : dirty) {
+            frame.setDirtyBit(false);
         }
 
     } // public void flushAllFrames()
@@ -0,0 +1,47 @@
+package diskmgr;
+
+import global.Page;
+import global.PageId;
+
+/**
+ * Knows the page format of one kind of file, so the compactor can move the
+ * file's pages: which pages a file has, which pages refer to each of them,
+ * and how to rewrite those references.
+ * <br><br>
+ * References are identified by a kind and a slot, both chosen by the
+ * relocator; the compactor only passes them back.  A file's first page is
+ * never moved, since open files keep its id.
+ */
+public interface FileRelocator {
+
+  /**
+   * Reports the movable pages of the file starting at the given page to the
+   * compactor, with the references to each (see Compactor.addPage and
+   * Compactor.addLink).
+   *
+   * @return false (having reported nothing) if the file is not in this
+   * relocator's format
+   */
+  boolean listPages(PageId head, Compactor compactor);
+
+  /**
+   * Gets the page id stored in a reference on the given (pinned) page.
+   */
+  PageId getLink(Page referrer, int kind, int slot);
+
+  /**
+   * Changes a reference on the given (pinned) page to the given page id,
+   * logging the change like any other update to the page.
+   */
+  void setLink(Page referrer, int kind, int slot, PageId pageno);
+
+  /**
+   * Changes the page's record of its own id, on a fresh copy of the page;
+   * the change is not to be logged, since the compactor logs the copy's
+   * whole image afterwards.
+   *
+   * @param type the type the page was reported with
+   */
+  void setSelf(Page page, int type, PageId pageno);
+
+} // public interface FileRelocator
@@ -0,0 +1,226 @@
+package diskmgr;
+
+import java.util.Random;
+
+/**
+ * <h3>Minibase Simulated Storage Device</h3>
+ * Models the time a storage device would take for the disk manager's I/O, on
+ * a virtual clock, so benchmarks of buffer policies and prefetching give the
+ * same results on any machine.  The real I/O still happens (to the OS files
+ * or the page store); this only accounts for it.  See DiskMgr.setDevice.
+ * <br><br>
+ * Each request has an access latency (a seek, on a disk), skipped when it
+ * starts where the previous one ended, followed by a transfer at the
+ * device's bandwidth.  Up to queue_depth requests are in service at once,
+ * overlapping their latencies, but transfers share the bandwidth.  Optional
+ * jitter scales each service time by a random factor, drawn from a seeded
+ * generator so runs stay reproducible.
+ * <br><br>
+ * Each thread has its own virtual time, advanced to the completion of each of
+ * its requests, since disk manager calls block until done; so requests of
+ * different threads can be in service together, but those of one thread are
+ * not.  The device's clock is the latest completion so far.
+ */
+public class SimulatedDevice {
+
+  /** Access latency of a non-sequential request (in nanoseconds). */
+  protected long latency_ns;
+
+  /** Transfer rate (in bytes per second). */
+  protected long bandwidth;
+
+  /** Greatest number of requests in service at once. */
+  protected int queue_depth;
+
+  /** Largest fraction by which service times vary randomly. */
+  protected double jitter;
+
+  /** Seed of the jitter's generator. */
+  protected long seed;
+
+  // --------------------------------------------------------------------------
+
+  /** Source of the jitter. */
+  protected Random random;
+
+  /** Virtual time each queue slot is busy until. */
+  protected long[] slots;
+
+  /** Virtual time the transfer path is busy until. */
+  protected long transfer_free;
+
+  /** Position just past the last request, or -1 before any. */
+  protected long head;
+
+  /**
+   * Virtual time of each thread, i.e. the completion of its last request, and
+   * the epoch it belongs to.
+   */
+  protected final ThreadLocal<long[]> thread_time = new ThreadLocal<long[]>() {
+    protected long[] initialValue() {
+      return new long[] { 0, -1 };
+    }
+  };
+
+  /** Incremented by each reset, so threads know to restart their time. */
+  protected int epoch;
+
+  /** Latest completion time so far (in nanoseconds). */
+  protected long clock;
+
+  /** Number of requests so far. */
+  protected int request_cnt;
+
+  /** Number of requests that paid the access latency. */
+  protected int seek_cnt;
+
+  /** Number of bytes transferred so far. */
+  protected long byte_cnt;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a simulated device, idle at time zero.
+   *
+   * @param latency_ns access latency of a non-sequential request
+   * @param bandwidth transfer rate, in bytes per second
+   * @param queue_depth greatest number of requests in service at once
+   * @param jitter largest fraction by which service times vary (0 for none)
+   * @param seed seed of the jitter's generator
+   * @throws IllegalArgumentException if a parameter is out of range
+   */
+  public SimulatedDevice(long latency_ns, long bandwidth, int queue_depth,
+      double jitter, long seed) {
+    if ((latency_ns < 0) || (bandwidth <= 0) || (queue_depth < 1)
+        || (jitter < 0) || (jitter >= 1)) {
+      throw new IllegalArgumentException("Invalid device parameters");
+    }
+    this.latency_ns = latency_ns;
+    this.bandwidth = bandwidth;
+    this.queue_depth = queue_depth;
+    this.jitter = jitter;
+    this.seed = seed;
+    reset();
+  }
+
+  /**
+   * Constructs a device like a hard disk: 8 ms seeks, 150 MB/s, and one
+   * request at a time.
+   */
+  public static SimulatedDevice disk() {
+    return new SimulatedDevice(8000000, 150000000, 1, 0, 0);
+  }
+
+  /**
+   * Constructs a device like a flash drive: 80 us accesses, 500 MB/s, and up
+   * to 32 requests at a time.
+   */
+  public static SimulatedDevice flash() {
+    return new SimulatedDevice(80000, 500000000, 32, 0, 0);
+  }
+
+  /**
+   * Accounts for a request of the calling thread, advancing its virtual time
+   * to the request's completion.
+   *
+   * @param pos position of the request's first byte
+   * @param length number of bytes transferred
+   * @param write whether the request is a write; both cost the same
+   * @return the virtual time of completion
+   */
+  public synchronized long access(long pos, int length, boolean write) {
+
+    // start when both the thread and a queue slot are free
+    long[] now = thread_time.get();
+    if (now[1] != epoch) {
+      now[0] = 0;
+      now[1] = epoch;
+    }
+    int slot = 0;
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] < slots[slot]) {
+        slot = i;
+      }
+    }
+    long start = Math.max(now[0], slots[slot]);
+
+    // pay the access latency, then wait for the transfer path
+    double scale = 1;
+    if (jitter > 0) {
+      scale += jitter * (2 * random.nextDouble() - 1);
+    }
+    long ready = start;
+    if (pos != head) {
+      ready += (long) (latency_ns * scale);
+      seek_cnt++;
+    }
+    long begin = Math.max(ready, transfer_free);
+    long end = begin + (long) (length * 1e9 / bandwidth * scale);
+
+    // the slot, the transfer path and the thread are busy until the end
+    transfer_free = end;
+    slots[slot] = end;
+    now[0] = end;
+    clock = Math.max(clock, end);
+    head = pos + length;
+    request_cnt++;
+    byte_cnt += length;
+    return end;
+
+  } // public synchronized long access(long pos, int length, boolean write)
+
+  /**
+   * Gets the device's virtual clock, i.e. the latest completion so far (in
+   * nanoseconds).
+   */
+  public synchronized long getTime() {
+    return clock;
+  }
+
+  /**
+   * Gets the number of requests so far.
+   */
+  public synchronized int getRequestCount() {
+    return request_cnt;
+  }
+
+  /**
+   * Gets the number of requests that paid the access latency.
+   */
+  public synchronized int getSeekCount() {
+    return seek_cnt;
+  }
+
+  /**
+   * Gets the number of bytes transferred so far.
+   */
+  public synchronized long getByteCount() {
+    return byte_cnt;
+  }
+
+  /**
+   * Makes the device idle at time zero again, with the jitter's generator
+   * reseeded.  Threads' virtual times restart at zero with their next
+   * request.
+   */
+  public synchronized void reset() {
+    random = new Random(seed);
+    slots = new long[queue_depth];
+    transfer_free = 0;
+    head = -1;
+    clock = 0;
+    request_cnt = 0;
+    seek_cnt = 0;
+    byte_cnt = 0;
+    epoch++;
+  }
+
+  /**
+   * Describes the virtual time and counts so far.
+   */
+  public String toString() {
+    return String.format("%.3f ms, %d requests, %d seeks", clock / 1e6,
+        request_cnt, seek_cnt);
+  }
+
+} // public class SimulatedDevice
@@ -2,6 +2,7 @@ package global;
 
 import bufmgr.BufMgr;
 import diskmgr.DiskMgr;
+import logmgr.LogMgr;
 
 /**
  * Definitions for the running Minibase system, including references to static
@@ -18,6 +19,9 @@ public class Minibase {
   /** The Minibase Buffer Manager. */
   public static BufMgr BufferManager;
 
+  /** The Minibase Log Manager; null if the database is not logged. */
+  public static LogMgr LogManager;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -32,7 +36,24 @@ public class Minibase {
       boolean exists) {
 
     // simply initialize the database
-    init(dbname, num_pgs, bufpoolsize, exists);
+    init(dbname, num_pgs, bufpoolsize, exists, false);
+
+  } // constructor
+
+  /**
+   * Constructs and starts an instance of Minibase, given the configuration.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param logged If changes are logged, and recovered when opening
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, boolean logged) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, exists, logged);
 
   } // constructor
 
@@ -43,9 +64,10 @@ public class Minibase {
    * @param num_pgs Number of pages to allocate
    * @param bufpoolsize Buffer pool size (in pages)
    * @param exists If the database already exists on disk
+   * @param logged If changes are logged, and recovered when opening
    */
   public void init(String dbname, int num_pgs, int bufpoolsize,
-      boolean exists) {
+      boolean exists, boolean logged) {
 
     // save the file name
     DatabaseName = dbname;
@@ -54,6 +76,7 @@ public class Minibase {
     try {
       DiskManager = new DiskMgr();
       BufferManager = new BufMgr(bufpoolsize);
+      LogManager = logged ? new LogMgr() : null;
     } catch (Exception exc) {
       haltSystem(exc);
     }
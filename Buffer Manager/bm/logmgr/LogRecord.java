@@ -0,0 +1,196 @@
+package logmgr;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * One record of the write-ahead log.  On disk, each record is framed by its
+ * payload length and a CRC32 of the payload, so a record torn by a crash is
+ * recognized as the end of the log.
+ */
+class LogRecord {
+
+  /** A transaction started. */
+  public static final byte BEGIN = 1;
+
+  /** A transaction changed a range of bytes on a page. */
+  public static final byte UPDATE = 2;
+
+  /** A transaction committed. */
+  public static final byte COMMIT = 3;
+
+  /** A transaction started rolling back. */
+  public static final byte ABORT = 4;
+
+  /** Compensation: an UPDATE was undone. */
+  public static final byte CLR = 5;
+
+  /** A transaction is finished; it needs no further recovery. */
+  public static final byte END = 6;
+
+  /** Checkpoint; all pages were on disk, lists the active transactions. */
+  public static final byte CHECKPOINT = 7;
+
+  /** Size of the length and checksum framing each record (in bytes). */
+  public static final int FRAME_SIZE = 8;
+
+  /** Size of the type, transaction and previous LSN fields (in bytes). */
+  protected static final int HEADER_SIZE = 1 + 8 + 8;
+
+  // --------------------------------------------------------------------------
+
+  /** The record's log sequence number, i.e. its offset in the log. */
+  public long lsn;
+
+  /** The record type. */
+  public byte type;
+
+  /** Id of the owning transaction; 0 if none. */
+  public long txn;
+
+  /** LSN of the transaction's previous record; 0 if none. */
+  public long prev_lsn;
+
+  /** UPDATE and CLR: id of the changed page. */
+  public int pid;
+
+  /** UPDATE and CLR: offset of the changed range on the page. */
+  public int offset;
+
+  /** UPDATE: the range's bytes before the change. */
+  public byte[] before;
+
+  /** UPDATE and CLR: the range's bytes after the change. */
+  public byte[] after;
+
+  /** CLR: LSN of the next record of the transaction to undo. */
+  public long undo_next;
+
+  /** CHECKPOINT: active transaction ids and their last LSNs, pairwise. */
+  public long[] active;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a record with the given header values.
+   */
+  public LogRecord(byte type, long txn, long prev_lsn) {
+    this.type = type;
+    this.txn = txn;
+    this.prev_lsn = prev_lsn;
+  }
+
+  /**
+   * Gets the total length of the record on disk, including the framing.
+   */
+  public int getLength() {
+    int length = FRAME_SIZE + HEADER_SIZE;
+    switch (type) {
+      case UPDATE:
+        length += 8 + 2 * after.length;
+        break;
+      case CLR:
+        length += 8 + after.length + 8;
+        break;
+      case CHECKPOINT:
+        length += 4 + 8 * active.length;
+        break;
+      default:
+        break;
+    }
+    return length;
+  }
+
+  /**
+   * Writes the framed record into the given buffer at its current position.
+   */
+  public void writeData(ByteBuffer buf) {
+
+    // leave room for the length, then write the payload
+    int start = buf.position();
+    int length = getLength() - FRAME_SIZE;
+    buf.putInt(length);
+    buf.put(type);
+    buf.putLong(txn);
+    buf.putLong(prev_lsn);
+    switch (type) {
+      case UPDATE:
+        buf.putInt(pid);
+        buf.putShort((short) offset);
+        buf.putShort((short) after.length);
+        buf.put(before);
+        buf.put(after);
+        break;
+      case CLR:
+        buf.putInt(pid);
+        buf.putShort((short) offset);
+        buf.putShort((short) after.length);
+        buf.put(after);
+        buf.putLong(undo_next);
+        break;
+      case CHECKPOINT:
+        buf.putInt(active.length);
+        for (int i = 0; i < active.length; i++) {
+          buf.putLong(active[i]);
+        }
+        break;
+      default:
+        break;
+    }
+
+    // append the checksum of the payload
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), buf.arrayOffset() + start + 4, length);
+    buf.putInt((int) crc.getValue());
+
+  } // public void writeData(ByteBuffer buf)
+
+  /**
+   * Reads a framed record from the given buffer, which holds the whole frame.
+   * 
+   * @return the record, or null if its checksum doesn't match
+   */
+  public static LogRecord readData(ByteBuffer buf, long lsn) {
+
+    // verify the checksum before trusting any field
+    int start = buf.position();
+    int length = buf.getInt();
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), buf.arrayOffset() + start + 4, length);
+    if (buf.getInt(start + 4 + length) != (int) crc.getValue()) {
+      return null;
+    }
+
+    // decode the header and the body
+    LogRecord rec = new LogRecord(buf.get(), buf.getLong(), buf.getLong());
+    rec.lsn = lsn;
+    switch (rec.type) {
+      case LogRecord.UPDATE:
+        rec.pid = buf.getInt();
+        rec.offset = buf.getShort();
+        rec.before = new byte[buf.getShort()];
+        rec.after = new byte[rec.before.length];
+        buf.get(rec.before);
+        buf.get(rec.after);
+        break;
+      case LogRecord.CLR:
+        rec.pid = buf.getInt();
+        rec.offset = buf.getShort();
+        rec.after = new byte[buf.getShort()];
+        buf.get(rec.after);
+        rec.undo_next = buf.getLong();
+        break;
+      case LogRecord.CHECKPOINT:
+        rec.active = new long[buf.getInt()];
+        for (int i = 0; i < rec.active.length; i++) {
+          rec.active[i] = buf.getLong();
+        }
+        break;
+      default:
+        break;
+    }
+    return rec;
+
+  } // public static LogRecord readData(ByteBuffer buf, long lsn)
+
+} // class LogRecord
@@ -0,0 +1,94 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import diskmgr.IOEngine;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares random page reads done one at a time with the same reads kept
+ * in flight by the asynchronous I/O engine at several queue depths.
+ */
+class AsyncIOBench implements GlobalConst {
+
+  /** OS file name of the benchmark's database. */
+  private static final String DB_PATH = System.getProperty("user.name")
+      + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 8192;
+
+  /** Number of random reads per measurement. */
+  private static final int NUM_READS = 20000;
+
+  /** Queue depths to compare. */
+  private static final int[] DEPTHS = { 1, 4, 16, 64 };
+
+  /**
+   * Benchmark entry point; prints one line per queue depth.
+   */
+  public static void main(String argv[]) {
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(16);
+    Minibase.DiskManager.createDB(DB_PATH, NUM_PAGES);
+    Page page = new Page();
+    for (int i = 0; i < NUM_PAGES; i++) {
+      Minibase.DiskManager.write_page(new PageId(i), page);
+    }
+
+    System.out.println("\nRunning asynchronous I/O benchmark (" + NUM_READS
+        + " random reads of " + NUM_PAGES + " pages)...");
+
+    // one read at a time
+    Random random = new Random(42);
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_READS; i++) {
+      Minibase.DiskManager.read_page(new PageId(random.nextInt(NUM_PAGES)),
+          page);
+    }
+    report("blocking", System.nanoTime() - start);
+
+    // many reads in flight; the engine blocks submitters at the queue depth
+    for (int depth : DEPTHS) {
+      IOEngine engine = new IOEngine(Minibase.DiskManager, Math.min(depth, 16),
+          depth);
+      Page[] pages = new Page[depth];
+      CompletableFuture<?>[] pending = new CompletableFuture<?>[depth];
+      for (int i = 0; i < depth; i++) {
+        pages[i] = new Page();
+      }
+      random = new Random(42);
+      start = System.nanoTime();
+      for (int i = 0; i < NUM_READS; i++) {
+        int k = i % depth;
+        if (pending[k] != null) {
+          pending[k].join();
+        }
+        pending[k] = engine.submitRead(new PageId(random.nextInt(NUM_PAGES)),
+            pages[k]);
+      }
+      engine.drain();
+      report("async, depth " + depth, System.nanoTime() - start);
+      engine.shutdown();
+    }
+
+    Minibase.DiskManager.destroyDB();
+
+  } // public static void main(String argv[])
+
+  /**
+   * Prints the throughput of one measurement.
+   */
+  private static void report(String label, long elapsed) {
+    System.out.printf("  %-16s %9.0f reads/sec%n", label,
+        NUM_READS * 1e9 / elapsed);
+  }
+
+} // class AsyncIOBench implements GlobalConst
@@ -0,0 +1,79 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures the cost of page checksums and double writes on the disk
+ * manager's page reads and writes.
+ */
+class ChecksumBench implements GlobalConst {
+
+  /** OS file name of the benchmark's database. */
+  private static final String DB_PATH = System.getProperty("user.name")
+      + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 4096;
+
+  /** Number of passes over the pages per measurement. */
+  private static final int NUM_PASSES = 5;
+
+  /**
+   * Benchmark entry point; prints one line per integrity setting.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\nRunning checksum benchmark (" + NUM_PAGES
+        + " pages, " + NUM_PASSES + " passes)...");
+    run("plain", false, false);
+    run("checksums", true, false);
+    run("checksums + double writes", true, true);
+
+  } // public static void main(String argv[])
+
+  /**
+   * Writes and reads every page of a new database with the given integrity
+   * features, and prints the throughput of each.
+   */
+  private static void run(String label, boolean checksums,
+      boolean double_write) {
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(16);
+    Minibase.DiskManager.setIntegrity(checksums, double_write);
+    Minibase.DiskManager.createDB(DB_PATH, NUM_PAGES);
+
+    Page page = new Page();
+    PageId pageno = new PageId();
+    long start = System.nanoTime();
+    for (int pass = 0; pass < NUM_PASSES; pass++) {
+      for (int i = 0; i < NUM_PAGES; i++) {
+        pageno.pid = i;
+        page.getData()[i % PAGE_SIZE] = (byte) pass;
+        Minibase.DiskManager.write_page(pageno, page);
+      }
+    }
+    long writes = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int pass = 0; pass < NUM_PASSES; pass++) {
+      for (int i = 0; i < NUM_PAGES; i++) {
+        pageno.pid = i;
+        Minibase.DiskManager.read_page(pageno, page);
+      }
+    }
+    long reads = System.nanoTime() - start;
+
+    double count = (double) NUM_PAGES * NUM_PASSES;
+    System.out.printf("  %-26s %9.0f writes/sec %9.0f reads/sec%n", label,
+        count * 1e9 / writes, count * 1e9 / reads);
+    Minibase.DiskManager.destroyDB();
+
+  } // private static void run(String, boolean, boolean)
+
+} // class ChecksumBench implements GlobalConst
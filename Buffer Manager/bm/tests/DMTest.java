@@ -1,9 +1,34 @@
 package tests;
 
+import bufmgr.BufMgr;
+import diskmgr.Compactor;
+import diskmgr.DiskMgr;
+import diskmgr.FileIOStats;
+import diskmgr.IOEngine;
+import diskmgr.IOScheduler;
+import diskmgr.LatencyHistogram;
+import diskmgr.LatencyStats;
+import diskmgr.SimulatedDevice;
 import global.Convert;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Test suite for the diskmgr layer.
@@ -32,6 +57,20 @@ class DMTest extends TestDriver {
     status &= dbt.test2();
     status &= dbt.test3();
     status &= dbt.test4();
+    status &= dbt.test5();
+    status &= dbt.test6();
+    status &= dbt.test7();
+    status &= dbt.test8();
+    status &= dbt.test9();
+    status &= dbt.test10();
+    status &= dbt.test11();
+    status &= dbt.test12();
+    status &= dbt.test13();
+    status &= dbt.test14();
+    status &= dbt.test15();
+    status &= dbt.test16();
+    status &= dbt.test17();
+    status &= dbt.test18();
 
     // display the final results
     System.out.println();
@@ -673,4 +712,1872 @@ class DMTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Writes pages past the 2 GB boundary of a sparse database file.
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5 writes pages past the 2 GB boundary of a "
+        + "sparse file:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the large one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String largePath = DB_PATH + ".large";
+    int numPages = (int) ((1L << 31) / PAGE_SIZE) + 1024;
+    PageId farId = new PageId(numPages - 10);
+    long farOffset = (long) farId.pid * PAGE_SIZE;
+
+    System.out.print("  - Create a database of " + numPages + " pages\n");
+    try {
+      new Minibase(largePath, numPages, BUF_SIZE, false);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Could not create the large database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Write and read back page " + farId.pid + "\n");
+      try {
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setStringValue("FAR" + farId.pid, 0, data);
+        Minibase.DiskManager.write_page(farId, new Page(data));
+        Page pg = new Page();
+        Minibase.DiskManager.read_page(farId, pg);
+        String readStr = Convert.getStringValue(0, pg.getData(), 16);
+        if (!readStr.equals("FAR" + farId.pid)) {
+          status = FAIL;
+          System.err.print("*** Read " + readStr + " from page " + farId.pid
+              + "\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error accessing page " + farId.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Check the bytes landed at offset " + farOffset
+          + "\n");
+      try {
+        RandomAccessFile raf = new RandomAccessFile(largePath, "r");
+        byte[] data = new byte[PAGE_SIZE];
+        raf.seek(farOffset);
+        raf.readFully(data);
+        long length = raf.length();
+        raf.close();
+        String readStr = Convert.getStringValue(0, data, 16);
+        if (!readStr.equals("FAR" + farId.pid)
+            || length != (long) numPages * PAGE_SIZE) {
+          status = FAIL;
+          System.err.print("*** Found " + readStr + " in a file of " + length
+              + " bytes\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error reading the raw file\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free a run at the end of the space "
+          + "map\n");
+      try {
+        Minibase.DiskManager.deallocate_page(new PageId(numPages - 2), 2);
+
+        // only page 0 and the space map pages are allocated
+        int mapPages = (numPages + PAGE_SIZE * 8 - 1) / (PAGE_SIZE * 8);
+        int allocs = Minibase.DiskManager.getAllocCount();
+        if (allocs != 1 + mapPages) {
+          status = FAIL;
+          System.err.print("*** Found " + allocs + " pages allocated, not "
+              + (1 + mapPages) + "\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Did not work.\n");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the large file and restore the main database
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      new File(largePath).delete();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 5 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test5()
+
+  /**
+   * Creates a database striped across three files, and reopens it.
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 stripes a database across several files:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the striped one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String[] fnames = new String[] { DB_PATH + ".s0", DB_PATH + ".s1",
+        DB_PATH + ".s2" };
+    int numPages = 1000;
+
+    System.out.print("  - Create a database of " + numPages
+        + " pages on 3 files\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fnames, numPages);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Could not create the striped database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Write something on pages 200 to 399\n");
+      for (int i = 200; i < 400 && status == PASS; ++i) {
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setStringValue("S" + i, 0, data);
+        try {
+          Minibase.DiskManager.write_page(new PageId(i), new Page(data));
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error writing to page " + i + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Check the files' sizes and where page 200 "
+          + "landed\n");
+      try {
+        // 64-page stripes: 1000 = 5 rounds of 3 * 64 pages plus 40 pages,
+        // and page 200 is the 9th page of the second stripe on file 0
+        long[] expected = { 360L * PAGE_SIZE, 320L * PAGE_SIZE,
+            320L * PAGE_SIZE };
+        for (int i = 0; i < fnames.length; i++) {
+          if (new File(fnames[i]).length() != expected[i]) {
+            status = FAIL;
+            System.err.print("*** File " + fnames[i] + " has the wrong size\n");
+          }
+        }
+        RandomAccessFile raf = new RandomAccessFile(fnames[0], "r");
+        byte[] data = new byte[PAGE_SIZE];
+        raf.seek((64L + 8) * PAGE_SIZE);
+        raf.readFully(data);
+        raf.close();
+        if (!Convert.getStringValue(0, data, 8).equals("S200")) {
+          status = FAIL;
+          System.err.print("*** Page 200 is not where expected\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error reading the raw files\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Reopen the database from its first file and "
+          + "read the pages back\n");
+      try {
+        Minibase.DiskManager.add_file_entry("StripedFile", new PageId(200));
+        Minibase.DiskManager.closeDB();
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.openDB(fnames[0]);
+        Page pg = new Page();
+        for (int i = 200; i < 400 && status == PASS; ++i) {
+          Minibase.DiskManager.read_page(new PageId(i), pg);
+          String readStr = Convert.getStringValue(0, pg.getData(), 8);
+          if (!readStr.equals("S" + i)) {
+            status = FAIL;
+            System.err.print("*** Read " + readStr + " from page " + i + "\n");
+          }
+        }
+        Minibase.DiskManager.read_page(new PageId(numPages - 1), pg);
+        PageId entry = Minibase.DiskManager.get_file_entry("STRIPEDFILE");
+        if ((entry == null) || (entry.pid != 200)) {
+          status = FAIL;
+          System.err.print("*** The file library was not reloaded\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error reopening the striped database\n");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the striped files and restore the main database
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    for (int i = 0; i < fnames.length; i++) {
+      if (new File(fnames[i]).exists()) {
+        status = FAIL;
+        System.err.print("*** File " + fnames[i] + " was not removed\n");
+        new File(fnames[i]).delete();
+      }
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 6 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test6()
+
+  /**
+   * Changes a page through the buffer pool and logs it, on behalf of the
+   * calling thread's transaction.
+   */
+  private void setLogged(PageId pageno, String value) {
+    Page pg = new Page();
+    Minibase.BufferManager.pinPage(pageno, pg, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(pg);
+    Convert.setStringValue(value, 0, pg.getData());
+    LogMgr.logChange(pageno, before, pg);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+  }
+
+  /**
+   * Reads the string at the start of a page, straight from the disk.
+   */
+  private String readString(PageId pageno) {
+    Page pg = new Page();
+    Minibase.DiskManager.read_page(pageno, pg);
+    return Convert.getStringValue(0, pg.getData(), 8);
+  }
+
+  /**
+   * Crashes a logged database with changes in flight, and recovers it.
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 recovers a logged database after a crash:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the logged one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".wal";
+    PageId pageA = null;
+    PageId pageB = null;
+
+    System.out.print("  - Create a logged database, and commit two pages\n");
+    try {
+      Minibase.LogManager = new LogMgr();
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 100);
+      long txn = Minibase.LogManager.begin();
+      pageA = Minibase.DiskManager.allocate_page();
+      pageB = Minibase.DiskManager.allocate_page();
+      setLogged(pageA, "A0");
+      setLogged(pageB, "B0");
+      Minibase.LogManager.commit(txn);
+      Minibase.LogManager.checkpoint();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Could not set up the logged database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Commit a change that stays in the buffer pool, "
+          + "and write an uncommitted one\n");
+      try {
+        long txn = Minibase.LogManager.begin();
+        setLogged(pageA, "A1");
+        Minibase.LogManager.commit(txn);
+
+        txn = Minibase.LogManager.begin();
+        setLogged(pageB, "B2");
+        Page pg = new Page();
+        Minibase.BufferManager.pinPage(pageB, pg, PIN_DISKIO);
+        Minibase.DiskManager.write_page(pageB, pg);
+        Minibase.BufferManager.unpinPage(pageB, UNPIN_CLEAN);
+
+        if (!readString(pageA).equals("A0") || !readString(pageB).equals("B2")) {
+          status = FAIL;
+          System.err.print("*** The pages on disk are not as expected\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error changing the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Crash, then reopen and check the recovered pages\n");
+      try {
+        // abandon the buffer pool and the transaction without closing
+        Minibase.LogManager = new LogMgr();
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.openDB(fname);
+        if (!readString(pageA).equals("A1")) {
+          status = FAIL;
+          System.err.print("*** The committed change was lost\n");
+        }
+        if (!readString(pageB).equals("B0")) {
+          status = FAIL;
+          System.err.print("*** The uncommitted change was not undone\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error recovering the database\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Abort a change\n");
+      try {
+        long txn = Minibase.LogManager.begin();
+        setLogged(pageA, "A3");
+        Minibase.LogManager.abort(txn);
+        Minibase.BufferManager.flushAllFrames();
+        if (!readString(pageA).equals("A1")) {
+          status = FAIL;
+          System.err.print("*** The aborted change was not undone\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error aborting a change\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Abort adding and deleting file entries\n");
+      try {
+        Minibase.DiskManager.add_file_entry("kept", pageB);
+        long txn = Minibase.LogManager.begin();
+        Minibase.DiskManager.add_file_entry("aborted", pageA);
+        Minibase.DiskManager.delete_file_entry("kept");
+        Minibase.LogManager.abort(txn);
+        if ((Minibase.DiskManager.get_file_entry("aborted") != null)
+            || (Minibase.DiskManager.get_file_entry("kept") == null)) {
+          status = FAIL;
+          System.err.print("*** The file library was not rolled back\n");
+        }
+        Minibase.DiskManager.add_file_entry("aborted", pageA);
+        Minibase.DiskManager.delete_file_entry("kept");
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error aborting file entries\n");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the logged database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    if (new File(fname + ".log").exists()) {
+      status = FAIL;
+      System.err.print("*** The log was not removed\n");
+      new File(fname + ".log").delete();
+    }
+    Minibase.LogManager = null;
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 7 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Detects a corrupt page by its checksum, and repairs a torn page from the
+   * double-write file.
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 checks page checksums and double writes:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the checksummed one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".crc";
+    int slotSize = PAGE_SIZE + 8;
+    PageId pageno = null;
+
+    System.out.print("  - Create a database with checksums and double "
+        + "writes\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.setIntegrity(true, true);
+      Minibase.DiskManager.createDB(fname, 200);
+      pageno = Minibase.DiskManager.allocate_page();
+      Minibase.BufferManager.flushAllFrames();
+      byte[] data = new byte[PAGE_SIZE];
+      Convert.setStringValue("C1", 0, data);
+      Minibase.DiskManager.write_page(pageno, new Page(data));
+      if (!readString(pageno).equals("C1")) {
+        status = FAIL;
+        System.err.print("*** The page did not read back\n");
+      }
+      if (new File(fname).length() != 200L * slotSize) {
+        status = FAIL;
+        System.err.print("*** The file is not sized for page trailers\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Could not set up the checksummed database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Flip a bit on disk, and read the page\n");
+      try {
+        RandomAccessFile raf = new RandomAccessFile(fname, "rw");
+        long pos = (long) pageno.pid * slotSize + 100;
+        raf.seek(pos);
+        int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0x10);
+        raf.close();
+        readString(pageno);
+        status = FAIL;
+        System.err.print("*** The corrupt page was read without error\n");
+      } catch (IllegalStateException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error corrupting the page\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Tear a write, crash, and reopen\n");
+      try {
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setStringValue("C2", 0, data);
+        Minibase.DiskManager.write_page(pageno, new Page(data));
+
+        // the first half of the page made it to disk, the rest is old
+        RandomAccessFile raf = new RandomAccessFile(fname, "rw");
+        raf.seek((long) pageno.pid * slotSize + PAGE_SIZE / 2);
+        raf.write(new byte[PAGE_SIZE / 2 + 8]);
+        raf.seek((long) pageno.pid * slotSize + PAGE_SIZE / 2);
+        raf.write(0xEE);
+        raf.close();
+
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.openDB(fname);
+        if (Minibase.DiskManager.getRepairCount() != 1) {
+          status = FAIL;
+          System.err.print("*** Repaired "
+              + Minibase.DiskManager.getRepairCount() + " pages, not 1\n");
+        }
+        if (!readString(pageno).equals("C2")) {
+          status = FAIL;
+          System.err.print("*** The torn page was not repaired\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error repairing the torn page\n");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the checksummed database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    if (new File(fname + ".dw").exists()) {
+      status = FAIL;
+      System.err.print("*** The double-write file was not removed\n");
+      new File(fname + ".dw").delete();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 8 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test8()
+
+  /**
+   * Writes and reads pages asynchronously, with completion callbacks.
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 does asynchronous I/O:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".aio";
+    int numPages = 200;
+
+    System.out.print("  - Write " + numPages + " pages with a queue depth "
+        + "of 8\n");
+    IOEngine engine = null;
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, numPages + 100);
+      engine = new IOEngine(Minibase.DiskManager, 4, 8);
+      CompletableFuture<?>[] writes = new CompletableFuture<?>[numPages];
+      for (int i = 0; i < numPages; i++) {
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setStringValue("Q" + i, 0, data);
+        writes[i] = engine.submitWrite(new PageId(100 + i), new Page(data));
+        if (engine.getInFlight() > 8) {
+          status = FAIL;
+          System.err.print("*** More than 8 requests in flight\n");
+        }
+      }
+      CompletableFuture.allOf(writes).join();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error writing the pages");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read them back, checking each in a callback\n");
+      try {
+        final AtomicInteger good = new AtomicInteger();
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[numPages];
+        for (int i = 0; i < numPages; i++) {
+          final String expected = "Q" + i;
+          reads[i] = engine.submitRead(new PageId(100 + i), new Page())
+              .thenAccept(pg -> {
+                if (Convert.getStringValue(0, pg.getData(), 8)
+                    .equals(expected)) {
+                  good.incrementAndGet();
+                }
+              });
+        }
+        CompletableFuture.allOf(reads).join();
+        if (good.get() != numPages) {
+          status = FAIL;
+          System.err.print("*** Only " + good.get() + " pages read back\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading the pages");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read an invalid page\n");
+      try {
+        engine.submitRead(new PageId(numPages + 100), new Page()).join();
+        status = FAIL;
+        System.err.print("*** The invalid read completed normally\n");
+      } catch (CompletionException exc) {
+        if (exc.getCause() instanceof IllegalArgumentException) {
+          System.out.println("  --> Failed as expected \n");
+        } else {
+          status = FAIL;
+          exc.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Flush two runs of dirty pages, through the disk "
+          + "manager's engine\n");
+      try {
+        Minibase.BufferManager.flushAllFrames();
+        int[] pids = new int[] { 100, 101, 102, 110, 111 };
+        Page page = new Page();
+        for (int pid : pids) {
+          Minibase.BufferManager.pinPage(new PageId(pid), page, PIN_DISKIO);
+          Convert.setStringValue("F" + pid, 0, page.getData());
+          Minibase.BufferManager.unpinPage(new PageId(pid), UNPIN_DIRTY);
+        }
+        int calls = Minibase.DiskManager.getWriteCallCount();
+        Minibase.BufferManager.flushAllFrames();
+        if (Minibase.DiskManager.getWriteCallCount() - calls != 2) {
+          status = FAIL;
+          System.err.print("*** The runs weren't written with one call "
+              + "each\n");
+        }
+        for (int pid : pids) {
+          Page read = new Page();
+          Minibase.DiskManager.read_page(new PageId(pid), read);
+          if (!Convert.getStringValue(0, read.getData(), 8)
+              .equals("F" + pid)) {
+            status = FAIL;
+            System.err.print("*** Page " + pid + " wasn't written\n");
+          }
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error flushing the pages");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      if (engine != null) {
+        engine.shutdown();
+      }
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 9 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test9()
+
+  /**
+   * Reads and writes runs of pages at once, on a striped and checksummed
+   * database.
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 reads and writes runs of pages:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String[] fnames = new String[] { DB_PATH + ".v0", DB_PATH + ".v1" };
+    int numPages = 100;
+    PageId first = new PageId(10);
+
+    System.out.print("  - Write pages 10 to 109 with one call\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.setIntegrity(true, false);
+      Minibase.DiskManager.createDB(fnames, 300);
+      Minibase.BufferManager.flushAllFrames();
+      Page[] pages = new Page[numPages];
+      for (int i = 0; i < numPages; i++) {
+        pages[i] = new Page();
+        Convert.setStringValue("V" + (first.pid + i), 0, pages[i].getData());
+      }
+      int writes = Minibase.DiskManager.getWriteCount();
+      int calls = Minibase.DiskManager.getWriteCallCount();
+      Minibase.DiskManager.write_pages(first, numPages, pages);
+
+      // 64-page stripes: the run is split between the two files
+      if ((Minibase.DiskManager.getWriteCount() - writes != numPages)
+          || (Minibase.DiskManager.getWriteCallCount() - calls != 2)) {
+        status = FAIL;
+        System.err.print("*** Expected " + numPages + " pages in 2 calls\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error writing the run");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read them back with one call, and one by one\n");
+      try {
+        Page[] pages = new Page[numPages];
+        for (int i = 0; i < numPages; i++) {
+          pages[i] = new Page();
+        }
+        int reads = Minibase.DiskManager.getReadCount();
+        int calls = Minibase.DiskManager.getReadCallCount();
+        Minibase.DiskManager.read_pages(first, numPages, pages);
+        if ((Minibase.DiskManager.getReadCount() - reads != numPages)
+            || (Minibase.DiskManager.getReadCallCount() - calls != 2)) {
+          status = FAIL;
+          System.err.print("*** Expected " + numPages + " pages in 2 calls\n");
+        }
+        for (int i = 0; i < numPages && status == PASS; i++) {
+          String expected = "V" + (first.pid + i);
+          String runStr = Convert.getStringValue(0, pages[i].getData(), 8);
+          String oneStr = readString(new PageId(first.pid + i));
+          if (!runStr.equals(expected) || !oneStr.equals(expected)) {
+            status = FAIL;
+            System.err.print("*** Read " + runStr + " and " + oneStr
+                + ", not " + expected + "\n");
+          }
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading the run");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read a run past the end of the database\n");
+      try {
+        Minibase.DiskManager.read_pages(new PageId(250), 51,
+            new Page[51]);
+        status = FAIL;
+        System.err.print("*** The invalid run was read\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 10 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test10()
+
+  /**
+   * Reads and writes a checksummed database with direct I/O, whose page slots
+   * straddle the file system's blocks, then reopens it without.
+   */
+  protected boolean test11() {
+
+    System.out.print("\n  Test 11 bypasses the OS page cache:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".direct";
+    int numPages = 200;
+
+    System.out.print("  - Create a database with direct I/O, and write pages "
+        + "one by one and in a run\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.setIntegrity(true, false);
+      Minibase.DiskManager.setDirectIO(true);
+      Minibase.DiskManager.createDB(fname, 300);
+      System.out.print("    (direct I/O is "
+          + (Minibase.DiskManager.isDirectIO() ? "on" : "not supported here")
+          + ")\n");
+      Page[] pages = new Page[numPages];
+      for (int i = 0; i < numPages; i++) {
+        pages[i] = new Page();
+        Convert.setStringValue("D" + (100 + i), 0, pages[i].getData());
+      }
+      for (int i = 0; i < numPages; i += 2) {
+        Minibase.DiskManager.write_page(new PageId(100 + i), pages[i]);
+      }
+      Page[] odd = new Page[numPages];
+      for (int i = 0; i < numPages; i++) {
+        odd[i] = (i % 2 == 1) ? pages[i] : new Page();
+        if (i % 2 == 0) {
+          Minibase.DiskManager.read_page(new PageId(100 + i), odd[i]);
+        }
+      }
+      Minibase.DiskManager.write_pages(new PageId(100), numPages, odd);
+      Minibase.DiskManager.closeDB();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error writing with direct I/O");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Reopen it without direct I/O, and read the "
+          + "pages back\n");
+      try {
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.openDB(fname);
+        for (int i = 0; i < numPages && status == PASS; i++) {
+          String expected = "D" + (100 + i);
+          String str = readString(new PageId(100 + i));
+          if (!str.equals(expected)) {
+            status = FAIL;
+            System.err.print("*** Read " + str + ", not " + expected + "\n");
+          }
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading without direct I/O");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 11 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test11()
+
+  /**
+   * Checks the latency histograms, the I/O charged to each file, and the
+   * database's JMX view.
+   */
+  protected boolean test12() {
+
+    System.out.print("\n  Test 12 accounts for I/O by operation and file:\n");
+
+    boolean status = PASS;
+
+    System.out.print("  - Record latencies of 1 to 10000 ns in a histogram\n");
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    long p50 = histogram.getPercentile(50);
+    long p99 = histogram.getPercentile(99);
+    if ((histogram.getCount() != 10000) || (histogram.getMax() != 10000)
+        || (p50 < 5000) || (p50 > 5000 + 5000 / 32)
+        || (p99 < 9900) || (p99 > 9900 + 9900 / 32)) {
+      status = FAIL;
+      System.err.print("*** Wrong histogram: count " + histogram.getCount()
+          + ", p50 " + p50 + ", p99 " + p99 + "\n");
+    }
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".stats";
+
+    if (status == PASS) {
+      System.out.print("  - Allocate and write pages on behalf of two files, "
+          + "then write them again outside either\n");
+      try {
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.createDB(fname, 300);
+        Minibase.DiskManager.resetIOStats();
+        Page page = new Page();
+        String prev = DiskMgr.enterFile("orders");
+        PageId orders = Minibase.DiskManager.allocate_page(10);
+        String outer = DiskMgr.enterFile("parts");
+        PageId parts = Minibase.DiskManager.allocate_page(5);
+        DiskMgr.exitFile(outer);
+        DiskMgr.exitFile(prev);
+        for (int i = 0; i < 10; i++) {
+          Minibase.DiskManager.write_page(new PageId(orders.pid + i), page);
+        }
+        for (int i = 0; i < 5; i++) {
+          Minibase.DiskManager.read_page(new PageId(parts.pid + i), page);
+        }
+        Minibase.DiskManager.write_page(new PageId(290), page);
+
+        long[][] expected = { { 0, 1 }, { 0, 10 }, { 5, 0 } };
+        String[] names = { DiskMgr.NO_FILE, "orders", "parts" };
+        List<FileIOStats> files = Minibase.DiskManager.getFileIO();
+        if (files.size() != names.length) {
+          status = FAIL;
+          System.err.print("*** Wrong files: " + files + "\n");
+        }
+        for (int i = 0; i < files.size() && status == PASS; i++) {
+          FileIOStats file = files.get(i);
+          if (!file.getFile().equals(names[i])
+              || (file.getReads() != expected[i][0])
+              || (file.getWrites() != expected[i][1])) {
+            status = FAIL;
+            System.err.print("*** Wrong I/O charged: " + file + "\n");
+          }
+        }
+
+        for (LatencyStats op : Minibase.DiskManager.getLatencies()) {
+          if (op.getOperation().equals("write_page")
+              && ((op.getCount() != 11) || (op.getP50() > op.getMax()))) {
+            status = FAIL;
+            System.err.print("*** Wrong latencies: " + op + "\n");
+          }
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error charging I/O to files");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read the counts over JMX, and close the database\n");
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("minibase:type=DiskMgr,name="
+            + ObjectName.quote(fname));
+        Object writes = server.getAttribute(name, "WriteCount");
+        if (!writes.equals(Minibase.DiskManager.getWriteCount())
+            || (server.getAttribute(name, "FileIO") == null)) {
+          status = FAIL;
+          System.err.print("*** Wrong JMX write count " + writes + "\n");
+        }
+        Minibase.DiskManager.closeDB();
+        if (server.isRegistered(name)) {
+          status = FAIL;
+          System.err.print("*** The closed database is still registered\n");
+        }
+        Minibase.DiskManager.openDB(fname);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading the counts over JMX");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 12 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test12()
+
+  /**
+   * Checks when each durability mode syncs the database files, and that
+   * concurrent syncs all return.
+   */
+  protected boolean test13() {
+
+    System.out.print("\n  Test 13 syncs the database in each durability "
+        + "mode:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".sync";
+
+    System.out.print("  - Write with periodic syncs, then stay idle\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.setDurability(DiskMgr.DURABILITY_PERIODIC, 10);
+      Minibase.DiskManager.createDB(fname, 300);
+      Page page = new Page();
+      for (int i = 0; i < 100; i++) {
+        Minibase.DiskManager.write_page(new PageId(100 + i), page);
+      }
+      long deadline = System.currentTimeMillis() + 5000;
+      while ((Minibase.DiskManager.getSyncCount() == 0)
+          && (System.currentTimeMillis() < deadline)) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(50);
+      int syncs = Minibase.DiskManager.getSyncCount();
+      Thread.sleep(100);
+      if ((syncs == 0) || (Minibase.DiskManager.getSyncCount() != syncs)) {
+        status = FAIL;
+        System.err.print("*** Expected syncs after the writes only\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error syncing periodically");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Sync from 8 threads at once\n");
+      try {
+        Minibase.DiskManager.setDurability(DiskMgr.DURABILITY_NONE, 10);
+        int syncs = Minibase.DiskManager.getSyncCount();
+        Thread[] threads = new Thread[8];
+        final AtomicInteger done = new AtomicInteger();
+        for (int t = 0; t < threads.length; t++) {
+          final PageId pageno = new PageId(100 + t);
+          threads[t] = new Thread() {
+            public void run() {
+              Page page = new Page();
+              for (int i = 0; i < 50; i++) {
+                Minibase.DiskManager.write_page(pageno, page);
+                Minibase.DiskManager.sync();
+                done.incrementAndGet();
+              }
+            }
+          };
+          threads[t].start();
+        }
+        for (Thread thread : threads) {
+          thread.join();
+        }
+        syncs = Minibase.DiskManager.getSyncCount() - syncs;
+        System.out.print("    (" + done.get() + " syncs asked for, " + syncs
+            + " done)\n");
+        if ((done.get() != 400) || (syncs < 1) || (syncs > 400)) {
+          status = FAIL;
+          System.err.print("*** Wrong number of syncs\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error syncing from several threads");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Close without syncing, then with syncing\n");
+      try {
+        int syncs = Minibase.DiskManager.getSyncCount();
+        Minibase.DiskManager.closeDB();
+        if (Minibase.DiskManager.getSyncCount() != syncs) {
+          status = FAIL;
+          System.err.print("*** Synced with durability off\n");
+        }
+        Minibase.DiskManager.setDurability(DiskMgr.DURABILITY_CHECKPOINT, 10);
+        Minibase.DiskManager.openDB(fname);
+        Minibase.DiskManager.write_page(new PageId(100), new Page());
+        Minibase.DiskManager.closeDB();
+        if (Minibase.DiskManager.getSyncCount() != syncs + 1) {
+          status = FAIL;
+          System.err.print("*** Expected one sync on close\n");
+        }
+        Minibase.DiskManager.openDB(fname);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error closing the database");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Choose an invalid durability mode\n");
+      try {
+        Minibase.DiskManager.setDurability(7, 10);
+        status = FAIL;
+        System.err.print("*** The invalid mode was accepted\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 13 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test13()
+
+  /**
+   * Moves library pages down into freed space, truncates the database file,
+   * and compacts again in the background.
+   */
+  protected boolean test14() {
+
+    System.out.print("\n  Test 14 compacts the database:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".compact";
+    Compactor compactor = new Compactor();
+    int num_entries = 60;
+
+    System.out.print("  - Grow the file library past a run of pages, then "
+        + "free the run\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 2000);
+      PageId run = Minibase.DiskManager.allocate_page(1000);
+      for (int i = 0; i < num_entries; i++) {
+        Minibase.DiskManager.add_file_entry("file" + i, new PageId(i));
+      }
+      Minibase.DiskManager.deallocate_page(run, 1000);
+      if (Minibase.DiskManager.getHighWaterMark() <= run.pid + 1000) {
+        status = FAIL;
+        System.err.print("*** Expected library pages past the run\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error setting up the database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Compact with the last library page pinned, "
+          + "then unpinned\n");
+      try {
+        PageId last = new PageId(
+            Minibase.DiskManager.getHighWaterMark() - 1);
+        Page page = new Page();
+        Minibase.BufferManager.pinPage(last, page, PIN_DISKIO);
+        int moved = compactor.compact();
+        Minibase.BufferManager.unpinPage(last, UNPIN_CLEAN);
+        if ((moved < 1) || (compactor.getSkippedCount() != 1)
+            || (Minibase.DiskManager.getHighWaterMark() != last.pid + 1)) {
+          status = FAIL;
+          System.err.print("*** Expected the pinned page to stay\n");
+        }
+        moved += compactor.compact();
+        int high = Minibase.DiskManager.getHighWaterMark();
+        System.out.print("    (" + moved + " pages moved, "
+            + compactor.getReleased() + " bytes released)\n");
+        if ((high > 10) || (Minibase.DiskManager.getFileSize()
+            != (long) high * PAGE_SIZE)) {
+          status = FAIL;
+          System.err.print("*** The file was not compacted\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error compacting the database");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Reopen it, and check the file library and a page "
+          + "past the end\n");
+      try {
+        Minibase.DiskManager.closeDB();
+        Minibase.DiskManager.openDB(fname);
+        for (int i = 0; i < num_entries; i++) {
+          PageId pageno = Minibase.DiskManager.get_file_entry("file" + i);
+          if ((pageno == null) || (pageno.pid != i)) {
+            status = FAIL;
+            System.err.print("*** Lost file entry " + i + "\n");
+            break;
+          }
+        }
+        Page page = new Page();
+        page.getData()[0] = 1;
+        Minibase.DiskManager.read_page(new PageId(1500), page);
+        if (page.getData()[0] != 0) {
+          status = FAIL;
+          System.err.print("*** Expected zeros past the end of the file\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reopening the database");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free more space, and compact in the "
+          + "background while a file is in use\n");
+      try {
+        for (int i = 0; i < 20; i++) {
+          Minibase.DiskManager.delete_file_entry("file" + i);
+        }
+        PageId run = Minibase.DiskManager.allocate_page(500);
+        for (int i = 0; i < 40; i++) {
+          Minibase.DiskManager.add_file_entry("more" + i, new PageId(i));
+        }
+        Minibase.DiskManager.deallocate_page(run, 500);
+        String prev = DiskMgr.enterFile("file20");
+        try {
+          compactor.compact();
+          status = FAIL;
+          System.err.print("*** Compacted from within a file operation\n");
+        } catch (IllegalStateException exc) {
+          System.out.println("  --> Failed as expected \n");
+        }
+        DiskMgr.exitFile(prev);
+        compactor.start(1000);
+        int ops = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!compactor.isDone()
+            && (System.currentTimeMillis() < deadline)) {
+          prev = DiskMgr.enterFile("file20");
+          try {
+            Minibase.DiskManager.add_file_entry("busy", new PageId(3));
+            Minibase.DiskManager.delete_file_entry("busy");
+            ops++;
+          } finally {
+            DiskMgr.exitFile(prev);
+          }
+          Thread.sleep(1);
+        }
+        if (ops == 0) {
+          status = FAIL;
+          System.err.print("*** No file operation ran during compaction\n");
+        }
+        compactor.stop();
+        if (!compactor.isDone() || (compactor.getError() != null)
+            || (Minibase.DiskManager.getHighWaterMark() > 10)
+            || (Minibase.DiskManager.get_file_entry("more39") == null)) {
+          status = FAIL;
+          System.err.print("*** The background compaction failed\n");
+        }
+        Minibase.DiskManager.add_file_entry("last", new PageId(7));
+        Minibase.DiskManager.delete_file_entry("file20");
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error compacting in the background");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 14 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test14()
+
+  /**
+   * Keeps a database in memory instead of an OS file.
+   */
+  protected boolean test15() {
+
+    System.out.print("\n  Test 15 keeps a database in memory:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DiskMgr.MEMORY_PREFIX + DB_PATH;
+
+    System.out.print("  - Create it, and write pages across chunks\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 5000);
+      if (new File(fname).exists()) {
+        status = FAIL;
+        System.err.print("*** Expected no OS file\n");
+      }
+      Page page = new Page();
+      for (int pid = 10; pid < 5000; pid += 997) {
+        Convert.setIntValue(pid, 0, page.getData());
+        Minibase.DiskManager.write_page(new PageId(pid), page);
+      }
+      if (Minibase.DiskManager.getFileSize() != 4996 * PAGE_SIZE) {
+        status = FAIL;
+        System.err.print("*** Expected the store to end at the last page "
+            + "written\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error creating the database");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Close and reopen it by name, and read the pages "
+          + "back\n");
+      try {
+        Minibase.DiskManager.closeDB();
+        Minibase.DiskManager.openDB(fname);
+        Page page = new Page();
+        for (int pid = 10; pid < 5000; pid += 997) {
+          Minibase.DiskManager.read_page(new PageId(pid), page);
+          if (Convert.getIntValue(0, page.getData()) != pid) {
+            status = FAIL;
+            System.err.print("*** Lost the contents of page " + pid + "\n");
+            break;
+          }
+        }
+        page.getData()[0] = 1;
+        Minibase.DiskManager.read_page(new PageId(4999), page);
+        if (page.getData()[0] != 0) {
+          status = FAIL;
+          System.err.print("*** Expected zeros past the end of the store\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reopening the database");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Truncate it to the high-water mark\n");
+      try {
+        long released = Minibase.DiskManager.truncate();
+        int high = Minibase.DiskManager.getHighWaterMark();
+        if ((released <= 0)
+            || (Minibase.DiskManager.getFileSize() != high * PAGE_SIZE)) {
+          status = FAIL;
+          System.err.print("*** Expected the store to shrink to "
+              + high + " pages\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error truncating the database");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Destroy it, then try to open it again\n");
+      try {
+        Minibase.DiskManager.destroyDB();
+        Minibase.DiskManager.openDB(fname);
+        status = FAIL;
+        System.err.print("*** Expected the store to be gone\n");
+      } catch (IllegalStateException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error destroying the database");
+        e.printStackTrace();
+      }
+    }
+
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 15 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test15()
+
+  /**
+   * Accounts for the I/O on a simulated device.
+   */
+  protected boolean test16() {
+
+    System.out.print("\n  Test 16 accounts for I/O on a simulated device:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DiskMgr.MEMORY_PREFIX + DB_PATH + ".sim";
+    Page[] pages = new Page[10];
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = new Page();
+    }
+
+    System.out.print("  - Write a run of pages, then read them one by one "
+        + "backwards\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 100);
+
+      // 1 ms per seek, and 1 ms per page
+      SimulatedDevice device = new SimulatedDevice(1000000,
+          PAGE_SIZE * 1000, 1, 0, 0);
+      Minibase.DiskManager.setDevice(device);
+      Minibase.DiskManager.write_pages(new PageId(10), 10, pages);
+      if ((device.getTime() != 11000000) || (device.getSeekCount() != 1)) {
+        status = FAIL;
+        System.err.print("*** Expected one seek and ten pages, not "
+            + device + "\n");
+      }
+      for (int pid = 19; pid >= 10; pid--) {
+        Minibase.DiskManager.read_page(new PageId(pid), pages[0]);
+      }
+      if ((device.getTime() != 31000000) || (device.getSeekCount() != 11)
+          || (device.getRequestCount() != 11)) {
+        status = FAIL;
+        System.err.print("*** Expected a seek per page, not " + device
+            + "\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error using the simulated device");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read from several threads, with and without "
+          + "room in the queue\n");
+      try {
+        long[] times = new long[2];
+        for (int depth = 1; depth <= 2; depth++) {
+          final SimulatedDevice device = new SimulatedDevice(1000000,
+              PAGE_SIZE * 1000, depth, 0, 0);
+          Minibase.DiskManager.setDevice(device);
+          Thread[] threads = new Thread[2];
+          for (int t = 0; t < threads.length; t++) {
+            final int first = 10 + t * 20;
+            threads[t] = new Thread() {
+              public void run() {
+                Page page = new Page();
+                for (int i = 0; i < 5; i++) {
+                  Minibase.DiskManager.read_page(
+                      new PageId(first + 2 * ((i * 2) % 5)), page);
+                }
+              }
+            };
+            threads[t].start();
+          }
+          for (Thread thread : threads) {
+            thread.join();
+          }
+          times[depth - 1] = device.getTime();
+        }
+
+        // no page follows another, so each read seeks; with one slot, the
+        // seeks of the two threads can't overlap
+        if ((times[0] != 20000000) || (times[1] >= times[0])) {
+          status = FAIL;
+          System.err.print("*** Expected 20 ms, then less; got "
+              + times[0] / 1e6 + " ms and " + times[1] / 1e6 + " ms\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading from several threads");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Repeat a run with jitter, and get the same "
+          + "time\n");
+      try {
+        long[] times = new long[2];
+        for (int run = 0; run < times.length; run++) {
+          SimulatedDevice device = new SimulatedDevice(1000000,
+              PAGE_SIZE * 1000, 4, 0.5, 42);
+          Minibase.DiskManager.setDevice(device);
+          for (int i = 0; i < 20; i++) {
+            Minibase.DiskManager.read_page(new PageId(10 + (i * 7) % 10),
+                pages[0]);
+          }
+          times[run] = device.getTime();
+        }
+        if ((times[0] != times[1]) || (times[0] == 40000000)) {
+          status = FAIL;
+          System.err.print("*** Expected the same jittered time, got "
+              + times[0] + " and " + times[1] + "\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error repeating the run");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 16 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test16()
+
+  /**
+   * Reorders and merges queued page requests.
+   */
+  protected boolean test17() {
+
+    System.out.print("\n  Test 17 schedules queued page requests:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DiskMgr.MEMORY_PREFIX + DB_PATH + ".sched";
+    IOScheduler sched = null;
+
+    System.out.print("  - Queue writes of 32 pages in random order, then "
+        + "read them back the same way\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 200);
+      sched = new IOScheduler(Minibase.DiskManager, 16, 1000, 1000, 4);
+      SimulatedDevice device = new SimulatedDevice(1000000, PAGE_SIZE * 1000,
+          1, 0, 0);
+      Minibase.DiskManager.setDevice(device);
+      ArrayList<Integer> order = new ArrayList<Integer>();
+      for (int i = 0; i < 32; i++) {
+        order.add(100 + i);
+      }
+      Collections.shuffle(order, new Random(17));
+
+      // while paused, the whole burst queues up
+      sched.pause();
+      CompletableFuture<?>[] writes = new CompletableFuture<?>[32];
+      for (int i = 0; i < 32; i++) {
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setIntValue(order.get(i), 0, data);
+        writes[i] = sched.submitWrite(new PageId(order.get(i)),
+            new Page(data));
+      }
+      sched.resume();
+      CompletableFuture.allOf(writes).join();
+      if ((sched.getIOCount() != 2) || (device.getSeekCount() != 1)) {
+        status = FAIL;
+        System.err.print("*** Expected two merged writes and a seek, got "
+            + sched.getIOCount() + " I/Os and " + device + "\n");
+      }
+
+      sched.pause();
+      final AtomicInteger good = new AtomicInteger();
+      CompletableFuture<?>[] reads = new CompletableFuture<?>[32];
+      for (int i = 0; i < 32; i++) {
+        final int pid = order.get(i);
+        reads[i] = sched.submitRead(new PageId(pid), new Page())
+            .thenAccept(pg -> {
+              if (Convert.getIntValue(0, pg.getData()) == pid) {
+                good.incrementAndGet();
+              }
+            });
+      }
+      sched.resume();
+      CompletableFuture.allOf(reads).join();
+      if ((good.get() != 32) || (sched.getIOCount() != 4)) {
+        status = FAIL;
+        System.err.print("*** Expected 32 pages in two reads, got "
+            + good.get() + " pages in " + (sched.getIOCount() - 2)
+            + " reads\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error scheduling the burst");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Queue reads and a write, and check writes are "
+          + "not starved\n");
+      try {
+        final ArrayList<Integer> done = new ArrayList<Integer>();
+        sched.pause();
+        CompletableFuture<?> write = sched.submitWrite(new PageId(150),
+            new Page()).thenRun(() -> {
+              synchronized (done) {
+                done.add(150);
+              }
+            });
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[8];
+        for (int i = 0; i < reads.length; i++) {
+          final int pid = 100 + 2 * i;
+          reads[i] = sched.submitRead(new PageId(pid), new Page())
+              .thenRun(() -> {
+                synchronized (done) {
+                  done.add(pid);
+                }
+              });
+        }
+        sched.resume();
+        CompletableFuture.allOf(reads).join();
+        write.join();
+
+        // four reads in a row, then the waiting write
+        if (done.indexOf(150) != 4) {
+          status = FAIL;
+          System.err.print("*** Expected the write after four reads: "
+              + done + "\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error mixing reads and writes");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read a page with a queued write, and an invalid "
+          + "page\n");
+      try {
+        sched.pause();
+        byte[] data = new byte[PAGE_SIZE];
+        Convert.setIntValue(4242, 0, data);
+        CompletableFuture<Page> write = sched.submitWrite(new PageId(160),
+            new Page(data));
+        Page page = sched.submitRead(new PageId(160), new Page()).join();
+        if (Convert.getIntValue(0, page.getData()) != 4242) {
+          status = FAIL;
+          System.err.print("*** Expected the queued write's contents\n");
+        }
+        sched.resume();
+        write.join();
+        sched.submitRead(new PageId(200), new Page()).join();
+        status = FAIL;
+        System.err.print("*** The invalid read completed normally\n");
+      } catch (CompletionException exc) {
+        if (exc.getCause() instanceof IllegalArgumentException) {
+          System.out.println("  --> Failed as expected \n");
+        } else {
+          status = FAIL;
+          exc.printStackTrace();
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reading a queued page");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      if (sched != null) {
+        sched.shutdown();
+      }
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 17 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test17()
+
+  /**
+   * Looks up, adds and deletes file entries through the cached library.
+   */
+  protected boolean test18() {
+
+    System.out.print("\n  Test 18 caches the file library:\n");
+
+    boolean status = PASS;
+
+    // keep the main database aside while the test one is in use
+    DiskMgr savedDisk = Minibase.DiskManager;
+    BufMgr savedBuf = Minibase.BufferManager;
+    String fname = DB_PATH + ".lib";
+    int numFiles = 60;
+
+    System.out.print("  - Add " + numFiles + " file entries, over several "
+        + "library pages\n");
+    try {
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE);
+      Minibase.DiskManager.createDB(fname, 200);
+      int allocs = Minibase.DiskManager.getAllocCount();
+      for (int i = 0; i < numFiles; i++) {
+        Minibase.DiskManager.add_file_entry("file" + i, new PageId(100 + i));
+      }
+      if (Minibase.DiskManager.getAllocCount() == allocs) {
+        status = FAIL;
+        System.err.print("*** No library page was added\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error adding the file entries");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Look them up in any case, and some missing "
+          + "ones, with an empty buffer pool\n");
+      try {
+        Minibase.BufferManager.flushAllFrames();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        int reads = Minibase.DiskManager.getReadCount();
+        for (int i = 0; i < numFiles; i++) {
+          PageId pid = Minibase.DiskManager.get_file_entry("FILE" + i);
+          if ((pid == null) || (pid.pid != 100 + i)) {
+            status = FAIL;
+            System.err.print("*** FILE" + i + " wasn't found\n");
+          }
+        }
+        if ((Minibase.DiskManager.get_file_entry("file" + numFiles) != null)
+            || (Minibase.DiskManager.get_file_entry("nofile") != null)) {
+          status = FAIL;
+          System.err.print("*** A missing file was found\n");
+        }
+        if (Minibase.DiskManager.getReadCount() != reads) {
+          status = FAIL;
+          System.err.print("*** The lookups read the library pages\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error looking up the file entries");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Look one up under a Turkish default locale\n");
+      Locale locale = Locale.getDefault();
+      try {
+        Locale.setDefault(new Locale("tr", "TR"));
+        PageId pid = Minibase.DiskManager.get_file_entry("FILE1");
+        if ((pid == null) || (pid.pid != 101)) {
+          status = FAIL;
+          System.err.print("*** FILE1 wasn't found\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error looking up the file entry");
+        e.printStackTrace();
+      } finally {
+        Locale.setDefault(locale);
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Delete three entries, and add three new ones in "
+          + "their slots\n");
+      try {
+        Minibase.DiskManager.delete_file_entry("file5");
+        Minibase.DiskManager.delete_file_entry("File17");
+        Minibase.DiskManager.delete_file_entry("file40");
+        int allocs = Minibase.DiskManager.getAllocCount();
+        for (int i = 0; i < 3; i++) {
+          Minibase.DiskManager.add_file_entry("new" + i, new PageId(10 + i));
+        }
+        if (Minibase.DiskManager.getAllocCount() != allocs) {
+          status = FAIL;
+          System.err.print("*** The freed slots weren't reused\n");
+        }
+        if ((Minibase.DiskManager.get_file_entry("file5") != null)
+            || (Minibase.DiskManager.get_file_entry("file17") != null)
+            || (Minibase.DiskManager.get_file_entry("new2").pid != 12)) {
+          status = FAIL;
+          System.err.print("*** The deletes or adds weren't seen\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reusing the slots");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Delete an entry twice\n");
+      try {
+        Minibase.DiskManager.delete_file_entry("file5");
+        status = FAIL;
+        System.err.print("*** The second delete succeeded\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Reopen the database, and check the library\n");
+      try {
+        Minibase.BufferManager.flushAllFrames();
+        Minibase.DiskManager.closeDB();
+        Minibase.DiskManager = new DiskMgr();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE);
+        Minibase.DiskManager.openDB(fname);
+        if ((Minibase.DiskManager.get_file_entry("file40") != null)
+            || (Minibase.DiskManager.get_file_entry("NEW1").pid != 11)
+            || (Minibase.DiskManager.get_file_entry("file59").pid != 159)) {
+          status = FAIL;
+          System.err.print("*** The library wasn't read back\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.println("*** Error reopening the database");
+        e.printStackTrace();
+      }
+    }
+
+    // drop the test database and restore the main one
+    try {
+      Minibase.DiskManager.destroyDB();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    Minibase.DiskManager = savedDisk;
+    Minibase.BufferManager = savedBuf;
+
+    if (status == PASS) {
+      System.out.print("  Test 18 completed successfully.\n");
+    }
+
+    return status;
+
+  } // protected boolean test18()
+
 } // class DMTest extends TestDriver
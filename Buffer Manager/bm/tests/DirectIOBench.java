@@ -0,0 +1,77 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares the disk manager's page reads and writes through the OS page
+ * cache with the same I/O done directly, one page at a time and in runs.
+ */
+class DirectIOBench implements GlobalConst {
+
+  /** OS file name of the benchmark's database. */
+  private static final String DB_PATH = System.getProperty("user.name")
+      + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 8192;
+
+  /** Run length of the vectored measurements. */
+  private static final int RUN = 32;
+
+  /**
+   * Benchmark entry point; prints one line per I/O mode.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\nRunning direct I/O benchmark (" + NUM_PAGES
+        + " pages)...");
+    run("buffered", false, 1);
+    run("buffered, runs of " + RUN, false, RUN);
+    run("direct", true, 1);
+    run("direct, runs of " + RUN, true, RUN);
+
+  } // public static void main(String argv[])
+
+  /**
+   * Writes and reads every page of a new database, and prints the throughput
+   * of each.
+   */
+  private static void run(String label, boolean direct, int run) {
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(16);
+    Minibase.DiskManager.setDirectIO(direct);
+    Minibase.DiskManager.createDB(DB_PATH, NUM_PAGES);
+    if (direct && !Minibase.DiskManager.isDirectIO()) {
+      label += " (not supported)";
+    }
+
+    Page[] pages = new Page[run];
+    for (int i = 0; i < run; i++) {
+      pages[i] = new Page();
+    }
+    PageId first = new PageId();
+    long start = System.nanoTime();
+    for (first.pid = 0; first.pid < NUM_PAGES; first.pid += run) {
+      Minibase.DiskManager.write_pages(first, run, pages);
+    }
+    long writes = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (first.pid = 0; first.pid < NUM_PAGES; first.pid += run) {
+      Minibase.DiskManager.read_pages(first, run, pages);
+    }
+    long reads = System.nanoTime() - start;
+
+    System.out.printf("  %-28s %9.0f writes/sec %9.0f reads/sec%n", label,
+        NUM_PAGES * 1e9 / writes, NUM_PAGES * 1e9 / reads);
+    Minibase.DiskManager.destroyDB();
+
+  } // private static void run(String, boolean, int)
+
+} // class DirectIOBench implements GlobalConst
@@ -0,0 +1,101 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Random;
+
+/**
+ * Measures page write throughput of several threads in each durability
+ * mode, and with a sync after every write (where concurrent syncs merge).
+ */
+class DurabilityBench implements GlobalConst {
+
+  /** OS file name of the benchmark's database. */
+  private static final String DB_PATH = System.getProperty("user.name")
+      + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 8192;
+
+  /** Number of writing threads. */
+  private static final int NUM_THREADS = 8;
+
+  /** Number of random page writes each thread does. */
+  private static final int NUM_WRITES = 2000;
+
+  /** Number of writes between checkpoints, in the checkpoint mode. */
+  private static final int CHECKPOINT_WRITES = 1000;
+
+  /**
+   * Benchmark entry point; prints one line per mode.
+   */
+  public static void main(String argv[]) throws InterruptedException {
+
+    System.out.println("\nRunning durability benchmark (" + NUM_THREADS
+        + " threads, " + NUM_WRITES + " writes each)...");
+    run("none", DiskMgr.DURABILITY_NONE, false);
+    run("periodic, every 10 ms", DiskMgr.DURABILITY_PERIODIC, false);
+    run("checkpoint, every " + CHECKPOINT_WRITES + " writes",
+        DiskMgr.DURABILITY_CHECKPOINT, false);
+    run("sync after every write", DiskMgr.DURABILITY_NONE, true);
+
+  } // public static void main(String argv[])
+
+  /**
+   * Writes random pages of a new database from several threads in the given
+   * mode, and prints the throughput and number of syncs.
+   */
+  private static void run(String label, final int mode, final boolean each)
+      throws InterruptedException {
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(16);
+    Minibase.DiskManager.setDurability(mode, 10);
+    Minibase.DiskManager.createDB(DB_PATH, NUM_PAGES);
+    final int syncs = Minibase.DiskManager.getSyncCount();
+
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int seed = t;
+      threads[t] = new Thread() {
+        public void run() {
+          Random random = new Random(seed);
+          Page page = new Page();
+          PageId pageno = new PageId();
+          for (int i = 1; i <= NUM_WRITES; i++) {
+            pageno.pid = random.nextInt(NUM_PAGES);
+            Minibase.DiskManager.write_page(pageno, page);
+            if (each) {
+              Minibase.DiskManager.sync();
+            } else if ((mode == DiskMgr.DURABILITY_CHECKPOINT) && (seed == 0)
+                && (i * NUM_THREADS % CHECKPOINT_WRITES == 0)) {
+              Minibase.DiskManager.checkpoint();
+            }
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Minibase.DiskManager.checkpoint();
+    long elapsed = System.nanoTime() - start;
+
+    int writes = NUM_THREADS * NUM_WRITES;
+    System.out.printf("  %-32s %9.0f writes/sec %6d syncs%n", label,
+        writes * 1e9 / elapsed, Minibase.DiskManager.getSyncCount() - syncs);
+    Minibase.DiskManager.destroyDB();
+
+  } // private static void run(String, int, boolean)
+
+} // class DurabilityBench implements GlobalConst
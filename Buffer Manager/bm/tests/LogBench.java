@@ -0,0 +1,76 @@
+package tests;
+
+import global.GlobalConst;
+import global.PageId;
+import logmgr.LogMgr;
+
+/**
+ * Measures commit throughput of the log manager for several group commit
+ * windows, with a number of threads committing small transactions at once.
+ */
+class LogBench implements GlobalConst {
+
+  /** OS file name of the benchmark's log. */
+  private static final String LOG_PATH = System.getProperty("user.name")
+      + ".bench.log";
+
+  /** Number of committing threads. */
+  private static final int NUM_THREADS = 16;
+
+  /** Number of transactions each thread commits. */
+  private static final int NUM_COMMITS = 100;
+
+  /** Group commit windows to compare (in milliseconds). */
+  private static final int[] WINDOWS = { 0, 1, 2, 4 };
+
+  /**
+   * Benchmark entry point; prints one line per group commit window.
+   */
+  public static void main(String argv[]) throws InterruptedException {
+
+    System.out.println("\nRunning log manager benchmark ("
+        + NUM_THREADS + " threads, " + NUM_COMMITS + " commits each)...");
+    for (int window : WINDOWS) {
+
+      final LogMgr log = new LogMgr(window);
+      log.createLog(LOG_PATH);
+
+      // each thread updates its own page, so undo never overlaps
+      Thread[] threads = new Thread[NUM_THREADS];
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final PageId pageno = new PageId(t + 1);
+        threads[t] = new Thread() {
+          public void run() {
+            byte[] before = new byte[PAGE_SIZE];
+            byte[] after = new byte[PAGE_SIZE];
+            for (int i = 0; i < NUM_COMMITS; i++) {
+              after[i % 64] = (byte) i;
+              long txn = log.begin();
+              log.logUpdate(pageno, before, after);
+              log.commit(txn);
+              before[i % 64] = (byte) i;
+            }
+          }
+        };
+      }
+
+      long start = System.nanoTime();
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      long elapsed = System.nanoTime() - start;
+
+      int commits = NUM_THREADS * NUM_COMMITS;
+      System.out.printf("  window %d ms: %8.0f commits/sec, %5d fsyncs "
+          + "(%.1f commits per fsync)%n", window, commits * 1e9 / elapsed,
+          log.getSyncCount(), (double) commits / log.getSyncCount());
+      log.destroyLog();
+
+    } // for
+
+  } // public static void main(String argv[])
+
+} // class LogBench implements GlobalConst
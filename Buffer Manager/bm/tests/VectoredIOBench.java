@@ -0,0 +1,83 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares sequential page reads and writes done one page per call with
+ * runs of pages moved by read_pages and write_pages.
+ */
+class VectoredIOBench implements GlobalConst {
+
+  /** OS file name of the benchmark's database. */
+  private static final String DB_PATH = System.getProperty("user.name")
+      + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 8192;
+
+  /** Number of passes over the pages per measurement. */
+  private static final int NUM_PASSES = 5;
+
+  /** Run lengths to compare; 1 means single-page calls. */
+  private static final int[] RUNS = { 1, 8, 32, 64 };
+
+  /**
+   * Benchmark entry point; prints one line per run length.
+   */
+  public static void main(String argv[]) {
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(16);
+    Minibase.DiskManager.createDB(DB_PATH, NUM_PAGES);
+    System.out.println("\nRunning vectored I/O benchmark (" + NUM_PAGES
+        + " pages, " + NUM_PASSES + " passes)...");
+
+    for (int run : RUNS) {
+      Page[] pages = new Page[run];
+      for (int i = 0; i < run; i++) {
+        pages[i] = new Page();
+      }
+      PageId first = new PageId();
+
+      int calls = Minibase.DiskManager.getWriteCallCount();
+      long start = System.nanoTime();
+      for (int pass = 0; pass < NUM_PASSES; pass++) {
+        for (first.pid = 0; first.pid < NUM_PAGES; first.pid += run) {
+          if (run == 1) {
+            Minibase.DiskManager.write_page(first, pages[0]);
+          } else {
+            Minibase.DiskManager.write_pages(first, run, pages);
+          }
+        }
+      }
+      long writes = System.nanoTime() - start;
+      calls = Minibase.DiskManager.getWriteCallCount() - calls;
+
+      start = System.nanoTime();
+      for (int pass = 0; pass < NUM_PASSES; pass++) {
+        for (first.pid = 0; first.pid < NUM_PAGES; first.pid += run) {
+          if (run == 1) {
+            Minibase.DiskManager.read_page(first, pages[0]);
+          } else {
+            Minibase.DiskManager.read_pages(first, run, pages);
+          }
+        }
+      }
+      long reads = System.nanoTime() - start;
+
+      double count = (double) NUM_PAGES * NUM_PASSES;
+      System.out.printf("  run of %2d: %9.0f writes/sec %9.0f reads/sec "
+          + "(%d write calls)%n", run, count * 1e9 / writes,
+          count * 1e9 / reads, calls);
+    }
+
+    Minibase.DiskManager.destroyDB();
+
+  } // public static void main(String argv[])
+
+} // class VectoredIOBench implements GlobalConst
@@ -0,0 +1,505 @@
+package diskmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import logmgr.LogMgr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h3>Minibase Database Compactor</h3>
+ * Reclaims the space of pages freed in the database while it stays open:
+ * moves the last movable pages into the first free ones, one at a time, and
+ * then truncates the database's OS files past the last allocated page.
+ * <br><br>
+ * The compactor moves pages of the file library itself; the pages of files
+ * are moved through a relocator for each file format (see FileRelocator).
+ * Pages of files no relocator knows, the first page of each file and pages
+ * pinned by anyone else are left in place.  Each move is an atomic action,
+ * so a crash leaves a page either where it was or where it went.
+ * <br><br>
+ * Compaction runs while the database is in use, one step (i.e. one move) at
+ * a time: each step waits for the file operations in progress to end, and
+ * file operations starting during a step wait for it (see
+ * DiskMgr.enterFile).  The database is scanned again before a step whenever
+ * file operations ended since the last scan.  Open scans keep their current
+ * pages pinned, which a step leaves in place, so they can go on; a
+ * ParallelScan reads the ids of its pages when opened, so it must not be
+ * open while compacting.  Other code using the buffer manager must keep off
+ * it during a step, since the buffer manager is not thread-safe.
+ */
+public class Compactor implements GlobalConst {
+
+  /** Type of the file library's pages, which the compactor moves itself. */
+  protected static final int LIBRARY_PAGE = -1;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * A movable page found by a scan.
+   */
+  protected static class Movable {
+
+    /** Relocator of the page's file; null for a library page. */
+    public FileRelocator relocator;
+
+    /** Type of the page, as its relocator reported it. */
+    public int type;
+
+    /**
+     * Constructs a Movable from the given values.
+     */
+    public Movable(FileRelocator relocator, int type) {
+      this.relocator = relocator;
+      this.type = type;
+    }
+
+  } // protected static class Movable
+
+  // --------------------------------------------------------------------------
+
+  /** Relocators for the file formats to compact. */
+  protected FileRelocator[] relocators;
+
+  /** Movable pages found by the last scan, by id; null if a scan is due. */
+  protected TreeMap<Integer, Movable> pages;
+
+  /** References to the movable pages, as (referrer, kind, slot), by id. */
+  protected HashMap<Integer, ArrayList<int[]>> links;
+
+  /** New ids of the pages moved since the last scan, by old id. */
+  protected HashMap<Integer, Integer> moved;
+
+  /** Version of the space map the last scan saw (see DiskMgr). */
+  protected int version;
+
+  /** Number of file operations ended before the last scan (see DiskMgr). */
+  protected long epoch;
+
+  /** Number of pages moved. */
+  protected int moved_cnt;
+
+  /** Number of moves skipped because a page was pinned or changed. */
+  protected int skipped_cnt;
+
+  /** Number of bytes given back to the OS. */
+  protected long released;
+
+  /** Thread compacting in the background, if any. */
+  protected ScheduledExecutorService worker;
+
+  /** Whether the background compaction has finished. */
+  protected volatile boolean done = true;
+
+  /** Error that stopped the background compaction, if any. */
+  protected volatile RuntimeException error;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a compactor for files in the given formats.
+   */
+  public Compactor(FileRelocator... relocators) {
+    this.relocators = relocators.clone();
+  }
+
+  /**
+   * Reports a movable page of a file; called by relocators.
+   *
+   * @param type identifies the kind of page to the relocator
+   */
+  public void addPage(PageId pageno, FileRelocator relocator, int type) {
+    pages.put(pageno.pid, new Movable(relocator, type));
+  }
+
+  /**
+   * Reports a reference to a movable page; called by relocators.
+   *
+   * @param target the page referred to
+   * @param referrer the page holding the reference
+   * @param kind identifies the reference to the relocator
+   * @param slot identifies the reference to the relocator
+   */
+  public void addLink(PageId target, PageId referrer, int kind, int slot) {
+    ArrayList<int[]> refs = links.get(target.pid);
+    if (refs == null) {
+      refs = new ArrayList<int[]>();
+      links.put(target.pid, refs);
+    }
+    refs.add(new int[] { referrer.pid, kind, slot });
+  }
+
+  /**
+   * Finds the movable pages of the database and the references to them: the
+   * file library's pages, and the pages of each file in the library whose
+   * format one of the relocators knows.
+   */
+  protected void scan() {
+
+    pages = new TreeMap<Integer, Movable>();
+    links = new HashMap<Integer, ArrayList<int[]>>();
+    moved = new HashMap<Integer, Integer>();
+
+    // each library page is referred to by the one before
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId(FIRST_PAGEID);
+    while (hpid.pid != INVALID_PAGEID) {
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+      PageId nexthpid = hpage.getNextPage();
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+      if (nexthpid.pid != INVALID_PAGEID) {
+        addPage(nexthpid, null, LIBRARY_PAGE);
+        addLink(nexthpid, hpid, 0, 0);
+      }
+      hpid = nexthpid;
+    }
+
+    // the first relocator to know a file reports its pages
+    ArrayList<PageId> heads = new ArrayList<PageId>();
+    for (LibraryEntry libentry : Minibase.DiskManager.library.values()) {
+      heads.add(new PageId(libentry.start.pid));
+    }
+    for (PageId head : heads) {
+      for (FileRelocator relocator : relocators) {
+        if (relocator.listPages(head, this)) {
+          break;
+        }
+      }
+    }
+    version = mapVersion();
+    epoch = DiskMgr.getFileEpoch();
+
+  } // protected void scan()
+
+  /**
+   * Gets the version of the disk manager's space map.
+   */
+  protected int mapVersion() {
+    synchronized (Minibase.DiskManager) {
+      return Minibase.DiskManager.map_version;
+    }
+  }
+
+  /**
+   * Moves the last movable page into the first free page, if that is lower.
+   * The database is scanned first if pages were allocated or freed, or file
+   * operations ended, since the last scan.
+   *
+   * @return false if no page is left to move
+   * @throws IllegalStateException if the calling thread is in a file
+   * operation
+   */
+  public boolean step() {
+    boolean claimed = DiskMgr.beginCompaction(this);
+    try {
+      synchronized (Minibase.BufferManager) {
+
+        if ((pages == null) || (mapVersion() != version)
+            || (DiskMgr.getFileEpoch() != epoch)) {
+          scan();
+        }
+        if (pages.isEmpty()) {
+          return false;
+        }
+        int free = Minibase.DiskManager.findPage(false, false);
+        if ((free < 0) || (free > pages.lastKey())) {
+          pages.clear();
+          return false;
+        }
+        int src = pages.lastKey();
+        move(src, pages.remove(src));
+        return true;
+
+      }
+    } finally {
+      if (claimed) {
+        DiskMgr.endCompaction(this);
+      }
+    }
+  } // public boolean step()
+
+  /**
+   * Moves the given page into the first free page, and points the references
+   * to it there.  The move is skipped if the page is pinned, or a reference
+   * to it is not where the scan found it.
+   */
+  protected void move(int src, Movable page) {
+
+    // pin the page, unless someone else has it pinned
+    PageId srcid = new PageId(src);
+    Page srcpg = new Page();
+    int unpinned = Minibase.BufferManager.getNumUnpinned();
+    Minibase.BufferManager.pinPage(srcid, srcpg, PIN_DISKIO);
+    if (Minibase.BufferManager.getNumUnpinned() == unpinned) {
+      Minibase.BufferManager.unpinPage(srcid, UNPIN_CLEAN);
+      skipped_cnt++;
+      return;
+    }
+
+    // pin the pages referring to it (where they are now), and check that
+    // they still do
+    ArrayList<int[]> refs = links.get(src);
+    if (refs == null) {
+      refs = new ArrayList<int[]>();
+    }
+    PageId[] refids = new PageId[refs.size()];
+    Page[] referrers = new Page[refs.size()];
+    boolean stale = false;
+    for (int i = 0; i < refids.length; i++) {
+      int[] ref = refs.get(i);
+      Integer to = moved.get(ref[0]);
+      refids[i] = new PageId((to != null) ? to : ref[0]);
+      referrers[i] = new Page();
+      Minibase.BufferManager.pinPage(refids[i], referrers[i], PIN_DISKIO);
+      stale |= (getLink(page, referrers[i], ref).pid != src);
+    }
+    if (stale) {
+      for (int i = 0; i < refids.length; i++) {
+        Minibase.BufferManager.unpinPage(refids[i], UNPIN_CLEAN);
+      }
+      Minibase.BufferManager.unpinPage(srcid, UNPIN_CLEAN);
+      skipped_cnt++;
+      return;
+    }
+
+    // copy the page into a new one that belongs to the same file
+    String owner;
+    synchronized (Minibase.DiskManager) {
+      owner = Minibase.DiskManager.owners.get(src);
+    }
+    String prev = DiskMgr.setCurrentFile(owner);
+    long txn = LogMgr.beginAction();
+    try {
+      Page dstpg = new Page();
+      dstpg.copyPage(srcpg);
+      PageId dstid = Minibase.BufferManager.newPage(dstpg, 1);
+      if (dstid.pid > src) {
+
+        // another thread took the free page; try again next step
+        Minibase.BufferManager.unpinPage(dstid, UNPIN_CLEAN);
+        Minibase.BufferManager.freePage(dstid);
+        for (int i = 0; i < refids.length; i++) {
+          Minibase.BufferManager.unpinPage(refids[i], UNPIN_CLEAN);
+        }
+        Minibase.BufferManager.unpinPage(srcid, UNPIN_CLEAN);
+        pages.put(src, page);
+
+      } else {
+
+        // the copy knows its new id, and its whole image is logged
+        if (page.relocator != null) {
+          page.relocator.setSelf(dstpg, page.type, dstid);
+        }
+        LogMgr.logNewPage(dstid, dstpg);
+        Minibase.BufferManager.unpinPage(dstid, UNPIN_DIRTY);
+
+        // point the references at the copy, and free the old page
+        for (int i = 0; i < refids.length; i++) {
+          setLink(page, refids[i], referrers[i], refs.get(i), dstid);
+          Minibase.BufferManager.unpinPage(refids[i], UNPIN_DIRTY);
+        }
+        Minibase.BufferManager.unpinPage(srcid, UNPIN_CLEAN);
+        Minibase.BufferManager.freePage(srcid);
+        if (page.relocator == null) {
+          moveLibraryEntries(srcid, dstid);
+        }
+        moved.put(src, dstid.pid);
+        moved_cnt++;
+
+      }
+      LogMgr.endAction(txn, true);
+      version = mapVersion();
+    } catch (RuntimeException exc) {
+      LogMgr.endAction(txn, false);
+      throw exc;
+    } finally {
+      DiskMgr.setCurrentFile(prev);
+    }
+
+  } // protected void move(int src, Movable page)
+
+  /**
+   * Gets the page id stored in a reference to a movable page.
+   */
+  protected PageId getLink(Movable page, Page referrer, int[] ref) {
+    if (page.relocator == null) {
+      return new DBHeaderPage(referrer).getNextPage();
+    }
+    return page.relocator.getLink(referrer, ref[1], ref[2]);
+  }
+
+  /**
+   * Changes a reference to a movable page to the given page id.
+   */
+  protected void setLink(Movable page, PageId refid, Page referrer,
+      int[] ref, PageId pageno) {
+    if (page.relocator == null) {
+      DBHeaderPage hpage = new DBHeaderPage(referrer);
+      byte[] before = LogMgr.snapshot(hpage);
+      hpage.setNextPage(pageno);
+      LogMgr.logChange(refid, before, hpage);
+    } else {
+      page.relocator.setLink(referrer, ref[1], ref[2], pageno);
+    }
+  }
+
+  /**
+   * Updates the disk manager's image of the file library after one of its
+   * pages moved.
+   */
+  protected void moveLibraryEntries(PageId from, PageId to) {
+    DiskMgr disk = Minibase.DiskManager;
+    for (LibraryEntry libentry : disk.library.values()) {
+      if (libentry.hpid.pid == from.pid) {
+        libentry.hpid.pid = to.pid;
+      }
+    }
+    for (LibraryEntry libentry : disk.free_slots) {
+      if (libentry.hpid.pid == from.pid) {
+        libentry.hpid.pid = to.pid;
+      }
+    }
+    if (disk.last_hpid.pid == from.pid) {
+      disk.last_hpid = new PageId(to.pid);
+    }
+  }
+
+  /**
+   * Compacts the database in the foreground: moves all movable pages as far
+   * down as they go, then truncates the database's OS files.
+   *
+   * @return the number of pages moved
+   * @throws IllegalStateException if the calling thread is in a file
+   * operation
+   */
+  public int compact() {
+    int before = moved_cnt;
+    synchronized (Minibase.BufferManager) {
+      pages = null;
+    }
+    while (step()) {
+    }
+    truncate();
+    return moved_cnt - before;
+  }
+
+  /**
+   * Truncates the database's OS files past the last allocated page, as one
+   * step.
+   */
+  protected void truncate() {
+    boolean claimed = DiskMgr.beginCompaction(this);
+    try {
+      synchronized (Minibase.BufferManager) {
+        released += Minibase.DiskManager.truncate();
+      }
+    } finally {
+      if (claimed) {
+        DiskMgr.endCompaction(this);
+      }
+    }
+  }
+
+  /**
+   * Starts compacting the database in the background, moving at most the
+   * given number of pages per second; the files are truncated when no page
+   * is left to move.  File operations go on between the steps.
+   *
+   * @throws IllegalArgumentException if the rate is not positive
+   */
+  public synchronized void start(int pages_per_sec) {
+    if (pages_per_sec < 1) {
+      throw new IllegalArgumentException("Invalid compaction rate");
+    }
+    stop();
+    synchronized (Minibase.BufferManager) {
+      pages = null;
+    }
+    done = false;
+    error = null;
+    final ScheduledExecutorService thread =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "minibase-compact");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    long period = TimeUnit.SECONDS.toNanos(1) / pages_per_sec;
+    thread.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        try {
+          if (step()) {
+            return;
+          }
+          truncate();
+        } catch (RuntimeException exc) {
+          error = exc;
+        }
+        done = true;
+        thread.shutdown();
+      }
+    }, period, period, TimeUnit.NANOSECONDS);
+    worker = thread;
+  } // public synchronized void start(int pages_per_sec)
+
+  /**
+   * Stops the background compaction, waiting for a move in progress.
+   */
+  public synchronized void stop() {
+    if (worker != null) {
+      worker.shutdown();
+      try {
+        worker.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      worker = null;
+    }
+  }
+
+  /**
+   * Tells whether the background compaction has finished (or never ran).
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Gets the error that stopped the background compaction, if any.
+   */
+  public RuntimeException getError() {
+    return error;
+  }
+
+  /**
+   * Gets the number of pages moved so far.
+   */
+  public int getMovedCount() {
+    return moved_cnt;
+  }
+
+  /**
+   * Gets the number of moves skipped so far because a page was pinned or
+   * changed.
+   */
+  public int getSkippedCount() {
+    return skipped_cnt;
+  }
+
+  /**
+   * Gets the number of bytes given back to the OS so far.
+   */
+  public long getReleased() {
+    return released;
+  }
+
+} // public class Compactor implements GlobalConst
@@ -3,6 +3,8 @@ package diskmgr;
 import global.Page;
 import global.PageId;
 
+import java.util.Arrays;
+
 /**
  * Header pages contain the space map, the file library, and
  * assorted metadata.
@@ -27,7 +29,7 @@ class DBHeaderPage extends Page {
   protected static final int DIR_PAGE_USED_BYTES = 8 + 8;
 
   /** Amount of additional bytes used by the first page. */
-  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 12;
 
   // --------------------------------------------------------------------------
 
@@ -116,6 +118,9 @@ class DBHeaderPage extends Page {
   public void setFileEntry(String fname, PageId pageNo, int entryNo) {
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
     setIntValue(pageNo.pid, position);
+
+    // names aren't terminated, so clear what's left of a longer one
+    Arrays.fill(data, position + 4, position + 4 + NAME_MAXLEN + 2, (byte) 0);
     setStringValue(fname, position + 4);
   }
 
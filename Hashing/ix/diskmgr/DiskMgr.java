@@ -4,10 +4,36 @@ import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -22,183 +48,1694 @@ import java.io.RandomAccessFile;
  * </ol>
  * The disk manager manages a library of entries consisting of the name of
  * a file and the page number of the first page in the file.
+ * <br><br>
+ * A database may be striped across several OS files, possibly on different
+ * devices.  Pages are dealt out to the files round-robin in chunks of
+ * STRIPE_UNIT pages, and each file is accessed with positional I/O so
+ * requests for pages on different files proceed in parallel.
+ * <br><br>
+ * Optionally, each page is stored with a trailer holding a checksum of its
+ * contents and its page id, which read_page verifies.  On top of that, pages
+ * may be written to a small double-write file before being written in
+ * place, so a page torn by a crash is repaired when the database is opened.
+ * <br><br>
+ * Optionally, the database files are opened for direct I/O, so pages are
+ * cached once in the buffer pool instead of again by the OS.  Direct I/O
+ * moves whole aligned blocks, so pages go through an aligned staging buffer,
+ * and a write of part of a block reads the rest of it first.  If the JDK or
+ * the file system doesn't support direct I/O, the files are opened as usual.
+ * <br><br>
+ * Page reads and writes are safe to call from several threads; the
+ * IOEngine runs them asynchronously.  Callers may also queue them on the
+ * IOScheduler (see getIOScheduler), which reorders and merges them; it is
+ * opt-in, and buffer misses and flushes don't go through it.
+ * <br><br>
+ * The latency of each page read and write, allocation, and space map update
+ * is kept in a histogram, and the pages read and written are charged to the
+ * file they belong to (a page belongs to the file that was being worked on
+ * when it was allocated, see enterFile).  These are available as snapshots,
+ * and over JMX while the database is open.  Which file a page belongs to is
+ * only kept in memory, so it is known for the pages allocated since the
+ * database was created or opened; the I/O of older pages is charged to the
+ * file being worked on.
+ * <br><br>
+ * Writes reach stable storage when the database files are synced, which
+ * depends on the durability mode: never, every few milliseconds, or at each
+ * checkpoint and when the database is closed.  Syncs asked for by several
+ * threads at once are merged into one.
   */
-public class DiskMgr implements GlobalConst {
+public class DiskMgr implements GlobalConst, DiskMgrMXBean {
 
   /** Number of actual bits per page. */
   protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
 
+  /** Number of consecutive pages placed in one file before moving on to the
+   * next file of a striped database. */
+  protected static final int STRIPE_UNIT = 64;
+
+  /** Size of the trailer after each page: its checksum and page id. */
+  protected static final int TRAILER_SIZE = 8;
+
+  /** Number of page slots in the double-write file. */
+  protected static final int DW_SLOTS = 64;
+
+  /** The JDK's open option for direct I/O, or null if it has none. */
+  protected static final OpenOption DIRECT_OPTION = findDirectOption();
+
+  /** Timed operations, indexing the latency histograms. */
+  protected static final int OP_READ_PAGE = 0;
+  protected static final int OP_WRITE_PAGE = 1;
+  protected static final int OP_READ_PAGES = 2;
+  protected static final int OP_WRITE_PAGES = 3;
+  protected static final int OP_ALLOCATE_PAGE = 4;
+  protected static final int OP_SET_BITS = 5;
+
+  /** Names of the timed operations. */
+  protected static final String[] OP_NAMES = { "read_page", "write_page",
+      "read_pages", "write_pages", "allocate_page", "set_bits" };
+
+  /** Name charged with I/O of temporary files. */
+  public static final String TEMP_FILE = "(temp)";
+
+  /** Name charged with I/O not done on behalf of any file. */
+  public static final String NO_FILE = "(none)";
+
+  /** Durability mode: the database files are never synced. */
+  public static final int DURABILITY_NONE = 0;
+
+  /** Durability mode: the files are synced periodically, if written. */
+  public static final int DURABILITY_PERIODIC = 1;
+
+  /** Durability mode: the files are synced at checkpoints and on close. */
+  public static final int DURABILITY_CHECKPOINT = 2;
+
+  /** Default interval of periodic syncs, in milliseconds. */
+  public static final int DEFAULT_SYNC_INTERVAL = 100;
+
+  /** Name prefix of databases kept in memory instead of OS files. */
+  public static final String MEMORY_PREFIX = "mem:";
+
+  /** The file each thread is working on, if any. */
+  protected static final ThreadLocal<String> current_file =
+      new ThreadLocal<String>();
+
+  /** Number of file operations in progress, on all threads (see enterFile). */
+  protected static int file_ops;
+
+  /** Number of file operations in progress on each thread. */
+  protected static final ThreadLocal<int[]> thread_ops =
+      new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+          return new int[1];
+        }
+      };
+
+  /** Number of file operations ended so far, on all threads. */
+  protected static long file_epoch;
+
+  /** The compactor working on the database, if any; see Compactor. */
+  protected static Object compactor;
+
+  /** The thread the compactor is working on. */
+  protected static Thread compacting;
+
   // --------------------------------------------------------------------------
 
   /** Pages in the database are stored as an Operating System file.  
-   * This is the name of that file. */
+   * This is the name of that file (the first one, if striped). */
   protected String name;
 
-  /** Reference to the OS file. */
-  protected RandomAccessFile fp;
+  /** Names of all OS files in the database, in stripe order. */
+  protected String[] stripe_names;
+
+  /** References to the OS files, in stripe order. */
+  protected RandomAccessFile[] stripes;
+
+  /** Channels of the OS files, used for positional I/O. */
+  protected FileChannel[] channels;
+
+  /** Storage of a database not kept in OS files; null if it is. */
+  protected PageStore page_store;
+
+  /** Simulated device accounting for the I/O; null if none. */
+  protected volatile SimulatedDevice device;
+
+  /** Number of consecutive pages per file in a striped database. */
+  protected int stripe_unit;
+
+  /** Are pages stored with checksum trailers? */
+  protected boolean checksums;
+
+  /** Are pages written to the double-write file before in place? */
+  protected boolean double_write;
+
+  /** Size of a page on disk, including its trailer if any. */
+  protected int slot_size = PAGE_SIZE;
+
+  /** Channel of the double-write file, if in use. */
+  protected FileChannel dw_channel;
+
+  /** Next slot to use in the double-write file. */
+  protected int dw_next;
+
+  /** Sequence number of the last copy in the double-write file. */
+  protected long dw_seq;
+
+  /** Number of torn pages repaired since database construction. */
+  protected int repair_cnt;
+
+  /** Are the database files to be opened for direct I/O? */
+  protected boolean direct_io;
+
+  /** Block size the direct I/O is aligned to; 0 if it is not in use. */
+  protected int direct_align;
+
+  /** Each thread's aligned staging buffer for direct I/O. */
+  protected ThreadLocal<ByteBuffer> direct_buf;
+
+  /** Asynchronous I/O engine; created on first use. */
+  protected IOEngine io_engine;
+
+  /** I/O scheduler; created on first use. */
+  protected IOScheduler io_scheduler;
   
   /** Database size, in pages. */
   protected int num_db_pages;
 
+  /** Number of changes to the space map, so scans can tell it changed. */
+  protected int map_version;
+
+  /** Number of deallocations, so cached page ids can tell they are stale. */
+  protected int free_version;
+
   /** Number of disk page reads since database construction. */
   protected int read_cnt;
 
   /** Number of disk page writes since database construction. */
   protected int write_cnt;
 
+  /** Number of read system calls since database construction. */
+  protected int read_calls;
+
+  /** Number of write system calls since database construction. */
+  protected int write_calls;
+
+  /** Latency of each timed operation since database construction. */
+  protected LatencyHistogram[] latencies =
+      new LatencyHistogram[OP_NAMES.length];
+
+  /**
+   * The file each page was allocated for, if known: only for pages allocated
+   * since the database was created or opened, since it isn't stored.
+   */
+  protected HashMap<Integer, String> owners = new HashMap<Integer, String>();
+
+  /** Pages read and written (in that order) on behalf of each file. */
+  protected HashMap<String, long[]> file_io = new HashMap<String, long[]>();
+
+  /** Durability mode; one of the DURABILITY constants. */
+  protected int durability = DURABILITY_CHECKPOINT;
+
+  /** Interval of periodic syncs, in milliseconds. */
+  protected int sync_interval = DEFAULT_SYNC_INTERVAL;
+
+  /** Thread running the periodic syncs, if any. */
+  protected ScheduledExecutorService syncer;
+
+  /** Monitor of the sync state below. */
+  protected final Object sync_lock = new Object();
+
+  /** Number of syncs started, and done. */
+  protected long sync_started, sync_done;
+
+  /** Is a sync in progress? */
+  protected boolean syncing;
+
+  /** Page writes already covered by a sync. */
+  protected int synced_writes;
+
+  /** Name of the database in the platform MBean server, if registered. */
+  protected ObjectName mbean_name;
+
+  /** The file library's entries, keyed by lower-case file name. */
+  protected HashMap<String, LibraryEntry> library;
+
+  /** The file library's free slots, reused before new ones are added. */
+  protected ArrayDeque<LibraryEntry> free_slots;
+
+  /** Id of the last header page in the file library. */
+  protected PageId last_hpid;
+
   // ------Manage the DB--------------------
 
+  /**
+   * Constructs a disk manager, with no database open.
+   */
+  public DiskMgr() {
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Chooses the integrity features of databases created after this call;
+   * an existing database keeps the ones it was created with.  Double writes
+   * need checksums, to tell which copy of a page is intact.
+   * 
+   * @throws IllegalArgumentException if double writes are asked for without
+   * checksums
+   */
+  public void setIntegrity(boolean checksums, boolean double_write) {
+    if (double_write && !checksums) {
+      throw new IllegalArgumentException("Double writes need checksums");
+    }
+    this.checksums = checksums;
+    this.double_write = double_write;
+  }
+
+  /**
+   * Chooses whether databases created or opened after this call bypass the
+   * OS page cache with direct I/O.  This only changes how the files are
+   * accessed, not their format; see isDirectIO for whether it took effect.
+   */
+  public void setDirectIO(boolean direct_io) {
+    this.direct_io = direct_io;
+  }
+
+  /**
+   * Tells whether the open database is accessed with direct I/O; it may not
+   * be even if asked for, when the JDK or file system doesn't support it.
+   */
+  public boolean isDirectIO() {
+    return direct_align != 0;
+  }
+
+  /**
+   * Accounts for all page I/O from now on on the given simulated device,
+   * on top of doing it; null stops the accounting.  Positions on the device
+   * are those of the pages in the database, whatever the file layout.
+   */
+  public void setDevice(SimulatedDevice device) {
+    this.device = device;
+  }
+
+  /**
+   * Gets the simulated device accounting for the I/O, or null if none.
+   */
+  public SimulatedDevice getDevice() {
+    return device;
+  }
+
+  /**
+   * Chooses when the database files are synced to stable storage; this takes
+   * effect at once if a database is open.  Logged databases also sync them
+   * at each log checkpoint, whatever the mode, so the log can be truncated.
+   * 
+   * @param mode one of the DURABILITY constants
+   * @param interval_ms interval of periodic syncs, in milliseconds
+   * @throws IllegalArgumentException if the mode or interval is invalid
+   */
+  public void setDurability(int mode, int interval_ms) {
+    if ((mode < DURABILITY_NONE) || (mode > DURABILITY_CHECKPOINT)
+        || (interval_ms < 1)) {
+      throw new IllegalArgumentException("Invalid durability mode");
+    }
+    stopSyncer();
+    durability = mode;
+    sync_interval = interval_ms;
+    if (isOpen()) {
+      startSyncer();
+    }
+  }
+
+  /**
+   * Creates and opens a new database with the given OS file name and specified
+   * number of pages.
+   */
+  public void createDB(String fname, int num_db_pgs) {
+    createDB(new String[] { fname }, num_db_pgs);
+  }
+
+  /**
+   * Creates and opens a new database striped across the given OS files, with
+   * the specified total number of pages.  The first file holds the first
+   * page, and is the one to name when opening the database again.
+   * 
+   * @throws IllegalArgumentException if no file names are given, or they
+   * don't fit on the first page
+   */
+  public void createDB(String[] fnames, int num_db_pgs) {
+
+    // validate the file names
+    if ((fnames == null) || (fnames.length < 1)
+        || (fnames.length > Short.MAX_VALUE)) {
+      throw new IllegalArgumentException("Invalid file names; create aborted");
+    }
+
+    // save the parameters locally
+    name = fnames[0];
+    num_db_pages = (num_db_pgs > 2) ? num_db_pgs : 2;
+
+    // create each database file, just long enough for its share of pages;
+    // a store grows as it is written, and can't tear a write
+    stripe_unit = STRIPE_UNIT;
+    slot_size = checksums ? PAGE_SIZE + TRAILER_SIZE : PAGE_SIZE;
+    page_store = openStore(name, true);
+    openStripes(fnames, true);
+    try {
+      for (int i = 0; i < stripes.length; i++) {
+        long pages = stripePages(i, num_db_pages);
+        if (pages > 0) {
+          stripes[i].seek(pages * slot_size - 1);
+          stripes[i].writeByte(0);
+        }
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    new File(name + ".dw").delete();
+    double_write &= (page_store == null);
+    if (double_write) {
+      openDoubleWrite();
+    }
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.createLog(name + ".log");
+    }
+
+    // create and initialize the first DB page
+    PageId pageId = new PageId(FIRST_PAGEID);
+    DBFirstPage firstpg = new DBFirstPage();
+    firstpg.setNumDBPages(num_db_pages);
+    firstpg.setStripes(stripe_names, stripe_unit);
+    firstpg.setFormat((short) ((checksums ? DBFirstPage.FORMAT_CHECKSUMS : 0)
+        | (double_write ? DBFirstPage.FORMAT_DOUBLE_WRITE : 0)));
+    Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+
+    // calculate how many pages are needed for the space map; reserve
+    // page 0 plus room for the space map
+    int num_map_pages = getNumMapPages();
+    set_bits(pageId, 1 + num_map_pages, 1);
+    load_file_library();
+
+    // a logged database starts out with everything on disk
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.checkpoint();
+    }
+    registerMBean();
+    startSyncer();
+
+  } // public void createDB(String[] fnames, int num_pgs)
+
+  /**
+   * Open the database with the given OS file name.  If the database is
+   * striped, this is the name of its first file; the other files are found
+   * through the layout recorded on the first page.
+   */
+  public void openDB(String fname) {
+
+    // save the name and open the OS file (or the store)
+    name = fname;
+    page_store = openStore(name, false);
+    File DBfile = new File(name);
+    if ((page_store == null) && !DBfile.exists())
+    	throw new IllegalStateException("File "+name+" does not exist\n");
+    stripe_unit = STRIPE_UNIT;
+    openStripes(new String[] { fname }, false);
+
+    // a torn first page can be repaired before knowing the layout, since it
+    // is at the start of the first file in any layout
+    checksums = false;
+    boolean dw_exists = new File(name + ".dw").exists();
+    slot_size = dw_exists ? PAGE_SIZE + TRAILER_SIZE : PAGE_SIZE;
+    num_db_pages = 1;
+    if (dw_exists) {
+      openDoubleWrite();
+      repairTornPages(true);
+    }
+
+    // read the first page, without verifying it until the format is known
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+
+    // get the total number of pages, the file layout, and the format
+    DBFirstPage firstpg = new DBFirstPage(apage);
+    num_db_pages = firstpg.getNumDBPages();
+    String[] fnames = firstpg.getStripeNames();
+    int unit = firstpg.getStripeUnit();
+    short format = firstpg.getFormat();
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    checksums = (format & DBFirstPage.FORMAT_CHECKSUMS) != 0;
+    double_write = (format & DBFirstPage.FORMAT_DOUBLE_WRITE) != 0;
+    slot_size = checksums ? PAGE_SIZE + TRAILER_SIZE : PAGE_SIZE;
+    if (checksums) {
+      read_page(pageId, new Page());
+    }
+
+    // reassemble the remaining stripes
+    if ((fnames.length > 1) && (page_store == null)) {
+      fnames[0] = fname;
+      closeStripes();
+      stripe_unit = unit;
+      openStripes(fnames, false);
+    }
+
+    // repair the other torn pages, then start the double-write file afresh
+    if (double_write) {
+      if (!dw_exists) {
+        openDoubleWrite();
+      }
+      repairTornPages(false);
+      resetDoubleWrite();
+    } else if (dw_exists) {
+      try {
+        dw_channel.close();
+      } catch (IOException exc) {
+        Minibase.haltSystem(exc);
+      }
+      new File(name + ".dw").delete();
+    }
+
+    // repair the pages from the log before anything else reads them
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.openLog(name + ".log");
+      Minibase.LogManager.recover();
+    }
+    load_file_library();
+    registerMBean();
+    startSyncer();
+
+  } // public void openDB(String fname)
+
+  /**
+   * Close the database file.  Ensure that buffer contents have been
+   * written to disk (and unless the durability mode is none, synced), and
+   * close the OS file.
+   */
+  public void closeDB() {
+    unregisterMBean();
+    stopSyncer();
+    if (io_engine != null) {
+      io_engine.shutdown();
+      io_engine = null;
+    }
+    if (io_scheduler != null) {
+      io_scheduler.shutdown();
+      io_scheduler = null;
+    }
+    checkpoint();
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.closeLog();
+    }
+    if (double_write) {
+      resetDoubleWrite();
+      try {
+        dw_channel.close();
+      } catch (IOException exc) {
+        Minibase.haltSystem(exc);
+      }
+    }
+    closeStripes();
+  }
+
+  /**
+   * Writes all dirty pages in the buffer pool to disk and, unless the
+   * durability mode is none, syncs them.  If the database is logged, this
+   * is a log checkpoint.
+   */
+  public void checkpoint() {
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.checkpoint();
+    } else {
+      Minibase.BufferManager.flushAllFrames();
+      if (durability != DURABILITY_NONE) {
+        sync();
+      }
+    }
+  }
+
+  /**
+   * Syncs all database files, so every page written before this call is on
+   * stable storage.  If another thread's sync is in progress, this waits
+   * for it and then starts one sync for all the threads that waited; if
+   * another of them starts it first, this doesn't sync at all.
+   */
+  public void sync() {
+
+    // join the next sync, unless one that covers this call is done by then
+    long gen;
+    synchronized (sync_lock) {
+      long target = sync_started + 1;
+      while (syncing && (sync_done < target)) {
+        try {
+          sync_lock.wait();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (sync_done >= target) {
+        return;
+      }
+      syncing = true;
+      gen = ++sync_started;
+    }
+
+    // sync the files outside the monitor, so more callers can queue up
+    int writes = getWriteCount();
+    try {
+      if (page_store != null) {
+        page_store.sync();
+      }
+      for (int i = 0; i < channels.length; i++) {
+        channels[i].force(false);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    } finally {
+      synchronized (sync_lock) {
+        syncing = false;
+        sync_done = gen;
+        synced_writes = writes;
+        sync_lock.notifyAll();
+      }
+    }
+
+  } // public void sync()
+
+  /**
+   * Starts the periodic syncs, if the durability mode has them.  A sync is
+   * skipped if nothing was written since the last one.
+   */
+  protected void startSyncer() {
+    if (durability != DURABILITY_PERIODIC) {
+      return;
+    }
+    syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "minibase-sync");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    syncer.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        int writes;
+        synchronized (sync_lock) {
+          writes = synced_writes;
+        }
+        if (getWriteCount() != writes) {
+          sync();
+        }
+      }
+    }, sync_interval, sync_interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic syncs, if running, after any sync in progress.
+   */
+  protected void stopSyncer() {
+    if (syncer != null) {
+      syncer.shutdown();
+      try {
+        syncer.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      syncer = null;
+    }
+  }
+
+  /**
+   * Destroy the database, removing the file that stores it.
+   */
+  public void destroyDB() {
+    closeDB();
+    if (page_store != null) {
+      page_store.destroy();
+    }
+    for (int i = 0; i < stripe_names.length; i++) {
+      File DBfile = new File(stripe_names[i]);
+      DBfile.delete();
+    }
+    new File(name + ".log").delete();
+    new File(name + ".dw").delete();
+  }
+
+  /**
+   * Chooses the storage of a database by its name: names starting with
+   * MEMORY_PREFIX are kept in memory (see MemoryStore), the others in OS
+   * files.  Subclasses may plug in other stores.
+   *
+   * @param create whether to create the store, or open an existing one
+   * @return the store, or null for OS files
+   * @throws IllegalStateException if the store to open doesn't exist
+   */
+  protected PageStore openStore(String fname, boolean create) {
+    if (!fname.startsWith(MEMORY_PREFIX)) {
+      return null;
+    }
+    return create ? MemoryStore.create(fname) : MemoryStore.open(fname);
+  }
+
+  /**
+   * Tells whether a database is open.
+   */
+  protected boolean isOpen() {
+    if (page_store != null) {
+      return page_store.isOpen();
+    }
+    return (channels != null) && channels[0].isOpen();
+  }
+
+  /**
+   * Opens the given OS files as the stripes of the database, optionally
+   * replacing any existing files.  A database in a store has no OS files.
+   */
+  protected void openStripes(String[] fnames, boolean create) {
+    stripe_names = fnames.clone();
+    int num_files = (page_store == null) ? fnames.length : 0;
+    stripes = new RandomAccessFile[num_files];
+    channels = new FileChannel[num_files];
+    try {
+      for (int i = 0; i < num_files; i++) {
+        if (create) {
+          new File(fnames[i]).delete();
+        } else if (!new File(fnames[i]).exists()) {
+          throw new IllegalStateException("File " + fnames[i]
+              + " does not exist\n");
+        }
+        stripes[i] = new RandomAccessFile(fnames[i], "rw");
+        channels[i] = stripes[i].getChannel();
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    direct_align = 0;
+    if (direct_io && (page_store == null)) {
+      openDirect();
+    }
+  }
+
+  /**
+   * Reopens the OS files of the database for direct I/O, aligned to the
+   * largest block size of their file systems.  The files stay open as usual
+   * if any of them can't be opened for it, or fails a first aligned read.
+   */
+  protected void openDirect() {
+    if (DIRECT_OPTION == null) {
+      return;
+    }
+    FileChannel[] direct = new FileChannel[channels.length];
+    try {
+
+      // open each file, and find the alignment that suits all of them
+      int align = 0;
+      for (int i = 0; i < direct.length; i++) {
+        Path path = Paths.get(stripe_names[i]);
+        FileStore store = Files.getFileStore(path);
+        long size = (Long) FileStore.class.getMethod("getBlockSize").invoke(
+            store);
+        align = (int) Math.max(align, size);
+        direct[i] = FileChannel.open(path, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, DIRECT_OPTION);
+      }
+
+      // some file systems accept the option, but fail the I/O
+      direct_align = align;
+      direct_buf = new ThreadLocal<ByteBuffer>();
+      for (int i = 0; i < direct.length; i++) {
+        direct[i].read(alignedBuffer(align), 0);
+      }
+      channels = direct;
+
+    } catch (IOException | ReflectiveOperationException
+        | RuntimeException exc) {
+      direct_align = 0;
+      for (int i = 0; i < direct.length; i++) {
+        try {
+          if (direct[i] != null) {
+            direct[i].close();
+          }
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  } // protected void openDirect()
+
+  /**
+   * Closes all OS files of the database.
+   */
+  protected void closeStripes() {
+    if (page_store != null) {
+      page_store.close();
+    }
+    try {
+      for (int i = 0; i < stripes.length; i++) {
+        channels[i].close();
+        stripes[i].close();
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Makes the database visible over JMX, under its first file's name; a
+   * database of the same name that wasn't closed (i.e. crashed) is replaced.
+   * The database works the same if the platform has no MBean server.
+   */
+  protected void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      mbean_name = new ObjectName("minibase:type=DiskMgr,name="
+          + ObjectName.quote(name));
+      if (server.isRegistered(mbean_name)) {
+        server.unregisterMBean(mbean_name);
+      }
+      server.registerMBean(this, mbean_name);
+    } catch (JMException | SecurityException exc) {
+      mbean_name = null;
+    }
+  }
+
+  /**
+   * Removes the database from JMX, if it was registered.
+   */
+  protected void unregisterMBean() {
+    if (mbean_name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean_name);
+      } catch (JMException | SecurityException exc) {
+      }
+      mbean_name = null;
+    }
+  }
+
+  /**
+   * Gets the index of the OS file holding the given page.
+   */
+  protected int stripeOf(int pid) {
+    return (pid / stripe_unit) % channels.length;
+  }
+
+  /**
+   * Gets how many of the first num_pages pages of the database are stored
+   * in the given OS file.
+   */
+  protected long stripePages(int stripe, int num_pages) {
+    long chunk = (long) stripe_unit * stripes.length;
+    long rem = num_pages % chunk - (long) stripe * stripe_unit;
+    return (num_pages / chunk) * stripe_unit
+        + Math.max(0, Math.min(stripe_unit, rem));
+  }
+
+  /**
+   * Gets the byte offset of the given page within its OS file.
+   */
+  protected long offsetOf(int pid) {
+    long chunk = pid / stripe_unit / channels.length;
+    return (chunk * stripe_unit + pid % stripe_unit) * slot_size;
+  }
+
+  /**
+   * Computes the checksum of a page's contents and id.
+   */
+  protected static int checksum(int pid, byte[] data, int offset) {
+    CRC32 crc = new CRC32();
+    crc.update(data, offset, PAGE_SIZE);
+    crc.update(pid >>> 24);
+    crc.update(pid >>> 16);
+    crc.update(pid >>> 8);
+    crc.update(pid);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Checks a page slot (i.e. a page followed by its trailer) read from disk.
+   * A slot of all zeros is a page that was never written, and is intact.
+   */
+  protected static boolean isIntact(int pid, byte[] slot) {
+    ByteBuffer trailer = ByteBuffer.wrap(slot, PAGE_SIZE, TRAILER_SIZE);
+    int sum = trailer.getInt();
+    int owner = trailer.getInt();
+    if ((sum == 0) && (owner == 0)) {
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        if (slot[i] != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return (owner == pid) && (sum == checksum(pid, slot, 0));
+  }
+
+  /**
+   * Finds the JDK's open option for direct I/O; it is JDK specific, and only
+   * there since Java 10.
+   */
+  protected static OpenOption findDirectOption() {
+    try {
+      Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+      for (Object option : options.getEnumConstants()) {
+        if (option.toString().equals("DIRECT")) {
+          return (OpenOption) option;
+        }
+      }
+    } catch (ClassNotFoundException exc) {
+    }
+    return null;
+  }
+
+  /**
+   * Gets the calling thread's staging buffer for direct I/O, aligned in
+   * memory and limited to the given size (a multiple of the alignment).
+   */
+  protected ByteBuffer alignedBuffer(int size) throws IOException {
+    ByteBuffer buf = direct_buf.get();
+    if ((buf == null) || (buf.capacity() < size)) {
+      try {
+        ByteBuffer raw = ByteBuffer.allocateDirect(size + direct_align);
+        buf = (ByteBuffer) ByteBuffer.class.getMethod("alignedSlice",
+            int.class).invoke(raw, direct_align);
+      } catch (ReflectiveOperationException exc) {
+        throw new IOException("Can't align a buffer for direct I/O", exc);
+      }
+      direct_buf.set(buf);
+    }
+    buf.clear();
+    buf.limit(size);
+    return buf;
+  }
+
+  /**
+   * Reads or writes a run of page slots that is contiguous in one OS file,
+   * through the aligned staging buffer.  Writes hold the channel's monitor,
+   * since a block at either end of the run may be shared with another page
+   * and must be read before it is written back.
+   *
+   * @return the number of system calls it took
+   */
+  protected int transferDirect(int pid, ByteBuffer[] bufs, boolean write)
+      throws IOException {
+
+    // widen the run to whole blocks
+    FileChannel fc = channels[stripeOf(pid)];
+    long pos = offsetOf(pid);
+    int length = 0;
+    for (ByteBuffer buf : bufs) {
+      length += buf.remaining();
+    }
+    long start = pos - pos % direct_align;
+    long end = (pos + length + direct_align - 1) / direct_align
+        * direct_align;
+    ByteBuffer block = alignedBuffer((int) (end - start));
+
+    int calls = 0;
+    if (!write) {
+      calls += readBlocks(fc, block, start);
+      block.position((int) (pos - start));
+      for (ByteBuffer buf : bufs) {
+        ByteBuffer part = block.slice();
+        part.limit(buf.remaining());
+        buf.put(part);
+        block.position(block.position() + part.limit());
+      }
+    } else {
+      synchronized (fc) {
+        if ((start != pos) || (end != pos + length)) {
+          calls += readBlocks(fc, block, start);
+        }
+        block.position((int) (pos - start));
+        for (ByteBuffer buf : bufs) {
+          block.put(buf);
+        }
+        block.clear();
+        block.limit((int) (end - start));
+        while (block.hasRemaining()) {
+          calls++;
+          fc.write(block, start + block.position());
+        }
+      }
+    }
+    return calls;
+
+  } // protected int transferDirect(int pid, ByteBuffer[] bufs, boolean write)
+
+  /**
+   * Fills the staging buffer with the blocks at the given position; the part
+   * past the end of the file reads as zeros.
+   *
+   * @return the number of system calls it took
+   */
+  protected int readBlocks(FileChannel fc, ByteBuffer block, long start)
+      throws IOException {
+    int calls = 0;
+    while (block.hasRemaining()) {
+      calls++;
+      int cnt = fc.read(block, start + block.position());
+      if ((cnt <= 0) || (cnt % direct_align != 0)) {
+        break;
+      }
+    }
+    while (block.hasRemaining()) {
+      block.put((byte) 0);
+    }
+    block.flip();
+    return calls;
+  }
+
+  /**
+   * Accounts for a transfer of the given buffers at the given page on the
+   * simulated device, if any.
+   */
+  protected void simulate(int pid, ByteBuffer[] bufs, boolean write) {
+    SimulatedDevice dev = device;
+    if (dev != null) {
+      int length = 0;
+      for (ByteBuffer buf : bufs) {
+        length += buf.remaining();
+      }
+      dev.access((long) pid * slot_size, length, write);
+    }
+  }
+
+  /**
+   * Reads a whole page slot from its position in its stripe.
+   *
+   * @return the number of system calls it took
+   */
+  protected int readSlot(int pid, ByteBuffer buf) throws IOException {
+    simulate(pid, new ByteBuffer[] { buf }, false);
+    if (page_store != null) {
+      return page_store.read((long) pid * slot_size, new ByteBuffer[] { buf });
+    }
+    if (direct_align != 0) {
+      return transferDirect(pid, new ByteBuffer[] { buf }, false);
+    }
+    FileChannel fc = channels[stripeOf(pid)];
+    long pos = offsetOf(pid);
+    int calls = 0;
+    while (buf.hasRemaining()) {
+      calls++;
+      if (fc.read(buf, pos + buf.position()) < 0) {
+        break;
+      }
+    }
+    zeroFill(new ByteBuffer[] { buf });
+    return calls;
+  }
+
+  /**
+   * Writes a whole page slot at its position in its stripe.
+   *
+   * @return the number of system calls it took
+   */
+  protected int writeSlot(int pid, ByteBuffer buf) throws IOException {
+    simulate(pid, new ByteBuffer[] { buf }, true);
+    if (page_store != null) {
+      return page_store.write((long) pid * slot_size,
+          new ByteBuffer[] { buf });
+    }
+    if (direct_align != 0) {
+      return transferDirect(pid, new ByteBuffer[] { buf }, true);
+    }
+    FileChannel fc = channels[stripeOf(pid)];
+    long pos = offsetOf(pid);
+    int calls = 0;
+    while (buf.hasRemaining()) {
+      calls++;
+      fc.write(buf, pos + buf.position());
+    }
+    return calls;
+  }
+
+  /**
+   * Gets the number of pages from the given one that are contiguous in its
+   * OS file, up to the given limit.
+   */
+  protected int runLength(int pid, int limit) {
+    if (channels.length <= 1) {
+      return limit;
+    }
+    return Math.min(limit, stripe_unit - pid % stripe_unit);
+  }
+
+  /**
+   * Reads or writes a run of page slots that is contiguous in one OS file,
+   * with scattering reads or gathering writes.  The channel's position is
+   * used, so this holds the channel's monitor; positional single-page I/O
+   * proceeds regardless.
+   *
+   * @return the number of system calls it took
+   */
+  protected int transferRun(int pid, ByteBuffer[] bufs, boolean write)
+      throws IOException {
+    simulate(pid, bufs, write);
+    if (page_store != null) {
+      long pos = (long) pid * slot_size;
+      return write ? page_store.write(pos, bufs) : page_store.read(pos, bufs);
+    }
+    if (direct_align != 0) {
+      return transferDirect(pid, bufs, write);
+    }
+    FileChannel fc = channels[stripeOf(pid)];
+    long remaining = 0;
+    for (ByteBuffer buf : bufs) {
+      remaining += buf.remaining();
+    }
+    int calls = 0;
+    synchronized (fc) {
+      fc.position(offsetOf(pid));
+      while (remaining > 0) {
+        calls++;
+        long cnt = write ? fc.write(bufs) : fc.read(bufs);
+        if (cnt < 0) {
+          break;
+        }
+        remaining -= cnt;
+      }
+    }
+    if (!write) {
+      zeroFill(bufs);
+    }
+    return calls;
+  }
+
+  /**
+   * Fills what a read left of the given buffers with zeros, i.e. the part
+   * past the end of a file that was truncated (see truncate).
+   */
+  protected static void zeroFill(ByteBuffer[] bufs) {
+    for (ByteBuffer buf : bufs) {
+      while (buf.hasRemaining()) {
+        buf.put((byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Builds the on-disk slot of a page: a copy followed by its trailer.
+   */
+  protected ByteBuffer stampSlot(int pid, byte[] data) {
+    ByteBuffer buf = ByteBuffer.allocate(slot_size);
+    buf.put(data);
+    buf.putInt(checksum(pid, data, 0));
+    buf.putInt(pid);
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Validates a run of pages for read_pages and write_pages.
+   *
+   * @throws IllegalArgumentException if the run or the array is invalid
+   */
+  protected void checkRun(PageId first, int n, Page[] pages, String op) {
+    if ((n < 1) || (pages == null) || (pages.length < n)
+        || (first.pid < 0) || (first.pid > num_db_pages - n)) {
+      throw new IllegalArgumentException("Invalid page run; " + op
+          + " aborted");
+    }
+  }
+
+  // ------Double writes--------------------
+
+  /**
+   * Opens the double-write file, creating it if needed.
+   */
+  protected void openDoubleWrite() {
+    try {
+      dw_channel = new RandomAccessFile(name + ".dw", "rw").getChannel();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    dw_next = 0;
+    dw_seq = 0;
+  }
+
+  /**
+   * Copies page slots to the double-write file and syncs it once, so the
+   * copies are intact before the pages are written in place.  Each copy is followed by a
+   * sequence number, so the latest copy of a page wins.  Before reusing the
+   * file's first slot, the database files are synced, so no earlier in-place
+   * write can still be torn.
+   */
+  protected void writeDoubleWrite(ByteBuffer[] bufs) throws IOException {
+    synchronized (dw_channel) {
+      for (ByteBuffer buf : bufs) {
+        if (dw_next == DW_SLOTS) {
+          for (int i = 0; i < channels.length; i++) {
+            channels[i].force(false);
+          }
+          dw_next = 0;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(slot_size + 8);
+        copy.put(buf);
+        buf.rewind();
+        copy.putLong(++dw_seq);
+        copy.flip();
+        long pos = (long) dw_next++ * copy.capacity();
+        while (copy.hasRemaining()) {
+          pos += dw_channel.write(copy, pos);
+        }
+      }
+      dw_channel.force(false);
+    }
+  }
+
+  /**
+   * Repairs pages whose copy in place is torn, from intact copies in the
+   * double-write file.
+   * 
+   * @param first_only if only the first page is repaired (i.e. the layout of
+   * the database is not known yet)
+   */
+  protected void repairTornPages(boolean first_only) {
+    try {
+
+      // find the latest intact copy of each page in scope
+      HashMap<Integer, ByteBuffer> latest = new HashMap<Integer, ByteBuffer>();
+      int length = slot_size + 8;
+      for (long pos = 0; pos + length <= dw_channel.size(); pos += length) {
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        while (copy.hasRemaining()) {
+          if (dw_channel.read(copy, pos + copy.position()) < 0) {
+            break;
+          }
+        }
+        int pid = copy.getInt(PAGE_SIZE + 4);
+        if ((first_only && (pid != FIRST_PAGEID)) || (pid < 0)
+            || ((pid >= num_db_pages) && (pid != FIRST_PAGEID))
+            || !isIntact(pid, copy.array())) {
+          continue;
+        }
+        ByteBuffer prev = latest.get(pid);
+        if ((prev == null)
+            || (prev.getLong(slot_size) < copy.getLong(slot_size))) {
+          latest.put(pid, copy);
+        }
+      }
+
+      // restore the pages whose copy in place is torn
+      ByteBuffer buf = ByteBuffer.allocate(slot_size);
+      for (Map.Entry<Integer, ByteBuffer> e : latest.entrySet()) {
+        buf.clear();
+        readSlot(e.getKey(), buf);
+        if (!isIntact(e.getKey(), buf.array())) {
+          ByteBuffer copy = e.getValue();
+          copy.clear();
+          copy.limit(slot_size);
+          writeSlot(e.getKey(), copy);
+          repair_cnt++;
+        }
+      }
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Syncs the database files and empties the double-write file, once none of
+   * its copies are needed.
+   */
+  protected void resetDoubleWrite() {
+    try {
+      synchronized (dw_channel) {
+        for (int i = 0; i < channels.length; i++) {
+          channels[i].force(false);
+        }
+        dw_channel.truncate(0);
+        dw_channel.force(false);
+        dw_next = 0;
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+  
+//-----Manage Logical File Layer -------------------
+  /**
+   * Reads the contents of the specified page from disk.
+   * 
+   * @param pageno identifies the page to read.  It is the page number
+   * in the OS file.  Also referred to as the Id of the page.
+   * @param mempage output parameter to hold the contents of the page
+   * @throws IllegalArgumentException if pageno is invalid
+   */
+  public void read_page(PageId pageno, Page mempage) {
+
+    // validate the page id
+    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    // read the page from its position in its stripe
+    long start = System.nanoTime();
+    try {
+      int calls;
+      if (!checksums) {
+        calls = readSlot(pageno.pid, ByteBuffer.wrap(mempage.getData()));
+      } else {
+
+        // read the page with its trailer, and verify it
+        ByteBuffer buf = ByteBuffer.allocate(slot_size);
+        calls = readSlot(pageno.pid, buf);
+        if (!isIntact(pageno.pid, buf.array())) {
+          throw new IllegalStateException("Page " + pageno.pid
+              + " is corrupt (checksum mismatch); read aborted");
+        }
+        System.arraycopy(buf.array(), 0, mempage.getData(), 0, PAGE_SIZE);
+
+      }
+      synchronized (this) {
+        read_cnt++;
+        read_calls += calls;
+        charge(pageno.pid, 1, 0);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    latencies[OP_READ_PAGE].record(System.nanoTime() - start);
+
+  } // public void read_page(PageId pageno, Page mempage)
+
+  /**
+   * Writes the contents of the given page to disk.
+   * 
+   * @param pageno identifies the page to write
+   * @param mempage holds the contents of the page
+   * @throws IllegalArgumentException if pageno is invalid
+   */
+  public void write_page(PageId pageno, Page mempage) {
+
+    // validate the page id
+    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    // write-ahead rule: the log describing the page goes first
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.flushPage(pageno);
+    }
+
+    // write the page at its position in its stripe
+    long start = System.nanoTime();
+    try {
+      int calls;
+      if (!checksums) {
+        calls = writeSlot(pageno.pid, ByteBuffer.wrap(mempage.getData()));
+      } else {
+
+        // stamp the trailer, and make the double-write copy first
+        ByteBuffer buf = stampSlot(pageno.pid, mempage.getData());
+        if (double_write) {
+          writeDoubleWrite(new ByteBuffer[] { buf });
+        }
+        calls = writeSlot(pageno.pid, buf);
+
+      }
+      synchronized (this) {
+        write_cnt++;
+        write_calls += calls;
+        charge(pageno.pid, 1, 1);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    latencies[OP_WRITE_PAGE].record(System.nanoTime() - start);
+
+  } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Reads a run of consecutive pages from disk, with one scattering read per
+   * OS file the run touches (i.e. usually one).
+   * 
+   * @param first identifies the first page to read
+   * @param n the number of pages to read
+   * @param dst output parameter to hold the contents of the pages, in order
+   * @throws IllegalArgumentException if the run is invalid, or dst is too
+   * short
+   */
+  public void read_pages(PageId first, int n, Page[] dst) {
+
+    // validate the run
+    checkRun(first, n, dst, "read");
+
+    long start = System.nanoTime();
+    try {
+      int calls = 0;
+      for (int done = 0; done < n;) {
+
+        // read the part of the run that is contiguous in one file
+        int pid = first.pid + done;
+        int len = runLength(pid, n - done);
+        ByteBuffer[] bufs = new ByteBuffer[len];
+        for (int i = 0; i < len; i++) {
+          bufs[i] = checksums ? ByteBuffer.allocate(slot_size) : ByteBuffer
+              .wrap(dst[done + i].getData());
+        }
+        calls += transferRun(pid, bufs, false);
+
+        // verify the trailers, and copy out the pages
+        if (checksums) {
+          for (int i = 0; i < len; i++) {
+            if (!isIntact(pid + i, bufs[i].array())) {
+              throw new IllegalStateException("Page " + (pid + i)
+                  + " is corrupt (checksum mismatch); read aborted");
+            }
+            System.arraycopy(bufs[i].array(), 0, dst[done + i].getData(), 0,
+                PAGE_SIZE);
+          }
+        }
+        done += len;
+
+      } // for
+      synchronized (this) {
+        read_cnt += n;
+        read_calls += calls;
+        charge(first.pid, n, 0);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    latencies[OP_READ_PAGES].record(System.nanoTime() - start);
+
+  } // public void read_pages(PageId first, int n, Page[] dst)
+
+  /**
+   * Writes a run of consecutive pages to disk, with one gathering write per
+   * OS file the run touches (i.e. usually one).  With double writes, the
+   * whole run is copied to the double-write file with a single sync.
+   * 
+   * @param first identifies the first page to write
+   * @param n the number of pages to write
+   * @param src holds the contents of the pages, in order
+   * @throws IllegalArgumentException if the run is invalid, or src is too
+   * short
+   */
+  public void write_pages(PageId first, int n, Page[] src) {
+
+    // validate the run
+    checkRun(first, n, src, "write");
+
+    // write-ahead rule: the log describing the pages goes first
+    if (Minibase.LogManager != null) {
+      PageId pageno = new PageId();
+      for (int i = 0; i < n; i++) {
+        pageno.pid = first.pid + i;
+        Minibase.LogManager.flushPage(pageno);
+      }
+    }
+
+    long start = System.nanoTime();
+    try {
+
+      // stamp the trailers, and make the double-write copies first
+      ByteBuffer[] bufs = new ByteBuffer[n];
+      for (int i = 0; i < n; i++) {
+        bufs[i] = checksums ? stampSlot(first.pid + i, src[i].getData())
+            : ByteBuffer.wrap(src[i].getData());
+      }
+      if (double_write) {
+        writeDoubleWrite(bufs);
+      }
+
+      // write each part of the run that is contiguous in one file
+      int calls = 0;
+      for (int done = 0; done < n;) {
+        int pid = first.pid + done;
+        int len = runLength(pid, n - done);
+        ByteBuffer[] run = new ByteBuffer[len];
+        System.arraycopy(bufs, done, run, 0, len);
+        calls += transferRun(pid, run, true);
+        done += len;
+      }
+      synchronized (this) {
+        write_cnt += n;
+        write_calls += calls;
+        charge(first.pid, n, 1);
+      }
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    latencies[OP_WRITE_PAGES].record(System.nanoTime() - start);
+
+  } // public void write_pages(PageId first, int n, Page[] src)
+  
+  /**
+   * Gets the number of disk page reads since database construction.
+   */
+  public synchronized int getReadCount() {
+    return read_cnt;
+  }
+
+  /**
+   * Gets the number of read system calls since database construction; less
+   * than the page count when runs of pages are read at once.
+   */
+  public synchronized int getReadCallCount() {
+    return read_calls;
+  }
+
+  /**
+   * Gets the number of disk page writes since database construction.
+   */
+  public synchronized int getWriteCount() {
+    return write_cnt;
+  }
+
+  /**
+   * Gets the number of write system calls since database construction; less
+   * than the page count when runs of pages are written at once.
+   */
+  public synchronized int getWriteCallCount() {
+    return write_calls;
+  }
+
+  /**
+   * Charges reads or writes of a run of pages to the files they belong to;
+   * pages of no known file are charged to the current one.  The caller
+   * holds this object's monitor.
+   * 
+   * @param kind 0 for reads, 1 for writes
+   */
+  protected void charge(int pid, int n, int kind) {
+    String current = current_file.get();
+    for (int i = 0; i < n; i++) {
+      String file = owners.get(pid + i);
+      if (file == null) {
+        file = (current != null) ? current : NO_FILE;
+      }
+      long[] counts = file_io.get(file);
+      if (counts == null) {
+        counts = new long[2];
+        file_io.put(file, counts);
+      }
+      counts[kind]++;
+    }
+  }
+
+  /**
+   * Makes the calling thread work on behalf of the given file, until
+   * exitFile: pages it allocates belong to the file, and its I/O of pages of
+   * no known file is charged to it.  Heap files and indexes call this on
+   * entry to each operation, and each call must be matched by one to
+   * exitFile.  If a compactor is moving pages on another thread, this waits
+   * until it is done with the move (see beginCompaction).
+   * 
+   * @param fname the file's name (TEMP_FILE for a temporary file), or null
+   * for none
+   * @return the file the thread was working on before, for exitFile
+   */
+  public static String enterFile(String fname) {
+    synchronized (DiskMgr.class) {
+      while ((compactor != null) && (compacting != Thread.currentThread())) {
+        awaitChange();
+      }
+      file_ops++;
+    }
+    thread_ops.get()[0]++;
+    return setCurrentFile(fname);
+  }
+
+  /**
+   * Makes the calling thread go back to the file it was working on before
+   * the matching enterFile.
+   */
+  public static void exitFile(String prev) {
+    setCurrentFile(prev);
+    thread_ops.get()[0]--;
+    synchronized (DiskMgr.class) {
+      file_ops--;
+      file_epoch++;
+      if (file_ops == 0) {
+        DiskMgr.class.notifyAll();
+      }
+    }
+  }
 
   /**
-   * Creates and opens a new database with the given OS file name and specified
-   * number of pages.
+   * Sets the file the calling thread is working on, without starting a file
+   * operation.
+   *
+   * @return the file the thread was working on before
    */
-  public void createDB(String fname, int num_db_pgs) {
-
-    // save the parameters locally
-    name = fname;
-    num_db_pages = (num_db_pgs > 2) ? num_db_pgs : 2;
-
-    // overwrite an existing file
-    File DBfile = new File(name);
-    DBfile.delete();
+  protected static String setCurrentFile(String fname) {
+    String prev = current_file.get();
+    current_file.set(fname);
+    return prev;
+  }
 
-    // create the database file, num_pages pages long
-    try {
-      fp = new RandomAccessFile(fname, "rw");
-      fp.seek((long) (num_db_pages * PAGE_SIZE - 1));
-      fp.writeByte(0);
-    } catch (IOException exc) {
-      Minibase.haltSystem(exc);
+  /**
+   * Lets the given compactor work on the database from the calling thread,
+   * once the file operations in progress and any other compactor are done;
+   * no file operation starts on another thread until endCompaction.
+   *
+   * @return false if the compactor was already working on it
+   * @throws IllegalStateException if the calling thread is in a file
+   * operation, which would never end
+   */
+  protected static synchronized boolean beginCompaction(Object owner) {
+    if (compactor == owner) {
+      return false;
     }
+    if (thread_ops.get()[0] > 0) {
+      throw new IllegalStateException("Files are in use");
+    }
+    while ((compactor != null) || (file_ops > 0)) {
+      awaitChange();
+    }
+    compactor = owner;
+    compacting = Thread.currentThread();
+    return true;
+  }
 
-    // create and initialize the first DB page
-    PageId pageId = new PageId(FIRST_PAGEID);
-    DBFirstPage firstpg = new DBFirstPage();
-    Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
-    firstpg.setNumDBPages(num_db_pages);
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
-
-    // calculate how many pages are needed for the space map; reserve
-    // page 0 plus room for the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    set_bits(pageId, 1 + num_map_pages, 1);
-
-  } // public void createDB(String fname, int num_pgs)
+  /**
+   * Lets file operations start again, if the given compactor was working on
+   * the database.
+   */
+  protected static synchronized void endCompaction(Object owner) {
+    if (compactor == owner) {
+      compactor = null;
+      compacting = null;
+      DiskMgr.class.notifyAll();
+    }
+  }
 
   /**
-   * Open the database with the given OS file name.
+   * Gets the number of file operations ended so far, so a compactor can tell
+   * whether the files may have changed.
    */
-  public void openDB(String fname) {
+  protected static synchronized long getFileEpoch() {
+    return file_epoch;
+  }
 
-    // save the name and open the OS file
-    name = fname;
-    File DBfile = new File(name);
-    if (!DBfile.exists())
-    	throw new IllegalStateException("File "+name+" does not exist\n");
+  /**
+   * Waits for a file operation or compaction to end; the caller holds the
+   * class's monitor.
+   */
+  protected static void awaitChange() {
     try {
-      fp = new RandomAccessFile(fname, "rw");
-    } catch (IOException exc) {
-      Minibase.haltSystem(exc);
+      DiskMgr.class.wait();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the "
+          + "compactor");
     }
-
-    // read the first page
-    PageId pageId = new PageId(FIRST_PAGEID);
-    Page apage = new Page();
-    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
-
-    // get the total number of pages
-    DBFirstPage firstpg = new DBFirstPage(apage);
-    num_db_pages = firstpg.getNumDBPages();
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
-
-  } // public void openDB(String fname)
+  }
 
   /**
-   * Close the database file.  Ensure that buffer contents have been
-   * written to disk and close the OS file.
+   * Gets a snapshot of the pages read and written on behalf of each file,
+   * ordered by file name.
    */
-  public void closeDB() {
-    try {
-      Minibase.BufferManager.flushAllFrames();
-      fp.close();
-    } catch (IOException exc) {
-      Minibase.haltSystem(exc);
+  public synchronized List<FileIOStats> getFileIO() {
+    List<FileIOStats> stats = new ArrayList<FileIOStats>();
+    for (Map.Entry<String, long[]> e : new TreeMap<String, long[]>(file_io)
+        .entrySet()) {
+      stats.add(new FileIOStats(e.getKey(), e.getValue()[0],
+          e.getValue()[1]));
     }
+    return stats;
   }
 
   /**
-   * Destroy the database, removing the file that stores it.
+   * Gets a snapshot of the latencies of each timed operation.
    */
-  public void destroyDB() {
-    closeDB();
-    File DBfile = new File(name);
-    DBfile.delete();
+  public List<LatencyStats> getLatencies() {
+    List<LatencyStats> stats = new ArrayList<LatencyStats>();
+    for (int i = 0; i < latencies.length; i++) {
+      stats.add(new LatencyStats(OP_NAMES[i], latencies[i]));
+    }
+    return stats;
   }
-  
-//-----Manage Logical File Layer -------------------
+
   /**
-   * Reads the contents of the specified page from disk.
+   * Gets the latency histogram of the given operation, e.g. "read_page".
    * 
-   * @param pageno identifies the page to read.  It is the page number
-   * in the OS file.  Also referred to as the Id of the page.
-   * @param mempage output parameter to hold the contents of the page
-   * @throws IllegalArgumentException if pageno is invalid
+   * @throws IllegalArgumentException if there is no such operation
    */
-  public void read_page(PageId pageno, Page mempage) {
-
-    // validate the page id
-    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
-      throw new IllegalArgumentException("Invalid page number; read aborted");
+  public LatencyHistogram getLatency(String operation) {
+    for (int i = 0; i < OP_NAMES.length; i++) {
+      if (OP_NAMES[i].equals(operation)) {
+        return latencies[i];
+      }
     }
+    throw new IllegalArgumentException("Unknown operation " + operation);
+  }
 
-    // seek to the correct page on disk and read it
-    try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(mempage.getData());
-      read_cnt++;
-    } catch (IOException exc) {
-      Minibase.haltSystem(exc);
+  /**
+   * Forgets the per-file counts and latencies gathered so far; the page and
+   * call counts are kept.
+   */
+  public synchronized void resetIOStats() {
+    file_io.clear();
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i].reset();
     }
-
-  } // public void read_page(PageId pageno, Page mempage)
+  }
 
   /**
-   * Writes the contents of the given page to disk.
-   * 
-   * @param pageno identifies the page to write
-   * @param mempage holds the contents of the page
-   * @throws IllegalArgumentException if pageno is invalid
+   * Gets the number of syncs of the database files since database
+   * construction; merged syncs count once.
    */
-  public void write_page(PageId pageno, Page mempage) {
-
-    // validate the page id
-    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
-      throw new IllegalArgumentException("Invalid page number; write aborted");
+  public int getSyncCount() {
+    synchronized (sync_lock) {
+      return (int) sync_done;
     }
+  }
 
-    // seek to the correct page on disk and write it
-    try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(mempage.getData());
-      write_cnt++;
-    } catch (IOException exc) {
-      Minibase.haltSystem(exc);
+  /**
+   * Gets the asynchronous I/O engine for this database, starting it with the
+   * default number of threads and queue depth on first use.
+   */
+  public synchronized IOEngine getIOEngine() {
+    if (io_engine == null) {
+      io_engine = new IOEngine(this, IOEngine.DEFAULT_THREADS,
+          IOEngine.DEFAULT_QUEUE_DEPTH);
     }
+    return io_engine;
+  }
 
-  } // public void write_page(PageId pageno, Page mempage)
-  
   /**
-   * Gets the number of disk reads since database construction.
+   * Gets the I/O scheduler for this database, starting it with the default
+   * limits on first use.
    */
-  public int getReadCount() {
-    return read_cnt;
+  public synchronized IOScheduler getIOScheduler() {
+    if (io_scheduler == null) {
+      io_scheduler = new IOScheduler(this);
+    }
+    return io_scheduler;
   }
+
   /**
-   * Gets the number of disk writes since database construction.
+   * Gets the number of torn pages repaired from the double-write file since
+   * database construction.
    */
-  public int getWriteCount() {
-    return write_cnt;
+  public int getRepairCount() {
+    return repair_cnt;
   }
 
 //-----Manage allocation and deallocation of pages -------------------
@@ -218,9 +1755,10 @@ public class DiskMgr implements GlobalConst {
     if ((run_size < 1) || (run_size > num_db_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
+    long start = System.nanoTime();
 
     // calculate the size of the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = getNumMapPages();
     int current_run_start = 0;
     int current_run_length = 0;
 
@@ -281,9 +1819,19 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalStateException("Not enough space left; allocate aborted");
     }
 
-    // update the space map and return the resulting page id
+    // update the space map, give the pages to the current file, and return
+    // the resulting page id
     PageId firstpg = new PageId(current_run_start);
     set_bits(firstpg, run_size, 1);
+    String file = current_file.get();
+    if (file != null) {
+      synchronized (this) {
+        for (int i = 0; i < run_size; i++) {
+          owners.put(current_run_start + i, file);
+        }
+      }
+    }
+    latencies[OP_ALLOCATE_PAGE].record(System.nanoTime() - start);
     return firstpg;
 
   } // public PageId allocate_page(int run_size)
@@ -317,12 +1865,18 @@ public class DiskMgr implements GlobalConst {
     }
 
     // validate the run size
-    if (run_size < 1) {
+    if ((run_size < 1) || (run_size > num_db_pages - firstid.pid)) {
       throw new IllegalArgumentException("Invalid run size; deallocate aborted");
     }
 
-    // update the space map
+    // update the space map; the pages belong to no file anymore
     set_bits(firstid, run_size, 0);
+    synchronized (this) {
+      for (int i = 0; i < run_size; i++) {
+        owners.remove(firstid.pid + i);
+      }
+      free_version++;
+    }
 
   } // public void deallocate_page(PageId firstid, int run_size)
 
@@ -335,6 +1889,16 @@ public class DiskMgr implements GlobalConst {
   public void deallocate_page(PageId pageno) {
     deallocate_page(pageno, 1);
   }
+
+  /**
+   * Gets the number of deallocations so far.  Callers keeping page ids
+   * around (e.g. in a cache) know the pages are still theirs as long as this
+   * stays the same.
+   */
+  public synchronized int getFreeVersion() {
+    return free_version;
+  }
+
   /**
    * Gets the number of allocated disk pages.
    */
@@ -347,7 +1911,7 @@ public class DiskMgr implements GlobalConst {
     Page apage = new Page();
 
     // iterate each page in the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = getNumMapPages();
     for (int i = 0; i < num_map_pages; i++) {
 
       // pin the space-map page
@@ -381,13 +1945,120 @@ public class DiskMgr implements GlobalConst {
 
   } // public int getAllocCount()
 
+  /**
+   * Finds the first or the last page that is allocated (or free) according
+   * to the space map.  Whole bytes without such a page are skipped at once.
+   *
+   * @param allocated whether to find an allocated page, or a free one
+   * @param last whether to find the last such page, or the first
+   * @return the id of the page, or -1 if there is none
+   */
+  public int findPage(boolean allocated, boolean last) {
+
+    int num_map_pages = getNumMapPages();
+    int skip = allocated ? 0 : 0xFF;
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for (int n = 0; n < num_map_pages; n++) {
+
+      // pin the space-map page, in the direction of the search
+      int i = last ? num_map_pages - 1 - n : n;
+      pgid.pid = 1 + i;
+      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+      int num_bits_this_page = Math.min(num_db_pages - i * BITS_PER_PAGE,
+          BITS_PER_PAGE);
+
+      // walk its bits, skipping whole bytes of the other value
+      byte[] pagebuf = apage.getData();
+      int found = -1;
+      for (int k = 0; (k < num_bits_this_page) && (found < 0); k++) {
+        int bit = last ? num_bits_this_page - 1 - k : k;
+        int value = pagebuf[bit / 8] & 0xFF;
+        if ((value == skip) && (bit % 8 == (last ? 7 : 0))
+            && (k + 8 <= num_bits_this_page)) {
+          k += 7;
+        } else if (((value >> (bit % 8)) & 1) == (allocated ? 1 : 0)) {
+          found = i * BITS_PER_PAGE + bit;
+        }
+      }
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+      if (found >= 0) {
+        return found;
+      }
+
+    } // for
+    return -1;
+
+  } // public int findPage(boolean allocated, boolean last)
+
+  /**
+   * Gets the high-water mark of the database, i.e. the number of pages up to
+   * and including the last allocated one.
+   */
+  public int getHighWaterMark() {
+    return findPage(true, true) + 1;
+  }
+
+  /**
+   * Gets the total size of the database's OS files (in bytes).
+   */
+  public long getFileSize() {
+    if (page_store != null) {
+      return page_store.size();
+    }
+    long size = 0;
+    try {
+      for (int i = 0; i < stripes.length; i++) {
+        size += stripes[i].length();
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return size;
+  }
+
+  /**
+   * Shortens the OS files of the database to the pages below the high-water
+   * mark, giving the space of the free pages past it back to the OS.  The
+   * database keeps its number of pages; pages past the end of a file read
+   * as zeros, and the file grows again as they are written.  Callers keep
+   * other threads from allocating pages meanwhile.
+   * <br><br>
+   * Free pages below the mark keep their space, since Java has no portable
+   * way to punch holes in a file; the compactor moves pages down first to
+   * make the most of this (see Compactor).
+   *
+   * @return the number of bytes released
+   */
+  public long truncate() {
+    int high = getHighWaterMark();
+    long released = 0;
+    try {
+      if (page_store != null) {
+        released = page_store.size();
+        page_store.truncate((long) high * slot_size);
+        released -= page_store.size();
+      }
+      for (int i = 0; i < stripes.length; i++) {
+        long length = stripePages(i, high) * slot_size;
+        if (stripes[i].length() > length) {
+          released += stripes[i].length() - length;
+          stripes[i].setLength(length);
+        }
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return released;
+  }
+
   /**
    * Print out the database's space map, a bitmap showing which pages are
    * currently allocated.
    */
   public void print_space_map() {
 
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = getNumMapPages();
     int bit_number = 0;
 
     // this loop goes over each page in the space map
@@ -459,8 +2130,10 @@ public class DiskMgr implements GlobalConst {
   protected void set_bits(PageId start_page, int run_size, int value) {
 
     // locate the run within the space map
+    long start = System.nanoTime();
     int first_map_page = start_page.pid / BITS_PER_PAGE + 1;
-    int last_map_page = (start_page.pid + run_size - 1) / BITS_PER_PAGE + 1;
+    int last_map_page = (int) (((long) start_page.pid + run_size - 1)
+        / BITS_PER_PAGE) + 1;
     int first_bit_no = start_page.pid % BITS_PER_PAGE;
 
     // the outer loop goes over all space-map pages we need to touch
@@ -471,6 +2144,7 @@ public class DiskMgr implements GlobalConst {
       Page pg = new Page();
       Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
       byte[] pgbuf = pg.getData();
+      byte[] before = LogMgr.snapshot(pg);
 
       // locate the piece of the run that fits on this page
       int first_byte_no = first_bit_no / 8;
@@ -512,15 +2186,75 @@ public class DiskMgr implements GlobalConst {
 
       } // end of forloop02
 
-      // unpin the space-map page
+      // log and unpin the space-map page
+      LogMgr.logChange(pgid, before, pg);
       Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
 
     } // end of forloop01
+    synchronized (this) {
+      map_version++;
+    }
+    latencies[OP_SET_BITS].record(System.nanoTime() - start);
 
   } // protected void set_bits(PageId start_page, int run_size, int bit)
 
+  /**
+   * Gets the number of pages needed for the space map; computed in 64 bits
+   * so databases close to the 2^31 page limit do not overflow.
+   */
+  protected int getNumMapPages() {
+    return (int) (((long) num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE);
+  }
+
   //-----Manage File Library-------------------
   
+  /**
+   * Reads the whole file library into memory: a case-insensitive map of the
+   * file entries, plus the list of free slots.  Called whenever a database is
+   * created or opened; afterwards the library pages are only written.
+   */
+  protected void load_file_library() {
+
+    library = new HashMap<String, LibraryEntry>();
+    free_slots = new ArrayDeque<LibraryEntry>();
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId();
+    PageId tmppid = new PageId();
+    PageId nexthpid = new PageId(FIRST_PAGEID);
+    do {
+
+      // pin the next header page and get its next
+      hpid.pid = nexthpid.pid;
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+      nexthpid = hpage.getNextPage();
+
+      // sort each entry into the map or the free list
+      for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+        String tmpname = hpage.getFileEntry(tmppid, entry);
+        LibraryEntry libentry = new LibraryEntry(hpid, entry, tmppid);
+        if (tmppid.pid == INVALID_PAGEID) {
+          free_slots.addLast(libentry);
+        } else {
+          library.put(tmpname.toLowerCase(Locale.ROOT), libentry);
+        }
+      }
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+
+    } while (nexthpid.pid != INVALID_PAGEID);
+    last_hpid = new PageId(hpid.pid);
+
+  } // protected void load_file_library()
+
+  /**
+   * Rereads the file library into memory, after an action that may have
+   * changed it was rolled back.
+   */
+  public void reload_file_library() {
+    if (library != null) {
+      load_file_library();
+    }
+  }
+
   /**
    * Adds an entry to the file library.  Each entry contains the name of
    * the file and the PageId of the file's first page.
@@ -541,69 +2275,48 @@ public class DiskMgr implements GlobalConst {
     }
 
     // does the file already exist?
-    if (get_file_entry(fname) != null) {
+    if (library.containsKey(fname.toLowerCase(Locale.ROOT))) {
       throw new IllegalArgumentException(
           "File entry already exists; add entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int free_slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(FIRST_PAGEID);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an empty entry
-      int entry = 0;
-      while (entry < hpage.getNumOfEntries()) {
-        hpage.getFileEntry(tmppid, entry);
-        if (tmppid.pid == INVALID_PAGEID) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify an empty slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        free_slot = entry;
-        found = true;
-      } else if (nexthpid.pid != INVALID_PAGEID) {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
     // if necessary (and possible), add a new header page to the library
-    if (!found) {
+    DBHeaderPage hpage = new DBHeaderPage();
+    if (free_slots.isEmpty()) {
 
-      // allocate the new header page
-      nexthpid = allocate_page();
+      // allocate the new header page, which belongs to no file
+      String file = setCurrentFile(null);
+      PageId nexthpid = allocate_page();
+      setCurrentFile(file);
 
       // set the next-page pointer on the previous library page
+      Minibase.BufferManager.pinPage(last_hpid, hpage, PIN_DISKIO);
+      byte[] before = LogMgr.snapshot(hpage);
       hpage.setNextPage(nexthpid);
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
-
-      // pin the newly-allocated directory page
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
-      hpage.initDefaults();
-      free_slot = 0;
+      LogMgr.logChange(last_hpid, before, hpage);
+      Minibase.BufferManager.unpinPage(last_hpid, UNPIN_DIRTY);
+
+      // write the newly-allocated directory page; all of its slots are free
+      DBDirectoryPage dpage = new DBDirectoryPage();
+      Minibase.BufferManager.pinPage(nexthpid, dpage, PIN_MEMCPY);
+      LogMgr.logNewPage(nexthpid, dpage);
+      Minibase.BufferManager.unpinPage(nexthpid, UNPIN_DIRTY);
+      for (int entry = 0; entry < dpage.getNumOfEntries(); entry++) {
+        free_slots.addLast(new LibraryEntry(nexthpid, entry, new PageId()));
+      }
+      last_hpid = nexthpid;
 
     } // if new library page
 
-    // At this point, "hpid" has the page id of the library page with the free
-    // slot; "hpage" has the directory_page pointer; "free_slot" is the entry
-    // number in the directory where we're going to put the new file entry.
-    hpage.setFileEntry(fname, start_pageno, free_slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    // take a free slot and put the new file entry in it
+    LibraryEntry libentry = free_slots.removeFirst();
+    Minibase.BufferManager.pinPage(libentry.hpid, hpage, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(hpage);
+    hpage.setFileEntry(fname, start_pageno, libentry.slot);
+    LogMgr.logChange(libentry.hpid, before, hpage);
+    Minibase.BufferManager.unpinPage(libentry.hpid, UNPIN_DIRTY);
+    libentry.start.pid = start_pageno.pid;
+    library.put(fname.toLowerCase(Locale.ROOT), libentry);
 
   } // public void add_file_entry(String fname, PageId start_pageno)
 
@@ -615,52 +2328,21 @@ public class DiskMgr implements GlobalConst {
   public void delete_file_entry(String fname) {
 
     // Is the file really in the library?
-    if (get_file_entry(fname) == null) {
+    LibraryEntry libentry = library.remove(fname.toLowerCase(Locale.ROOT));
+    if (libentry == null) {
       throw new IllegalArgumentException(
           "File entry not found in library; delete entry aborted");
     }
 
-    // search the library pages for the entry slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname = null;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      } else {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
     // have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    hpage.setFileEntry("\0", tmppid, slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    DBHeaderPage hpage = new DBHeaderPage();
+    Minibase.BufferManager.pinPage(libentry.hpid, hpage, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(hpage);
+    libentry.start.pid = INVALID_PAGEID;
+    hpage.setFileEntry("\0", libentry.start, libentry.slot);
+    LogMgr.logChange(libentry.hpid, before, hpage);
+    Minibase.BufferManager.unpinPage(libentry.hpid, UNPIN_DIRTY);
+    free_slots.addFirst(libentry);
 
   } // public void delete_file_entry(String fname)
 
@@ -672,52 +2354,12 @@ public class DiskMgr implements GlobalConst {
    */
   public PageId get_file_entry(String fname) {
 
-    // search the library pages for the entry's slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      }
-
-      // unpin the page before continuing or exiting loop
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // return null if not found
-    if (!found) {
+    // return null if not found, otherwise a copy of the first page id
+    LibraryEntry libentry = library.get(fname.toLowerCase(Locale.ROOT));
+    if (libentry == null) {
       return null;
     }
-
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
+    return new PageId(libentry.start.pid);
 
   } // public PageId get_file_entry(String fname)
 
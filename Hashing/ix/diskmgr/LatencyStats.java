@@ -0,0 +1,103 @@
+package diskmgr;
+
+/**
+ * Snapshot of the latency histogram of one disk manager operation, as
+ * reported by DiskMgr.getLatencies.  All times are in nanoseconds.
+ */
+public class LatencyStats {
+
+  /** Name of the operation. */
+  protected String operation;
+
+  /** Number of calls measured. */
+  protected long count;
+
+  /** Mean latency. */
+  protected long mean;
+
+  /** Median latency. */
+  protected long p50;
+
+  /** 99th percentile latency. */
+  protected long p99;
+
+  /** 99.9th percentile latency. */
+  protected long p999;
+
+  /** Largest latency. */
+  protected long max;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a snapshot of the given histogram.
+   */
+  public LatencyStats(String operation, LatencyHistogram histogram) {
+    this.operation = operation;
+    count = histogram.getCount();
+    mean = histogram.getMean();
+    p50 = histogram.getPercentile(50);
+    p99 = histogram.getPercentile(99);
+    p999 = histogram.getPercentile(99.9);
+    max = histogram.getMax();
+  }
+
+  /**
+   * Gets the name of the operation.
+   */
+  public String getOperation() {
+    return operation;
+  }
+
+  /**
+   * Gets the number of calls measured.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the mean latency.
+   */
+  public long getMean() {
+    return mean;
+  }
+
+  /**
+   * Gets the median latency.
+   */
+  public long getP50() {
+    return p50;
+  }
+
+  /**
+   * Gets the 99th percentile latency.
+   */
+  public long getP99() {
+    return p99;
+  }
+
+  /**
+   * Gets the 99.9th percentile latency.
+   */
+  public long getP999() {
+    return p999;
+  }
+
+  /**
+   * Gets the largest latency.
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Returns a readable summary of the snapshot, in microseconds.
+   */
+  public String toString() {
+    return String.format("%s: %d calls, mean %.1f, p50 %.1f, p99 %.1f, "
+        + "p99.9 %.1f, max %.1f us", operation, count, mean / 1e3, p50 / 1e3,
+        p99 / 1e3, p999 / 1e3, max / 1e3);
+  }
+
+} // public class LatencyStats
@@ -0,0 +1,62 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage for a database that is not kept in OS files: a flat array of bytes
+ * holding the database's page slots one after another.  The disk manager
+ * still does everything else (the space map, the file library, checksums
+ * and statistics); see DiskMgr.openStore for how a store is chosen.
+ * <br><br>
+ * Reads and writes of different pages may run concurrently.
+ */
+public interface PageStore {
+
+  /**
+   * Fills the given buffers, in order, from the bytes at the given position;
+   * bytes never written read as zeros.
+   *
+   * @return the number of system calls it took
+   */
+  int read(long pos, ByteBuffer[] bufs) throws IOException;
+
+  /**
+   * Writes the given buffers, in order, at the given position, growing the
+   * store as needed.
+   *
+   * @return the number of system calls it took
+   */
+  int write(long pos, ByteBuffer[] bufs) throws IOException;
+
+  /**
+   * Makes all writes so far durable, as far as the store can.
+   */
+  void sync() throws IOException;
+
+  /**
+   * Gets the number of bytes the store takes up.
+   */
+  long size();
+
+  /**
+   * Gives up the bytes past the given position; they read as zeros again.
+   */
+  void truncate(long size) throws IOException;
+
+  /**
+   * Tells whether the store is open.
+   */
+  boolean isOpen();
+
+  /**
+   * Closes the store; its contents stay, to be opened again.
+   */
+  void close();
+
+  /**
+   * Discards the store's contents; it must be closed.
+   */
+  void destroy();
+
+} // public interface PageStore
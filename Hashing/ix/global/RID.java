@@ -73,8 +73,9 @@ public class RID {
    * Returns a hash code value for the RID.
    */
   public int hashCode() {
-    // won't work if DB supports more than 65535 pages
-    return ((pageno.pid & 0xFFFF) << 16) | (slotno & 0xFFFF);
+    // mix all 32 bits of the page id with the slot number
+    int hash = (pageno.pid * 0x9E3779B9) + slotno;
+    return hash ^ (hash >>> 16);
   }
 
   /**
@@ -70,6 +70,7 @@ class HashBucketPage extends SortedPage {
           }
           /* create a new page for new entry and add it to the list */
           nextPageId = Minibase.BufferManager.newPage(nextPage, 1);
+          nextPage.setCurPage(nextPageId);
           setNextPage(nextPageId);
           /* Insert the entry into the page, if successful, write it to disk. */
           boolean dirty = nextPage.insertEntry(entry);
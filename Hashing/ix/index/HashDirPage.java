@@ -2,6 +2,7 @@ package index;
 
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
 
 /**
  * Hash directory pages simply contain page ids to data pages (i.e. buckets).
@@ -14,6 +15,9 @@ class HashDirPage extends Page {
   /** Offset of the next page id. */
   protected static final int NEXT_PAGE = 2;
 
+  /** Offset of the current page id. */
+  protected static final int CUR_PAGE = 6;
+
   // --------------------------------------------------------------------------
 
   /** Relative offset of an entry's page id. */
@@ -25,7 +29,7 @@ class HashDirPage extends Page {
   // --------------------------------------------------------------------------
 
   /** Total size of the header fields. */
-  protected static final int HEADER_SIZE = 6;
+  protected static final int HEADER_SIZE = 10;
 
   /** The size of a directory entry. */
   protected static final int ENTRY_SIZE = 5;
@@ -61,8 +65,9 @@ class HashDirPage extends Page {
     // initialize the entry count
     setShortValue(INIT_SIZE, ENTRY_CNT);
 
-    // set next page id to invalid
+    // set the page ids to invalid
     setIntValue(INVALID_PAGEID, NEXT_PAGE);
+    setIntValue(INVALID_PAGEID, CUR_PAGE);
 
     // set each entry's pageid to invalid
     for (int i = 0; i < MAX_ENTRIES; i++) {
@@ -91,7 +96,31 @@ class HashDirPage extends Page {
    * Sets the next page's id.
    */
   public void setNextPage(PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, NEXT_PAGE);
+    endChange(before);
+  }
+
+  /**
+   * Gets the current page's id.
+   */
+  public PageId getCurPage() {
+    return new PageId(getIntValue(CUR_PAGE));
+  }
+
+  /**
+   * Sets the current page's id.  Setting it on a new page logs the page's
+   * whole image, since nothing of its old contents should be redone.
+   */
+  public void setCurPage(PageId pageno) {
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      setIntValue(pageno.pid, CUR_PAGE);
+      LogMgr.logNewPage(pageno, this);
+    } else {
+      byte[] before = beginChange();
+      setIntValue(pageno.pid, CUR_PAGE);
+      endChange(before);
+    }
   }
 
   // --------------------------------------------------------------------------
@@ -107,7 +136,9 @@ class HashDirPage extends Page {
    * Sets the first page id of the bucket for the given hash value.
    */
   public void setPageId(int hash, PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, HEADER_SIZE + hash * ENTRY_SIZE + IX_PAGEID);
+    endChange(before);
   }
 
   /**
@@ -121,7 +152,31 @@ class HashDirPage extends Page {
    * Sets the local depth of the bucket for the given hash value.
    */
   public void setDepth(int hash, byte depth) {
+    byte[] before = beginChange();
     data[HEADER_SIZE + hash * ENTRY_SIZE + IX_DEPTH] = depth;
+    endChange(before);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Copies the page's image before a change, if the change is to be logged;
+   * pages still being set up (i.e. without a current page id) are not.
+   *
+   * @return the copy to pass to endChange, or null
+   */
+  protected byte[] beginChange() {
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      return null;
+    }
+    return LogMgr.snapshot(this);
+  }
+
+  /**
+   * Logs a change to the page, given the copy from beginChange.
+   */
+  protected void endChange(byte[] before) {
+    LogMgr.logChange(getCurPage(), before, this);
   }
 
 } // class HashDirPage extends Page
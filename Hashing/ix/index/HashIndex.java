@@ -5,11 +5,15 @@ import global.PageId;
 import global.RID;
 import global.SearchKey;
 import global.Minibase;
+import diskmgr.DiskMgr;
+import logmgr.LogMgr;
 
 /**
  * <h3>Minibase Hash Index</h3>
  * This unclustered index implements static hashing as described on pages 371 to
  * 373 of the textbook (3rd edition).  The index file is a stored as a heapfile.  
+ * If the database is logged, each change to the index is an atomic action.
+ * The disk manager charges each operation's I/O to the index.
  */
 public class HashIndex implements GlobalConst {
 
@@ -46,12 +50,23 @@ public class HashIndex implements GlobalConst {
       }
 
       if(!exists){
-          HashDirPage dirPage = new HashDirPage();
-          this.headId = Minibase.BufferManager.newPage(dirPage, 1);
-          Minibase.BufferManager.unpinPage(this.headId, UNPIN_DIRTY);
-
-          if(fileName!=null){
-              Minibase.DiskManager.add_file_entry(fileName, this.headId);
+          String prev = enterFile();
+          long txn = LogMgr.beginAction();
+          try {
+              HashDirPage dirPage = new HashDirPage();
+              this.headId = Minibase.BufferManager.newPage(dirPage, 1);
+              dirPage.setCurPage(this.headId);
+              Minibase.BufferManager.unpinPage(this.headId, UNPIN_DIRTY);
+
+              if(fileName!=null){
+                  Minibase.DiskManager.add_file_entry(fileName, this.headId);
+              }
+              LogMgr.endAction(txn, true);
+          } catch (RuntimeException exc) {
+              LogMgr.endAction(txn, false);
+              throw exc;
+          } finally {
+              DiskMgr.exitFile(prev);
           }
       }
 	  //throw new UnsupportedOperationException("Not implemented");
@@ -74,32 +89,42 @@ public class HashIndex implements GlobalConst {
    */
   public void deleteFile() {
 
-      PageId dirId = new PageId(this.headId.pid);
-      HashDirPage dirPage = new HashDirPage();
-      HashBucketPage dataPage = new HashBucketPage();
-      while (dirId.pid!=INVALID_PAGEID){
-          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
-          int count = dirPage.getEntryCount();
-
-          for (int i=0; i<count; ++i){
-              PageId dataId = dirPage.getPageId(i);
-              while(dataId.pid!=INVALID_PAGEID){
-                  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
-                  PageId nextId=dataPage.getNextPage();
-                  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-                  Minibase.BufferManager.freePage(dataId);
-                  dataId = nextId;
+      String prev = enterFile();
+      long txn = LogMgr.beginAction();
+      try {
+          PageId dirId = new PageId(this.headId.pid);
+          HashDirPage dirPage = new HashDirPage();
+          HashBucketPage dataPage = new HashBucketPage();
+          while (dirId.pid!=INVALID_PAGEID){
+              Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+              int count = dirPage.getEntryCount();
+
+              for (int i=0; i<count; ++i){
+                  PageId dataId = dirPage.getPageId(i);
+                  while(dataId.pid!=INVALID_PAGEID){
+                      Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+                      PageId nextId=dataPage.getNextPage();
+                      Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+                      Minibase.BufferManager.freePage(dataId);
+                      dataId = nextId;
+                  }
               }
-          }
 
-          PageId nextId = dirPage.getNextPage();
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-          Minibase.BufferManager .freePage(dirId);
-          dirId = nextId;
-      }
+              PageId nextId = dirPage.getNextPage();
+              Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+              Minibase.BufferManager .freePage(dirId);
+              dirId = nextId;
+          }
 
-      if (this.fileName!=null){
-          Minibase.DiskManager.delete_file_entry(this.fileName);
+          if (this.fileName!=null){
+              Minibase.DiskManager.delete_file_entry(this.fileName);
+          }
+          LogMgr.endAction(txn, true);
+      } catch (RuntimeException exc) {
+          LogMgr.endAction(txn, false);
+          throw exc;
+      } finally {
+          DiskMgr.exitFile(prev);
       }
 	  //throw new UnsupportedOperationException("Not implemented");
 
@@ -113,37 +138,48 @@ public class HashIndex implements GlobalConst {
   public void insertEntry(SearchKey key, RID rid) {
 
       DataEntry entry = new DataEntry (key, rid);
-      if (entry.getLength()>1012){
+      if (entry.getLength()>SortedPage.MAX_ENTRY_SIZE){
           throw new IllegalArgumentException("entry too large");
       }
 
       int hash = key.getHash(this.DEPTH);
+      String prev = enterFile();
+      long txn = LogMgr.beginAction();
+      try {
 
-      PageId dirId = new PageId(this.headId.pid);
-      HashDirPage dirPage =new HashDirPage();
-      while (hash >= HashDirPage.MAX_ENTRIES){
-          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
-          PageId nextId = dirPage.getNextPage();
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-          dirId = nextId;
-          hash-= HashDirPage.MAX_ENTRIES;
-      }
-      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO); //bigmistake corrected!
-
-      PageId dataId=dirPage.getPageId(hash);
-      HashBucketPage dataPage = new HashBucketPage();
-      if (dataId.pid!= INVALID_PAGEID){
-          Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+          PageId dirId = new PageId(this.headId.pid);
+          HashDirPage dirPage =new HashDirPage();
+          while (hash >= HashDirPage.MAX_ENTRIES){
+              Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+              PageId nextId = dirPage.getNextPage();
+              Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+              dirId = nextId;
+              hash-= HashDirPage.MAX_ENTRIES;
+          }
+          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO); //bigmistake corrected!
+
+          PageId dataId=dirPage.getPageId(hash);
+          HashBucketPage dataPage = new HashBucketPage();
+          if (dataId.pid!= INVALID_PAGEID){
+              Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+              Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+
+          }else {
+              dataId=Minibase.BufferManager.newPage(dataPage, 1);
+              dataPage.setCurPage(dataId);
+              dirPage.setPageId(hash, dataId);
+              Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+          }
 
-      }else {
-          dataId=Minibase.BufferManager.newPage(dataPage, 1);
-          dirPage.setPageId(hash, dataId);
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+          boolean dirty =dataPage.insertEntry(entry);
+          Minibase.BufferManager.unpinPage(dataId, dirty);
+          LogMgr.endAction(txn, true);
+      } catch (RuntimeException exc) {
+          LogMgr.endAction(txn, false);
+          throw exc;
+      } finally {
+          DiskMgr.exitFile(prev);
       }
-
-      boolean dirty =dataPage.insertEntry(entry);
-      Minibase.BufferManager.unpinPage(dataId, dirty);
 	  //throw new UnsupportedOperationException("Not implemented");
 
   } // public void insertEntry(SearchKey key, RID rid)
@@ -154,6 +190,18 @@ public class HashIndex implements GlobalConst {
    * @throws IllegalArgumentException if the entry doesn't exist
    */
   public void deleteEntry(SearchKey key, RID rid) {
+      String prev = enterFile();
+      try {
+          removeEntry(key, rid);
+      } finally {
+          DiskMgr.exitFile(prev);
+      }
+  }
+
+  /**
+   * Does the work of deleteEntry, on behalf of the index.
+   */
+  protected void removeEntry(SearchKey key, RID rid) {
 
       int hash = key.getHash(this.DEPTH);
       DataEntry entry = new DataEntry(key, rid);
@@ -178,16 +226,19 @@ public class HashIndex implements GlobalConst {
           throw new IllegalArgumentException("entry doesn't exist");
       }
 
+      long txn = LogMgr.beginAction();
       try {
           boolean dirty = dataPage.deleteEntry(entry);
           Minibase.BufferManager.unpinPage(dataId, dirty);
       } catch(IllegalArgumentException exc){
           Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+          LogMgr.endAction(txn, false);
           throw exc;
       }
+      LogMgr.endAction(txn, true);
       //throw new UnsupportedOperationException("Not implemented");
 
-  } // public void deleteEntry(SearchKey key, RID rid)
+  } // protected void removeEntry(SearchKey key, RID rid)
 
   /**
    * Initiates an equality scan of the index file.
@@ -203,6 +254,17 @@ public class HashIndex implements GlobalConst {
     return fileName;
   }
 
+  /**
+   * Makes the calling thread work on behalf of this index, so the disk
+   * manager charges it with the thread's I/O; see DiskMgr.enterFile.
+   *
+   * @return the file the thread was working on before, for exitFile
+   */
+  protected String enterFile() {
+    return DiskMgr.enterFile((fileName != null) ? fileName
+        : DiskMgr.TEMP_FILE);
+  }
+
   /**
    * Prints a high-level view of the directory, namely which buckets are
    * allocated and how many entries are stored in each one. Sample output:
@@ -0,0 +1,129 @@
+package index;
+
+import diskmgr.Compactor;
+import diskmgr.FileRelocator;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Moves the pages of hash index files for the database compactor: the
+ * directory pages after the first one, and the bucket pages, which are
+ * referred to by a directory entry (primary pages) or by the page before
+ * (overflow pages).  Entries hold RIDs, not page ids, so moving any of these
+ * pages leaves the index's contents as they are.
+ */
+public class HashRelocator implements FileRelocator, GlobalConst {
+
+  /** Type of a directory page. */
+  protected static final int DIR_PAGE = 0;
+
+  /** Type of a bucket page. */
+  protected static final int BUCKET_PAGE = 1;
+
+  /** Reference from the previous directory page's next page id. */
+  protected static final int LINK_DIR = 0;
+
+  /** Reference from a directory entry. */
+  protected static final int LINK_ENTRY = 1;
+
+  /** Reference from the previous bucket page's next page id. */
+  protected static final int LINK_BUCKET = 2;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Reports the directory pages (other than the first) and the bucket pages
+   * of the index file.
+   */
+  public boolean listPages(PageId head, Compactor compactor) {
+
+    // is it a hash index at all?
+    PageId dirId = new PageId(head.pid);
+    HashDirPage dirPage = new HashDirPage();
+    Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+    if (dirPage.getCurPage().pid != head.pid) {
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      return false;
+    }
+
+    HashBucketPage bucketPage = new HashBucketPage();
+    while (true) {
+
+      // each bucket's pages are referred to by the entry, or the page before
+      for (int i = 0; i < dirPage.getEntryCount(); i++) {
+        PageId prevId = dirId;
+        int kind = LINK_ENTRY;
+        int slot = i;
+        PageId bucketId = dirPage.getPageId(i);
+        while (bucketId.pid != INVALID_PAGEID) {
+          compactor.addPage(bucketId, this, BUCKET_PAGE);
+          compactor.addLink(bucketId, prevId, kind, slot);
+          Minibase.BufferManager.pinPage(bucketId, bucketPage, PIN_DISKIO);
+          PageId nextId = bucketPage.getNextPage();
+          Minibase.BufferManager.unpinPage(bucketId, UNPIN_CLEAN);
+          prevId = bucketId;
+          kind = LINK_BUCKET;
+          slot = 0;
+          bucketId = nextId;
+        }
+      }
+
+      // the next directory page is referred to by this one
+      PageId nextId = dirPage.getNextPage();
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      if (nextId.pid == INVALID_PAGEID) {
+        return true;
+      }
+      compactor.addPage(nextId, this, DIR_PAGE);
+      compactor.addLink(nextId, dirId, LINK_DIR, 0);
+      dirId = nextId;
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+
+    } // while
+
+  } // public boolean listPages(PageId head, Compactor compactor)
+
+  /**
+   * Gets the page id in a directory entry, or a next page link.
+   */
+  public PageId getLink(Page referrer, int kind, int slot) {
+    switch (kind) {
+      case LINK_DIR:
+        return new HashDirPage(referrer).getNextPage();
+      case LINK_ENTRY:
+        return new HashDirPage(referrer).getPageId(slot);
+      default:
+        return new SortedPage(referrer).getNextPage();
+    }
+  }
+
+  /**
+   * Sets the page id in a directory entry, or a next page link.
+   */
+  public void setLink(Page referrer, int kind, int slot, PageId pageno) {
+    switch (kind) {
+      case LINK_DIR:
+        new HashDirPage(referrer).setNextPage(pageno);
+        break;
+      case LINK_ENTRY:
+        new HashDirPage(referrer).setPageId(slot, pageno);
+        break;
+      default:
+        new SortedPage(referrer).setNextPage(pageno);
+        break;
+    }
+  }
+
+  /**
+   * Sets the current page id of a directory or bucket page.
+   */
+  public void setSelf(Page page, int type, PageId pageno) {
+    int offset = (type == DIR_PAGE) ? HashDirPage.CUR_PAGE
+        : SortedPage.CUR_PAGE;
+    Convert.setIntValue(pageno.pid, offset, page.getData());
+  }
+
+} // public class HashRelocator implements FileRelocator, GlobalConst
@@ -5,6 +5,7 @@ import global.PageId;
 import global.RID;
 import global.Minibase;
 import global.SearchKey;
+import diskmgr.DiskMgr;
 
 /**
  * A HashScan retrieves all records with a given key (via the RIDs of the records).  
@@ -24,6 +25,9 @@ public class HashScan implements GlobalConst {
   /** Current slot to scan from. */
   protected int curSlot;
 
+  /** The index being scanned. */
+  protected HashIndex index;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -31,6 +35,20 @@ public class HashScan implements GlobalConst {
    */
   protected HashScan(HashIndex index, SearchKey key) {
 
+      this.index = index;
+      String prev = index.enterFile();
+      try {
+          init(key);
+      } finally {
+          DiskMgr.exitFile(prev);
+      }
+  }
+
+  /**
+   * Does the work of the constructor, on behalf of the index.
+   */
+  protected void init(SearchKey key) {
+
       /* Use the hash value to find the directory page, if hash value >= MaxEntries
        * then we need to reduce by maxEntries iteratively until the hash value points
        * to some page in the directory(hashvalue < maxEntries) */
@@ -62,7 +80,7 @@ public class HashScan implements GlobalConst {
       }
 	  //throw new UnsupportedOperationException("Not implemented");
 
-  } // protected HashScan(HashIndex index, SearchKey key)
+  } // protected void init(SearchKey key)
 
   /**
    * Called by the garbage collector when there are no more references to the
@@ -96,6 +114,19 @@ public class HashScan implements GlobalConst {
      * to test if there is a next bucket ######
      */
     public boolean hasNext()
+    {
+        String prev = index.enterFile();
+        try {
+            return nextEntry();
+        } finally {
+            DiskMgr.exitFile(prev);
+        }
+    }
+
+    /**
+     * Does the work of hasNext, on behalf of the index.
+     */
+    protected boolean nextEntry()
     {
         while (this.curPageId.pid != INVALID_PAGEID)
         {
@@ -3,6 +3,7 @@ package index;
 import global.Page;
 import global.PageId;
 import global.SearchKey;
+import logmgr.LogMgr;
 
 /**
  * A base class for index pages that automatically stores records in ascending
@@ -24,10 +25,13 @@ class SortedPage extends Page {
   /** Offset of the next page id. */
   protected static final int NEXT_PAGE = 4;
 
+  /** Offset of the current page id. */
+  protected static final int CUR_PAGE = 8;
+
   // --------------------------------------------------------------------------
 
   /** Total size of the header fields. */
-  protected static final int HEADER_SIZE = 8;
+  protected static final int HEADER_SIZE = 12;
 
   /** Size of a slot (short length; short offset). */
   protected static final int SLOT_SIZE = 4;
@@ -63,8 +67,9 @@ class SortedPage extends Page {
     // used pointer moves backwards
     setShortValue((short) PAGE_SIZE, USED_PTR);
 
-    // set next page id to invalid
+    // set the page ids to invalid
     setIntValue(INVALID_PAGEID, NEXT_PAGE);
+    setIntValue(INVALID_PAGEID, CUR_PAGE);
 
   } // protected void initDefaults()
 
@@ -96,7 +101,31 @@ class SortedPage extends Page {
    * Sets the next page's id.
    */
   public void setNextPage(PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, NEXT_PAGE);
+    endChange(before);
+  }
+
+  /**
+   * Gets the current page's id.
+   */
+  public PageId getCurPage() {
+    return new PageId(getIntValue(CUR_PAGE));
+  }
+
+  /**
+   * Sets the current page's id.  Setting it on a new page logs the page's
+   * whole image, since nothing of its old contents should be redone.
+   */
+  public void setCurPage(PageId pageno) {
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      setIntValue(pageno.pid, CUR_PAGE);
+      LogMgr.logNewPage(pageno, this);
+    } else {
+      byte[] before = beginChange();
+      setIntValue(pageno.pid, CUR_PAGE);
+      endChange(before);
+    }
   }
 
   // --------------------------------------------------------------------------
@@ -160,6 +189,7 @@ class SortedPage extends Page {
     if (spaceNeeded > getFreeSpace()) {
       throw new IllegalStateException("insufficient space");
     }
+    byte[] before = beginChange();
 
     // linear search for the appropriate slot
     short i, slotCnt = getEntryCount();
@@ -192,6 +222,7 @@ class SortedPage extends Page {
     setShortValue(reclen, slotpos);
     setShortValue(usedPtr, slotpos + 2);
     entry.writeData(data, usedPtr);
+    endChange(before);
     return true;
 
   } // public boolean insertEntry(DataEntry entry)
@@ -222,6 +253,7 @@ class SortedPage extends Page {
     }
 
     // calculate the compacting values
+    byte[] before = beginChange();
     short slotpos = (short) (HEADER_SIZE + i * SLOT_SIZE);
     short reclen = getSlotLength(i);
     short recoff = getSlotOffset(i);
@@ -246,6 +278,7 @@ class SortedPage extends Page {
 
     // update the entry count
     setShortValue(--slotCnt, ENTRY_CNT);
+    endChange(before);
     return true;
 
   } // public boolean deleteEntry(DataEntry entry)
@@ -276,4 +309,26 @@ class SortedPage extends Page {
 
   } // public int nextEntry(SearchKey key, int slotno)
 
+  // --------------------------------------------------------------------------
+
+  /**
+   * Copies the page's image before a change, if the change is to be logged;
+   * pages still being set up (i.e. without a current page id) are not.
+   *
+   * @return the copy to pass to endChange, or null
+   */
+  protected byte[] beginChange() {
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      return null;
+    }
+    return LogMgr.snapshot(this);
+  }
+
+  /**
+   * Logs a change to the page, given the copy from beginChange.
+   */
+  protected void endChange(byte[] before) {
+    LogMgr.logChange(getCurPage(), before, this);
+  }
+
 } // class SortedPage extends Page
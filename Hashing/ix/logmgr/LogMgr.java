@@ -0,0 +1,789 @@
+package logmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <h3>Minibase Log Manager</h3>
+ * The log manager keeps a write-ahead log of page changes, so the database
+ * can be brought back to a consistent state after a crash.
+ * It provides the following services:
+ * <ol>
+ * <li>Transactions: changes made between begin and commit are durable once
+ * commit returns, and are rolled back by abort or by recovery otherwise
+ * <li>Logging page changes as byte ranges, with a full page image the first
+ * time a page changes after a checkpoint
+ * <li>Group commit: the log is appended in memory, and one fsync makes the
+ * commits of all threads waiting on it durable
+ * <li>ARIES-style recovery (analysis, redo, undo) when a database is opened
+ * </ol>
+ * The disk manager enforces the write-ahead rule: before a page is written,
+ * the log is flushed through the last record that changed it.
+ */
+public class LogMgr implements GlobalConst {
+
+  /** Size of the log file header, which holds the last checkpoint's LSN. */
+  protected static final int LOG_HEADER_SIZE = 8;
+
+  /** Largest record the log can hold (an UPDATE of a whole page). */
+  protected static final int MAX_RECORD_SIZE = LogRecord.FRAME_SIZE
+      + LogRecord.HEADER_SIZE + 8 + 2 * PAGE_SIZE;
+
+  /** Initial size of the in-memory log tail (in bytes). */
+  protected static final int TAIL_SIZE = 64 * 1024;
+
+  // --------------------------------------------------------------------------
+
+  /** Name of the OS file holding the log. */
+  protected String name;
+
+  /** Reference to the OS file. */
+  protected RandomAccessFile fp;
+
+  /** Channel of the OS file, used for positional I/O. */
+  protected FileChannel channel;
+
+  /** How long a group commit leader waits for others to join (in ms). */
+  protected int group_commit_ms;
+
+  /** Records appended since the last flush, not yet written. */
+  protected ByteBuffer tail;
+
+  /** LSN of the first record in the tail. */
+  protected long tail_lsn;
+
+  /** Every record before this LSN is on stable storage. */
+  protected long durable_lsn;
+
+  /** True while some thread is writing and syncing the log. */
+  protected boolean flushing;
+
+  /** Next transaction id to hand out. */
+  protected long next_txn;
+
+  /** Last LSN of each active transaction. */
+  protected HashMap<Long, Long> active;
+
+  /** LSN of the last record that changed each page since the checkpoint. */
+  protected HashMap<Integer, Long> page_lsns;
+
+  /** Pages whose full image was logged since the checkpoint. */
+  protected HashSet<Integer> imaged;
+
+  /** The transaction running on each thread, if any. */
+  protected ThreadLocal<Long> current;
+
+  /** Number of log records appended. */
+  protected long record_cnt;
+
+  /** Number of log fsyncs. */
+  protected long sync_cnt;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a log manager that doesn't wait for group commits to fill.
+   */
+  public LogMgr() {
+    this(0);
+  }
+
+  /**
+   * Constructs a log manager with the given group commit window.
+   *
+   * @param group_commit_ms how long the thread that syncs the log waits for
+   * other committing threads to join its fsync (in milliseconds)
+   */
+  public LogMgr(int group_commit_ms) {
+    this.group_commit_ms = group_commit_ms;
+    current = new ThreadLocal<Long>();
+  }
+
+  // ------Manage the log file--------------------
+
+  /**
+   * Creates a new, empty log with the given OS file name.
+   */
+  public void createLog(String fname) {
+    new File(fname).delete();
+    openLog(fname);
+  }
+
+  /**
+   * Opens the log with the given OS file name, creating it if needed.
+   * Call recover() before making new changes.
+   */
+  public synchronized void openLog(String fname) {
+
+    // open the OS file and read the header
+    name = fname;
+    try {
+      fp = new RandomAccessFile(fname, "rw");
+      channel = fp.getChannel();
+      if (fp.length() < LOG_HEADER_SIZE) {
+        fp.setLength(0);
+        fp.writeLong(0);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // reset the in-memory state; appending resumes where recovery says
+    tail = ByteBuffer.allocate(TAIL_SIZE);
+    tail_lsn = LOG_HEADER_SIZE;
+    durable_lsn = LOG_HEADER_SIZE;
+    next_txn = 1;
+    active = new HashMap<Long, Long>();
+    page_lsns = new HashMap<Integer, Long>();
+    imaged = new HashSet<Integer>();
+
+  } // public void openLog(String fname)
+
+  /**
+   * Flushes and closes the log file.
+   */
+  public void closeLog() {
+    flush();
+    try {
+      fp.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Closes and removes the log file.
+   */
+  public void destroyLog() {
+    closeLog();
+    new File(name).delete();
+  }
+
+  // ------Transactions--------------------
+
+  /**
+   * Starts a transaction on the calling thread.  If the thread is already in
+   * a transaction, the caller joins it instead.
+   *
+   * @return the new transaction's id, or 0 if the caller joined
+   */
+  public long begin() {
+    if (current.get() != null) {
+      return 0;
+    }
+    long txn;
+    synchronized (this) {
+      txn = next_txn++;
+      active.put(txn, 0L);
+      append(new LogRecord(LogRecord.BEGIN, txn, 0));
+    }
+    current.set(txn);
+    return txn;
+  }
+
+  /**
+   * Commits the given transaction; its changes are durable on return.
+   * Does nothing for a joined transaction (i.e. id 0).
+   */
+  public void commit(long txn) {
+    if (txn == 0) {
+      return;
+    }
+    long lsn;
+    synchronized (this) {
+      lsn = append(new LogRecord(LogRecord.COMMIT, txn, active.get(txn)));
+    }
+    flush(lsn);
+    synchronized (this) {
+      append(new LogRecord(LogRecord.END, txn, lsn));
+      active.remove(txn);
+    }
+    current.remove();
+  }
+
+  /**
+   * Rolls back the given transaction, undoing all of its changes.
+   * Does nothing for a joined transaction (i.e. id 0).
+   */
+  public void abort(long txn) {
+    if (txn == 0) {
+      return;
+    }
+    long lsn;
+    synchronized (this) {
+      lsn = append(new LogRecord(LogRecord.ABORT, txn, active.get(txn)));
+    }
+    flush(lsn);
+    rollback(txn, lsn);
+    current.remove();
+
+    // the file library's pages may be among those put back; the disk
+    // manager's image of them is not, so it rereads them
+    Minibase.DiskManager.reload_file_library();
+  }
+
+  /**
+   * Gets the id of the transaction running on the calling thread, or 0.
+   */
+  public long getCurrentTxn() {
+    Long txn = current.get();
+    return (txn != null) ? txn : 0;
+  }
+
+  // ------Logging page changes--------------------
+
+  /**
+   * Logs a change to a page, given its image before and after the change,
+   * on behalf of the calling thread's transaction.  Only the range of bytes
+   * that differ is logged.  Undo is physical, so transactions that change the
+   * same page must not overlap; the access methods run one at a time.
+   *
+   * @return LSN of the new record, or 0 if nothing changed
+   */
+  public synchronized long logUpdate(PageId pageno, byte[] before,
+      byte[] after) {
+
+    // find the range of bytes that changed
+    int first = 0;
+    while ((first < PAGE_SIZE) && (before[first] == after[first])) {
+      first++;
+    }
+    if (first == PAGE_SIZE) {
+      return 0;
+    }
+    int last = PAGE_SIZE - 1;
+    while (before[last] == after[last]) {
+      last--;
+    }
+
+    // on the first change since the checkpoint, log the old page image as a
+    // redo-only record, so redo never depends on the page's contents on disk
+    if (!imaged.contains(pageno.pid)) {
+      logImage(pageno, before);
+    }
+
+    // append an update record to the transaction's chain
+    long txn = getCurrentTxn();
+    LogRecord rec = new LogRecord(LogRecord.UPDATE, txn, (txn != 0) ? active
+        .get(txn) : 0);
+    rec.pid = pageno.pid;
+    rec.offset = first;
+    rec.before = new byte[last - first + 1];
+    rec.after = new byte[last - first + 1];
+    System.arraycopy(before, first, rec.before, 0, rec.before.length);
+    System.arraycopy(after, first, rec.after, 0, rec.after.length);
+    return append(rec);
+
+  } // public long logUpdate(PageId pageno, byte[] before, byte[] after)
+
+  /**
+   * Logs the whole image of a page that is being (re)initialized, as a
+   * redo-only record; what the page held before doesn't matter to recovery.
+   *
+   * @return LSN of the new record
+   */
+  public synchronized long logImage(PageId pageno, byte[] image) {
+    imaged.add(pageno.pid);
+    LogRecord rec = new LogRecord(LogRecord.UPDATE, 0, 0);
+    rec.pid = pageno.pid;
+    rec.offset = 0;
+    rec.before = image.clone();
+    rec.after = rec.before;
+    return append(rec);
+  }
+
+  /**
+   * Logs the whole image of a new page, if logging is on.
+   */
+  public static void logNewPage(PageId pageno, Page page) {
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.logImage(pageno, page.getData());
+    }
+  }
+
+  /**
+   * Logs a change to a page, given a copy of its image before the change.
+   * Does nothing if the copy is null, i.e. logging was off when it was taken.
+   */
+  public static void logChange(PageId pageno, byte[] before, Page page) {
+    if ((before != null) && (Minibase.LogManager != null)) {
+      Minibase.LogManager.logUpdate(pageno, before, page.getData());
+    }
+  }
+
+  /**
+   * Copies a page's image before changing it, if logging is on.
+   *
+   * @return the copy, or null if logging is off
+   */
+  public static byte[] snapshot(Page page) {
+    return (Minibase.LogManager != null) ? page.getData().clone() : null;
+  }
+
+  /**
+   * Starts an atomic action (i.e. joins or begins a transaction) if logging
+   * is on.
+   *
+   * @return the id to end the action with
+   */
+  public static long beginAction() {
+    return (Minibase.LogManager != null) ? Minibase.LogManager.begin() : 0;
+  }
+
+  /**
+   * Ends an atomic action started by beginAction, committing or aborting
+   * the transaction if the action began it.
+   */
+  public static void endAction(long txn, boolean commit) {
+    if (txn == 0) {
+      return;
+    }
+    if (commit) {
+      Minibase.LogManager.commit(txn);
+    } else {
+      Minibase.LogManager.abort(txn);
+    }
+  }
+
+  // ------Writing the log--------------------
+
+  /**
+   * Appends a record to the log tail, and tracks it in the transaction and
+   * page tables.  Callers hold the monitor.
+   *
+   * @return the record's LSN
+   */
+  protected long append(LogRecord rec) {
+
+    // grow the tail if needed
+    int length = rec.getLength();
+    if (tail.remaining() < length) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(tail.capacity() * 2,
+          tail.position() + length));
+      tail.flip();
+      bigger.put(tail);
+      tail = bigger;
+    }
+
+    // write the record and update the tables
+    long lsn = tail_lsn + tail.position();
+    rec.writeData(tail);
+    if ((rec.txn != 0) && active.containsKey(rec.txn)) {
+      active.put(rec.txn, lsn);
+    }
+    if ((rec.type == LogRecord.UPDATE) || (rec.type == LogRecord.CLR)) {
+      page_lsns.put(rec.pid, lsn);
+    }
+    record_cnt++;
+    return lsn;
+
+  } // protected long append(LogRecord rec)
+
+  /**
+   * Makes the log durable through the record with the given LSN.  If another
+   * thread is already syncing, this waits for it; otherwise this thread
+   * becomes the leader, waits out the group commit window so other threads
+   * can add their records, and syncs the whole tail with one fsync.
+   */
+  public void flush(long lsn) {
+
+    ByteBuffer out;
+    long out_lsn;
+    synchronized (this) {
+
+      // wait until the record is durable, or no one else is syncing
+      while ((durable_lsn <= lsn) && flushing) {
+        try {
+          wait();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (durable_lsn > lsn) {
+        return;
+      }
+      flushing = true;
+
+    } // synchronized
+
+    // give other committers a chance to join this fsync
+    if (group_commit_ms > 0) {
+      try {
+        Thread.sleep(group_commit_ms);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // take the tail, leaving a fresh one for appends during the write
+    synchronized (this) {
+      out = tail;
+      out_lsn = tail_lsn;
+      tail_lsn += tail.position();
+      tail = ByteBuffer.allocate(Math.max(TAIL_SIZE, out.position()));
+    }
+
+    // write and sync outside the monitor
+    try {
+      out.flip();
+      long pos = out_lsn;
+      while (out.hasRemaining()) {
+        pos += channel.write(out, pos);
+      }
+      channel.force(false);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // wake everyone whose record is now durable
+    synchronized (this) {
+      durable_lsn = out_lsn + out.limit();
+      sync_cnt++;
+      flushing = false;
+      notifyAll();
+    }
+
+  } // public void flush(long lsn)
+
+  /**
+   * Makes the whole log durable.
+   */
+  public void flush() {
+    long lsn;
+    synchronized (this) {
+      lsn = tail_lsn + tail.position() - 1;
+    }
+    flush(lsn);
+  }
+
+  /**
+   * Enforces the write-ahead rule for the given page: flushes the log through
+   * the last record that changed it.  Called before the page is written.
+   */
+  public void flushPage(PageId pageno) {
+    Long lsn;
+    synchronized (this) {
+      lsn = page_lsns.get(pageno.pid);
+    }
+    if (lsn != null) {
+      flush(lsn);
+    }
+  }
+
+  /**
+   * Takes a checkpoint: writes every dirty page, so the log before this point
+   * is never needed for redo.  If no transactions are active, the log is
+   * emptied; otherwise a checkpoint record lists them for recovery.
+   */
+  public void checkpoint() {
+
+    // get every page to stable storage (which also flushes the log through
+    // their LSNs), before the log describing them may be dropped
+    flush();
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.DiskManager.sync();
+
+    synchronized (this) {
+      try {
+        if (active.isEmpty()) {
+
+          // nothing to undo or redo; start over
+          flushAllTail();
+          channel.truncate(LOG_HEADER_SIZE);
+          writeMaster(0);
+          tail_lsn = LOG_HEADER_SIZE;
+          durable_lsn = LOG_HEADER_SIZE;
+
+        } else {
+
+          // record the active transactions, and point the master at them
+          LogRecord rec = new LogRecord(LogRecord.CHECKPOINT, 0, 0);
+          rec.active = new long[active.size() * 2];
+          int i = 0;
+          for (Map.Entry<Long, Long> e : active.entrySet()) {
+            rec.active[i++] = e.getKey();
+            rec.active[i++] = e.getValue();
+          }
+          long lsn = append(rec);
+          flushAllTail();
+          writeMaster(lsn);
+
+        }
+      } catch (IOException exc) {
+        Minibase.haltSystem(exc);
+      }
+
+      // pages must be imaged again before their next change
+      page_lsns.clear();
+      imaged.clear();
+    }
+
+  } // public void checkpoint()
+
+  /**
+   * Writes and syncs the whole tail; only for callers that hold the monitor
+   * while no group commit is in progress.
+   */
+  protected void flushAllTail() throws IOException {
+    while (flushing) {
+      try {
+        wait();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    tail.flip();
+    long pos = tail_lsn;
+    while (tail.hasRemaining()) {
+      pos += channel.write(tail, pos);
+    }
+    channel.force(false);
+    tail_lsn = pos;
+    durable_lsn = pos;
+    tail.clear();
+    sync_cnt++;
+  }
+
+  /**
+   * Writes and syncs the LSN of the last checkpoint in the log header.
+   */
+  protected void writeMaster(long lsn) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(LOG_HEADER_SIZE);
+    buf.putLong(0, lsn);
+    channel.write(buf, 0);
+    channel.force(false);
+  }
+
+  // ------Reading the log--------------------
+
+  /**
+   * Reads the record with the given LSN from the log file.
+   *
+   * @return the record, or null if it is incomplete or corrupt
+   */
+  protected LogRecord readRecord(long lsn) throws IOException {
+
+    // read and check the length
+    ByteBuffer len = ByteBuffer.allocate(4);
+    if (readFully(len, lsn) < 4) {
+      return null;
+    }
+    int length = len.getInt(0);
+    if ((length < LogRecord.HEADER_SIZE)
+        || (length > MAX_RECORD_SIZE - LogRecord.FRAME_SIZE)) {
+      return null;
+    }
+
+    // read the whole frame and decode it
+    ByteBuffer buf = ByteBuffer.allocate(length + LogRecord.FRAME_SIZE);
+    if (readFully(buf, lsn) < buf.capacity()) {
+      return null;
+    }
+    buf.flip();
+    return LogRecord.readData(buf, lsn);
+
+  } // protected LogRecord readRecord(long lsn)
+
+  /**
+   * Reads from the log file into the buffer until it is full or the file
+   * ends; returns the number of bytes read.
+   */
+  protected int readFully(ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, pos + buf.position()) < 0) {
+        break;
+      }
+    }
+    return buf.position();
+  }
+
+  // ------Recovery--------------------
+
+  /**
+   * Recovers the database after the log is opened: finds the transactions
+   * that were active at the crash (analysis), repeats history by reapplying
+   * every logged change since the last checkpoint (redo), then rolls back the
+   * unfinished transactions (undo).  Ends with a checkpoint.
+   */
+  public void recover() {
+
+    try {
+
+      // find where to start: the last checkpoint, or the beginning
+      ByteBuffer master = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      readFully(master, 0);
+      long start = master.getLong(0);
+      if (start < LOG_HEADER_SIZE) {
+        start = LOG_HEADER_SIZE;
+      }
+
+      // analysis: rebuild the transaction table, and find the end of the log
+      HashMap<Long, Long> losers = new HashMap<Long, Long>();
+      long lsn = start;
+      LogRecord rec;
+      while ((rec = readRecord(lsn)) != null) {
+        next_txn = Math.max(next_txn, rec.txn + 1);
+        switch (rec.type) {
+          case LogRecord.CHECKPOINT:
+            for (int i = 0; i < rec.active.length; i += 2) {
+              losers.put(rec.active[i], rec.active[i + 1]);
+              next_txn = Math.max(next_txn, rec.active[i] + 1);
+            }
+            break;
+          case LogRecord.COMMIT:
+          case LogRecord.END:
+            losers.remove(rec.txn);
+            break;
+          default:
+            if (rec.txn != 0) {
+              losers.put(rec.txn, lsn);
+            }
+            break;
+        }
+        lsn += rec.getLength();
+      }
+
+      // drop a torn tail, and resume appending after the last good record
+      synchronized (this) {
+        channel.truncate(lsn);
+        tail_lsn = lsn;
+        durable_lsn = lsn;
+        active.putAll(losers);
+      }
+
+      // redo: repeat history, including the losers' changes
+      for (long pos = start; pos < lsn; pos += rec.getLength()) {
+        rec = readRecord(pos);
+        if ((rec.type == LogRecord.UPDATE) || (rec.type == LogRecord.CLR)) {
+          applyRange(rec.pid, rec.offset, rec.after);
+        }
+      }
+
+      // undo: roll back all losers together, latest record first
+      PriorityQueue<long[]> todo = new PriorityQueue<long[]>(11,
+          (a, b) -> Long.compare(b[1], a[1]));
+      for (Map.Entry<Long, Long> e : losers.entrySet()) {
+        todo.add(new long[] { e.getKey(), e.getValue() });
+      }
+      while (!todo.isEmpty()) {
+        long[] next = todo.poll();
+        long undo_next = undoRecord(next[0], next[1]);
+        if (undo_next != 0) {
+          todo.add(new long[] { next[0], undo_next });
+        }
+      }
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // everything is consistent; make it so on disk
+    checkpoint();
+
+  } // public void recover()
+
+  /**
+   * Undoes all changes of the given transaction, starting from the given
+   * record, and ends the transaction.
+   */
+  protected void rollback(long txn, long lsn) {
+    try {
+      while (lsn != 0) {
+        lsn = undoRecord(txn, lsn);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Undoes one record of a transaction: an UPDATE is compensated by a CLR
+   * that restores its before image; a CLR skips to what is left to undo.
+   * When nothing is left, the transaction is ended.
+   *
+   * @return LSN of the transaction's next record to undo, or 0 if done
+   */
+  protected long undoRecord(long txn, long lsn) throws IOException {
+
+    // records may still be in the tail
+    flush(lsn);
+    LogRecord rec = readRecord(lsn);
+    if (rec == null) {
+      throw new IllegalStateException("Log record " + lsn + " is unreadable");
+    }
+
+    long undo_next = rec.prev_lsn;
+    if (rec.type == LogRecord.UPDATE) {
+
+      // compensate, and put the old bytes back
+      synchronized (this) {
+        LogRecord clr = new LogRecord(LogRecord.CLR, txn, active.get(txn));
+        clr.pid = rec.pid;
+        clr.offset = rec.offset;
+        clr.after = rec.before;
+        clr.undo_next = rec.prev_lsn;
+        append(clr);
+      }
+      applyRange(rec.pid, rec.offset, rec.before);
+
+    } else if (rec.type == LogRecord.CLR) {
+      undo_next = rec.undo_next;
+    }
+
+    // end the transaction once its first record is undone
+    if (undo_next == 0) {
+      synchronized (this) {
+        append(new LogRecord(LogRecord.END, txn, active.get(txn)));
+        active.remove(txn);
+      }
+    }
+    return undo_next;
+
+  } // protected long undoRecord(long txn, long lsn)
+
+  /**
+   * Writes the given bytes on a page, through the buffer manager.  A whole
+   * page image is installed without reading the page, which may be torn.
+   */
+  protected void applyRange(int pid, int offset, byte[] bytes) {
+    PageId pageno = new PageId(pid);
+    Page page = new Page();
+    if (bytes.length == PAGE_SIZE) {
+      page.setData(bytes.clone());
+      Minibase.BufferManager.pinPage(pageno, page, PIN_MEMCPY);
+    } else {
+      Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    }
+    System.arraycopy(bytes, 0, page.getData(), offset, bytes.length);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+  }
+
+  // ------Statistics--------------------
+
+  /**
+   * Gets the number of records appended since the log was constructed.
+   */
+  public synchronized long getRecordCount() {
+    return record_cnt;
+  }
+
+  /**
+   * Gets the number of log fsyncs since the log was constructed.
+   */
+  public synchronized long getSyncCount() {
+    return sync_cnt;
+  }
+
+} // public class LogMgr implements GlobalConst
@@ -1,9 +1,12 @@
 package tests;
 
+import diskmgr.Compactor;
+import global.Minibase;
 import global.PageId;
 import global.RID;
 import global.SearchKey;
 import index.HashIndex;
+import index.HashRelocator;
 import index.HashScan;
 
 /**
@@ -47,6 +50,8 @@ class IXExtraTests extends TestDriver {
         status &= hft.test4();
         retval = true;
         status &= hft.test5();
+        retval = true;
+        status &= hft.test6();
 
         // display the final results
         System.out.println();
@@ -216,4 +221,64 @@ class IXExtraTests extends TestDriver {
 
     } // protected boolean test5()
 
-} // class IXTest extends TestDriver
\ No newline at end of file
+    /**
+     * Compacts an index file after one created alongside it is deleted.
+     */
+    protected boolean test6() {
+
+        System.out.println();
+        System.out.println("Test 6: Compact an index into the space of a deleted one");
+
+        System.out.println("\n  ~> building two indexes of " + FILE_SIZE + " integers...");
+        HashIndex filler = new HashIndex("IX_Filler");
+        HashIndex index = new HashIndex("IX_Compact");
+        for (int i = 0; i < FILE_SIZE; i++) {
+            filler.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+            index.insertEntry(new SearchKey(i), new RID(new PageId(i), 1));
+        }
+
+        System.out.println("\n  ~> deleting the first one, and compacting...");
+        filler.deleteFile();
+        int high = Minibase.DiskManager.getHighWaterMark();
+        int moved = new Compactor(new HashRelocator()).compact();
+        int now = Minibase.DiskManager.getHighWaterMark();
+        System.out.println("  (" + moved + " pages moved, high-water mark "
+            + high + " -> " + now + ")");
+        if ((moved < 1) || (now != Minibase.DiskManager.getAllocCount())) {
+            System.out.println("  ERROR: The index was not compacted!");
+            retval = false;
+        }
+
+        System.out.println("\n  ~> scanning all entries...");
+        for (int i = 0; i < FILE_SIZE; i++) {
+            RID rid = new RID(new PageId(i), 1);
+            HashScan scan = index.openScan(new SearchKey(i));
+            RID rid2 = scan.getNext();
+            found = false;
+            while (rid2 != null) {
+                if (rid2.equals(rid)) {
+                    found = true;
+                }
+                rid2 = scan.getNext();
+            }
+            scan.close();
+            if (!found) {
+                System.out.println("  ERROR: Search key not found in scan!");
+                retval = false;
+                break;
+            }
+        }
+
+        System.out.println("\n  ~> deleting and inserting after compaction...");
+        for (int i = 0; i < FILE_SIZE; i += 2) {
+            index.deleteEntry(new SearchKey(i), new RID(new PageId(i), 1));
+        }
+        index.insertEntry(new SearchKey(-1), new RID(new PageId(1), 1));
+        index.deleteFile();
+        found = true;
+
+        return retval;
+
+    } // protected boolean test6()
+
+} // class IXTest extends TestDriver
\ No newline at end of file
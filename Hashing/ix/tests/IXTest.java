@@ -49,6 +49,7 @@ class IXTest extends TestDriver {
     status &= hft.test3();
 
     // display the final results
+    hft.printDeviceTime();
     System.out.println();
     if (!status) {
       System.out.println("Error(s) encountered during " + TEST_NAME + ".");
@@ -10,6 +10,26 @@ class DBFirstPage extends DBHeaderPage {
   /** Offest for the total number of pages. */
   protected static final int NUM_DB_PAGE = PAGE_SIZE - 4;
 
+  /** Offset for the number of OS files the database is striped across. */
+  protected static final int STRIPE_CNT = PAGE_SIZE - 6;
+
+  /** Offset for the number of consecutive pages per OS file. */
+  protected static final int STRIPE_UNIT = PAGE_SIZE - 8;
+
+  /** Offset for the page offset of the list of OS file names. */
+  protected static final int STRIPE_NAMES = PAGE_SIZE - 10;
+
+  /** Offset for the on-disk format flags. */
+  protected static final int FORMAT = PAGE_SIZE - 12;
+
+  // --------------------------------------------------------------------------
+
+  /** Format flag: each page is followed by a checksum trailer. */
+  protected static final short FORMAT_CHECKSUMS = 1;
+
+  /** Format flag: pages are written to a double-write file first. */
+  protected static final short FORMAT_DOUBLE_WRITE = 2;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -40,4 +60,83 @@ class DBFirstPage extends DBHeaderPage {
     return getIntValue(NUM_DB_PAGE);
   }
 
+  /**
+   * Records the OS files the database is striped across.  The names of all
+   * but the first file are stored just above the footer, taking the place
+   * of file entries at the end of the page.
+   * 
+   * @throws IllegalArgumentException if the names don't fit on the page
+   */
+  public void setStripes(String[] fnames, int unit) {
+
+    // measure the name list
+    int length = 0;
+    for (int i = 1; i < fnames.length; i++) {
+      length += 2 + fnames[i].getBytes().length;
+    }
+    int position = FORMAT - length;
+    if (position < START_FILE_ENTRIES + SIZE_OF_FILE_ENTRY) {
+      throw new IllegalArgumentException(
+          "File names too long; create aborted");
+    }
+
+    // give up the file entries that overlap the name list
+    int num_entries = (position - START_FILE_ENTRIES) / SIZE_OF_FILE_ENTRY;
+    if (num_entries < getNumOfEntries()) {
+      setNumOfEntries(num_entries);
+    }
+
+    // write the layout and the length-prefixed names
+    setShortValue((short) fnames.length, STRIPE_CNT);
+    setShortValue((short) unit, STRIPE_UNIT);
+    setShortValue((short) position, STRIPE_NAMES);
+    for (int i = 1; i < fnames.length; i++) {
+      byte[] ba = fnames[i].getBytes();
+      setShortValue((short) ba.length, position);
+      System.arraycopy(ba, 0, data, position + 2, ba.length);
+      position += 2 + ba.length;
+    }
+
+  } // public void setStripes(String[] fnames, int unit)
+
+  /**
+   * Gets the names of the OS files the database is striped across; the first
+   * name is null, since it is whatever file the first page was read from.
+   */
+  public String[] getStripeNames() {
+
+    // databases created before striping have no layout
+    int count = getShortValue(STRIPE_CNT);
+    String[] fnames = new String[Math.max(count, 1)];
+    int position = getShortValue(STRIPE_NAMES);
+    for (int i = 1; i < count; i++) {
+      int length = getShortValue(position);
+      fnames[i] = new String(data, position + 2, length);
+      position += 2 + length;
+    }
+    return fnames;
+
+  } // public String[] getStripeNames()
+
+  /**
+   * Gets the number of consecutive pages per OS file.
+   */
+  public int getStripeUnit() {
+    return getShortValue(STRIPE_UNIT);
+  }
+
+  /**
+   * Sets the on-disk format flags.
+   */
+  public void setFormat(short flags) {
+    setShortValue(flags, FORMAT);
+  }
+
+  /**
+   * Gets the on-disk format flags; zero for databases created without any.
+   */
+  public short getFormat() {
+    return getShortValue(FORMAT);
+  }
+
 } // class DBFirstPage extends DBHeaderPage
@@ -0,0 +1,52 @@
+package diskmgr;
+
+import java.util.List;
+
+/**
+ * Management interface of the disk manager, through which JMX clients (e.g.
+ * jconsole) see each open database's I/O under "minibase:type=DiskMgr".
+ */
+public interface DiskMgrMXBean {
+
+  /**
+   * Gets the number of disk page reads since database construction.
+   */
+  int getReadCount();
+
+  /**
+   * Gets the number of read system calls since database construction.
+   */
+  int getReadCallCount();
+
+  /**
+   * Gets the number of disk page writes since database construction.
+   */
+  int getWriteCount();
+
+  /**
+   * Gets the number of write system calls since database construction.
+   */
+  int getWriteCallCount();
+
+  /**
+   * Gets the number of syncs of the database files since database
+   * construction.
+   */
+  int getSyncCount();
+
+  /**
+   * Gets the pages read and written on behalf of each file.
+   */
+  List<FileIOStats> getFileIO();
+
+  /**
+   * Gets the latencies of each timed operation.
+   */
+  List<LatencyStats> getLatencies();
+
+  /**
+   * Forgets the per-file counts and latencies gathered so far.
+   */
+  void resetIOStats();
+
+} // public interface DiskMgrMXBean
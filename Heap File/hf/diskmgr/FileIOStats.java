@@ -0,0 +1,57 @@
+package diskmgr;
+
+/**
+ * Snapshot of the disk I/O charged to one file of the database, as reported
+ * by DiskMgr.getFileIO.
+ */
+public class FileIOStats {
+
+  /** Name of the file, or a placeholder for I/O not charged to a file. */
+  protected String file;
+
+  /** Number of pages read. */
+  protected long reads;
+
+  /** Number of pages written. */
+  protected long writes;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a snapshot from the given values.
+   */
+  public FileIOStats(String file, long reads, long writes) {
+    this.file = file;
+    this.reads = reads;
+    this.writes = writes;
+  }
+
+  /**
+   * Gets the name of the file.
+   */
+  public String getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the number of pages read.
+   */
+  public long getReads() {
+    return reads;
+  }
+
+  /**
+   * Gets the number of pages written.
+   */
+  public long getWrites() {
+    return writes;
+  }
+
+  /**
+   * Returns a readable summary of the snapshot.
+   */
+  public String toString() {
+    return file + ": " + reads + " reads, " + writes + " writes";
+  }
+
+} // public class FileIOStats
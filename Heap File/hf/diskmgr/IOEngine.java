@@ -0,0 +1,198 @@
+package diskmgr;
+
+import global.Page;
+import global.PageId;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h3>Minibase Asynchronous I/O Engine</h3>
+ * Runs page reads and writes of a disk manager on a pool of I/O threads, so
+ * a caller can have many requests in flight instead of waiting on each one.
+ * Each request returns a future that completes with the page when the I/O
+ * is done (or exceptionally, with the error the blocking call would throw);
+ * callbacks may be chained onto it.
+ * <br><br>
+ * The number of requests in flight is bounded by the queue depth; submitting
+ * beyond it blocks until a request completes.  Requests bypass the buffer
+ * pool, so the caller must own the pages, and must not submit overlapping
+ * requests for the same page.  Each request runs on behalf of the file the
+ * submitting thread is working on (see DiskMgr.enterFile).
+ * <br><br>
+ * The buffer manager built in the Buffer Manager module writes the runs of
+ * dirty pages of flushAllFrames through the disk manager's engine; the
+ * prebuilt buffer manager (bm.jar) this module links doesn't use it.
+ */
+public class IOEngine {
+
+  /** Default number of I/O threads. */
+  public static final int DEFAULT_THREADS = 4;
+
+  /** Default maximum number of requests in flight. */
+  public static final int DEFAULT_QUEUE_DEPTH = 32;
+
+  // --------------------------------------------------------------------------
+
+  /** The disk manager doing the actual I/O. */
+  protected DiskMgr disk;
+
+  /** The I/O threads. */
+  protected ExecutorService pool;
+
+  /** Free slots in the request queue. */
+  protected Semaphore slots;
+
+  /** Maximum number of requests in flight. */
+  protected int queue_depth;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an engine for the given disk manager.
+   *
+   * @throws IllegalArgumentException if a size is not positive
+   */
+  public IOEngine(DiskMgr disk, int num_threads, int queue_depth) {
+    if ((num_threads < 1) || (queue_depth < 1)) {
+      throw new IllegalArgumentException("Invalid I/O engine size");
+    }
+    this.disk = disk;
+    this.queue_depth = queue_depth;
+    slots = new Semaphore(queue_depth);
+    pool = Executors.newFixedThreadPool(num_threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "minibase-io");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Submits a read of the given page into the given memory page.
+   *
+   * @return a future completing with mempage once it holds the page
+   */
+  public CompletableFuture<Page> submitRead(PageId pageno, Page mempage) {
+    final PageId pid = new PageId(pageno.pid);
+    return submit(mempage, new Runnable() {
+      public void run() {
+        disk.read_page(pid, mempage);
+      }
+    });
+  }
+
+  /**
+   * Submits a write of the given memory page to the given page.
+   *
+   * @return a future completing with mempage once it is written
+   */
+  public CompletableFuture<Page> submitWrite(PageId pageno, Page mempage) {
+    final PageId pid = new PageId(pageno.pid);
+    return submit(mempage, new Runnable() {
+      public void run() {
+        disk.write_page(pid, mempage);
+      }
+    });
+  }
+
+  /**
+   * Submits a write of a run of memory pages to consecutive pages, as one
+   * request.
+   *
+   * @return a future completing with src once the run is written
+   */
+  public CompletableFuture<Page[]> submitWrites(PageId first, final int n,
+      final Page[] src) {
+    final PageId pid = new PageId(first.pid);
+    return submit(src, new Runnable() {
+      public void run() {
+        disk.write_pages(pid, n, src);
+      }
+    });
+  }
+
+  /**
+   * Waits for a request to complete.
+   *
+   * @return the request's result
+   * @throws RuntimeException the error the request failed with
+   */
+  public static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException exc) {
+      if (exc.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exc.getCause();
+      }
+      throw exc;
+    }
+  }
+
+  /**
+   * Queues one request, waiting for a free slot if the queue is full.
+   */
+  protected <T> CompletableFuture<T> submit(final T result,
+      final Runnable io) {
+
+    // wait for room in the queue
+    slots.acquireUninterruptibly();
+
+    // run the request for the caller's file, then free its slot before
+    // completing
+    final String file = DiskMgr.current_file.get();
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    pool.execute(new Runnable() {
+      public void run() {
+        String prev = DiskMgr.setCurrentFile(file);
+        try {
+          io.run();
+          slots.release();
+          future.complete(result);
+        } catch (Throwable exc) {
+          slots.release();
+          future.completeExceptionally(exc);
+        } finally {
+          DiskMgr.setCurrentFile(prev);
+        }
+      }
+    });
+    return future;
+
+  } // protected <T> CompletableFuture<T> submit(T, Runnable)
+
+  /**
+   * Gets the number of requests in flight.
+   */
+  public int getInFlight() {
+    return queue_depth - slots.availablePermits();
+  }
+
+  /**
+   * Waits until all requests submitted so far have completed.
+   */
+  public void drain() {
+    slots.acquireUninterruptibly(queue_depth);
+    slots.release(queue_depth);
+  }
+
+  /**
+   * Completes all requests in flight, and stops the I/O threads.
+   */
+  public void shutdown() {
+    drain();
+    pool.shutdown();
+    try {
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+} // public class IOEngine
@@ -0,0 +1,501 @@
+package diskmgr;
+
+import global.GlobalConst;
+import global.Page;
+import global.PageId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <h3>Minibase I/O Scheduler</h3>
+ * Queues page reads and writes of a disk manager, and dispatches them on one
+ * thread in an order that suits the disk rather than in arrival order.  The
+ * pending requests are sorted by page id and served in one sweep up the
+ * database (an elevator, wrapping around at the end); requests for adjacent
+ * pages are merged into a single I/O, of up to max_merge pages.
+ * <br><br>
+ * Reads come before writes, which are taken to be background work (e.g.
+ * flushing), but writes are not starved: they go first when the oldest one
+ * has waited past its deadline, or after writes_starved read I/Os in a row
+ * while some wait.  Likewise a read waiting past its deadline goes before the
+ * rest of the sweep.
+ * <br><br>
+ * Each request returns a future that completes with its page once the I/O is
+ * done (or exceptionally, with the error the blocking call would throw).  As
+ * with IOEngine, the caller owns the pages until then.  Reads of a page with
+ * a queued write get the written contents at once; a second read of a queued
+ * page shares the first one's I/O, and a second write of a queued page
+ * replaces the first one.
+ */
+public class IOScheduler implements GlobalConst {
+
+  /** Default maximum number of pages merged into one I/O. */
+  public static final int DEFAULT_MAX_MERGE = 16;
+
+  /** Default deadline of reads (in milliseconds). */
+  public static final int DEFAULT_READ_DEADLINE = 50;
+
+  /** Default deadline of writes (in milliseconds). */
+  public static final int DEFAULT_WRITE_DEADLINE = 500;
+
+  /** Default number of read I/Os in a row before waiting writes go. */
+  public static final int DEFAULT_WRITES_STARVED = 4;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * A queued request for one page, with the futures of all callers waiting
+   * on it.
+   */
+  protected static class Request {
+
+    /** The page to read or write. */
+    public int pid;
+
+    /** Whether the request is a write. */
+    public boolean write;
+
+    /** The memory page to read into, or write from. */
+    public Page mempage;
+
+    /** Other memory pages to copy a read into. */
+    public ArrayList<Page> copies = new ArrayList<Page>();
+
+    /** The futures to complete with the I/O. */
+    public ArrayList<CompletableFuture<Page>> futures =
+        new ArrayList<CompletableFuture<Page>>();
+
+    /** The memory page each future completes with. */
+    public ArrayList<Page> results = new ArrayList<Page>();
+
+    /** System.nanoTime by which the request should be dispatched. */
+    public long deadline;
+
+    /** Whether the request is still queued. */
+    public boolean queued = true;
+
+  } // protected static class Request
+
+  // --------------------------------------------------------------------------
+
+  /** The disk manager doing the actual I/O. */
+  protected DiskMgr disk;
+
+  /** Maximum number of pages merged into one I/O. */
+  protected int max_merge;
+
+  /** Deadline of reads (in nanoseconds). */
+  protected long read_deadline;
+
+  /** Deadline of writes (in nanoseconds). */
+  protected long write_deadline;
+
+  /** Number of read I/Os in a row before waiting writes go. */
+  protected int writes_starved;
+
+  // --------------------------------------------------------------------------
+
+  /** Queued reads, by page id. */
+  protected TreeMap<Integer, Request> reads = new TreeMap<Integer, Request>();
+
+  /** Queued writes, by page id. */
+  protected TreeMap<Integer, Request> writes = new TreeMap<Integer, Request>();
+
+  /** Writes being dispatched, by page id. */
+  protected HashMap<Integer, Request> writing = new HashMap<Integer, Request>();
+
+  /** Queued reads, in arrival order; dispatched ones are dropped lazily. */
+  protected ArrayDeque<Request> read_fifo = new ArrayDeque<Request>();
+
+  /** Queued writes, in arrival order; dispatched ones are dropped lazily. */
+  protected ArrayDeque<Request> write_fifo = new ArrayDeque<Request>();
+
+  /** Page id the sweep goes on from. */
+  protected int head;
+
+  /** Number of read I/Os in a row while writes waited. */
+  protected int starved;
+
+  /** Whether dispatching is held. */
+  protected boolean paused;
+
+  /** Whether the scheduler is shutting down. */
+  protected boolean stopped;
+
+  /** Number of I/Os (merged or not) dispatched so far. */
+  protected int io_cnt;
+
+  /** Number of requests served so far. */
+  protected int request_cnt;
+
+  /** Number of I/Os dispatched for a request past its deadline. */
+  protected int expired_cnt;
+
+  /** The dispatching thread. */
+  protected Thread dispatcher;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a scheduler for the given disk manager, with the default
+   * limits.
+   */
+  public IOScheduler(DiskMgr disk) {
+    this(disk, DEFAULT_MAX_MERGE, DEFAULT_READ_DEADLINE,
+        DEFAULT_WRITE_DEADLINE, DEFAULT_WRITES_STARVED);
+  }
+
+  /**
+   * Constructs a scheduler for the given disk manager.
+   *
+   * @param max_merge maximum number of pages merged into one I/O
+   * @param read_deadline_ms deadline of reads, in milliseconds
+   * @param write_deadline_ms deadline of writes, in milliseconds
+   * @param writes_starved number of read I/Os in a row before waiting writes
+   * go
+   * @throws IllegalArgumentException if a limit is not positive
+   */
+  public IOScheduler(DiskMgr disk, int max_merge, int read_deadline_ms,
+      int write_deadline_ms, int writes_starved) {
+    if ((max_merge < 1) || (read_deadline_ms < 1) || (write_deadline_ms < 1)
+        || (writes_starved < 1)) {
+      throw new IllegalArgumentException("Invalid I/O scheduler limits");
+    }
+    this.disk = disk;
+    this.max_merge = max_merge;
+    this.read_deadline = read_deadline_ms * 1000000L;
+    this.write_deadline = write_deadline_ms * 1000000L;
+    this.writes_starved = writes_starved;
+    dispatcher = new Thread("minibase-iosched") {
+      public void run() {
+        dispatch();
+      }
+    };
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Queues a read of the given page into the given memory page.
+   *
+   * @return a future completing with mempage once it holds the page
+   */
+  public synchronized CompletableFuture<Page> submitRead(PageId pageno,
+      Page mempage) {
+    CompletableFuture<Page> future = new CompletableFuture<Page>();
+    checkRunning();
+    if (!isValid(pageno, future, "read")) {
+      return future;
+    }
+
+    // a queued (or ongoing) write has the latest contents
+    Request write = writes.get(pageno.pid);
+    if (write == null) {
+      write = writing.get(pageno.pid);
+    }
+    if (write != null) {
+      System.arraycopy(write.mempage.getData(), 0, mempage.getData(), 0,
+          PAGE_SIZE);
+      request_cnt++;
+      future.complete(mempage);
+      return future;
+    }
+
+    // share a queued read of the page, or queue a new one
+    Request read = reads.get(pageno.pid);
+    if (read != null) {
+      read.copies.add(mempage);
+    } else {
+      read = newRequest(pageno.pid, mempage, false);
+      reads.put(read.pid, read);
+      read_fifo.add(read);
+    }
+    read.futures.add(future);
+    read.results.add(mempage);
+    notifyAll();
+    return future;
+
+  } // public synchronized CompletableFuture<Page> submitRead(PageId, Page)
+
+  /**
+   * Queues a write of the given memory page to the given page.
+   *
+   * @return a future completing with mempage once it is written
+   */
+  public synchronized CompletableFuture<Page> submitWrite(PageId pageno,
+      Page mempage) {
+    CompletableFuture<Page> future = new CompletableFuture<Page>();
+    checkRunning();
+    if (!isValid(pageno, future, "write")) {
+      return future;
+    }
+
+    // a later write of a queued page replaces the earlier one
+    Request write = writes.get(pageno.pid);
+    if (write != null) {
+      write.mempage = mempage;
+    } else {
+      write = newRequest(pageno.pid, mempage, true);
+      writes.put(write.pid, write);
+      write_fifo.add(write);
+    }
+    write.futures.add(future);
+    write.results.add(mempage);
+    notifyAll();
+    return future;
+
+  } // public synchronized CompletableFuture<Page> submitWrite(PageId, Page)
+
+  /**
+   * Creates a request, due after the deadline of its kind.
+   */
+  protected Request newRequest(int pid, Page mempage, boolean write) {
+    Request req = new Request();
+    req.pid = pid;
+    req.write = write;
+    req.mempage = mempage;
+    req.deadline = System.nanoTime() + (write ? write_deadline : read_deadline);
+    return req;
+  }
+
+  /**
+   * Checks the page id of a request, failing its future if it is invalid.
+   */
+  protected boolean isValid(PageId pageno, CompletableFuture<Page> future,
+      String op) {
+    if ((pageno.pid < 0) || (pageno.pid >= disk.num_db_pages)) {
+      future.completeExceptionally(new IllegalArgumentException(
+          "Invalid page number; " + op + " aborted"));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Makes sure the scheduler still takes requests.
+   *
+   * @throws IllegalStateException if it was shut down
+   */
+  protected void checkRunning() {
+    if (stopped) {
+      throw new IllegalStateException("The I/O scheduler is shut down");
+    }
+  }
+
+  /**
+   * Dispatches the queued requests until shut down, one I/O at a time.
+   */
+  protected void dispatch() {
+    while (true) {
+
+      // wait for requests, and take the next batch off the queues
+      ArrayList<Request> batch;
+      synchronized (this) {
+        while ((paused || (reads.isEmpty() && writes.isEmpty()))
+            && !(stopped && reads.isEmpty() && writes.isEmpty())) {
+          try {
+            wait();
+          } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        if (reads.isEmpty() && writes.isEmpty()) {
+          return;
+        }
+        batch = nextBatch(chooseWrite());
+      }
+
+      // do the I/O outside the lock, so more requests can queue meanwhile
+      runBatch(batch);
+
+    } // while
+  } // protected void dispatch()
+
+  /**
+   * Decides whether the next I/O is a write: only if there are no reads, the
+   * oldest write is past its deadline, or writes have waited long enough.
+   */
+  protected boolean chooseWrite() {
+    boolean write;
+    if (writes.isEmpty()) {
+      write = false;
+    } else if (reads.isEmpty() || (starved >= writes_starved)) {
+      write = true;
+    } else {
+      write = expired(write_fifo) != null;
+    }
+    starved = (write || writes.isEmpty()) ? 0 : starved + 1;
+    return write;
+  }
+
+  /**
+   * Gets the oldest queued request of the given queue if it is past its
+   * deadline, or null.
+   */
+  protected Request expired(ArrayDeque<Request> fifo) {
+    while (!fifo.isEmpty() && !fifo.peek().queued) {
+      fifo.poll();
+    }
+    Request oldest = fifo.peek();
+    if ((oldest != null) && (oldest.deadline - System.nanoTime() <= 0)) {
+      return oldest;
+    }
+    return null;
+  }
+
+  /**
+   * Takes the next batch of adjacent pages off the chosen queue: from the
+   * oldest request if it is past its deadline, and otherwise from the next
+   * page in the sweep.  A write never passes an earlier read of its page,
+   * which is dispatched first instead.
+   */
+  protected ArrayList<Request> nextBatch(boolean write) {
+
+    // choose the first request
+    TreeMap<Integer, Request> queue = write ? writes : reads;
+    Request first = expired(write ? write_fifo : read_fifo);
+    if (first != null) {
+      expired_cnt++;
+    } else {
+      Map.Entry<Integer, Request> next = queue.ceilingEntry(head);
+      first = (next != null) ? next.getValue() : queue.firstEntry().getValue();
+    }
+    if (write && reads.containsKey(first.pid)) {
+      queue = reads;
+      first = reads.get(first.pid);
+    }
+
+    // extend it with the requests for the pages that follow
+    ArrayList<Request> batch = new ArrayList<Request>();
+    Request req = first;
+    while ((req != null) && (batch.size() < max_merge)) {
+      queue.remove(req.pid);
+      req.queued = false;
+      if (req.write) {
+        writing.put(req.pid, req);
+      }
+      batch.add(req);
+      req = queue.get(req.pid + 1);
+      if ((req != null) && req.write && reads.containsKey(req.pid)) {
+        req = null;
+      }
+    }
+    head = first.pid + batch.size();
+    return batch;
+
+  } // protected ArrayList<Request> nextBatch(boolean write)
+
+  /**
+   * Does the I/O of a batch with one call, then completes its requests.
+   */
+  protected void runBatch(ArrayList<Request> batch) {
+    boolean write = batch.get(0).write;
+    Throwable error = null;
+    try {
+      Page[] pages = new Page[batch.size()];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = batch.get(i).mempage;
+      }
+      PageId first = new PageId(batch.get(0).pid);
+      if (write) {
+        disk.write_pages(first, pages.length, pages);
+      } else {
+        disk.read_pages(first, pages.length, pages);
+        for (Request req : batch) {
+          for (Page copy : req.copies) {
+            System.arraycopy(req.mempage.getData(), 0, copy.getData(), 0,
+                PAGE_SIZE);
+          }
+        }
+      }
+    } catch (Throwable exc) {
+      error = exc;
+    }
+    synchronized (this) {
+      io_cnt++;
+      for (Request req : batch) {
+        request_cnt += req.futures.size();
+        if (write) {
+          writing.remove(req.pid);
+        }
+      }
+    }
+    for (Request req : batch) {
+      for (int i = 0; i < req.futures.size(); i++) {
+        if (error == null) {
+          req.futures.get(i).complete(req.results.get(i));
+        } else {
+          req.futures.get(i).completeExceptionally(error);
+        }
+      }
+    }
+  } // protected void runBatch(ArrayList<Request> batch)
+
+  /**
+   * Holds dispatching, so requests queue up (e.g. to merge a burst of them);
+   * requests already being dispatched still complete.
+   */
+  public synchronized void pause() {
+    paused = true;
+  }
+
+  /**
+   * Resumes dispatching after pause.
+   */
+  public synchronized void resume() {
+    paused = false;
+    notifyAll();
+  }
+
+  /**
+   * Gets the number of I/Os dispatched so far; merged requests count once.
+   */
+  public synchronized int getIOCount() {
+    return io_cnt;
+  }
+
+  /**
+   * Gets the number of requests served so far.
+   */
+  public synchronized int getRequestCount() {
+    return request_cnt;
+  }
+
+  /**
+   * Gets the number of I/Os dispatched for a request past its deadline.
+   */
+  public synchronized int getExpiredCount() {
+    return expired_cnt;
+  }
+
+  /**
+   * Gets the number of requests queued.
+   */
+  public synchronized int getQueued() {
+    return reads.size() + writes.size();
+  }
+
+  /**
+   * Dispatches all queued requests, and stops the dispatching thread; later
+   * requests are refused.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      stopped = true;
+      paused = false;
+      notifyAll();
+    }
+    try {
+      dispatcher.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+} // public class IOScheduler implements GlobalConst
@@ -0,0 +1,138 @@
+package diskmgr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h3>Minibase Latency Histogram</h3>
+ * Counts operation latencies (in nanoseconds) in log-linear buckets: each
+ * power of two is split into SUB_BUCKETS equal buckets, so any value is
+ * known to within 1/SUB_BUCKETS of itself, from nanoseconds to centuries.
+ * Recording a value never allocates or locks, so it is cheap enough to do
+ * on every page I/O from any number of threads.
+ */
+public class LatencyHistogram {
+
+  /** Number of bits of each value kept by its bucket. */
+  protected static final int SUB_BITS = 5;
+
+  /** Number of buckets per power of two. */
+  protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /** Total number of buckets; enough for any non-negative long. */
+  protected static final int NUM_BUCKETS = 2 * SUB_BUCKETS
+      + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+  // --------------------------------------------------------------------------
+
+  /** Number of values in each bucket. */
+  protected AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+  /** Number of values recorded. */
+  protected AtomicLong count = new AtomicLong();
+
+  /** Sum of the values recorded. */
+  protected AtomicLong sum = new AtomicLong();
+
+  /** Largest value recorded. */
+  protected AtomicLong max = new AtomicLong();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records one latency; negative values count as zero.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucketOf(nanos));
+    count.incrementAndGet();
+    sum.addAndGet(nanos);
+    for (long cur = max.get(); (nanos > cur)
+        && !max.compareAndSet(cur, nanos); cur = max.get()) {
+    }
+  }
+
+  /**
+   * Gets the number of latencies recorded.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the mean latency, or 0 if none were recorded.
+   */
+  public long getMean() {
+    long cnt = count.get();
+    return (cnt == 0) ? 0 : sum.get() / cnt;
+  }
+
+  /**
+   * Gets the largest latency recorded.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the latency that the given percentage of values are at or below,
+   * rounded up to the end of its bucket; 0 if none were recorded.
+   * 
+   * @throws IllegalArgumentException if percent is not within 0 and 100
+   */
+  public long getPercentile(double percent) {
+    if ((percent < 0) || (percent > 100)) {
+      throw new IllegalArgumentException("Invalid percentile");
+    }
+    long cnt = count.get();
+    long rank = Math.max(1, (long) Math.ceil(cnt * percent / 100));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets all latencies recorded.  Values recorded while this runs may be
+   * partly kept.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Gets the bucket of the given value.  Values below 2 * SUB_BUCKETS have a
+   * bucket each; above, each power of two has SUB_BUCKETS buckets.
+   */
+  protected static int bucketOf(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  /**
+   * Gets the largest value that falls in the given bucket.
+   */
+  protected static long highestOf(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+} // public class LatencyHistogram
@@ -0,0 +1,31 @@
+package diskmgr;
+
+import global.PageId;
+
+/**
+ * In-memory image of one file library slot: where the slot lives in the
+ * header page chain, and the first page of the file stored in it.
+ */
+class LibraryEntry {
+
+  /** Id of the header page holding the slot. */
+  public PageId hpid;
+
+  /** Entry number of the slot on its header page. */
+  public int slot;
+
+  /** Id of the file's first page; invalid if the slot is free. */
+  public PageId start;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a LibraryEntry from the given values.
+   */
+  public LibraryEntry(PageId hpid, int slot, PageId start) {
+    this.hpid = new PageId(hpid.pid);
+    this.slot = slot;
+    this.start = new PageId(start.pid);
+  }
+
+} // class LibraryEntry
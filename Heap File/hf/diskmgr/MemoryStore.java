@@ -0,0 +1,234 @@
+package diskmgr;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * <h3>Minibase In-Memory Page Store</h3>
+ * Keeps a database in memory outside the Java heap, for temporary databases
+ * and tests that don't need files.  The store is a growing array of chunks,
+ * each allocated the first time something is written in it; chunks never
+ * written read as zeros, just like the holes of a sparse file.
+ * <br><br>
+ * A closed store keeps its contents until destroyed, so the database can be
+ * opened again by name for as long as the JVM runs.
+ */
+public class MemoryStore implements PageStore {
+
+  /** Size of a chunk of memory (in bytes). */
+  protected static final int CHUNK_SIZE = 1 << 20;
+
+  /** The stores of all in-memory databases, by name. */
+  protected static final HashMap<String, MemoryStore> stores =
+      new HashMap<String, MemoryStore>();
+
+  // --------------------------------------------------------------------------
+
+  /** Name of the database in the store. */
+  protected String name;
+
+  /** The chunks of memory; null where nothing was written yet. */
+  protected volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+  /** End of the last byte written, i.e. the size of the store. */
+  protected long size;
+
+  /** Whether the store is open. */
+  protected volatile boolean open;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty store with the given name.
+   */
+  protected MemoryStore(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Creates and opens an empty store for the given database, replacing any
+   * store of the same name.
+   *
+   * @throws IllegalStateException if that store is open
+   */
+  public static MemoryStore create(String name) {
+    synchronized (stores) {
+      MemoryStore old = stores.get(name);
+      if ((old != null) && old.open) {
+        throw new IllegalStateException("Database " + name + " is open");
+      }
+      MemoryStore store = new MemoryStore(name);
+      store.open = true;
+      stores.put(name, store);
+      return store;
+    }
+  }
+
+  /**
+   * Opens the store of the given database again.
+   *
+   * @throws IllegalStateException if there is no such store, or it is open
+   */
+  public static MemoryStore open(String name) {
+    synchronized (stores) {
+      MemoryStore store = stores.get(name);
+      if (store == null) {
+        throw new IllegalStateException("Database " + name
+            + " does not exist\n");
+      }
+      if (store.open) {
+        throw new IllegalStateException("Database " + name + " is open");
+      }
+      store.open = true;
+      return store;
+    }
+  }
+
+  /**
+   * Copies bytes between the store and the buffers, chunk by chunk.
+   */
+  protected void transfer(long pos, ByteBuffer[] bufs, boolean write) {
+    for (ByteBuffer buf : bufs) {
+      while (buf.hasRemaining()) {
+
+        // the part of the buffer that falls in one chunk
+        int index = (int) (pos / CHUNK_SIZE);
+        int offset = (int) (pos % CHUNK_SIZE);
+        int length = Math.min(buf.remaining(), CHUNK_SIZE - offset);
+        ByteBuffer chunk = write ? chunkFor(index, pos + length)
+            : getChunk(index);
+
+        // copy through views, so concurrent transfers don't disturb each other
+        if (chunk == null) {
+          for (int i = 0; i < length; i++) {
+            buf.put((byte) 0);
+          }
+        } else {
+          ByteBuffer view = chunk.duplicate();
+          view.position(offset);
+          view.limit(offset + length);
+          if (write) {
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + length);
+            view.put(part);
+            buf.position(buf.position() + length);
+          } else {
+            buf.put(view);
+          }
+        }
+        pos += length;
+
+      } // while
+    } // for
+  } // protected void transfer(long pos, ByteBuffer[] bufs, boolean write)
+
+  /**
+   * Gets the chunk with the given index, or null if it was never written.
+   */
+  protected ByteBuffer getChunk(int index) {
+    ByteBuffer[] current = chunks;
+    return (index < current.length) ? current[index] : null;
+  }
+
+  /**
+   * Gets the chunk with the given index to write up to the given end,
+   * allocating it (and growing the array) as needed.
+   */
+  protected synchronized ByteBuffer chunkFor(int index, long end) {
+    if (index >= chunks.length) {
+      ByteBuffer[] grown = new ByteBuffer[Math.max(index + 1,
+          chunks.length * 2)];
+      System.arraycopy(chunks, 0, grown, 0, chunks.length);
+      chunks = grown;
+    }
+    if (chunks[index] == null) {
+      chunks[index] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+    size = Math.max(size, end);
+    return chunks[index];
+  }
+
+  /**
+   * Reads the bytes at the given position; a single call.
+   */
+  public int read(long pos, ByteBuffer[] bufs) {
+    transfer(pos, bufs, false);
+    return 1;
+  }
+
+  /**
+   * Writes the bytes at the given position; a single call.
+   */
+  public int write(long pos, ByteBuffer[] bufs) {
+    transfer(pos, bufs, true);
+    return 1;
+  }
+
+  /**
+   * Does nothing, since memory is as durable as it gets.
+   */
+  public void sync() {
+  }
+
+  /**
+   * Gets the end of the last byte written.
+   */
+  public synchronized long size() {
+    return size;
+  }
+
+  /**
+   * Frees the chunks past the given position, and zeros the rest of the
+   * chunk it falls in.
+   */
+  public synchronized void truncate(long size) {
+    if (size >= this.size) {
+      return;
+    }
+    int keep = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for (int i = keep; i < chunks.length; i++) {
+      chunks[i] = null;
+    }
+    ByteBuffer last = getChunk((int) (size / CHUNK_SIZE));
+    if ((size % CHUNK_SIZE != 0) && (last != null)) {
+      ByteBuffer view = last.duplicate();
+      view.position((int) (size % CHUNK_SIZE));
+      while (view.hasRemaining()) {
+        view.put((byte) 0);
+      }
+    }
+    this.size = size;
+  }
+
+  /**
+   * Tells whether the store is open.
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Closes the store, keeping its contents.
+   */
+  public void close() {
+    synchronized (stores) {
+      open = false;
+    }
+  }
+
+  /**
+   * Discards the store, so its memory can be reclaimed.
+   */
+  public void destroy() {
+    synchronized (stores) {
+      if (stores.get(name) == this) {
+        stores.remove(name);
+      }
+    }
+    synchronized (this) {
+      chunks = new ByteBuffer[0];
+      size = 0;
+    }
+  }
+
+} // public class MemoryStore implements PageStore
@@ -33,10 +33,12 @@ public class PageId implements GlobalConst {
   }
 
   /**
-   * Returns a hash code value for the PageId.
+   * Returns a hash code value for the PageId.  Page ids are dense, so they
+   * are scattered by a Fibonacci multiply to spread runs of pages evenly.
    */
   public int hashCode() {
-    return pid;
+    int hash = pid * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
   }
 
   /**
@@ -1,5 +1,8 @@
 package heap;
 
+import global.Page;
+import global.PageId;
+
 /**
  * A heap file page containing actual data records.
  */
@@ -12,5 +15,31 @@ class DataPage extends HFPage {
     super();
     setType(HeapFile.DATA_PAGE);
   }
+
+  /**
+   * Constructor that wraps an existing data page.
+   */
+  public DataPage(Page page) {
+    super(page);
+  }
+
+  /**
+   * Data pages aren't linked to each other; the previous page id's place
+   * holds the first empty slot's number instead.
+   *
+   * @throws IllegalStateException always
+   */
+  public PageId getPrevPage() {
+    throw new IllegalStateException("Data pages have no previous page");
+  }
+
+  /**
+   * Data pages aren't linked to each other; see getPrevPage.
+   *
+   * @throws IllegalStateException always
+   */
+  public void setPrevPage(PageId pageno) {
+    throw new IllegalStateException("Data pages have no previous page");
+  }
   
 } // class DataPage extends HFPage
@@ -1,7 +1,10 @@
 package heap;
 
+import global.Page;
 import global.PageId;
 
+import java.util.Arrays;
+
 /**
  * A heap file directory page; contains DirEntry records.
  */
@@ -42,6 +45,13 @@ class DirPage extends HFPage {
     setEntryCnt((short) 0);
   }
 
+  /**
+   * Constructor that wraps an existing directory page.
+   */
+  public DirPage(Page page) {
+    super(page);
+  }
+
   /**
    * Gets the number of directory entries on the page.
    */
@@ -53,7 +63,9 @@ class DirPage extends HFPage {
    * Sets the number of directory entries on the page.
    */
   public void setEntryCnt(short entryCnt) {
+    byte[] before = beginChange();
     setShortValue(entryCnt, ENTRY_COUNT);
+    endChange(before);
   }
 
   /**
@@ -68,7 +80,9 @@ class DirPage extends HFPage {
    * Sets the PageId at the given index.
    */
   public void setPageId(int slotno, PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, HEADER_SIZE + slotno * ENTRY_SIZE + IX_PAGE_ID);
+    endChange(before);
   }
 
   /**
@@ -82,7 +96,9 @@ class DirPage extends HFPage {
    * Sets the record count at the given index.
    */
   public void setRecCnt(int slotno, short recCnt) {
+    byte[] before = beginChange();
     setShortValue(recCnt, HEADER_SIZE + slotno * ENTRY_SIZE + IX_REC_CNT);
+    endChange(before);
   }
 
   /**
@@ -96,7 +112,9 @@ class DirPage extends HFPage {
    * Sets the free count at the given index.
    */
   public void setFreeCnt(int slotno, short freeCnt) {
+    byte[] before = beginChange();
     setShortValue(freeCnt, HEADER_SIZE + slotno * ENTRY_SIZE + IX_FREE_CNT);
+    endChange(before);
   }
 
   // Added this as extra that Gets the maximum number of entries for a directory page
@@ -105,15 +123,21 @@ class DirPage extends HFPage {
   }
 
   /**
-   * Logically deletes an entry at the given slot number by shifting any
-   * successive entries down.
+   * Deletes the entry at the given slot number by shifting any successive
+   * entries down, one slot each; the entry count drops by one.
    */
   public void compact(int slotno) {
 
-    // shift all bytes to the left
+    // shift the successive entries to the left, and clear the last slot
+    byte[] before = beginChange();
+    int entryCnt = getEntryCnt();
     int entryPos = HEADER_SIZE + slotno * ENTRY_SIZE;
-    int succLen = PAGE_SIZE - FOOTER_SIZE - entryPos - ENTRY_SIZE;
+    int succLen = (entryCnt - slotno - 1) * ENTRY_SIZE;
     System.arraycopy(data, entryPos + ENTRY_SIZE, data, entryPos, succLen);
+    Arrays.fill(data, entryPos + succLen, entryPos + succLen + ENTRY_SIZE,
+        (byte) 0);
+    setShortValue((short) (entryCnt - 1), ENTRY_COUNT);
+    endChange(before);
 
   } // public void compact(int slotno)
 
@@ -0,0 +1,170 @@
+package heap;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * In-memory map of a heap file's data pages: the free space on each, so
+ * inserts find a page with room without walking the directory, and where
+ * each page's directory entry is, so updating it doesn't walk the directory
+ * either.
+ * <br><br>
+ * Pages are bucketed into classes of CLASS_SIZE bytes of free space; a page
+ * in a class above the one holding the space needed surely has room, so
+ * finding one looks at a fixed number of classes.  Within a class, the
+ * lowest page id comes first, so fixed length records fill the file
+ * sequentially.
+ * <br><br>
+ * The free counts in the directory entries are the persistent form of the
+ * map; it is built from them with one walk of the directory when first
+ * needed, then kept up to date by each change.  The map only serves as a
+ * hint: the caller checks the page it gets, and corrects the map if it was
+ * wrong (e.g. after a change through another HeapFile object).  Since a page
+ * id in the map could be reused once freed, the map is rebuilt whenever any
+ * page of the database was deallocated by someone else.
+ */
+class FreeSpaceMap implements GlobalConst {
+
+  /** Size of a class of free space (in bytes). */
+  protected static final int CLASS_SIZE = 64;
+
+  /** Number of classes. */
+  protected static final int NUM_CLASSES = PAGE_SIZE / CLASS_SIZE + 1;
+
+  /** Number of pages checked in the class holding the space needed. */
+  protected static final int MAX_PROBES = 8;
+
+  // --------------------------------------------------------------------------
+
+  /** The data pages in each class, by page id. */
+  protected List<TreeSet<Integer>> classes;
+
+  /** The free space on each data page. */
+  protected HashMap<Integer, Integer> free = new HashMap<Integer, Integer>();
+
+  /** The directory page and slot of each data page's entry. */
+  protected HashMap<Integer, int[]> entries = new HashMap<Integer, int[]>();
+
+  /** The disk manager's free version when the map was last known valid. */
+  protected int version;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Builds the map from the directory of the heap file with the given head.
+   */
+  public FreeSpaceMap(PageId headId) {
+    classes = new ArrayList<TreeSet<Integer>>(NUM_CLASSES);
+    for (int i = 0; i < NUM_CLASSES; i++) {
+      classes.add(new TreeSet<Integer>());
+    }
+    version = Minibase.DiskManager.getFreeVersion();
+
+    // record each directory entry's free count and position
+    DirPage dirPage = new DirPage();
+    PageId dirId = new PageId(headId.pid);
+    while (dirId.pid != INVALID_PAGEID) {
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      for (int i = 0; i < dirPage.getEntryCnt(); i++) {
+        int pid = dirPage.getPageId(i).pid;
+        put(pid, dirPage.getFreeCnt(i));
+        setEntry(pid, dirId.pid, i);
+      }
+      PageId nextId = dirPage.getNextPage();
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      dirId = nextId;
+    }
+
+  } // public FreeSpaceMap(PageId headId)
+
+  /**
+   * Tells whether pages were deallocated since the map was last known valid.
+   */
+  public boolean isStale() {
+    return Minibase.DiskManager.getFreeVersion() != version;
+  }
+
+  /**
+   * Notes that the map is valid as of now; called after the owner's own
+   * deallocations, which it reflects.
+   */
+  public void refresh() {
+    version = Minibase.DiskManager.getFreeVersion();
+  }
+
+  /**
+   * Sets the free space on a data page, adding it if new.
+   */
+  public void put(int pid, int freecnt) {
+    Integer old = free.put(pid, freecnt);
+    if (old != null) {
+      classes.get(old / CLASS_SIZE).remove(pid);
+    }
+    classes.get(freecnt / CLASS_SIZE).add(pid);
+  }
+
+  /**
+   * Removes a data page from the map.
+   */
+  public void remove(int pid) {
+    Integer old = free.remove(pid);
+    if (old != null) {
+      classes.get(old / CLASS_SIZE).remove(pid);
+    }
+    entries.remove(pid);
+  }
+
+  /**
+   * Sets where a data page's directory entry is.
+   */
+  public void setEntry(int pid, int dirPid, int slotno) {
+    entries.put(pid, new int[] { dirPid, slotno });
+  }
+
+  /**
+   * Gets where a data page's directory entry is.
+   *
+   * @return the directory page id and slot number, or null if unknown
+   */
+  public int[] getEntry(int pid) {
+    return entries.get(pid);
+  }
+
+  /**
+   * Finds a data page with at least the given free space.
+   *
+   * @return the page id, or INVALID_PAGEID if none is known
+   */
+  public int find(int needed) {
+
+    // the class holding the space needed has pages with and without room
+    int first = needed / CLASS_SIZE;
+    if (first >= NUM_CLASSES) {
+      return INVALID_PAGEID;
+    }
+    Iterator<Integer> it = classes.get(first).iterator();
+    for (int i = 0; (i < MAX_PROBES) && it.hasNext(); i++) {
+      int pid = it.next();
+      if (free.get(pid) >= needed) {
+        return pid;
+      }
+    }
+
+    // any page in a higher class has room; the fullest of them goes first
+    for (int c = first + 1; c < NUM_CLASSES; c++) {
+      if (!classes.get(c).isEmpty()) {
+        return classes.get(c).first();
+      }
+    }
+    return INVALID_PAGEID;
+
+  } // public int find(int needed)
+
+} // class FreeSpaceMap implements GlobalConst
@@ -3,13 +3,28 @@ package heap;
 import global.Page;
 import global.PageId;
 import global.RID;
+import logmgr.LogMgr;
+
+import java.util.Arrays;
 
 /**
  * Heap file data pages are implemented as slotted pages, with the slots at the
  * front and the records in the back, both growing into the free space in the
- * middle of the page. This design assumes that records are kept compacted when
- * deletions are performed. Each slot contains the length and offset of its
+ * middle of the page. Each slot contains the length and offset of its
  * corresponding record.
+ * <br><br>
+ * Deletions leave holes among the records, which are only compacted away when
+ * an insert or a growing update needs more room in the middle than is left;
+ * the free space reported counts the holes.  Empty slots are kept in a list
+ * through their offsets, so inserts reuse them without a search.
+ * <br><br>
+ * A record that grows past the page's free space moves to another page, and
+ * its slot becomes a forwarding stub holding the RID it moved to, so its own
+ * RID stays valid.  The moved record is stored after the RID of its stub (its
+ * home), so scans report it by that RID and skip the stubs, and it can move
+ * again without a chain of stubs.  Flags in the slot's length tell stubs and
+ * moved records apart.  Each record takes at least the space of a stub, so
+ * any record can be forwarded.
  */
 class HFPage extends Page {
 
@@ -34,6 +49,12 @@ class HFPage extends Page {
   /** Offset of the current page id. */
   protected static final int CUR_PAGE = 16;
 
+  /**
+   * Offset of the first empty slot's number, or -1 if none.  Data pages
+   * aren't linked to each other, so this takes the previous page id's place.
+   */
+  protected static final int FREE_SLOT = PREV_PAGE;
+
   // --------------------------------------------------------------------------
 
   /** Total size of the header fields. */
@@ -42,6 +63,18 @@ class HFPage extends Page {
   /** Size of a record slot. */
   protected static final int SLOT_SIZE = 4;
 
+  /** Flag in a slot's length for a forwarding stub. */
+  protected static final int FORWARD = 0x4000;
+
+  /** Flag in a slot's length for a record moved here, after its home RID. */
+  protected static final int MOVED = 0x2000;
+
+  /** Mask of a slot's length without its flags. */
+  protected static final int LENGTH_MASK = 0x1FFF;
+
+  /** Size of a RID stored in a stub, or before a moved record. */
+  protected static final int RID_SIZE = 8;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -91,7 +124,8 @@ class HFPage extends Page {
   }
 
   /**
-   * Gets the amount of free space (in bytes).
+   * Gets the amount of free space (in bytes), with the holes among the
+   * records.
    */
   public short getFreeSpace() {
     return getShortValue(FREE_SPACE);
@@ -108,7 +142,9 @@ class HFPage extends Page {
    * Sets the arbitrary type of the page.
    */
   public void setType(short type) {
+    byte[] before = beginChange();
     setShortValue(type, PAGE_TYPE);
+    endChange(before);
   }
 
   /**
@@ -122,7 +158,9 @@ class HFPage extends Page {
    * Sets the previous page's id.
    */
   public void setPrevPage(PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, PREV_PAGE);
+    endChange(before);
   }
 
   /**
@@ -136,7 +174,9 @@ class HFPage extends Page {
    * Sets the next page's id.
    */
   public void setNextPage(PageId pageno) {
+    byte[] before = beginChange();
     setIntValue(pageno.pid, NEXT_PAGE);
+    endChange(before);
   }
 
   /**
@@ -147,19 +187,66 @@ class HFPage extends Page {
   }
 
   /**
-   * Sets the current page's id.
+   * Sets the current page's id.  Setting it on a new page logs the page's
+   * whole image, since nothing of its old contents should be redone.
    */
   public void setCurPage(PageId pageno) {
-    setIntValue(pageno.pid, CUR_PAGE);
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      setIntValue(pageno.pid, CUR_PAGE);
+      LogMgr.logNewPage(pageno, this);
+    } else {
+      byte[] before = beginChange();
+      setIntValue(pageno.pid, CUR_PAGE);
+      endChange(before);
+    }
   }
 
   /**
-   * Gets the length of the record referenced by the given slot.
+   * Gets the length of the record referenced by the given slot, with the
+   * FORWARD or MOVED flag if any, or EMPTY_SLOT.
    */
   public short getSlotLength(int slotno) {
     return getShortValue(HEADER_SIZE + slotno * SLOT_SIZE);
   }
 
+  /**
+   * Gets the number of bytes used by the given (nonempty) slot's record or
+   * stub.
+   */
+  protected int getSlotSize(int slotno) {
+    return spaceOf(getSlotLength(slotno));
+  }
+
+  /**
+   * Gets the space taken by a record or stub of the given length (with or
+   * without its flags): at least a stub's, so it can always become one.
+   */
+  protected static int spaceOf(int length) {
+    return Math.max(length & LENGTH_MASK, RID_SIZE);
+  }
+
+  /**
+   * Tells whether the given slot holds a record, rather than being empty or
+   * a forwarding stub.
+   */
+  protected boolean isRecord(int slotno) {
+    short length = getSlotLength(slotno);
+    return (length != EMPTY_SLOT) && ((length & FORWARD) == 0);
+  }
+
+  /**
+   * Tells whether the page has neither records nor forwarding stubs.
+   */
+  public boolean isEmpty() {
+    short slotCnt = getShortValue(SLOT_CNT);
+    for (int i = 0; i < slotCnt; i++) {
+      if (getSlotLength(i) != EMPTY_SLOT) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Gets the offset of the record referenced by the given slot.
    */
@@ -167,72 +254,126 @@ class HFPage extends Page {
     return getShortValue(HEADER_SIZE + slotno * SLOT_SIZE + 2);
   }
 
+  /**
+   * Gets the first slot holding a record after the given one, or after -1
+   * for the first on the page; unlike nextRecord, no RID is allocated.
+   * Forwarding stubs are skipped, since their records are elsewhere.
+   *
+   * @return the slot number, or -1 if no more
+   */
+  public int nextSlot(int slotno) {
+    short slotCnt = getShortValue(SLOT_CNT);
+    for (int i = slotno + 1; i < slotCnt; i++) {
+      if (isRecord(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Points the view at the record in the given slot, without copying it.  A
+   * record moved here is viewed with the RID of its home.
+   *
+   * @throws IllegalArgumentException if the slot is empty, invalid or a
+   * forwarding stub
+   */
+  public void viewRecord(int slotno, RecordView view) {
+    short length = checkSlot(slotno);
+    int offset = getSlotOffset(slotno);
+    if ((length & FORWARD) != 0) {
+      throw new IllegalArgumentException("Forwarded record");
+    } else if ((length & MOVED) != 0) {
+      view.set(data, offset + RID_SIZE, (length & LENGTH_MASK) - RID_SIZE,
+          getIntValue(offset), getIntValue(offset + 4));
+    } else {
+      view.set(data, offset, length, getIntValue(CUR_PAGE), slotno);
+    }
+  }
+
   /**
    * Inserts a new record into the page. 
    * 
    * @return RID of new record, or null if insufficient space
    */
   public RID insertRecord(byte[] record) {
+    return insertRecord(record, null);
+  }
 
-    // first check for sufficient space
-    short recLength = (short) record.length;
-    int spaceNeeded = recLength + SLOT_SIZE;
+  /**
+   * Inserts a new record into the page, after the RID of its home if it
+   * moved here from there.
+   *
+   * @param home the RID of the record's forwarding stub, or null
+   * @return RID of new record, or null if insufficient space
+   */
+  protected RID insertRecord(byte[] record, RID home) {
+
+    // first check for sufficient space, with a new slot if none is empty
+    short recLength = (short) (record.length
+        + ((home != null) ? RID_SIZE : 0));
+    int space = spaceOf(recLength);
+    int i = getIntValue(FREE_SLOT);
+    int spaceNeeded = space + ((i == -1) ? SLOT_SIZE : 0);
     short freeSpace = getShortValue(FREE_SPACE);
     if (spaceNeeded > freeSpace)
       return null;
+    byte[] before = beginChange();
 
-    // linear search for an empty slot
+    // compact the records space, only if holes leave too little in the middle
     short slotCnt = getShortValue(SLOT_CNT);
-    short i, length;
-    for (i = 0; i < slotCnt; i++) {
-      length = getSlotLength(i);
-      if (length == EMPTY_SLOT)
-        break;
+    short usedPtr = getShortValue(USED_PTR);
+    if (usedPtr - spaceNeeded < HEADER_SIZE + slotCnt * SLOT_SIZE) {
+      usedPtr = compact();
     }
 
-    // if using a new slot
-    if (i == slotCnt) {
-
-      // adjust the free space
-      freeSpace -= spaceNeeded;
-      setShortValue(freeSpace, FREE_SPACE);
-
-      // adjust the slot count
-      slotCnt++;
-      setShortValue(slotCnt, SLOT_CNT);
-
+    // take the first empty slot off the list, or add one
+    if (i == -1) {
+      i = slotCnt;
+      setShortValue((short) (slotCnt + 1), SLOT_CNT);
     } else {
+      setIntValue(getSlotOffset(i), FREE_SLOT);
+    }
 
-      // otherwise, reusing an existing slot
-      freeSpace -= recLength;
-      setShortValue(freeSpace, FREE_SPACE);
-
-    } // else
-
-    // update the used space offset
-    short usedPtr = getShortValue(USED_PTR);
-    usedPtr -= recLength;
+    // adjust the free space, and the used space offset
+    freeSpace -= spaceNeeded;
+    setShortValue(freeSpace, FREE_SPACE);
+    usedPtr -= space;
     setShortValue(usedPtr, USED_PTR);
 
     // update the slot, copy the record, and return the RID
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
     setShortValue(recLength, slotpos);
     setShortValue(usedPtr, slotpos + 2);
-    System.arraycopy(record, 0, data, usedPtr, recLength);
+    if (home != null) {
+      setShortValue((short) (recLength | MOVED), slotpos);
+      setIntValue(home.pageno.pid, usedPtr);
+      setIntValue(home.slotno, usedPtr + 4);
+    }
+    System.arraycopy(record, 0, data, usedPtr + recLength - record.length,
+        record.length);
+    endChange(before);
     return new RID(new PageId(getIntValue(CUR_PAGE)), i);
 
-  } // public RID insertRecord(byte[] record)
+  } // protected RID insertRecord(byte[] record, RID home)
 
   /**
    * Selects a record from the page.
    * 
-   * @throws IllegalArgumentException if the rid is invalid
+   * @throws IllegalArgumentException if the rid is invalid or a forwarding
+   * stub's
    */
   public byte[] selectRecord(RID rid) {
 
     // get and validate the record information
     short length = checkRID(rid);
     short offset = getSlotOffset(rid.slotno);
+    if ((length & FORWARD) != 0) {
+      throw new IllegalArgumentException("Forwarded record");
+    } else if ((length & MOVED) != 0) {
+      length = (short) ((length & LENGTH_MASK) - RID_SIZE);
+      offset += RID_SIZE;
+    }
 
     // finally, get and return the record
     byte[] record = new byte[length];
@@ -242,83 +383,192 @@ class HFPage extends Page {
   } // public byte[] selectRecord(RID rid)
 
   /**
-   * Updates a record on the page.  Must update with a record of the same length.
+   * Updates a record on the page, growing or shrinking it in place; a
+   * record moved here keeps its home RID.  Updating a forwarding stub puts
+   * the record back in its place.
    * 
-   * @throws IllegalArgumentException if the rid is invalid or input record's 
-   * length is different.
+   * @return false (changing nothing) if the page has no room for the record
+   * @throws IllegalArgumentException if the rid is invalid
    */
-  public void updateRecord(RID rid, byte[] record) {
+  public boolean updateRecord(RID rid, byte[] record) {
 
     // get and validate the record information
     short length = checkRID(rid);
-    if (record.length != length)
-      throw new IllegalArgumentException("Invalid record size");
+    int header = ((length & MOVED) != 0) ? RID_SIZE : 0;
+    int size = header + record.length;
+    if (spaceOf(size) - spaceOf(length) > getShortValue(FREE_SPACE)) {
+      return false;
+    }
 
     // finally, update the record in place
+    byte[] before = beginChange();
+    resize(rid.slotno, size);
+    int slotpos = HEADER_SIZE + rid.slotno * SLOT_SIZE;
+    setShortValue((short) (size | (length & MOVED)), slotpos);
+    System.arraycopy(record, 0, data, getSlotOffset(rid.slotno) + header,
+        record.length);
+    endChange(before);
+    return true;
+
+  } // public boolean updateRecord(RID rid, byte[] record)
+
+  /**
+   * Gets the RID the record moved to, if the given one is a forwarding
+   * stub's.
+   *
+   * @return the RID of the moved record, or null if the record is here
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public RID getForward(RID rid) {
+    if ((checkRID(rid) & FORWARD) == 0) {
+      return null;
+    }
     short offset = getSlotOffset(rid.slotno);
-    System.arraycopy(record, 0, data, offset, length);
+    return new RID(new PageId(getIntValue(offset)), getIntValue(offset + 4));
+  }
 
-  } // public void updateRecord(RID rid, byte[] record)
+  /**
+   * Turns the given record, or forwarding stub, into a stub for the record
+   * moved to the given RID.
+   *
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void setForward(RID rid, RID target) {
+    checkRID(rid);
+    byte[] before = beginChange();
+    resize(rid.slotno, RID_SIZE);
+    setShortValue((short) (RID_SIZE | FORWARD),
+        HEADER_SIZE + rid.slotno * SLOT_SIZE);
+    short offset = getSlotOffset(rid.slotno);
+    setIntValue(target.pageno.pid, offset);
+    setIntValue(target.slotno, offset + 4);
+    endChange(before);
+  }
+
+  /**
+   * Gets the page id stored in the given forwarding stub, or before the
+   * given moved record, i.e. the page of the other end of its forward.
+   */
+  protected PageId getSlotLink(int slotno) {
+    return new PageId(getIntValue(getSlotOffset(slotno)));
+  }
 
   /**
-   * Deletes a record from the page, compacting the records space. RIDs of
-   * other records must not change.
+   * Sets the page id stored in the given forwarding stub, or before the
+   * given moved record.
+   */
+  protected void setSlotLink(int slotno, PageId pageno) {
+    byte[] before = beginChange();
+    setIntValue(pageno.pid, getSlotOffset(slotno));
+    endChange(before);
+  }
+
+  /**
+   * Deletes a record, or forwarding stub, from the page, leaving a hole in
+   * the records space (unless the record was the first). RIDs of other
+   * records must not change.
    * 
    * @throws IllegalArgumentException if the rid is invalid
    */
   public void deleteRecord(RID rid) {
 
     // get and validate the record information
-    short length = checkRID(rid);
+    checkRID(rid);
+    int size = getSlotSize(rid.slotno);
     short offset = getSlotOffset(rid.slotno);
+    byte[] before = beginChange();
 
-    // calculate the compacting values
+    // give back the record's space
     short usedPtr = getShortValue(USED_PTR);
-    short newSpot = (short) (usedPtr + length);
-    short size = (short) (offset - usedPtr);
+    if (offset == usedPtr) {
+      setShortValue((short) (usedPtr + size), USED_PTR);
+    }
+    setShortValue((short) (getShortValue(FREE_SPACE) + size), FREE_SPACE);
 
-    // shift all bytes to the right
-    System.arraycopy(data, usedPtr, data, newSpot, size);
+    // mark the slot as empty, and put it first in the list
+    int slotpos = HEADER_SIZE + rid.slotno * SLOT_SIZE;
+    setShortValue((short) EMPTY_SLOT, slotpos);
+    setShortValue((short) getIntValue(FREE_SLOT), slotpos + 2);
+    setIntValue(rid.slotno, FREE_SLOT);
+    endChange(before);
 
-    // adjust offsets of all valid slots that refer
-    // to the left of the record being removed
-    short slotCnt = getShortValue(SLOT_CNT);
-    for (int i = 0, n = HEADER_SIZE; i < slotCnt; i++, n += SLOT_SIZE) {
-      if (getSlotLength(i) != EMPTY_SLOT) {
-        short chkoffset = getSlotOffset(i);
-        if (chkoffset < offset) {
-          chkoffset += length;
-          setShortValue(chkoffset, n + 2);
-        }
+  } // public void deleteRecord(RID rid)
+
+  /**
+   * Changes the space of the given slot's record to the given size (keeping
+   * as many of its first bytes as fit), and the free space by the difference,
+   * which must be enough.  A record shrinks in place, leaving a hole; one
+   * that grows moves to the middle of the page, compacting the records space
+   * first if needed.  The slot's flags are kept.
+   */
+  protected void resize(int slotno, int size) {
+
+    // get the record information
+    int slotpos = HEADER_SIZE + slotno * SLOT_SIZE;
+    short length = getShortValue(slotpos);
+    int oldSpace = spaceOf(length);
+    int space = spaceOf(size);
+    short offset = getShortValue(slotpos + 2);
+
+    // copy the record into new space if it grows, setting its own space
+    // aside if it must be compacted too
+    if (space > oldSpace) {
+      short usedPtr = getShortValue(USED_PTR);
+      int slotEnd = HEADER_SIZE + getShortValue(SLOT_CNT) * SLOT_SIZE;
+      if (usedPtr - space < slotEnd) {
+        byte[] kept = Arrays.copyOfRange(data, offset, offset + oldSpace);
+        setShortValue((short) EMPTY_SLOT, slotpos);
+        usedPtr = (short) (compact() - space);
+        System.arraycopy(kept, 0, data, usedPtr, oldSpace);
+      } else {
+        usedPtr -= space;
+        System.arraycopy(data, offset, data, usedPtr, oldSpace);
       }
+      setShortValue(usedPtr, USED_PTR);
+      offset = usedPtr;
     }
 
-    // move the used space offset forward
-    setShortValue(newSpot, USED_PTR);
+    // adjust the free space and the slot
+    setShortValue((short) (getShortValue(FREE_SPACE) - (space - oldSpace)),
+        FREE_SPACE);
+    setShortValue((short) ((length & ~LENGTH_MASK) | size), slotpos);
+    setShortValue(offset, slotpos + 2);
 
-    // increase freespace by size of hole
-    short freeSpace = getShortValue(FREE_SPACE);
-    freeSpace += length;
-    setShortValue(freeSpace, FREE_SPACE);
+  } // protected void resize(int slotno, int size)
 
-    // mark the slot as empty
-    int slotpos = HEADER_SIZE + rid.slotno * SLOT_SIZE;
-    setShortValue((short) EMPTY_SLOT, slotpos);
-    setShortValue((short) 0, slotpos + 2);
-
-  } // public void deleteRecord(RID rid)
+  /**
+   * Moves the records to the back of the page, one after another, so the
+   * free space is all in the middle.  Record offsets change, but not RIDs.
+   *
+   * @return the new used space offset
+   */
+  protected short compact() {
+    byte[] image = data.clone();
+    short slotCnt = getShortValue(SLOT_CNT);
+    int usedPtr = PAGE_SIZE;
+    for (int i = 0, n = HEADER_SIZE; i < slotCnt; i++, n += SLOT_SIZE) {
+      short length = getShortValue(n);
+      if (length != EMPTY_SLOT) {
+        int size = spaceOf(length);
+        usedPtr -= size;
+        System.arraycopy(image, getShortValue(n + 2), data, usedPtr, size);
+        setShortValue((short) usedPtr, n + 2);
+      }
+    }
+    setShortValue((short) usedPtr, USED_PTR);
+    return (short) usedPtr;
+  }
 
   /**
    * Gets the RID of the first record on the page, or null if none.
    */
   public RID firstRecord() {
 
-    // find the first non-empty slot
+    // find the first slot holding a record
     short slotCnt = getShortValue(SLOT_CNT);
     int i = 0;
     for (; i < slotCnt; i++) {
-      short length = getSlotLength(i);
-      if (length != EMPTY_SLOT)
+      if (isRecord(i))
         break;
     }
 
@@ -345,11 +595,10 @@ class HFPage extends Page {
         || (curRid.slotno > slotCnt))
       throw new IllegalArgumentException("Invalid RID");
 
-    // find the next non-empty slot
+    // find the next slot holding a record
     int i = curRid.slotno + 1;
     for (; i < slotCnt; i++) {
-      short length = getSlotLength(i);
-      if (length != EMPTY_SLOT)
+      if (isRecord(i))
         break;
     }
 
@@ -372,7 +621,11 @@ class HFPage extends Page {
     System.out.println("HFPage:");
     System.out.println("-------");
     System.out.println("  curPage   = " + getIntValue(CUR_PAGE));
-    System.out.println("  prevPage  = " + getIntValue(PREV_PAGE));
+    if ((getType() == HeapFile.DATA_PAGE) || (getType() == HeapFile.PAX_PAGE)) {
+      System.out.println("  freeSlot  = " + getIntValue(FREE_SLOT));
+    } else {
+      System.out.println("  prevPage  = " + getIntValue(PREV_PAGE));
+    }
     System.out.println("  nextPage  = " + getIntValue(NEXT_PAGE));
     System.out.println("  slotCnt   = " + slotCnt);
     System.out.println("  usedPtr   = " + getShortValue(USED_PTR));
@@ -390,24 +643,56 @@ class HFPage extends Page {
   /**
    * Validates a record id exists on this page.
    * 
-   * @return the record length (if valid)
+   * @return the record length, with its flags (if valid)
    * @throws IllegalArgumentException if the slot is empty or the RID is invalid
    */
   protected short checkRID(RID rid) {
 
     // validate the record id
     int curPid = getIntValue(CUR_PAGE);
-    short slotCnt = getShortValue(SLOT_CNT);
-    if ((rid.pageno.pid != curPid) || (rid.slotno < 0)
-        || (rid.slotno >= slotCnt))
+    if (rid.pageno.pid != curPid)
       throw new IllegalArgumentException("Invalid RID");
 
     // validate the record itself
-    short recLen = getSlotLength(rid.slotno);
-    if (recLen == EMPTY_SLOT)
-      throw new IllegalArgumentException("Empty slot");
-    return recLen;
+    return checkSlot(rid.slotno);
 
   } // protected short checkRID(RID rid)
 
+  /**
+   * Validates a slot number holds a record or forwarding stub.
+   *
+   * @return the record length, with its flags (if valid)
+   * @throws IllegalArgumentException if the slot is empty or invalid
+   */
+  protected short checkSlot(int slotno) {
+    if ((slotno < 0) || (slotno >= getShortValue(SLOT_CNT))) {
+      throw new IllegalArgumentException("Invalid RID");
+    }
+    short length = getSlotLength(slotno);
+    if (length == EMPTY_SLOT) {
+      throw new IllegalArgumentException("Empty slot");
+    }
+    return length;
+  }
+
+  /**
+   * Copies the page's image before a change, if the change is to be logged;
+   * pages still being set up (i.e. without a current page id) are not.
+   *
+   * @return the copy to pass to endChange, or null
+   */
+  protected byte[] beginChange() {
+    if (getIntValue(CUR_PAGE) == INVALID_PAGEID) {
+      return null;
+    }
+    return LogMgr.snapshot(this);
+  }
+
+  /**
+   * Logs a change to the page, given the copy from beginChange.
+   */
+  protected void endChange(byte[] before) {
+    LogMgr.logChange(getCurPage(), before, this);
+  }
+
 } // class HFPage extends Page
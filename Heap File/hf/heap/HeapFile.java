@@ -4,6 +4,14 @@ import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
 import global.RID;
+import diskmgr.DiskMgr;
+import logmgr.LogMgr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * <h3>Minibase Heap Files</h3>
@@ -16,7 +24,15 @@ import global.RID;
  * relational operators. A temporary heap file does not have an entry in the
  * file library and is deleted when there are no more references to it. <br>
  * A sequential scan of a heap file (via the HeapScan class)
- * is the most basic access method.
+ * is the most basic access method. <br>
+ * If the database is logged, each change to the file is an atomic action:
+ * it commits on return, and rolls back if it throws.  The disk manager
+ * charges each operation's I/O to the file.
+ * <br><br>
+ * Updates may change a record's length.  A record that no longer fits on its
+ * page moves to another one, and leaves a forwarding stub behind, so its RID
+ * stays valid; reaching it by its RID then takes one more page (a hop).  It
+ * moves back when it fits in its place again.
  */
 public class HeapFile implements GlobalConst {
 
@@ -26,6 +42,9 @@ public class HeapFile implements GlobalConst {
   /** HFPage type for data pages. */
   protected static final short DATA_PAGE = 11;
 
+  /** HFPage type for data pages laid out by column. */
+  protected static final short PAX_PAGE = 12;
+
   // --------------------------------------------------------------------------
 
   /** Is this a temporary heap file, meaning it has no entry in the library? */
@@ -39,6 +58,21 @@ public class HeapFile implements GlobalConst {
   /** First page of the directory for this heap file. */
   protected PageId headId;
 
+  /** Free space on the data pages; built on first use. */
+  protected FreeSpaceMap fsm;
+
+  /** Layout of new data pages if laid out by column, or null. */
+  protected PaxLayout layout;
+
+  /** Number of forwarding stubs followed to reach records. */
+  protected long hop_cnt;
+
+  /** Number of records moved to other pages by updates. */
+  protected long forward_cnt;
+
+  /** Number of moved records put back in their place by updates. */
+  protected long collapse_cnt;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -57,6 +91,7 @@ public class HeapFile implements GlobalConst {
 
       if (pageId != null) {
         headId = pageId;
+        layout = findLayout();
       }
       else {
         createNewHF();
@@ -70,6 +105,50 @@ public class HeapFile implements GlobalConst {
 
   } // public HeapFile(String name)
 
+  /**
+   * Opens or creates a heap file like HeapFile(String), whose new data pages
+   * are laid out by column (PAX) as given.  Each data page is read according
+   * to its own layout; so the layout of an existing file is also found from
+   * its data pages, but not if it has none.
+   */
+  public HeapFile(String name, PaxLayout layout) {
+    this(name);
+    this.layout = layout;
+  }
+
+  /**
+   * Gets the layout of the file's first data page, if laid out by column.
+   */
+  protected PaxLayout findLayout() {
+    DirPage dirPage = new DirPage();
+    PaxLayout found = null;
+    String prev = enterFile();
+    try {
+      Minibase.BufferManager.pinPage(headId, dirPage, PIN_DISKIO);
+      if (dirPage.getEntryCnt() > 0) {
+        PageId pageno = dirPage.getPageId(0);
+        HFPage dataPage = new HFPage();
+        Minibase.BufferManager.pinPage(pageno, dataPage, PIN_DISKIO);
+        if (dataPage.getType() == PAX_PAGE) {
+          found = new PaxPage(dataPage).getLayout();
+        }
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+      }
+      Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+    return found;
+  }
+
+  /**
+   * Gets the layout of the file's new data pages, or null if they are
+   * slotted pages.
+   */
+  public PaxLayout getLayout() {
+    return layout;
+  }
+
   /**
    * Called by the garbage collector when there are no more references to the
    * object; deletes the heap file if it's temporary.
@@ -87,6 +166,27 @@ public class HeapFile implements GlobalConst {
    * and its library entry if appropriate.
    */
   public void deleteFile() {
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
+      fsm = null;
+      freeFile();
+      if (!isTemp) {
+        Minibase.DiskManager.delete_file_entry(fileName);
+      }
+      LogMgr.endAction(txn, true);
+    } catch (RuntimeException exc) {
+      LogMgr.endAction(txn, false);
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  }
+
+  /**
+   * Frees all of the heap file's pages; used by deleteFile.
+   */
+  protected void freeFile() {
 
     PageId dirId = new PageId();
     DirPage dirPage = new DirPage();
@@ -110,7 +210,7 @@ public class HeapFile implements GlobalConst {
     } while (dirId.pid != INVALID_PAGEID);
     //throw new UnsupportedOperationException("Not implemented");
 
-  } // public void deleteFile()
+  } // protected void freeFile()
 
   /**
    * Inserts a new record into the file and returns its RID.
@@ -125,24 +225,198 @@ public class HeapFile implements GlobalConst {
    */
   public RID insertRecord(byte[] record) throws IllegalArgumentException {
 
-    HFPage hfPage = new HFPage();
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
 
-    // Create another page where the record length is sufficient
-    PageId anotherPageId = getAvailPage(record.length);
-    Minibase.BufferManager.pinPage(anotherPageId, hfPage, PIN_DISKIO);
+      RID recordId = placeRecord(record, null);
+      LogMgr.endAction(txn, true);
+      return recordId;
 
-    RID recordId = hfPage.insertRecord(record);
+    } catch (RuntimeException exc) {
+      LogMgr.endAction(txn, false);
+      fsm = null;
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+
+    //throw new UnsupportedOperationException("Not implemented");
+
+  } // public RID insertRecord(byte[] record)
+
+  /**
+   * Stores a record on a data page with room for it, after the RID of its
+   * home if it moved from there, and updates the page's directory entry.
+   * Moved records only go to slotted pages, since records on PAX pages
+   * don't move.
+   *
+   * @param home the RID of the record's forwarding stub, or null
+   * @throws IllegalArgumentException if the record is too large to fit on
+   * one data page
+   */
+  protected RID placeRecord(byte[] record, RID home) {
+
+    // Create another page where the record length is sufficient; the
+    // free space map may be wrong about it, and then learns better
+    HFPage hfPage = new HFPage();
+    int reclen = record.length + ((home != null) ? HFPage.RID_SIZE : 0);
+    PageId anotherPageId;
+    RID recordId;
+    HashMap<Integer, Integer> skipped = new HashMap<Integer, Integer>();
+    try {
+      while (true) {
+        anotherPageId = getAvailPage(reclen, home != null);
+        Minibase.BufferManager.pinPage(anotherPageId, hfPage, PIN_DISKIO);
+        HFPage page = PaxPage.wrap(hfPage);
+        if ((home != null) && (page != hfPage)) {
+
+          // keep the free space map off the PAX page until the record is in
+          skipped.put(anotherPageId.pid, (int) hfPage.getFreeSpace());
+          fsm.put(anotherPageId.pid, 0);
+          Minibase.BufferManager.unpinPage(anotherPageId, UNPIN_CLEAN);
+          continue;
+        }
+        recordId = page.insertRecord(record, home);
+        if (recordId != null) {
+          break;
+        }
+        fsm.put(anotherPageId.pid, hfPage.getFreeSpace());
+        Minibase.BufferManager.unpinPage(anotherPageId, UNPIN_CLEAN);
+      }
+    } finally {
+      for (Map.Entry<Integer, Integer> e : skipped.entrySet()) {
+        fsm.put(e.getKey(), e.getValue());
+      }
+    }
 
     // Updating the directory entry point
     updateDirEntry(anotherPageId, 1, hfPage.getFreeSpace());
 
     Minibase.BufferManager.unpinPage(anotherPageId, UNPIN_DIRTY);
-
     return recordId;
 
-    //throw new UnsupportedOperationException("Not implemented");
+  } // protected RID placeRecord(byte[] record, RID home)
 
-  } // public RID insertRecord(byte[] record)
+  /**
+   * Inserts the given records into the file, as one atomic action.  Each
+   * data page gets as many records as fit, in order, with one pin and one
+   * directory update; so loading many records costs per page, not per
+   * record, what insertRecord costs.
+   *
+   * @param rids array to hold the records' RIDs; its RID objects are reused,
+   * and it is replaced if null or too short
+   * @return the array holding the RIDs (in the order of the records)
+   * @throws IllegalArgumentException if a record is too large to fit on one
+   * data page
+   */
+  public RID[] insertRecords(byte[][] records, RID[] rids) {
+    if ((rids == null) || (rids.length < records.length)) {
+      rids = (rids == null) ? new RID[records.length]
+          : Arrays.copyOf(rids, records.length);
+    }
+    insertAll(Arrays.asList(records).iterator(), rids, null);
+    return rids;
+  }
+
+  /**
+   * Inserts the records of the given sequence into the file, as one atomic
+   * action; see insertRecords(byte[][], RID[]).
+   *
+   * @return the records' RIDs, in order
+   * @throws IllegalArgumentException if a record is too large to fit on one
+   * data page
+   */
+  public ArrayList<RID> insertRecords(Iterable<byte[]> records) {
+    ArrayList<RID> rids = new ArrayList<RID>();
+    insertAll(records.iterator(), null, rids);
+    return rids;
+  }
+
+  /**
+   * Inserts the records, page by page, storing their RIDs in the array (if
+   * given) or appending them to the list.
+   */
+  protected void insertAll(Iterator<byte[]> records, RID[] rids,
+      ArrayList<RID> list) {
+
+    HFPage hfPage = new HFPage();
+    PageId pinned = null;
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
+
+      int count = 0;
+      byte[] record = nextRecord(records);
+      while (record != null) {
+
+        // fill a page with room for the next record, as far as it goes
+        PageId pageno = getAvailPage(record.length);
+        Minibase.BufferManager.pinPage(pageno, hfPage, PIN_DISKIO);
+        pinned = pageno;
+        HFPage page = PaxPage.wrap(hfPage);
+        int inserted = 0;
+        while (record != null) {
+          RID rid = page.insertRecord(record);
+          if (rid == null) {
+            break;
+          }
+          if (list != null) {
+            list.add(rid);
+          } else if (rids[count] != null) {
+            rids[count].copyRID(rid);
+          } else {
+            rids[count] = rid;
+          }
+          count++;
+          inserted++;
+          record = nextRecord(records);
+        }
+
+        // update the page's directory entry once for all its new records
+        pinned = null;
+        if (inserted == 0) {
+          fsm.put(pageno.pid, hfPage.getFreeSpace());
+          Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+        } else {
+          updateDirEntry(pageno, inserted, hfPage.getFreeSpace());
+          Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+        }
+
+      } // while
+      LogMgr.endAction(txn, true);
+
+    } catch (RuntimeException exc) {
+
+      // the page may have records of the batch on it
+      if (pinned != null) {
+        Minibase.BufferManager.unpinPage(pinned, UNPIN_DIRTY);
+      }
+      LogMgr.endAction(txn, false);
+      fsm = null;
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+
+  } // protected void insertAll(Iterator<byte[]>, RID[], ArrayList<RID>)
+
+  /**
+   * Gets the next record to insert, checking its length as insertRecord
+   * would (so a null record fails the same way).
+   *
+   * @return the record, or null at the end of the sequence
+   * @throws IllegalArgumentException if the record is too large to fit on
+   * one data page
+   */
+  protected byte[] nextRecord(Iterator<byte[]> records) {
+    if (!records.hasNext()) {
+      return null;
+    }
+    byte[] record = records.next();
+    checkLength(record.length);
+    return record;
+  }
 
   /**
    * Reads a record from the file, given its rid.
@@ -153,38 +427,171 @@ public class HeapFile implements GlobalConst {
 
     HFPage dataPage = new HFPage();
     byte[] record;
+    String prev = enterFile();
+    try {
+
+      // Pin the data page so that we can select the record
+      Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
+
+      // Will throw IllegalArgumentException if the rid is invalid
+      HFPage page = PaxPage.wrap(dataPage);
+      RID target = page.getForward(rid);
+      record = (target == null) ? page.selectRecord(rid) : null;
+
+      // Unpin the data page to since we are done with it
+      Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
+
+      // follow the stub to the record, if it moved
+      if (target != null) {
+        hop_cnt++;
+        Minibase.BufferManager.pinPage(target.pageno, dataPage, PIN_DISKIO);
+        record = dataPage.selectRecord(target);
+        Minibase.BufferManager.unpinPage(target.pageno, UNPIN_CLEAN);
+      }
 
-    // Pin the data page so that we can select the record
-    Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
-
-    // Will throw IllegalArgumentException if the rid is invalid
-    record = dataPage.selectRecord(rid).clone();
-
-    // Unpin the data page to since we are done with it
-    Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
     return record;
     //throw new UnsupportedOperationException("Not implemented");
   } // public byte[] selectRecord(RID rid)
 
   /**
-   * Updates the specified record in the heap file.
+   * Points the view at a record of the file, given its rid, without copying
+   * it.  The view keeps the record's page pinned until it is released or
+   * points at a record on another page, so point reads on the same page
+   * don't pin it again.
+   *
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void viewRecord(RID rid, RecordView view) {
+    String prev = enterFile();
+    try {
+
+      // Will throw IllegalArgumentException if the rid is invalid
+      pinView(view, rid.pageno);
+      HFPage page = PaxPage.wrap(view.page);
+      RID target = page.getForward(rid);
+      if (target == null) {
+        page.viewRecord(rid.slotno, view);
+      } else {
+
+        // follow the stub to the record, which moved
+        hop_cnt++;
+        pinView(view, target.pageno);
+        view.page.viewRecord(target.slotno, view);
+
+      }
+
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  } // public void viewRecord(RID rid, RecordView view)
+
+  /**
+   * Moves the view's pin to the given page, if elsewhere.
+   */
+  protected void pinView(RecordView view, PageId pageno) {
+    if ((view.pinned == null) || (view.pinned.pid != pageno.pid)) {
+      view.release();
+      if (view.page == null) {
+        view.page = new HFPage();
+      }
+      Minibase.BufferManager.pinPage(pageno, view.page, PIN_DISKIO);
+      view.pinned = new PageId(pageno.pid);
+    }
+  }
+
+  /**
+   * Updates the specified record in the heap file.  The new record may have
+   * another length; if it doesn't fit on the record's page, it moves to
+   * another page and keeps its RID.  Records on pages laid out by column
+   * only change in place.
    *
-   * @throws IllegalArgumentException if the rid or new record is invalid
+   * @throws IllegalArgumentException if the rid or new record is invalid, or
+   * the record can't stay or move
    */
   public void updateRecord(RID rid, byte[] newRecord) throws IllegalArgumentException {
 
     HFPage dataPage = new HFPage();
+    boolean pinned = false;
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
+
+      // Pin the data page so that we can update the record
+      checkLength(newRecord.length);
+      Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
+      pinned = true;
+
+      // Update the record with the newRecord, where it is
+      // Will throw IllegalArgumentException if the rid is invalid
+      HFPage page = PaxPage.wrap(dataPage);
+      int freeSpace = dataPage.getFreeSpace();
+      RID target = page.getForward(rid);
+      if (target == null) {
+        if (page.updateRecord(rid, newRecord)) {
+          if (dataPage.getFreeSpace() != freeSpace) {
+            updateDirEntry(rid.pageno, 0, dataPage.getFreeSpace());
+          }
+        } else {
+
+          // no room on the page: move the record, and leave a stub
+          if (page instanceof PaxPage) {
+            throw new IllegalArgumentException("No room for the record");
+          }
+          page.setForward(rid, placeRecord(newRecord, rid));
+          updateDirEntry(rid.pageno, -1, dataPage.getFreeSpace(), true);
+          forward_cnt++;
 
-    // Pin the data page so that we can update the record
-    Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
+        }
+      } else {
+        hop_cnt++;
+        if (page.updateRecord(rid, newRecord)) {
+
+          // the record fits in its place again
+          updateDirEntry(rid.pageno, 1, dataPage.getFreeSpace());
+          deleteMoved(target);
+          collapse_cnt++;
+
+        } else {
+
+          // update the moved record, or move it again
+          HFPage movedPage = new HFPage();
+          Minibase.BufferManager.pinPage(target.pageno, movedPage, PIN_DISKIO);
+          freeSpace = movedPage.getFreeSpace();
+          boolean updated = movedPage.updateRecord(target, newRecord);
+          if (updated && (movedPage.getFreeSpace() != freeSpace)) {
+            updateDirEntry(target.pageno, 0, movedPage.getFreeSpace());
+          }
+          Minibase.BufferManager.unpinPage(target.pageno,
+              updated ? UNPIN_DIRTY : UNPIN_CLEAN);
+          if (!updated) {
+            page.setForward(rid, placeRecord(newRecord, rid));
+            deleteMoved(target);
+            forward_cnt++;
+          }
 
-    // Update the record with the newRecord
-    // Will throw IllegalArgumentException if the rid is invalid or input record's length is different
-    dataPage.updateRecord(rid, newRecord);
+        }
+      }
 
-    // Unpin the data page to save the changes
-    Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+      // Unpin the data page to save the changes
+      pinned = false;
+      Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+      LogMgr.endAction(txn, true);
+
+    } catch (RuntimeException exc) {
+
+      // the page may have changed before the error
+      if (pinned) {
+        Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+      }
+      LogMgr.endAction(txn, false);
+      fsm = null;
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
     //throw new UnsupportedOperationException("Not implemented");
 
   } // public void updateRecord(RID rid, byte[] newRecord)
@@ -198,20 +605,93 @@ public class HeapFile implements GlobalConst {
   public void deleteRecord(RID rid) throws IllegalArgumentException {
 
     HFPage hfPage = new HFPage();
-    Minibase.BufferManager.pinPage(rid.pageno, hfPage, PIN_DISKIO);
-    hfPage.deleteRecord(rid);
-    int freeSpace = hfPage.getFreeSpace();
-    //Delete the invalid records and re-save the spae that is free and then unpin the changes.
-    Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
-    updateDirEntry(rid.pageno, -1, freeSpace);
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
+      Minibase.BufferManager.pinPage(rid.pageno, hfPage, PIN_DISKIO);
+      HFPage page = PaxPage.wrap(hfPage);
+      RID target = page.getForward(rid);
+      page.deleteRecord(rid);
+      int freeSpace = hfPage.getFreeSpace();
+      boolean keep = !page.isEmpty();
+      //Delete the invalid records and re-save the spae that is free and then unpin the changes.
+      Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+      if (target == null) {
+        updateDirEntry(rid.pageno, -1, freeSpace, keep);
+      } else {
+
+        // the record moved; delete it there, and its stub here
+        hop_cnt++;
+        updateDirEntry(rid.pageno, 0, freeSpace, keep);
+        deleteMoved(target);
+
+      }
+      LogMgr.endAction(txn, true);
+    } catch (RuntimeException exc) {
+      LogMgr.endAction(txn, false);
+      fsm = null;
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
     //throw new UnsupportedOperationException("Not implemented");
 
   } // public void deleteRecord(RID rid)
 
+  /**
+   * Deletes a record that moved to the given RID, once its stub is gone or
+   * holds the record again, removing its page if left empty.
+   */
+  protected void deleteMoved(RID target) {
+    HFPage hfPage = new HFPage();
+    Minibase.BufferManager.pinPage(target.pageno, hfPage, PIN_DISKIO);
+    hfPage.deleteRecord(target);
+    int freeSpace = hfPage.getFreeSpace();
+    boolean keep = !hfPage.isEmpty();
+    Minibase.BufferManager.unpinPage(target.pageno, UNPIN_DIRTY);
+    updateDirEntry(target.pageno, -1, freeSpace, keep);
+  }
+
+  /**
+   * Gets the number of forwarding stubs followed to reach records through
+   * this object, i.e. the extra page reads they cost.
+   */
+  public long getHopCount() {
+    return hop_cnt;
+  }
+
+  /**
+   * Gets the number of records moved to other pages by updates through this
+   * object.
+   */
+  public long getForwardCount() {
+    return forward_cnt;
+  }
+
+  /**
+   * Gets the number of moved records put back in their place by updates
+   * through this object.
+   */
+  public long getCollapseCount() {
+    return collapse_cnt;
+  }
+
   /**
    * Gets the number of records in the file.
    */
   public int getRecCnt() {
+    String prev = enterFile();
+    try {
+      return countRecords();
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  }
+
+  /**
+   * Does the work of getRecCnt, on behalf of the file.
+   */
+  protected int countRecords() {
 
     DirPage directoryPage = new DirPage();
     PageId nextDirectoryPageId = new PageId();
@@ -235,7 +715,7 @@ public class HeapFile implements GlobalConst {
     return count;
     //throw new UnsupportedOperationException("Not implemented");
 
-  } // public int getRecCnt()
+  } // protected int countRecords()
 
   /**
    * Initiates a sequential scan of the heap file.
@@ -244,6 +724,31 @@ public class HeapFile implements GlobalConst {
     return new HeapScan(this);
   }
 
+  /**
+   * Initiates a sequential scan of the records of the heap file that satisfy
+   * the given condition; the others are skipped without being copied.
+   */
+  public HeapScan openScan(ScanPredicate predicate) {
+    return new HeapScan(this, predicate);
+  }
+
+  /**
+   * Initiates a scan of the heap file on the given number of worker threads.
+   */
+  public ParallelScan openParallelScan(int num_workers) {
+    return new ParallelScan(this, num_workers);
+  }
+
+  /**
+   * Initiates a bulk load of records appended to the heap file.
+   *
+   * @param fill_factor fraction of each new data page to fill, above 0 and up
+   * to 1; what's left is for later inserts and updates
+   */
+  public HeapLoader openLoader(double fill_factor) {
+    return new HeapLoader(this, fill_factor);
+  }
+
   /**
    * Returns the name of the heap file.
    */
@@ -252,50 +757,74 @@ public class HeapFile implements GlobalConst {
   }
 
   /**
-   * Searches the directory for the first data page with enough free space to store a
-   * record of the given size. If no suitable page is found, this creates a new
-   * data page.
-   * A more efficient implementation would start with a directory page that is in the
-   * buffer pool.
+   * Makes the calling thread work on behalf of this file, so the disk
+   * manager charges it with the thread's I/O; see DiskMgr.enterFile.
+   *
+   * @return the file the thread was working on before, for exitFile
+   */
+  protected String enterFile() {
+    return DiskMgr.enterFile(isTemp ? DiskMgr.TEMP_FILE : fileName);
+  }
+
+  /**
+   * Finds a data page with enough free space to store a record of the given
+   * size, in the free space map.  If no suitable page is found, this creates
+   * a new data page.
    */
   protected PageId getAvailPage(int reclen) {
+    return getAvailPage(reclen, false);
+  }
 
-    DirPage directoryPage = new DirPage();
-    PageId nextDirectoryPageId = new PageId();
+  /**
+   * Finds a data page like getAvailPage(int), creating a slotted page if
+   * none is found and one is needed.
+   */
+  protected PageId getAvailPage(int reclen, boolean slotted) {
 
-    // 20 is the header size and 4 is the slot size
-    if (reclen > PAGE_SIZE - 20 - 4) {
-      throw new IllegalArgumentException("Size of the record is more than the size of the page");
+    checkLength(reclen);
+
+    int pid = getFreeSpaceMap().find(HFPage.spaceOf(reclen) + 4);
+    if (pid != INVALID_PAGEID) {
+      return new PageId(pid);
     }
+    return insertPage(slotted ? null : layout);
 
-    Minibase.BufferManager.pinPage(headId, directoryPage, PIN_DISKIO);
+  } // protected PageId getAvailPage(int reclen, boolean slotted)
 
-    do {
-      for (int i = 0; i < directoryPage.getEntryCnt(); i++) {
-        if (directoryPage.getFreeCnt(i) >= reclen + 4) {
-          PageId availablePageId = directoryPage.getPageId(i);
-          Minibase.BufferManager.unpinPage(directoryPage.getCurPage(), UNPIN_CLEAN);
-          return availablePageId;
-        }
-      }
-      nextDirectoryPageId = directoryPage.getNextPage();
+  /**
+   * Checks that a record of the given length fits on a new data page.
+   *
+   * @throws IllegalArgumentException if it doesn't
+   */
+  protected void checkLength(int reclen) {
 
-      if (nextDirectoryPageId.pid != INVALID_PAGEID) {
-        Minibase.BufferManager.unpinPage(directoryPage.getCurPage(), UNPIN_CLEAN);
-        Minibase.BufferManager.pinPage(nextDirectoryPageId, directoryPage, PIN_DISKIO);
+    // 20 is the header size and 4 is the slot size
+    if (layout != null) {
+      if ((reclen < layout.getFixedLength())
+          || (reclen > layout.getMaxLength())) {
+        throw new IllegalArgumentException("Invalid record size for the layout");
       }
-    } while (nextDirectoryPageId.pid != INVALID_PAGEID);
+    } else if (reclen > PAGE_SIZE - 20 - 4) {
+      throw new IllegalArgumentException("Size of the record is more than the size of the page");
+    }
 
-    Minibase.BufferManager.unpinPage(directoryPage.getCurPage(), UNPIN_CLEAN);
-    return insertPage();
-    //throw new UnsupportedOperationException("Not implemented");
+  } // protected void checkLength(int reclen)
 
-  } // protected PageId getAvailPage(int reclen)
+  /**
+   * Gets the free space map of the file, building it if it's missing or may
+   * have page ids no longer in the file.
+   */
+  protected FreeSpaceMap getFreeSpaceMap() {
+    if ((fsm == null) || fsm.isStale()) {
+      fsm = new FreeSpaceMap(headId);
+    }
+    return fsm;
+  }
 
   /**
    * Helper method for finding directory entries of data pages.
-   * A more efficient implementation would start with a directory
-   * page that is in the buffer pool.
+   * The free space map knows where most entries are; it only lacks those of
+   * pages added through another HeapFile object, which are searched for.
    * @param pageno identifies the page for which to find an entry
    * @param dirId output param to hold the directory page's id (pinned)
    * @param dirPage output param to hold directory page contents
@@ -303,6 +832,20 @@ public class HeapFile implements GlobalConst {
    */
   protected int findDirEntry(PageId pageno, PageId dirId, DirPage dirPage) {
 
+    // go straight to the entry, if the map knows it (and is right)
+    FreeSpaceMap map = getFreeSpaceMap();
+    int[] entry = map.getEntry(pageno.pid);
+    if (entry != null) {
+      PageId entryDirId = new PageId(entry[0]);
+      Minibase.BufferManager.pinPage(entryDirId, dirPage, PIN_DISKIO);
+      if ((entry[1] < dirPage.getEntryCnt())
+          && (dirPage.getPageId(entry[1]).pid == pageno.pid)) {
+        dirId.pid = entry[0];
+        return entry[1];
+      }
+      Minibase.BufferManager.unpinPage(entryDirId, UNPIN_CLEAN);
+    }
+
     PageId nextDirectoryPageId = new PageId();
     Minibase.BufferManager.pinPage(headId, dirPage, PIN_DISKIO);
 
@@ -310,6 +853,7 @@ public class HeapFile implements GlobalConst {
       for (int i = 0; i < dirPage.getEntryCnt(); i++) {
         if (pageno.pid == dirPage.getPageId(i).pid) {
           dirId.pid = dirPage.getCurPage().pid;
+          map.setEntry(pageno.pid, dirId.pid, i);
           return i;
         }
       }
@@ -334,6 +878,17 @@ public class HeapFile implements GlobalConst {
    * @param freecnt input new value of freecnt for the directory entry
    */
   protected void updateDirEntry(PageId pageno, int deltaRec, int freecnt) {
+    updateDirEntry(pageno, deltaRec, freecnt, false);
+  }
+
+  /**
+   * Updates the directory entry for the given data page, like
+   * updateDirEntry(PageId, int, int); the page is kept without records if it
+   * still holds forwarding stubs, which don't count as records.
+   * @param keep whether to keep the data page even without records
+   */
+  protected void updateDirEntry(PageId pageno, int deltaRec, int freecnt,
+      boolean keep) {
 
     DirPage directoryPage = new DirPage();
     PageId directoryPageId = new PageId();
@@ -342,13 +897,14 @@ public class HeapFile implements GlobalConst {
     directoryPage.setRecCnt(index, (short) (directoryPage.getRecCnt(index) + deltaRec));
     directoryPage.setFreeCnt(index, (short) freecnt);
     Minibase.BufferManager.unpinPage(directoryPage.getCurPage(), UNPIN_DIRTY);
+    getFreeSpaceMap().put(pageno.pid, freecnt);
 
-    if (directoryPage.getRecCnt(index) < 1) {
+    if ((directoryPage.getRecCnt(index) < 1) && !keep) {
       deletePage(pageno, directoryPageId, directoryPage, index);
     }
     //throw new UnsupportedOperationException("Not implemented");
 
-  } // protected void updateEntry(PageId pageno, int deltaRec, int deltaFree)
+  } // protected void updateDirEntry(PageId, int, int, boolean)
 
   /**
    * Inserts a new empty data page and its directory entry into the heap file.
@@ -358,6 +914,14 @@ public class HeapFile implements GlobalConst {
    * @return id of the new data page
    */
   protected PageId insertPage() {
+    return insertPage(layout);
+  }
+
+  /**
+   * Inserts a new empty data page like insertPage(), laid out by column as
+   * given, or slotted if null.
+   */
+  protected PageId insertPage(PaxLayout layout) {
 
     DirPage directoryPage = new DirPage();
     PageId dataPageId = new PageId();
@@ -369,13 +933,16 @@ public class HeapFile implements GlobalConst {
       if (directoryPage.getEntryCnt() < directoryPage.getMaxEntries()) {
 
         dataPageId = Minibase.DiskManager.allocate_page();
-        HFPage dataPage = new HFPage();
+        HFPage dataPage = (layout == null) ? new HFPage() : new PaxPage(layout);
         dataPage.setCurPage(dataPageId);
         //create a page and add the directory to the correct slot and free up space
+        getFreeSpaceMap().setEntry(dataPageId.pid,
+            directoryPage.getCurPage().pid, directoryPage.getEntryCnt());
         directoryPage.setPageId(directoryPage.getEntryCnt(), dataPageId);
         directoryPage.setFreeCnt(directoryPage.getEntryCnt(), dataPage.getFreeSpace());
         directoryPage.setRecCnt(directoryPage.getEntryCnt(), (short) 0);
         directoryPage.setEntryCnt((short)(directoryPage.getEntryCnt() + 1));
+        getFreeSpaceMap().put(dataPageId.pid, dataPage.getFreeSpace());
 
         Minibase.BufferManager.pinPage(dataPageId, dataPage, PIN_MEMCPY);
         Minibase.BufferManager.unpinPage(directoryPage.getCurPage(), UNPIN_DIRTY);
@@ -414,7 +981,7 @@ public class HeapFile implements GlobalConst {
     return dataPageId;
     //throw new UnsupportedOperationException("Not implemented");
 
-  } // protected PageId insertPage()
+  } // protected PageId insertPage(PaxLayout layout)
 
   /**
    * Deletes the given data page and its directory entry from the heap file. If
@@ -483,11 +1050,20 @@ public class HeapFile implements GlobalConst {
       dirPage.setFreeCnt(index, (short) 0);
       dirPage.compact(index);
 
+      // the entries after it moved down a slot
+      for (int i = index; i < dirPage.getEntryCnt(); i++) {
+        fsm.setEntry(dirPage.getPageId(i).pid, dirId.pid, i);
+      }
+
       Minibase.BufferManager.pinPage(dirId, dirPage, PIN_MEMCPY);
       Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
     }
 
     Minibase.BufferManager.freePage(pageno);
+
+    // the map (made current by updateDirEntry) knew of these deallocations
+    fsm.remove(pageno.pid);
+    fsm.refresh();
     //throw new UnsupportedOperationException("Not implemented");
 
   } // protected void deletePage(PageId, PageId, DirPage, int)
@@ -499,12 +1075,22 @@ public class HeapFile implements GlobalConst {
 
     // Adding a new entry for a heap file
     DirPage mainDirPage = new DirPage();
-    headId = Minibase.DiskManager.allocate_page();
-    Minibase.DiskManager.add_file_entry(fileName, headId);
-
-    mainDirPage.setCurPage(headId);
-    Minibase.BufferManager.pinPage(headId, mainDirPage, PIN_MEMCPY);
-    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+    String prev = enterFile();
+    long txn = LogMgr.beginAction();
+    try {
+      headId = Minibase.DiskManager.allocate_page();
+      Minibase.DiskManager.add_file_entry(fileName, headId);
+
+      mainDirPage.setCurPage(headId);
+      Minibase.BufferManager.pinPage(headId, mainDirPage, PIN_MEMCPY);
+      Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+      LogMgr.endAction(txn, true);
+    } catch (RuntimeException exc) {
+      LogMgr.endAction(txn, false);
+      throw exc;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
 
   } // protected void CreateEmptyHeapFile()
 
@@ -0,0 +1,274 @@
+package heap;
+
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import diskmgr.DiskMgr;
+import logmgr.LogMgr;
+
+/**
+ * A HeapLoader object is created only through the function openLoader() in
+ * the HeapFile class.  It appends records to the file for initial loads and
+ * rebuilds, building whole data pages in memory rather than inserting each
+ * record on its own.
+ * <br><br>
+ * Data pages are filled up to the fill factor, in runs of RUN_SIZE pages
+ * allocated at once, so they are contiguous on disk.  Each full run is written
+ * with one call straight to the disk manager, bypassing the buffer pool, and
+ * only then gets its directory entries, appended to the last directory page;
+ * so loads much larger than the buffer pool take a single frame, and no
+ * directory lookups.  Records already in the file are left as they are, and
+ * their free space isn't used.
+ * <br><br>
+ * The records' RIDs are known as they are appended, but the records are only
+ * in the file once their run is written (at the latest, by close, which must
+ * be called to finish the load and unpin the directory page).  If the
+ * database is logged, a run's data pages are synced before its directory
+ * entries are added, as one action, so the run's records are either all in
+ * the file or none are; the data pages themselves are not logged.  A run's
+ * pages are allocated when it starts, outside that action: if writing the
+ * run or adding its entries fails, the run is freed, but a crash before its
+ * entries are committed leaves up to RUN_SIZE pages allocated to no file.
+ */
+public class HeapLoader implements GlobalConst {
+
+  /** Number of data pages allocated and written at once. */
+  public static final int RUN_SIZE = 32;
+
+  // --------------------------------------------------------------------------
+
+  /** The heap file being loaded. */
+  protected HeapFile hf;
+
+  /** Free space to leave on each data page (in bytes). */
+  protected int min_free;
+
+  /** Last directory page of the file, kept pinned. */
+  protected DirPage dirPage;
+
+  /** The current run of data pages, built in memory. */
+  protected DataPage[] pages;
+
+  /** First page of the current run, or null if none is allocated. */
+  protected PageId runId;
+
+  /** Index of the page being filled in the current run. */
+  protected int filled;
+
+  /** Number of data pages written so far. */
+  protected int page_cnt;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a loader by pinning the last directory page of the file.
+   *
+   * @param fill_factor fraction of each data page to fill, above 0 and up to 1
+   * @throws IllegalArgumentException if the fill factor is out of range
+   */
+  protected HeapLoader(HeapFile hf, double fill_factor) {
+    if ((fill_factor <= 0) || (fill_factor > 1)) {
+      throw new IllegalArgumentException("Invalid fill factor");
+    }
+    this.hf = hf;
+    min_free = (int) ((1 - fill_factor) * (PAGE_SIZE - HFPage.HEADER_SIZE));
+    pages = new DataPage[RUN_SIZE];
+
+    // find the end of the directory
+    dirPage = new DirPage();
+    String prev = hf.enterFile();
+    try {
+      PageId dirId = new PageId(hf.headId.pid);
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      PageId nextId = dirPage.getNextPage();
+      while (nextId.pid != INVALID_PAGEID) {
+        Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+        dirId = nextId;
+        Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+        nextId = dirPage.getNextPage();
+      }
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+
+  } // protected HeapLoader(HeapFile hf, double fill_factor)
+
+  /**
+   * Appends a record to the file.
+   *
+   * @param rid output parameter that identifies the record
+   * @throws IllegalArgumentException if the record is too large to fit on
+   * one data page
+   * @throws IllegalStateException if the loader is closed
+   */
+  public void append(byte[] record, RID rid) {
+
+    // validate the record, and the loader
+    hf.checkLength(record.length);
+    if (dirPage == null) {
+      throw new IllegalStateException("The loader is closed");
+    }
+
+    // move on to a new page once this one is filled (if not empty)
+    String prev = hf.enterFile();
+    try {
+      if (runId == null) {
+        startRun();
+      }
+      DataPage page = pages[filled];
+      int left = page.getFreeSpace() - HFPage.spaceOf(record.length)
+          - HFPage.SLOT_SIZE;
+      RID pageRid = null;
+      if ((page.getSlotCount() == 0) || (left >= min_free)) {
+
+        // the page id is only set when the run is written, so the change
+        // isn't logged
+        pageRid = page.insertRecord(record);
+      }
+      if (pageRid == null) {
+        if (filled + 1 == RUN_SIZE) {
+          flushRun();
+          startRun();
+        } else {
+          filled++;
+        }
+        pageRid = pages[filled].insertRecord(record);
+      }
+      rid.pageno = new PageId(runId.pid + filled);
+      rid.slotno = pageRid.slotno;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+
+  } // public void append(byte[] record, RID rid)
+
+  /**
+   * Allocates the next run of data pages, and clears their images.
+   */
+  protected void startRun() {
+    runId = Minibase.DiskManager.allocate_page(RUN_SIZE);
+    for (int i = 0; i < RUN_SIZE; i++) {
+      pages[i] = (hf.layout == null) ? new DataPage() : new PaxPage(hf.layout);
+    }
+    filled = 0;
+  }
+
+  /**
+   * Writes the pages of the current run that hold records, frees the rest,
+   * and adds the directory entries of the written pages; the whole run is
+   * freed if that fails.
+   */
+  protected void flushRun() {
+
+    // the pages past the last one filled are not needed (the map is got
+    // first, so freeing them doesn't make it stale)
+    FreeSpaceMap map = hf.getFreeSpaceMap();
+    int used = (pages[filled].getSlotCount() > 0) ? filled + 1 : filled;
+    if (used < RUN_SIZE) {
+      Minibase.DiskManager.deallocate_page(
+          new PageId(runId.pid + used), RUN_SIZE - used);
+    }
+    if (used == 0) {
+      map.refresh();
+      runId = null;
+      return;
+    }
+
+    try {
+
+      // write the data pages, durably if their entries are to be logged
+      for (int i = 0; i < used; i++) {
+        Convert.setIntValue(runId.pid + i, HFPage.CUR_PAGE,
+            pages[i].getData());
+      }
+      Minibase.DiskManager.write_pages(runId, used, pages);
+      if (Minibase.LogManager != null) {
+        Minibase.DiskManager.sync();
+      }
+
+      // then add their entries
+      long txn = LogMgr.beginAction();
+      try {
+        for (int i = 0; i < used; i++) {
+          addEntry(new PageId(runId.pid + i), pages[i]);
+        }
+        LogMgr.endAction(txn, true);
+      } catch (RuntimeException exc) {
+        LogMgr.endAction(txn, false);
+        throw exc;
+      }
+
+    } catch (RuntimeException exc) {
+
+      // the run's pages are in no file, so they are freed (once the action
+      // is rolled back, so the freeing isn't undone)
+      Minibase.DiskManager.deallocate_page(runId, used);
+      runId = null;
+      hf.fsm = null;
+      throw exc;
+    }
+    map.refresh();
+    page_cnt += used;
+    runId = null;
+
+  } // protected void flushRun()
+
+  /**
+   * Appends the directory entry of a data page, adding a directory page if
+   * the last one is full.
+   */
+  protected void addEntry(PageId pageno, DataPage page) {
+
+    // start a new directory page, if needed
+    if (dirPage.getEntryCnt() == dirPage.getMaxEntries()) {
+      PageId dirId = dirPage.getCurPage();
+      PageId nextId = Minibase.DiskManager.allocate_page();
+      dirPage.setNextPage(nextId);
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+      dirPage = new DirPage();
+      dirPage.setCurPage(nextId);
+      dirPage.setPrevPage(dirId);
+      Minibase.BufferManager.pinPage(nextId, dirPage, PIN_MEMCPY);
+    }
+
+    // fill in the entry, and note it in the map
+    int slotno = dirPage.getEntryCnt();
+    dirPage.setPageId(slotno, pageno);
+    dirPage.setRecCnt(slotno, page.getSlotCount());
+    dirPage.setFreeCnt(slotno, page.getFreeSpace());
+    dirPage.setEntryCnt((short) (slotno + 1));
+    hf.fsm.put(pageno.pid, page.getFreeSpace());
+    hf.fsm.setEntry(pageno.pid, dirPage.getCurPage().pid, slotno);
+
+  } // protected void addEntry(PageId pageno, DataPage page)
+
+  /**
+   * Gets the number of data pages written so far.
+   */
+  public int getPageCount() {
+    return page_cnt;
+  }
+
+  /**
+   * Writes the last run of data pages, and releases the directory page.
+   * Each loader must be closed; nothing is written for it otherwise.
+   */
+  public void close() {
+    if (dirPage == null) {
+      return;
+    }
+    String prev = hf.enterFile();
+    try {
+      if (runId != null) {
+        flushRun();
+      }
+      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_DIRTY);
+      dirPage = null;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  }
+
+} // public class HeapLoader implements GlobalConst
@@ -0,0 +1,170 @@
+package heap;
+
+import diskmgr.Compactor;
+import diskmgr.FileRelocator;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Moves the pages of heap files for the database compactor: the directory
+ * pages after the first one, which are linked both ways, and optionally the
+ * data pages, which are referred to by their directory entries.
+ * <br><br>
+ * Moving a data page changes the RIDs of its records, so data pages only move
+ * when nothing holds on to RIDs of the files (e.g. an index, or a scan).  The
+ * forwarding stubs of records moved by updates, and the home RIDs stored with
+ * those records, refer to data pages too, and follow them.
+ */
+public class HeapRelocator implements FileRelocator, GlobalConst {
+
+  /** Reference from the previous directory page's next page id. */
+  protected static final int LINK_NEXT = 0;
+
+  /** Reference from the next directory page's previous page id. */
+  protected static final int LINK_PREV = 1;
+
+  /** Reference from a directory entry. */
+  protected static final int LINK_ENTRY = 2;
+
+  /** Reference from a forwarding stub, or a moved record's home RID. */
+  protected static final int LINK_FORWARD = 3;
+
+  // --------------------------------------------------------------------------
+
+  /** Whether data pages are moved too. */
+  protected boolean move_data;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a relocator for heap files.
+   *
+   * @param move_data whether to move data pages too, changing RIDs
+   */
+  public HeapRelocator(boolean move_data) {
+    this.move_data = move_data;
+  }
+
+  /**
+   * Reports the directory pages (other than the first) of the heap file, and
+   * if enabled its data pages.
+   */
+  public boolean listPages(PageId head, Compactor compactor) {
+
+    // is it a heap file at all?
+    PageId dirId = new PageId(head.pid);
+    DirPage dirPage = new DirPage();
+    Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+    if ((dirPage.getType() != HeapFile.DIR_PAGE)
+        || (dirPage.getCurPage().pid != head.pid)) {
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      return false;
+    }
+
+    while (true) {
+
+      // the data pages are referred to by their entries, and by each
+      // other's forwards
+      if (move_data) {
+        for (int i = 0; i < dirPage.getEntryCnt(); i++) {
+          PageId dataId = dirPage.getPageId(i);
+          compactor.addPage(dataId, this, HeapFile.DATA_PAGE);
+          compactor.addLink(dataId, dirId, LINK_ENTRY, i);
+          listForwards(dataId, compactor);
+        }
+      }
+
+      // the directory page is referred to by its neighbors
+      PageId nextId = dirPage.getNextPage();
+      if (dirId.pid != head.pid) {
+        compactor.addPage(dirId, this, HeapFile.DIR_PAGE);
+        compactor.addLink(dirId, dirPage.getPrevPage(), LINK_NEXT, 0);
+        if (nextId.pid != INVALID_PAGEID) {
+          compactor.addLink(dirId, nextId, LINK_PREV, 0);
+        }
+      }
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+
+      // go on to the next directory page, if any
+      if (nextId.pid == INVALID_PAGEID) {
+        return true;
+      }
+      dirId = nextId;
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+
+    } // while
+
+  } // public boolean listPages(PageId head, Compactor compactor)
+
+  /**
+   * Reports the references to other data pages in the forwarding stubs and
+   * moved records of the given data page.
+   */
+  protected void listForwards(PageId dataId, Compactor compactor) {
+    HFPage dataPage = new HFPage();
+    Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+    if (dataPage.getType() != HeapFile.PAX_PAGE) {
+      for (int i = 0; i < dataPage.getSlotCount(); i++) {
+        short length = dataPage.getSlotLength(i);
+        if ((length != EMPTY_SLOT)
+            && ((length & (HFPage.FORWARD | HFPage.MOVED)) != 0)) {
+          compactor.addLink(dataPage.getSlotLink(i), dataId, LINK_FORWARD, i);
+        }
+      }
+    }
+    Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+  }
+
+  /**
+   * Gets the page id in a directory page's link or entry, or a data page's
+   * forward.
+   */
+  public PageId getLink(Page referrer, int kind, int slot) {
+    if (kind == LINK_FORWARD) {
+      return new HFPage(referrer).getSlotLink(slot);
+    }
+    DirPage dirPage = new DirPage(referrer);
+    switch (kind) {
+      case LINK_NEXT:
+        return dirPage.getNextPage();
+      case LINK_PREV:
+        return dirPage.getPrevPage();
+      default:
+        return dirPage.getPageId(slot);
+    }
+  }
+
+  /**
+   * Sets the page id in a directory page's link or entry, or a data page's
+   * forward.
+   */
+  public void setLink(Page referrer, int kind, int slot, PageId pageno) {
+    if (kind == LINK_FORWARD) {
+      new HFPage(referrer).setSlotLink(slot, pageno);
+      return;
+    }
+    DirPage dirPage = new DirPage(referrer);
+    switch (kind) {
+      case LINK_NEXT:
+        dirPage.setNextPage(pageno);
+        break;
+      case LINK_PREV:
+        dirPage.setPrevPage(pageno);
+        break;
+      default:
+        dirPage.setPageId(slot, pageno);
+        break;
+    }
+  }
+
+  /**
+   * Sets the current page id of a directory or data page.
+   */
+  public void setSelf(Page page, int type, PageId pageno) {
+    Convert.setIntValue(pageno.pid, HFPage.CUR_PAGE, page.getData());
+  }
+
+} // public class HeapRelocator implements FileRelocator, GlobalConst
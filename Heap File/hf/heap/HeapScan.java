@@ -1,9 +1,11 @@
 package heap;
 
+import global.Convert;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
 import global.RID;
+import diskmgr.DiskMgr;
 
 /**
  * A HeapScan object is created only through the function openScan() in the
@@ -24,8 +26,23 @@ public class HeapScan implements GlobalConst {
   /** Currently pinned data page (inner loop). */
   protected DataPage dataPage;
 
-  /** RID of the current record on the data page. */
-  protected RID curRid;
+  /** The pinned data page as a page of its type; see PaxPage.wrap. */
+  protected HFPage page;
+
+  /** View of the current record, for checking and copying it. */
+  protected RecordView current = new RecordView();
+
+  /** Slot number of the current record on the data page, or -1 if none. */
+  protected int slotno;
+
+  /** Whether the current record is yet to be returned. */
+  protected boolean pending;
+
+  /** The heap file being scanned. */
+  protected HeapFile hf;
+
+  /** Condition the records returned satisfy, or null for all records. */
+  protected ScanPredicate predicate;
 
   // --------------------------------------------------------------------------
 
@@ -34,18 +51,33 @@ public class HeapScan implements GlobalConst {
    * iterator fields.
    */
   protected HeapScan(HeapFile hf) {
+    this(hf, null);
+  }
+
+  /**
+   * Constructs a file scan that only returns the records satisfying the given
+   * condition (all of them if null).
+   */
+  protected HeapScan(HeapFile hf, ScanPredicate predicate) {
 
     // pin the head page and get the count
+    this.hf = hf;
+    this.predicate = predicate;
     dirPage = new DirPage();
-    Minibase.BufferManager.pinPage(hf.headId, dirPage, PIN_DISKIO);
+    String prev = hf.enterFile();
+    try {
+      Minibase.BufferManager.pinPage(hf.headId, dirPage, PIN_DISKIO);
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
     count = dirPage.getEntryCnt();
 
     // initialize other data fields
     index = -1;
     dataPage = null;
-    curRid = null;
+    slotno = -1;
 
-  } // protected HeapScan(HeapFile hf)
+  } // protected HeapScan(HeapFile hf, ScanPredicate predicate)
 
   /**
    * Called by the garbage collector when there are no more references to the
@@ -78,7 +110,8 @@ public class HeapScan implements GlobalConst {
     // invalidate the other fields
     count = -1;
     index = -1;
-    curRid = null;
+    slotno = -1;
+    pending = false;
 
   } // public void close()
 
@@ -90,64 +123,231 @@ public class HeapScan implements GlobalConst {
    * @throws IllegalStateException if it encounters an empty data page
    */
   public byte[] getNext(RID rid) {
+    String prev = hf.enterFile();
+    try {
+      return nextRecord(rid);
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  }
 
-	//If we are starting the scan, index = -1; dataPage = null; curRid = null;
-	//If we are iterating within a data page, curRid != null
-	//If we have just finished a data page, dataPage !=null and is pinned, curRid = null
-	  
-    // If we are iterating within the data page, increment curRid
-	// If it is nonnull, return a record
-    if (curRid != null) {
-      curRid = dataPage.nextRecord(curRid);
-      if (curRid != null) {
-        rid.copyRID(curRid);
-        return dataPage.selectRecord(rid);
-      } 
-    } 
-
-    //Here curRid is null, either because we just began the scan, because we
-    // just finished scanning a directory and data page, or because
-    // we just finished a data page within a dir page.  In the first case dataPage == null.
-    //If dataPage !=null, we must unpin it only if we move on to another data page.
-    
-    //Look for the next data page.
-    // If there is another data entry in this dir page, process its data page
-    if (index < count - 1) {
-
-      // minor optimization
-      if (dataPage == null) {//we just started the scan
-        dataPage = new DataPage();
-      } else {//we are moving on to a new data page, so unpin the old one
-        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+  /**
+   * Gets the next record in the file scan as a view of it on its data page,
+   * without copying it or allocating anything.  The view is valid until the
+   * scan moves on to another data page, or closes.
+   *
+   * @return false if there is no next record
+   * @throws IllegalStateException if it encounters an empty data page
+   */
+  public boolean getNext(RecordView view) {
+    String prev = hf.enterFile();
+    try {
+      if (!advance()) {
+        return false;
+      }
+      page.viewRecord(slotno, view);
+      return true;
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+  }
+
+  /**
+   * Fills the batch with the next records in the file scan, as many as fit,
+   * from as many data pages as needed.
+   *
+   * @return the number of records in the batch, or 0 if there are no more
+   * @throws IllegalStateException if it encounters an empty data page
+   */
+  public int getNextBatch(RecordBatch batch) {
+    batch.clear();
+    String prev = hf.enterFile();
+    try {
+      while (advance()) {
+        page.viewRecord(slotno, current);
+        if (!batch.add(current.data, current.pid, current.slotno,
+            current.offset, current.length)) {
+
+          // the batch is full; return this record next time
+          pending = true;
+          break;
+        }
       }
-      
-      // pin the next data page
-      index++;
-      Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
-          PIN_DISKIO);
-
-      // reset the current record rid, get the first record and return it.
-      //The scan is iterating within a data page.
-      curRid = dataPage.firstRecord();
-      if (curRid != null) {
-        rid.copyRID(curRid);
-        return dataPage.selectRecord(rid);
-      } else{
-    	int pageno = dataPage.getCurPage().pid;
-    	throw new IllegalStateException("Data page "+pageno+" is empty.");
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+    return batch.size();
+
+  } // public int getNextBatch(RecordBatch batch)
+
+  /**
+   * Fills the batch with the given columns of the next records in the file
+   * scan, one after another for each record; on pages laid out by column,
+   * only those columns' minipages are read.
+   *
+   * @param cols the columns of the file's layout to get
+   * @return the number of records in the batch, or 0 if there are no more
+   * @throws IllegalStateException if the file has no layout
+   * @throws IllegalArgumentException if a column is invalid
+   */
+  public int getNextBatch(RecordBatch batch, int[] cols) {
+
+    // validate the columns against the layout
+    PaxLayout layout = hf.layout;
+    if (layout == null) {
+      throw new IllegalStateException("The file has no column layout");
+    }
+    int width = 0;
+    for (int c : cols) {
+      if ((c < 0) || (c >= layout.getColumnCount())) {
+        throw new IllegalArgumentException("Invalid column " + c);
       }
-      //control never gets here
-      
-    } // if more entries
+      width += layout.getWidth(c);
+    }
+
+    // copy the columns of each record, straight from the minipages if any
+    batch.clear();
+    String prev = hf.enterFile();
+    try {
+      while (advance()) {
 
-    //Here curRid is null, either because we just began the scan or because
-    // we just finished a data page and it was the last data page in a directory
-    // page.  In in the former case dataPage == null.
+        // records moved to slotted pages are reported by their home RIDs
+        boolean pax = (page instanceof PaxPage);
+        if (pax) {
+          current.pid = Convert.getIntValue(HFPage.CUR_PAGE,
+              dataPage.getData());
+          current.slotno = slotno;
+        } else {
+          page.viewRecord(slotno, current);
+        }
+        int pos = batch.reserve(width, current.pid, current.slotno);
+        if (pos < 0) {
+
+          // the batch is full; return this record next time
+          pending = true;
+          break;
+        }
+        if (pax) {
+          ((PaxPage) page).selectColumns(slotno, cols, batch.data, pos);
+        } else {
+          for (int c : cols) {
+            System.arraycopy(current.data, current.offset + layout.getOffset(c),
+                batch.data, pos, layout.getWidth(c));
+            pos += layout.getWidth(c);
+          }
+        }
+      }
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+    return batch.size();
+
+  } // public int getNextBatch(RecordBatch batch, int[] cols)
+
+  /**
+   * Does the work of getNext, on behalf of the heap file.
+   */
+  protected byte[] nextRecord(RID rid) {
+    if (!advance()) {
+      return null;
+    }
+    page.viewRecord(slotno, current);
+    rid.pageno = new PageId(current.pid);
+    rid.slotno = current.slotno;
+    return current.toByteArray();
+  }
+
+  /**
+   * Moves the scan to the next record satisfying the predicate, if any; the
+   * records are checked in place on the data page.
+   *
+   * @return false if there is no next record
+   */
+  protected boolean advance() {
+    while (step()) {
+      if (predicate == null) {
+        return true;
+      }
+      page.viewRecord(slotno, current);
+      if (predicate.eval(current.data, current.offset, current.length)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves the scan to the next record, pinning the next data and directory
+   * pages as needed.
+   *
+   * @return false if there is no next record
+   */
+  protected boolean step() {
+
+	//If we are starting the scan, index = -1; dataPage = null; slotno = -1;
+	//If we are iterating within a data page, slotno != -1
+	//If we have just finished a data page, dataPage !=null and is pinned, slotno = -1
+
+    // If the current record wasn't returned yet, stay on it
+    if (pending) {
+      pending = false;
+      return true;
+    }
+
+    // If we are iterating within the data page, move on to the next slot
+    if (slotno != -1) {
+      slotno = page.nextSlot(slotno);
+      if (slotno != -1) {
+        return true;
+      }
+    }
+
+    //Here slotno is -1, either because we just began the scan, because we
+    // just finished scanning a directory and data page, or because
+    // we just finished a data page within a dir page.  In the first case dataPage == null.
     //If dataPage !=null, we must unpin it only if we move on to another data page.
-    
-    // move on to the next directory page
-    PageId nextId = dirPage.getNextPage();
-    if (nextId.pid != INVALID_PAGEID) {
+    while (true) {
+
+      //Look for the next data page.
+      // If there is another data entry in this dir page, process its data page
+      if (index < count - 1) {
+
+        // minor optimization
+        if (dataPage == null) {//we just started the scan
+          dataPage = new DataPage();
+        } else {//we are moving on to a new data page, so unpin the old one
+          Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+        }
+
+        // pin the next data page
+        index++;
+        Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
+            PIN_DISKIO);
+
+        // get the first record; the scan is iterating within a data page.
+        // Pages with only forwarding stubs are skipped, since their records
+        // are scanned where they moved.
+        page = PaxPage.wrap(dataPage);
+        slotno = page.nextSlot(-1);
+        if (slotno == -1) {
+          if (!page.isEmpty()) {
+            continue;
+          }
+          int pageno = dataPage.getCurPage().pid;
+          throw new IllegalStateException("Data page "+pageno+" is empty.");
+        }
+        return true;
+
+      } // if more entries
+
+      //Here we just began the scan or we just finished the last data page in
+      // a directory page: move on to the next directory page
+      PageId nextId = dirPage.getNextPage();
+      if (nextId.pid == INVALID_PAGEID) {
+
+        // no more records
+        return false;
+      }
 
       // unpin the current dir page, pin the next dir page
       Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
@@ -156,14 +356,9 @@ public class HeapScan implements GlobalConst {
       // reset the counters and try again
       count = dirPage.getEntryCnt();
       index = -1;
-      curRid = null;
-      return getNext(rid);
-
-    } // if more dir pages
 
-    // otherwise, no more records
-    return null;
+    } // while
 
-  } // public byte[] getNext(RID rid)
+  } // protected boolean step()
 
 } // public class HeapScan implements GlobalConst
@@ -0,0 +1,391 @@
+package heap;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import diskmgr.DiskMgr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ParallelScan object is created only through the function
+ * openParallelScan() in the HeapFile class.  It scans the file on several
+ * worker threads, for aggregations and other work on every record that would
+ * be CPU-bound on one thread.
+ * <br><br>
+ * The directory is read once when the scan is opened, and its data pages are
+ * split into morsels of MORSEL_SIZE pages in directory order.  Each worker
+ * claims the next morsel when done with its last, so workers that are slowed
+ * down just take fewer of them.  The buffer manager isn't thread-safe, so the
+ * workers pin and unpin pages while synchronized on it, but they process the
+ * records of their pinned pages in parallel.
+ * <br><br>
+ * The records can be consumed either by one sink per worker, called on that
+ * worker's thread (see forEach), or as one merged stream, in no particular
+ * order (see getNext).  As for HeapScan, the file must not change during the
+ * scan; while the merged stream is open, any other use of the buffer manager
+ * must also be synchronized on it.
+ */
+public class ParallelScan implements GlobalConst {
+
+  /** Number of data pages in a morsel. */
+  public static final int MORSEL_SIZE = 16;
+
+  /**
+   * Receives the records found by a worker of a parallel scan.
+   */
+  public interface RecordSink {
+
+    /**
+     * Called for each record, on the worker's thread.
+     */
+    public void accept(RID rid, byte[] record);
+
+  } // public interface RecordSink
+
+  /**
+   * The records of one morsel, passed to the merged stream.
+   */
+  protected static class Batch implements RecordSink {
+
+    /** The records' ids. */
+    protected ArrayList<RID> rids = new ArrayList<RID>();
+
+    /** The records. */
+    protected ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+    /** The error the worker failed with, if any. */
+    protected RuntimeException error;
+
+    /** Adds a record to the batch. */
+    public void accept(RID rid, byte[] record) {
+      rids.add(rid);
+      records.add(record);
+    }
+
+  } // protected static class Batch implements RecordSink
+
+  /** Marks the end of a worker's batches in the merged stream. */
+  protected static final Batch END = new Batch();
+
+  // --------------------------------------------------------------------------
+
+  /** The heap file being scanned. */
+  protected HeapFile hf;
+
+  /** Number of worker threads. */
+  protected int num_workers;
+
+  /** Ids of the file's data pages, in directory order. */
+  protected int[] pages;
+
+  /** Index of the first page of the next morsel to claim. */
+  protected AtomicInteger next = new AtomicInteger();
+
+  /** The workers of the merged stream, or null before it starts. */
+  protected Thread[] workers;
+
+  /** Batches of the merged stream not yet consumed. */
+  protected BlockingQueue<Batch> queue;
+
+  /** Number of workers of the merged stream still running. */
+  protected int running;
+
+  /** The batch being consumed. */
+  protected Batch batch;
+
+  /** Index of the next record in the batch being consumed. */
+  protected int position;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a parallel scan by reading the ids of the file's data pages.
+   *
+   * @throws IllegalArgumentException if the number of workers isn't positive
+   */
+  protected ParallelScan(HeapFile hf, int num_workers) {
+    if (num_workers < 1) {
+      throw new IllegalArgumentException("Invalid number of workers");
+    }
+    this.hf = hf;
+    this.num_workers = num_workers;
+
+    // collect the page ids, one directory page at a time
+    int[] found = new int[DirPage.MAX_ENTRIES];
+    int count = 0;
+    DirPage dirPage = new DirPage();
+    String prev = hf.enterFile();
+    try {
+      PageId dirId = new PageId(hf.headId.pid);
+      while (dirId.pid != INVALID_PAGEID) {
+        Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+        int entries = dirPage.getEntryCnt();
+        if (count + entries > found.length) {
+          found = Arrays.copyOf(found,
+              Math.max(2 * found.length, count + entries));
+        }
+        for (int i = 0; i < entries; i++) {
+          found[count++] = dirPage.getPageId(i).pid;
+        }
+        PageId nextId = dirPage.getNextPage();
+        Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+        dirId = nextId;
+      }
+    } finally {
+      DiskMgr.exitFile(prev);
+    }
+    pages = Arrays.copyOf(found, count);
+
+  } // protected ParallelScan(HeapFile hf, int num_workers)
+
+  /**
+   * Gets the number of data pages in the scan.
+   */
+  public int getPageCount() {
+    return pages.length;
+  }
+
+  /**
+   * Scans the file with one worker per sink, each giving the records it finds
+   * to its own sink; returns once all records are processed.  The scan can be
+   * run once, either this way or as the merged stream.
+   *
+   * @param sinks the workers' sinks; at most one per worker of the scan
+   * @throws IllegalArgumentException if there are too many sinks
+   * @throws IllegalStateException if the scan was already run
+   * @throws RuntimeException the first error a worker or sink failed with
+   */
+  public void forEach(final RecordSink[] sinks) {
+    if ((sinks.length < 1) || (sinks.length > num_workers)) {
+      throw new IllegalArgumentException("Invalid number of sinks");
+    }
+    if ((workers != null) || (next.get() > 0)) {
+      throw new IllegalStateException("The scan was already run");
+    }
+
+    // start the workers, then wait for all of them
+    final RuntimeException[] errors = new RuntimeException[sinks.length];
+    Thread[] threads = new Thread[sinks.length];
+    for (int i = 0; i < sinks.length; i++) {
+      final int w = i;
+      threads[i] = new Thread("minibase-scan") {
+        public void run() {
+          try {
+            String prev = hf.enterFile();
+            try {
+              while (scanMorsel(sinks[w])) {
+              }
+            } finally {
+              DiskMgr.exitFile(prev);
+            }
+          } catch (RuntimeException exc) {
+            next.set(pages.length);
+            errors[w] = exc;
+          }
+        }
+      };
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      joinUninterruptibly(thread);
+    }
+    for (RuntimeException exc : errors) {
+      if (exc != null) {
+        throw exc;
+      }
+    }
+
+  } // public void forEach(RecordSink[] sinks)
+
+  /**
+   * Gets the next record of the merged stream, starting the workers on the
+   * first call.
+   *
+   * @param rid output parameter that identifies the returned record
+   * @return the next record, or null if there is no next record
+   * @throws IllegalStateException if the scan was already run by forEach
+   * @throws RuntimeException the error a worker failed with
+   */
+  public byte[] getNext(RID rid) {
+    if (workers == null) {
+      start();
+    }
+
+    // move on to the next batch with records, until all workers end
+    while ((batch == null) || (position == batch.records.size())) {
+      if (running == 0) {
+        return null;
+      }
+      batch = takeUninterruptibly();
+      position = 0;
+      if (batch == END) {
+        running--;
+        batch = null;
+      } else if (batch.error != null) {
+        RuntimeException exc = batch.error;
+        close();
+        throw exc;
+      }
+    }
+    rid.copyRID(batch.rids.get(position));
+    return batch.records.get(position++);
+
+  } // public byte[] getNext(RID rid)
+
+  /**
+   * Starts the workers of the merged stream.
+   */
+  protected void start() {
+    if (next.get() > 0) {
+      throw new IllegalStateException("The scan was already run");
+    }
+    queue = new ArrayBlockingQueue<Batch>(2 * num_workers);
+    workers = new Thread[num_workers];
+    running = num_workers;
+    for (int i = 0; i < num_workers; i++) {
+      workers[i] = new Thread("minibase-scan") {
+        public void run() {
+          String prev = hf.enterFile();
+          try {
+            Batch morsel = new Batch();
+            while (scanMorsel(morsel)) {
+              putUninterruptibly(morsel);
+              morsel = new Batch();
+            }
+          } catch (RuntimeException exc) {
+            Batch failed = new Batch();
+            failed.error = exc;
+            putUninterruptibly(failed);
+          } finally {
+            DiskMgr.exitFile(prev);
+          }
+          putUninterruptibly(END);
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  } // protected void start()
+
+  /**
+   * Claims the next morsel and gives its records to the sink.
+   *
+   * @return false if there were no more morsels
+   */
+  protected boolean scanMorsel(RecordSink sink) {
+    int first = next.getAndAdd(MORSEL_SIZE);
+    if (first >= pages.length) {
+      return false;
+    }
+    int last = Math.min(first + MORSEL_SIZE, pages.length);
+    DataPage dataPage = new DataPage();
+    RecordView view = new RecordView();
+    for (int i = first; i < last; i++) {
+      PageId pageno = new PageId(pages[i]);
+      synchronized (Minibase.BufferManager) {
+        Minibase.BufferManager.pinPage(pageno, dataPage, PIN_DISKIO);
+      }
+      try {
+
+        // records that moved here are given with their home RIDs
+        HFPage page = PaxPage.wrap(dataPage);
+        for (int slotno = page.nextSlot(-1); slotno != -1;
+            slotno = page.nextSlot(slotno)) {
+          page.viewRecord(slotno, view);
+          sink.accept(new RID(new PageId(view.pid), view.slotno),
+              view.toByteArray());
+        }
+
+      } finally {
+        synchronized (Minibase.BufferManager) {
+          Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+        }
+      }
+    }
+    return true;
+  } // protected boolean scanMorsel(RecordSink sink)
+
+  /**
+   * Stops the merged stream, if running, releasing any pinned pages; the
+   * workers finish the morsels they have claimed.  A scan read through
+   * getNext must be closed unless it was read to the end.
+   */
+  public void close() {
+    next.set(pages.length);
+    if (workers != null) {
+      for (Thread worker : workers) {
+        while (worker.isAlive()) {
+          queue.clear();
+          try {
+            worker.join(10);
+          } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+      queue.clear();
+      running = 0;
+      batch = null;
+    }
+  } // public void close()
+
+  /**
+   * Waits for a thread to end, even if interrupted; the interrupt is kept.
+   */
+  protected static void joinUninterruptibly(Thread thread) {
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Takes the next batch of the merged stream, even if interrupted.
+   */
+  protected Batch takeUninterruptibly() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException exc) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Adds a batch to the merged stream, even if interrupted.
+   */
+  protected void putUninterruptibly(Batch morsel) {
+    while (true) {
+      try {
+        queue.put(morsel);
+        return;
+      } catch (InterruptedException exc) {
+        // keep waiting; only close stops the stream
+      }
+    }
+  }
+
+} // public class ParallelScan implements GlobalConst
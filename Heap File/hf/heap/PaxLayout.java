@@ -0,0 +1,130 @@
+package heap;
+
+import global.GlobalConst;
+
+/**
+ * The record format of a heap file whose data pages are laid out by column
+ * (PAX) rather than by row; see HeapFile(String, PaxLayout).
+ * <br><br>
+ * A record is a fixed number of fixed-width columns, one after another,
+ * followed by a variable-width tail of any length (possibly none).  On a PAX
+ * page, each column's values are kept together in a minipage of their own,
+ * so a scan that reads a few columns touches only their minipages; the
+ * tails share a variable-width area.  The number of rows per page is set by
+ * the expected length of the tails.
+ */
+public class PaxLayout implements GlobalConst {
+
+  /** Size of a PAX page's header, besides the column widths. */
+  protected static final int HEADER_SIZE = HFPage.HEADER_SIZE + 6;
+
+  /** Size of a row's entry for its variable-width tail. */
+  protected static final int VAR_SLOT_SIZE = 4;
+
+  // --------------------------------------------------------------------------
+
+  /** Width of each column (in bytes). */
+  protected int[] widths;
+
+  /** Offset of each column in a record. */
+  protected int[] offsets;
+
+  /** Total width of the columns. */
+  protected int fixed;
+
+  /** Number of rows on a page. */
+  protected int capacity;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a layout of the given columns, with as many rows per page as
+   * fit if each tail has the given length on average.
+   *
+   * @param widths width of each column (in bytes)
+   * @param avg_var expected length of the variable-width tails
+   * @throws IllegalArgumentException if a width is invalid, or the columns
+   * don't fit on a page
+   */
+  public PaxLayout(int[] widths, int avg_var) {
+    this(widths, 0, avg_var);
+  }
+
+  /**
+   * Constructs a layout with the given number of rows per page, or as many
+   * as fit with tails of the given length if 0.
+   */
+  protected PaxLayout(int[] widths, int capacity, int avg_var) {
+    if ((widths.length < 1) || (avg_var < 0)) {
+      throw new IllegalArgumentException("Invalid PAX layout");
+    }
+    this.widths = widths.clone();
+    offsets = new int[widths.length];
+    for (int i = 0; i < widths.length; i++) {
+      if (widths[i] < 1) {
+        throw new IllegalArgumentException("Invalid column width");
+      }
+      offsets[i] = fixed;
+      fixed += widths[i];
+    }
+    int room = PAGE_SIZE - getHeaderSize();
+    this.capacity = (capacity > 0) ? capacity
+        : room / (fixed + VAR_SLOT_SIZE + avg_var);
+    if ((this.capacity < 1)
+        || (this.capacity * (fixed + VAR_SLOT_SIZE) > room)) {
+      throw new IllegalArgumentException("The columns don't fit on a page");
+    }
+  }
+
+  /**
+   * Gets the number of columns.
+   */
+  public int getColumnCount() {
+    return widths.length;
+  }
+
+  /**
+   * Gets the width of the given column (in bytes).
+   */
+  public int getWidth(int col) {
+    return widths[col];
+  }
+
+  /**
+   * Gets the offset of the given column in a record.
+   */
+  public int getOffset(int col) {
+    return offsets[col];
+  }
+
+  /**
+   * Gets the total width of the columns, i.e. the shortest record.
+   */
+  public int getFixedLength() {
+    return fixed;
+  }
+
+  /**
+   * Gets the number of rows on a page.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the length of the longest record, i.e. one whose tail fills the
+   * variable-width area of an empty page.
+   */
+  public int getMaxLength() {
+    return PAGE_SIZE - getHeaderSize() - capacity * VAR_SLOT_SIZE
+        - (capacity - 1) * fixed;
+  }
+
+  /**
+   * Gets the size of a page's header, with the column widths.
+   */
+  protected int getHeaderSize() {
+    return HEADER_SIZE + 2 * widths.length;
+  }
+
+} // public class PaxLayout implements GlobalConst
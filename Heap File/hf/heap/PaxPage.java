@@ -0,0 +1,363 @@
+package heap;
+
+import global.Page;
+import global.PageId;
+import global.RID;
+
+/**
+ * A heap file data page laid out by column (PAX): after the usual header come
+ * the page's layout, a minipage for each fixed-width column, holding its
+ * values for all rows one after another, and a minipage of entries (length
+ * and offset) for the rows' variable-width tails.  The tails grow backwards
+ * from the end of the page, like the records of an HFPage.
+ * <br><br>
+ * Pages describe their own layout, so each is read according to its type
+ * (see wrap), and PAX and slotted pages work through the same HFPage methods.
+ * The slot count is the number of rows used so far; a row is empty when its
+ * tail's length is EMPTY_SLOT, and empty rows are listed like an HFPage's
+ * empty slots.  The free space reported is what a record
+ * needs (with a slot, as on an HFPage) to fit in the tails' area, or none if
+ * all rows are taken.  Records are assembled from the minipages when
+ * selected or viewed; a view of a record on a PAX page is only valid until
+ * the next view of the same page object.
+ */
+class PaxPage extends DataPage {
+
+  /** Offset of the number of rows. */
+  protected static final int CAPACITY = HEADER_SIZE;
+
+  /** Offset of the number of records. */
+  protected static final int LIVE_CNT = HEADER_SIZE + 2;
+
+  /** Offset of the number of columns. */
+  protected static final int COL_CNT = HEADER_SIZE + 4;
+
+  /** Offset of the columns' widths. */
+  protected static final int WIDTHS = HEADER_SIZE + 6;
+
+  // --------------------------------------------------------------------------
+
+  /** The page's layout. */
+  protected PaxLayout layout;
+
+  /** Offset of each column's minipage. */
+  protected int[] bases;
+
+  /** Offset of the tails' entries. */
+  protected int var_slots;
+
+  /** Offset of the tails' area. */
+  protected int var_start;
+
+  /** Buffer records are assembled in for views, if any. */
+  protected byte[] row;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty page with the given layout.
+   */
+  public PaxPage(PaxLayout layout) {
+    super();
+    setType(HeapFile.PAX_PAGE);
+    setShortValue((short) layout.getCapacity(), CAPACITY);
+    setShortValue((short) 0, LIVE_CNT);
+    setShortValue((short) layout.getColumnCount(), COL_CNT);
+    for (int i = 0; i < layout.getColumnCount(); i++) {
+      setShortValue((short) layout.getWidth(i), WIDTHS + 2 * i);
+    }
+    init(layout);
+    setShortValue(getFree(), FREE_SPACE);
+  }
+
+  /**
+   * Constructor that wraps an existing PAX page.
+   */
+  public PaxPage(Page page) {
+    super(page);
+    int[] widths = new int[getShortValue(COL_CNT)];
+    for (int i = 0; i < widths.length; i++) {
+      widths[i] = getShortValue(WIDTHS + 2 * i);
+    }
+    init(new PaxLayout(widths, getShortValue(CAPACITY), 0));
+  }
+
+  /**
+   * Gets the given pinned data page as a page of its type: PAX pages are
+   * wrapped (sharing the data), and others returned as they are.
+   */
+  public static HFPage wrap(HFPage page) {
+    if (page.getType() == HeapFile.PAX_PAGE) {
+      return new PaxPage(page);
+    }
+    return page;
+  }
+
+  /**
+   * Finds the minipages of the given layout.
+   */
+  protected void init(PaxLayout layout) {
+    this.layout = layout;
+    int capacity = layout.getCapacity();
+    bases = new int[layout.getColumnCount()];
+    int base = layout.getHeaderSize();
+    for (int i = 0; i < bases.length; i++) {
+      bases[i] = base;
+      base += capacity * layout.getWidth(i);
+    }
+    var_slots = base;
+    var_start = var_slots + capacity * PaxLayout.VAR_SLOT_SIZE;
+  }
+
+  /**
+   * Gets the page's layout.
+   */
+  public PaxLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Gets the free space to report, given the counters.
+   */
+  protected short getFree() {
+    if (getShortValue(LIVE_CNT) == layout.getCapacity()) {
+      return 0;
+    }
+    return (short) (getShortValue(USED_PTR) - var_start
+        + layout.getFixedLength() + SLOT_SIZE);
+  }
+
+  /**
+   * Gets the length of the tail of the given row.
+   */
+  protected short getVarLength(int slotno) {
+    return getShortValue(var_slots + slotno * PaxLayout.VAR_SLOT_SIZE);
+  }
+
+  /**
+   * Gets the offset of the tail of the given row.
+   */
+  protected short getVarOffset(int slotno) {
+    return getShortValue(var_slots + slotno * PaxLayout.VAR_SLOT_SIZE + 2);
+  }
+
+  /**
+   * Sets the length and offset of the tail of the given row.
+   */
+  protected void setVarSlot(int slotno, int length, int offset) {
+    int pos = var_slots + slotno * PaxLayout.VAR_SLOT_SIZE;
+    setShortValue((short) length, pos);
+    setShortValue((short) offset, pos + 2);
+  }
+
+  /**
+   * Gets the length of the record in the given row.
+   */
+  public short getSlotLength(int slotno) {
+    short length = getVarLength(slotno);
+    if (length == EMPTY_SLOT) {
+      return EMPTY_SLOT;
+    }
+    return (short) (layout.getFixedLength() + length);
+  }
+
+  /**
+   * Not supported, since records are split over the minipages.
+   *
+   * @throws IllegalStateException always
+   */
+  public short getSlotOffset(int slotno) {
+    throw new IllegalStateException("PAX records have no offset");
+  }
+
+  /**
+   * Inserts a new record into the page; records on PAX pages don't move, so
+   * none has a home elsewhere.
+   *
+   * @return RID of new record, or null if insufficient space
+   * @throws IllegalArgumentException if the record is shorter than its
+   * fixed-width columns, or has a home
+   */
+  protected RID insertRecord(byte[] record, RID home) {
+
+    // first check for a free row, and room for the tail
+    int fixed = layout.getFixedLength();
+    if (home != null) {
+      throw new IllegalArgumentException("PAX records don't move");
+    }
+    if (record.length < fixed) {
+      throw new IllegalArgumentException("Record shorter than its columns");
+    }
+    int varLen = record.length - fixed;
+    short liveCnt = getShortValue(LIVE_CNT);
+    short usedPtr = getShortValue(USED_PTR);
+    if ((liveCnt == layout.getCapacity()) || (varLen > usedPtr - var_start)) {
+      return null;
+    }
+    byte[] before = beginChange();
+
+    // take the first empty row off the list, or add one
+    int i = getIntValue(FREE_SLOT);
+    if (i == -1) {
+      i = getShortValue(SLOT_CNT);
+      setShortValue((short) (i + 1), SLOT_CNT);
+    } else {
+      setIntValue(getVarOffset(i), FREE_SLOT);
+    }
+
+    // copy each column into its minipage, and the tail into the area
+    for (int c = 0; c < bases.length; c++) {
+      int width = layout.getWidth(c);
+      System.arraycopy(record, layout.getOffset(c), data, bases[c] + i * width,
+          width);
+    }
+    usedPtr -= varLen;
+    setShortValue(usedPtr, USED_PTR);
+    System.arraycopy(record, fixed, data, usedPtr, varLen);
+    setVarSlot(i, varLen, usedPtr);
+    setShortValue((short) (liveCnt + 1), LIVE_CNT);
+    setShortValue(getFree(), FREE_SPACE);
+    endChange(before);
+    return new RID(new PageId(getIntValue(CUR_PAGE)), i);
+
+  } // protected RID insertRecord(byte[] record, RID home)
+
+  /**
+   * Selects a record from the page.
+   *
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public byte[] selectRecord(RID rid) {
+    byte[] record = new byte[checkRID(rid)];
+    assemble(rid.slotno, record);
+    return record;
+  }
+
+  /**
+   * Assembles the record in the given row into the given buffer.
+   */
+  protected void assemble(int slotno, byte[] record) {
+    for (int c = 0; c < bases.length; c++) {
+      int width = layout.getWidth(c);
+      System.arraycopy(data, bases[c] + slotno * width, record,
+          layout.getOffset(c), width);
+    }
+    System.arraycopy(data, getVarOffset(slotno), record,
+        layout.getFixedLength(), getVarLength(slotno));
+  }
+
+  /**
+   * Points the view at a copy of the record in the given slot, assembled in
+   * the page object's buffer.
+   *
+   * @throws IllegalArgumentException if the slot is empty or invalid
+   */
+  public void viewRecord(int slotno, RecordView view) {
+    short length = checkSlot(slotno);
+    if (row == null) {
+      row = new byte[PAGE_SIZE];
+    }
+    assemble(slotno, row);
+    view.set(row, 0, length, getIntValue(CUR_PAGE), slotno);
+  }
+
+  /**
+   * Copies the given columns of the record in the given slot, one after
+   * another, into the given buffer; only their minipages are read.
+   *
+   * @return the number of bytes copied
+   * @throws IllegalArgumentException if the slot is empty or invalid
+   */
+  public int selectColumns(int slotno, int[] cols, byte[] dest, int pos) {
+    checkSlot(slotno);
+    int start = pos;
+    for (int c : cols) {
+      int width = layout.getWidth(c);
+      System.arraycopy(data, bases[c] + slotno * width, dest, pos, width);
+      pos += width;
+    }
+    return pos - start;
+  }
+
+  /**
+   * Updates a record on the page, in place; its tail moves within the
+   * tails' area if its length changes.  Records on PAX pages don't move to
+   * other pages.
+   *
+   * @return false (changing nothing) if the tails' area has no room for the
+   * record's tail
+   * @throws IllegalArgumentException if the rid is invalid, or the record is
+   * shorter than its fixed-width columns
+   */
+  public boolean updateRecord(RID rid, byte[] record) {
+
+    // get and validate the record information
+    checkRID(rid);
+    int fixed = layout.getFixedLength();
+    if (record.length < fixed) {
+      throw new IllegalArgumentException("Record shorter than its columns");
+    }
+    int varLen = record.length - fixed;
+    short oldLen = getVarLength(rid.slotno);
+    if (varLen - oldLen > getShortValue(USED_PTR) - var_start) {
+      return false;
+    }
+
+    // update each column in place, and the tail where it fits
+    byte[] before = beginChange();
+    for (int c = 0; c < bases.length; c++) {
+      int width = layout.getWidth(c);
+      System.arraycopy(record, layout.getOffset(c), data,
+          bases[c] + rid.slotno * width, width);
+    }
+    if (varLen != oldLen) {
+      removeTail(rid.slotno);
+      short usedPtr = (short) (getShortValue(USED_PTR) - varLen);
+      setShortValue(usedPtr, USED_PTR);
+      setVarSlot(rid.slotno, varLen, usedPtr);
+      setShortValue(getFree(), FREE_SPACE);
+    }
+    System.arraycopy(record, fixed, data, getVarOffset(rid.slotno), varLen);
+    endChange(before);
+    return true;
+
+  } // public boolean updateRecord(RID rid, byte[] record)
+
+  /**
+   * Deletes a record from the page, compacting the tails' area, and puts its
+   * row first in the list of empty rows.  RIDs of other records don't change.
+   *
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void deleteRecord(RID rid) {
+    checkRID(rid);
+    byte[] before = beginChange();
+    removeTail(rid.slotno);
+    setVarSlot(rid.slotno, EMPTY_SLOT, getIntValue(FREE_SLOT));
+    setIntValue(rid.slotno, FREE_SLOT);
+    setShortValue((short) (getShortValue(LIVE_CNT) - 1), LIVE_CNT);
+    setShortValue(getFree(), FREE_SPACE);
+    endChange(before);
+  }
+
+  /**
+   * Takes the tail of the given row out of the tails' area, shifting the
+   * tails before it over it (empty tails at its offset count as before it).
+   */
+  protected void removeTail(int slotno) {
+    short length = getVarLength(slotno);
+    short offset = getVarOffset(slotno);
+    short usedPtr = getShortValue(USED_PTR);
+    System.arraycopy(data, usedPtr, data, usedPtr + length, offset - usedPtr);
+    short slotCnt = getShortValue(SLOT_CNT);
+    for (int i = 0; i < slotCnt; i++) {
+      if ((i != slotno) && (getVarLength(i) != EMPTY_SLOT)
+          && (getVarOffset(i) <= offset)) {
+        setVarSlot(i, getVarLength(i), getVarOffset(i) + length);
+      }
+    }
+    setShortValue((short) (usedPtr + length), USED_PTR);
+    setVarSlot(slotno, 0, usedPtr + length);
+  }
+
+} // class PaxPage extends DataPage
@@ -0,0 +1,205 @@
+package heap;
+
+import global.Convert;
+import global.GlobalConst;
+import global.RID;
+
+/**
+ * A reusable batch of records, filled by HeapScan.getNextBatch with many
+ * records per call, so operators can run tight loops over them.  The records
+ * are copied one after another into the batch's own buffer, so they stay
+ * valid after the scan moves on; their offsets and lengths in the buffer, and
+ * their ids, are kept in primitive arrays.
+ * <br><br>
+ * A batch holds at most its capacity in records, and as many bytes as fit in
+ * its buffer.  Filling it allocates nothing.  For speed, the typed accessors
+ * check the record index but not that the field lies within the record; use
+ * a RecordView for that.
+ */
+public class RecordBatch implements GlobalConst {
+
+  /** The records' bytes, one after another. */
+  protected byte[] data;
+
+  /** Offset of each record in the buffer. */
+  protected int[] offsets;
+
+  /** Length of each record (in bytes). */
+  protected int[] lengths;
+
+  /** Page id of each record. */
+  protected int[] pids;
+
+  /** Slot number of each record. */
+  protected int[] slots;
+
+  /** Number of records in the batch. */
+  protected int size;
+
+  /** Number of bytes of the buffer used. */
+  protected int used;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty batch with room for the given number of records, and
+   * a buffer that fits that many of 32 bytes (and at least a page).
+   *
+   * @throws IllegalArgumentException if the capacity isn't positive
+   */
+  public RecordBatch(int capacity) {
+    this(capacity, Math.max(PAGE_SIZE, 32 * capacity));
+  }
+
+  /**
+   * Constructs an empty batch with room for the given number of records and
+   * bytes.
+   *
+   * @throws IllegalArgumentException if the capacity isn't positive, or the
+   * buffer can't hold the largest record
+   */
+  public RecordBatch(int capacity, int bytes) {
+    if ((capacity < 1) || (bytes < PAGE_SIZE - HFPage.HEADER_SIZE)) {
+      throw new IllegalArgumentException("Invalid batch size");
+    }
+    data = new byte[bytes];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    pids = new int[capacity];
+    slots = new int[capacity];
+  }
+
+  /**
+   * Empties the batch.
+   */
+  public void clear() {
+    size = 0;
+    used = 0;
+  }
+
+  /**
+   * Copies a record into the batch, unless the batch is full.
+   *
+   * @param page the data of the record's page
+   * @return false if there wasn't room for the record
+   */
+  protected boolean add(byte[] page, int pid, int slotno, int offset,
+      int length) {
+    int pos = reserve(length, pid, slotno);
+    if (pos < 0) {
+      return false;
+    }
+    System.arraycopy(page, offset, data, pos, length);
+    return true;
+  }
+
+  /**
+   * Adds a record of the given length to the batch, unless the batch is
+   * full, for the caller to copy in.
+   *
+   * @return the record's offset in the buffer, or -1 if there wasn't room
+   */
+  protected int reserve(int length, int pid, int slotno) {
+    if ((size == offsets.length) || (used + length > data.length)) {
+      return -1;
+    }
+    offsets[size] = used;
+    lengths[size] = length;
+    pids[size] = pid;
+    slots[size] = slotno;
+    size++;
+    used += length;
+    return offsets[size - 1];
+  }
+
+  /**
+   * Gets the number of records in the batch.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the greatest number of records in the batch.
+   */
+  public int getCapacity() {
+    return offsets.length;
+  }
+
+  /**
+   * Gets the buffer holding the records' bytes.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Gets the offsets of the records in the buffer; only the first size()
+   * are valid.
+   */
+  public int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * Gets the lengths of the records; only the first size() are valid.
+   */
+  public int[] getLengths() {
+    return lengths;
+  }
+
+  /**
+   * Copies the id of the given record into the given RID.
+   */
+  public void getRID(int i, RID rid) {
+    checkIndex(i);
+    rid.pageno.pid = pids[i];
+    rid.slotno = slots[i];
+  }
+
+  /**
+   * Gets the int at the given position of the given record.
+   */
+  public int getInt(int i, int pos) {
+    checkIndex(i);
+    return Convert.getIntValue(offsets[i] + pos, data);
+  }
+
+  /**
+   * Gets the float at the given position of the given record.
+   */
+  public float getFloat(int i, int pos) {
+    checkIndex(i);
+    return Convert.getFloatValue(offsets[i] + pos, data);
+  }
+
+  /**
+   * Points the view at the given record in the batch.
+   */
+  public void view(int i, RecordView view) {
+    checkIndex(i);
+    view.set(data, offsets[i], lengths[i], pids[i], slots[i]);
+  }
+
+  /**
+   * Copies the given record into a new array.
+   */
+  public byte[] toByteArray(int i) {
+    checkIndex(i);
+    byte[] record = new byte[lengths[i]];
+    System.arraycopy(data, offsets[i], record, 0, lengths[i]);
+    return record;
+  }
+
+  /**
+   * Checks that a record index is within the batch.
+   *
+   * @throws IllegalArgumentException if it isn't
+   */
+  protected void checkIndex(int i) {
+    if ((i < 0) || (i >= size)) {
+      throw new IllegalArgumentException("Invalid record index");
+    }
+  }
+
+} // public class RecordBatch implements GlobalConst
@@ -0,0 +1,174 @@
+package heap;
+
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * A view of a record where it lies on its data page, for reading fields of
+ * fixed-format records without copying them out.  A view is reused from one
+ * record to the next, so scans and point reads through it allocate nothing
+ * per record; toByteArray copies the record for callers that keep it.
+ * <br><br>
+ * A view is only valid while its page stays pinned: for a view filled by
+ * HeapScan.getNext, until the scan moves to another page or closes; for one
+ * filled by HeapFile.viewRecord, the view holds the pin itself until the next
+ * point read on another page, or release.  Field positions are relative to
+ * the start of the record.
+ */
+public class RecordView implements GlobalConst {
+
+  /** The page's data, or null if the view is empty. */
+  protected byte[] data;
+
+  /** Offset of the record in the page. */
+  protected int offset;
+
+  /** Length of the record (in bytes). */
+  protected int length;
+
+  /** Id of the record's page. */
+  protected int pid = INVALID_PAGEID;
+
+  /** Slot number of the record. */
+  protected int slotno;
+
+  /** Page pinned by the view for point reads, if any. */
+  protected HFPage page;
+
+  /** Id of that page, while pinned. */
+  protected PageId pinned;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty view.
+   */
+  public RecordView() {
+  }
+
+  /**
+   * Points the view at a record on the given page's data.
+   */
+  protected void set(byte[] data, int offset, int length, int pid,
+      int slotno) {
+    this.data = data;
+    this.offset = offset;
+    this.length = length;
+    this.pid = pid;
+    this.slotno = slotno;
+  }
+
+  /**
+   * Unpins the view's page, if it holds one, and empties the view.  A view
+   * used for point reads must be released when done with.
+   */
+  public void release() {
+    if (pinned != null) {
+      Minibase.BufferManager.unpinPage(pinned, UNPIN_CLEAN);
+      pinned = null;
+    }
+    data = null;
+    pid = INVALID_PAGEID;
+  }
+
+  /**
+   * Copies the id of the record into the given RID.
+   */
+  public void getRID(RID rid) {
+    rid.pageno.pid = pid;
+    rid.slotno = slotno;
+  }
+
+  /**
+   * Gets the length of the record (in bytes).
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the byte at the given position.
+   */
+  public byte getByte(int pos) {
+    checkField(pos, 1);
+    return data[offset + pos];
+  }
+
+  /**
+   * Gets the short at the given position.
+   */
+  public short getShort(int pos) {
+    checkField(pos, 2);
+    return Convert.getShortValue(offset + pos, data);
+  }
+
+  /**
+   * Gets the int at the given position.
+   */
+  public int getInt(int pos) {
+    checkField(pos, 4);
+    return Convert.getIntValue(offset + pos, data);
+  }
+
+  /**
+   * Gets the float at the given position.
+   */
+  public float getFloat(int pos) {
+    checkField(pos, 4);
+    return Convert.getFloatValue(offset + pos, data);
+  }
+
+  /**
+   * Gets the char at the given position.
+   */
+  public char getChar(int pos) {
+    checkField(pos, 2);
+    return Convert.getCharValue(offset + pos, data);
+  }
+
+  /**
+   * Gets the string of at most the given length at the given position; as
+   * with Convert, trailing padding is trimmed.
+   */
+  public String getString(int pos, int len) {
+    checkField(pos, 0);
+    return new String(data, offset + pos, Math.min(len, length - pos)).trim();
+  }
+
+  /**
+   * Copies the record into the given array at the given position.
+   */
+  public void copyTo(byte[] dest, int pos) {
+    checkField(0, 0);
+    System.arraycopy(data, offset, dest, pos, length);
+  }
+
+  /**
+   * Copies the record into a new array.
+   */
+  public byte[] toByteArray() {
+    byte[] record = new byte[length];
+    copyTo(record, 0);
+    return record;
+  }
+
+  /**
+   * Checks that the view holds a record, and that a field of the given size
+   * at the given position lies within it.
+   *
+   * @throws IllegalStateException if the view is empty
+   * @throws IllegalArgumentException if the field is out of the record
+   */
+  protected void checkField(int pos, int size) {
+    if (data == null) {
+      throw new IllegalStateException("The view is empty");
+    }
+    if ((pos < 0) || (pos + size > length)) {
+      throw new IllegalArgumentException("Invalid field position");
+    }
+  }
+
+} // public class RecordView implements GlobalConst
@@ -0,0 +1,238 @@
+package heap;
+
+import global.AttrOperator;
+import global.AttrType;
+import global.Convert;
+
+/**
+ * A condition on the raw bytes of a record, given to HeapFile.openScan so the
+ * scan only returns the records that satisfy it.  Conditions are evaluated on
+ * the pinned data page, so records that don't qualify are never copied.
+ * <br><br>
+ * A comparison reads a field of a fixed type at a fixed offset of the record,
+ * the way Convert does: an int, a float, or a string of a fixed length
+ * (trimmed like Convert.getStringValue).  The operators are those of
+ * AttrOperator.  Comparisons combine into conjunctions and disjunctions;
+ * a record too short to hold a field doesn't satisfy a comparison on it.
+ */
+public abstract class ScanPredicate {
+
+  /**
+   * Tells whether the record at the given offset and length of the buffer
+   * satisfies the condition.
+   */
+  public abstract boolean eval(byte[] data, int offset, int length);
+
+  /**
+   * Tells whether a record satisfies the condition.
+   */
+  public boolean eval(byte[] record) {
+    return eval(record, 0, record.length);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates a comparison of an int or float field with a value; see
+   * compareString for string fields.
+   *
+   * @param pos offset of the field in the record
+   * @param type AttrType.INTEGER or AttrType.FLOAT
+   * @param op one of the AttrOperator constants
+   * @param value the Integer or Float to compare with
+   * @throws IllegalArgumentException if the type, operator or value is invalid
+   */
+  public static ScanPredicate compare(int pos, int type, int op,
+      Object value) {
+    if ((type != AttrType.INTEGER) && (type != AttrType.FLOAT)) {
+      throw new IllegalArgumentException("Invalid field type "
+          + AttrType.toString(type));
+    }
+    if (AttrType.getType(value) != type) {
+      throw new IllegalArgumentException("Expected a value of type "
+          + AttrType.toString(type));
+    }
+    return new Comparison(pos, type, 4, op, value);
+  }
+
+  /**
+   * Creates a comparison of a string field of the given length with a value.
+   *
+   * @param pos offset of the field in the record
+   * @param len length of the field (in bytes)
+   * @param op one of the AttrOperator constants
+   * @throws IllegalArgumentException if the operator or length is invalid
+   */
+  public static ScanPredicate compareString(int pos, int len, int op,
+      String value) {
+    if (len < 1) {
+      throw new IllegalArgumentException("Invalid field length");
+    }
+    return new Comparison(pos, AttrType.STRING, len, op, value);
+  }
+
+  /**
+   * Creates the conjunction of the given conditions.
+   */
+  public static ScanPredicate and(ScanPredicate... preds) {
+    return new Junction(preds, true);
+  }
+
+  /**
+   * Creates the disjunction of the given conditions.
+   */
+  public static ScanPredicate or(ScanPredicate... preds) {
+    return new Junction(preds, false);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * A comparison of one field with a value.
+   */
+  protected static class Comparison extends ScanPredicate {
+
+    /** Offset of the field in the record. */
+    protected int pos;
+
+    /** Type of the field, as an AttrType. */
+    protected int type;
+
+    /** Length of the field (in bytes). */
+    protected int len;
+
+    /** The comparison, as an AttrOperator. */
+    protected int op;
+
+    /** The value to compare with, if an int. */
+    protected int ival;
+
+    /** The value to compare with, if a float. */
+    protected float fval;
+
+    /** The value to compare with, if a string (trimmed). */
+    protected byte[] sval;
+
+    /**
+     * Constructs a comparison; the value matches the type.
+     */
+    protected Comparison(int pos, int type, int len, int op, Object value) {
+      if (pos < 0) {
+        throw new IllegalArgumentException("Invalid field position");
+      }
+      if ((op < AttrOperator.EQ) || (op > AttrOperator.LTE)) {
+        throw new IllegalArgumentException("Invalid operator " + op);
+      }
+      this.pos = pos;
+      this.type = type;
+      this.len = len;
+      this.op = op;
+      if (type == AttrType.INTEGER) {
+        ival = (Integer) value;
+      } else if (type == AttrType.FLOAT) {
+        fval = (Float) value;
+      } else {
+        sval = ((String) value).trim().getBytes();
+      }
+    }
+
+    /**
+     * Compares the field with the value, and applies the operator.
+     */
+    public boolean eval(byte[] data, int offset, int length) {
+
+      // compare the field, if the record holds it
+      int cmp;
+      if (type == AttrType.INTEGER) {
+        if (pos + 4 > length) {
+          return false;
+        }
+        cmp = Integer.compare(Convert.getIntValue(offset + pos, data), ival);
+      } else if (type == AttrType.FLOAT) {
+        if (pos + 4 > length) {
+          return false;
+        }
+        cmp = Float.compare(Convert.getFloatValue(offset + pos, data), fval);
+      } else {
+        if (pos > length) {
+          return false;
+        }
+        cmp = compareBytes(data, offset + pos,
+            offset + Math.min(pos + len, length));
+      }
+
+      // then apply the operator
+      switch (op) {
+        case AttrOperator.EQ:
+          return cmp == 0;
+        case AttrOperator.NEQ:
+          return cmp != 0;
+        case AttrOperator.GT:
+          return cmp > 0;
+        case AttrOperator.GTE:
+          return cmp >= 0;
+        case AttrOperator.LT:
+          return cmp < 0;
+        default:
+          return cmp <= 0;
+      }
+
+    } // public boolean eval(byte[] data, int offset, int length)
+
+    /**
+     * Compares the trimmed bytes between the given bounds with the value,
+     * like the strings would be compared.
+     */
+    protected int compareBytes(byte[] data, int start, int end) {
+      while ((start < end) && ((data[start] & 0xFF) <= ' ')) {
+        start++;
+      }
+      while ((end > start) && ((data[end - 1] & 0xFF) <= ' ')) {
+        end--;
+      }
+      int n = Math.min(end - start, sval.length);
+      for (int i = 0; i < n; i++) {
+        int diff = (data[start + i] & 0xFF) - (sval[i] & 0xFF);
+        if (diff != 0) {
+          return diff;
+        }
+      }
+      return (end - start) - sval.length;
+    }
+
+  } // protected static class Comparison extends ScanPredicate
+
+  /**
+   * A conjunction or disjunction of conditions.
+   */
+  protected static class Junction extends ScanPredicate {
+
+    /** The conditions combined. */
+    protected ScanPredicate[] preds;
+
+    /** True for a conjunction, false for a disjunction. */
+    protected boolean and;
+
+    /**
+     * Constructs a junction of the given conditions.
+     */
+    protected Junction(ScanPredicate[] preds, boolean and) {
+      this.preds = preds.clone();
+      this.and = and;
+    }
+
+    /**
+     * Evaluates the conditions in order, until one decides the result.
+     */
+    public boolean eval(byte[] data, int offset, int length) {
+      for (ScanPredicate pred : preds) {
+        if (pred.eval(data, offset, length) != and) {
+          return !and;
+        }
+      }
+      return and;
+    }
+
+  } // protected static class Junction extends ScanPredicate
+
+} // public abstract class ScanPredicate
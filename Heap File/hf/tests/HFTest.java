@@ -6,6 +6,8 @@ import global.RID;
 import heap.HeapFile; 
 import heap.HeapScan;
 
+import java.util.Arrays;
+
 /**
  * Test suite for the heap layer.
  */
@@ -41,6 +43,7 @@ class HFTest extends TestDriver {
     status &= hft.test4();
 
     // display the final results
+    hft.printDeviceTime();
     System.out.println();
     if (status != PASS) {
       System.out.println("Error(s) encountered during " + TEST_NAME + ".");
@@ -589,22 +592,38 @@ class HFTest extends TestDriver {
     // the records will cause any problem.
     System.out.println("  - Try to change the size of a record\n");
 
-    //update the record with a shorter record - should fail
+    //update the record with a shorter record - keeps its rid
     DummyRecord rec = new DummyRecord(record);
     byte[] newrecord = null;
     rec.name = "short";
     newrecord = rec.toByteArray();
+    try {
+      f.updateRecord(rid, newrecord);
+      if (!Arrays.equals(newrecord, f.selectRecord(rid))) {
+        status = FAIL;
+        System.err.print("Short update: The record was not updated\n");
+      } else {
+        System.out.println("  ** Shortening a record");
+      }
+    } catch (Exception e) {
+       e.printStackTrace();
+       status = FAIL;
+       System.err.print("Short update: An exception was thrown\n");
+    }
+
+    //update the record with one too long for a page - should fail
+    newrecord = new byte[PAGE_SIZE + 4];
     try {
       f.updateRecord(rid, newrecord);
       status = FAIL;
-      System.err.print("Short update: The expected exception was not thrown\n");
+      System.err.print("Long update: The expected exception was not thrown\n");
     } catch (IllegalArgumentException e) {
-          System.out.println("  ** Shortening a record");
+          System.out.println("  ** Lengthening a record past a page");
           System.out.println("  --> Failed as expected \n");
     } catch (Exception e) {
        e.printStackTrace();
        status = FAIL;
-       System.err.print("Short update: The expected exception was not thrown\n");
+       System.err.print("Long update: The expected exception was not thrown\n");
     }
 
     scan.close();
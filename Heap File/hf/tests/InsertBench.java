@@ -0,0 +1,87 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapLoader;
+
+/**
+ * Compares loading a heap file one insertRecord call per record with
+ * loading it through insertRecords, which fills a page per directory update,
+ * and through a HeapLoader, which writes runs of full pages past the buffer
+ * pool.
+ */
+class InsertBench implements GlobalConst {
+
+  /** Name of the benchmark's database; kept in memory. */
+  private static final String DB_PATH = DiskMgr.MEMORY_PREFIX
+      + System.getProperty("user.name") + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 50000;
+
+  /** Number of records loaded per measurement. */
+  private static final int NUM_RECORDS = 200000;
+
+  /** Number of records per insertRecords call. */
+  private static final int BATCH_SIZE = 10000;
+
+  /** Record sizes to compare. */
+  private static final int[] SIZES = { 20, 100 };
+
+  /** Names of the methods compared. */
+  private static final String[] METHODS = { "insertRecord:",
+      "insertRecords:", "HeapLoader:" };
+
+  /**
+   * Benchmark entry point; prints one line per record size and method.
+   */
+  public static void main(String argv[]) {
+
+    new Minibase(DB_PATH, NUM_PAGES, 100, false);
+    System.out.println("\nRunning bulk insert benchmark (" + NUM_RECORDS
+        + " records, batches of " + BATCH_SIZE + ")...");
+
+    for (int size : SIZES) {
+      byte[][] batch = new byte[BATCH_SIZE][];
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        batch[i] = new byte[size];
+      }
+      RID[] rids = new RID[BATCH_SIZE];
+
+      RID rid = new RID();
+
+      for (int bulk = 0; bulk < 3; bulk++) {
+        HeapFile file = new HeapFile("bench_" + size + "_" + bulk);
+        long start = System.nanoTime();
+        HeapLoader loader = (bulk == 2) ? file.openLoader(1) : null;
+        for (int done = 0; done < NUM_RECORDS; done += BATCH_SIZE) {
+          if (bulk == 2) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+              loader.append(batch[i], rid);
+            }
+          } else if (bulk == 1) {
+            rids = file.insertRecords(batch, rids);
+          } else {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+              rids[i] = file.insertRecord(batch[i]);
+            }
+          }
+        }
+        if (loader != null) {
+          loader.close();
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("  %3d-byte records, %-14s %9.0f records/sec%n",
+            size, METHODS[bulk], NUM_RECORDS * 1e9 / time);
+        file.deleteFile();
+      }
+    }
+
+    Minibase.DiskManager.destroyDB();
+
+  } // public static void main(String argv[])
+
+} // class InsertBench implements GlobalConst
@@ -0,0 +1,97 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import heap.HeapFile;
+import heap.HeapScan;
+import heap.PaxLayout;
+import heap.RecordBatch;
+
+/**
+ * Compares scanning two int columns of wide records in a heap file laid out
+ * by row, through batches of whole records, with scanning them in a file laid
+ * out by column (PAX), through batches of just those columns.
+ */
+class PaxBench implements GlobalConst {
+
+  /** Name of the benchmark's database; kept in memory. */
+  private static final String DB_PATH = DiskMgr.MEMORY_PREFIX
+      + System.getProperty("user.name") + ".bench.minibase";
+
+  /** Number of pages in the database. */
+  private static final int NUM_PAGES = 20000;
+
+  /** Number of records in each file. */
+  private static final int NUM_RECORDS = 100000;
+
+  /** Number of int columns in each record. */
+  private static final int NUM_COLUMNS = 20;
+
+  /** Number of scans per measurement. */
+  private static final int NUM_SCANS = 10;
+
+  /** Columns summed by the scans. */
+  private static final int[] COLUMNS = { 3, 17 };
+
+  /**
+   * Benchmark entry point; prints one line per layout.
+   */
+  public static void main(String argv[]) {
+
+    new Minibase(DB_PATH, NUM_PAGES, 100, false);
+    System.out.println("\nRunning column scan benchmark (" + NUM_RECORDS
+        + " records of " + NUM_COLUMNS + " ints, " + NUM_SCANS
+        + " scans)...");
+
+    int[] widths = new int[NUM_COLUMNS];
+    for (int i = 0; i < NUM_COLUMNS; i++) {
+      widths[i] = 4;
+    }
+    byte[] record = new byte[4 * NUM_COLUMNS];
+
+    for (int pax = 0; pax < 2; pax++) {
+      HeapFile file = (pax == 1) ? new HeapFile("bench_pax",
+          new PaxLayout(widths, 0)) : new HeapFile("bench_row");
+      for (int i = 0; i < NUM_RECORDS; i++) {
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+          Convert.setIntValue(i + c, 4 * c, record);
+        }
+        file.insertRecord(record);
+      }
+
+      RecordBatch batch = new RecordBatch(256, 256 * record.length);
+      long sum = 0;
+      long start = System.nanoTime();
+      for (int scan = 0; scan < NUM_SCANS; scan++) {
+        HeapScan hs = file.openScan();
+        int n;
+        if (pax == 1) {
+          while ((n = hs.getNextBatch(batch, COLUMNS)) > 0) {
+            for (int i = 0; i < n; i++) {
+              sum += batch.getInt(i, 0) + batch.getInt(i, 4);
+            }
+          }
+        } else {
+          while ((n = hs.getNextBatch(batch)) > 0) {
+            for (int i = 0; i < n; i++) {
+              sum += batch.getInt(i, 4 * COLUMNS[0])
+                  + batch.getInt(i, 4 * COLUMNS[1]);
+            }
+          }
+        }
+        hs.close();
+      }
+      long time = System.nanoTime() - start;
+      System.out.printf("  %-5s layout: %9.0f records/sec (sum %d)%n",
+          (pax == 1) ? "PAX" : "row", NUM_SCANS * NUM_RECORDS * 1e9 / time,
+          sum);
+      file.deleteFile();
+    }
+
+    Minibase.DiskManager.destroyDB();
+
+  } // public static void main(String argv[])
+
+} // class PaxBench implements GlobalConst
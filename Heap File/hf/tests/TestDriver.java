@@ -1,5 +1,7 @@
 package tests;
 
+import diskmgr.DiskMgr;
+import diskmgr.SimulatedDevice;
 import global.GlobalConst;
 import global.Minibase;
 
@@ -21,8 +23,9 @@ class TestDriver implements GlobalConst {
 
   // --------------------------------------------------------------------------
 
-  /** Default database file name. */
-  protected String DB_PATH = System.getProperty("user.name") + ".minibase";
+  /** Default database name; kept in memory, since no test needs the file. */
+  protected String DB_PATH = DiskMgr.MEMORY_PREFIX
+      + System.getProperty("user.name") + ".minibase";
 
   /** Default database size (in pages). */
   protected int DB_SIZE = 10000;
@@ -50,6 +53,8 @@ class TestDriver implements GlobalConst {
 
     public int pinned;
 
+    public long simtime;
+
   } // protected class CountData
 
   /**
@@ -73,6 +78,7 @@ class TestDriver implements GlobalConst {
   protected void create_minibase() {
     System.out.println("Creating database...\n");
     new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false);
+    Minibase.DiskManager.setDevice(SimulatedDevice.disk());
   }
 
   /**
@@ -81,6 +87,15 @@ class TestDriver implements GlobalConst {
   protected void load_minibase() {
     System.out.println("Loading database...\n" );
     new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true);
+    Minibase.DiskManager.setDevice(SimulatedDevice.disk());
+  }
+
+  /**
+   * Prints the time all I/O so far took on the simulated device.
+   */
+  protected void printDeviceTime() {
+    System.out.println("\nSimulated disk time: "
+        + Minibase.DiskManager.getDevice());
   }
 
   // --------------------------------------------------------------------------
@@ -115,6 +130,7 @@ class TestDriver implements GlobalConst {
     data.writes = Minibase.DiskManager.getWriteCount();
     data.allocs = Minibase.DiskManager.getAllocCount();
     data.pinned = BUF_SIZE - Minibase.BufferManager.getNumUnpinned();
+    data.simtime = Minibase.DiskManager.getDevice().getTime();
 
   } // protected void saveCounts(String desc)
 
@@ -132,6 +148,8 @@ class TestDriver implements GlobalConst {
         + (Minibase.DiskManager.getWriteCount() - data.writes));
     System.out.println("  *** Net total pages:  "
         + (Minibase.DiskManager.getAllocCount() - data.allocs));
+    System.out.printf("  *** Simulated I/O ms: %.3f\n",
+        (Minibase.DiskManager.getDevice().getTime() - data.simtime) / 1e6);
     int numbufs = Minibase.BufferManager.getNumFrames();
     System.out
         .println("  *** Remaining Pinned: "
@@ -150,7 +168,7 @@ class TestDriver implements GlobalConst {
     System.out.println();
     String seperator = "--------------------------------------";
     System.out.println(seperator);
-    System.out.println("\tReads\tWrites\tAllocs\tPinned");
+    System.out.println("\tReads\tWrites\tAllocs\tPinned\tSim ms");
     int size = counts.size();
     for (int i = 1; i < size; i += 2) {
 
@@ -166,6 +184,7 @@ class TestDriver implements GlobalConst {
       System.out.print("\t" + (after.writes - before.writes));
       System.out.print("\t" + (after.allocs - before.allocs));
       System.out.print("\t" + (after.pinned - before.pinned));
+      System.out.printf("\t%.1f", (after.simtime - before.simtime) / 1e6);
       System.out.println();
 
     } // for
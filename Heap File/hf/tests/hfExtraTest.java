@@ -1,11 +1,24 @@
 
 package tests;
 
+import diskmgr.Compactor;
+import global.AttrOperator;
+import global.AttrType;
 import global.Convert;
 import global.Minibase;
 import global.RID;
 import heap.HeapFile;
+import heap.HeapLoader;
+import heap.HeapRelocator;
+import heap.HeapScan;
+import heap.PaxLayout;
+import heap.ParallelScan;
+import heap.RecordBatch;
+import heap.RecordView;
+import heap.ScanPredicate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -41,6 +54,18 @@ class hfExtraTest extends TestDriver {
     //status &= hft.test2();
   //  status &= hft.test3();
     status &= hft.test6();
+    status &= hft.test7();
+    status &= hft.test8();
+    status &= hft.test9();
+    status &= hft.test10();
+    status &= hft.test11();
+    status &= hft.test12();
+    status &= hft.test13();
+    status &= hft.test14();
+    status &= hft.test15();
+    status &= hft.test16();
+    status &= hft.test17();
+    status &= hft.test18();
 
     // display the final results
     System.out.println();
@@ -209,6 +234,1555 @@ class hfExtraTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Compacts the database after a heap file in front of another is deleted.
+   */
+  protected boolean test7() {
+
+    System.out.println("\n  Test 7: Compact a heap file into freed space\n");
+    boolean status = PASS;
+    int count = 3000;
+    byte[] record = new byte[100];
+    RID[] rids = new RID[count];
+    HeapFile f = null;
+    int high = 0;
+
+    System.out.println("  - Insert records into two files, and delete the "
+        + "first one");
+    try {
+      HeapFile filler = new HeapFile("compact_filler");
+      f = new HeapFile("compact_1");
+      for (int i = 0; i < count; i++) {
+        Convert.setIntValue(i, 0, record);
+        filler.insertRecord(record);
+        rids[i] = f.insertRecord(record);
+      }
+      filler.deleteFile();
+      Minibase.BufferManager.flushAllFrames();
+      high = Minibase.DiskManager.getHighWaterMark();
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not set up the heap files\n");
+      return FAIL;
+    }
+
+    System.out.println("  - Compact the directory pages, and select each "
+        + "record by its RID");
+    try {
+      new Compactor(new HeapRelocator(false)).compact();
+      for (int i = 0; i < count && status == PASS; i++) {
+        if (Convert.getIntValue(0, f.selectRecord(rids[i])) != i) {
+          status = FAIL;
+          System.err.print("*** Wrong record " + i + "\n");
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Compact the data pages too, and scan the "
+          + "records");
+      try {
+        Compactor compactor = new Compactor(new HeapRelocator(true));
+        int moved = compactor.compact();
+        int now = Minibase.DiskManager.getHighWaterMark();
+        System.out.println("    (" + moved + " pages moved, high-water mark "
+            + high + " -> " + now + ")");
+        boolean[] seen = new boolean[count];
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        byte[] next;
+        int found = 0;
+        while ((next = scan.getNext(rid)) != null) {
+          seen[Convert.getIntValue(0, next)] = true;
+          found++;
+        }
+        scan.close();
+        for (int i = 0; i < count; i++) {
+          status &= seen[i];
+        }
+        if ((found != count) || (f.getRecCnt() != count)
+            || (now != Minibase.DiskManager.getAllocCount())
+            || (status == FAIL)) {
+          status = FAIL;
+          System.err.print("*** The file is not intact and compacted\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Delete every other record, and insert as many");
+      try {
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        int i = 0;
+        while (scan.getNext(rid) != null) {
+          if (i++ % 2 == 0) {
+            f.deleteRecord(rid);
+          }
+        }
+        scan.close();
+        for (i = 0; i < count / 2; i++) {
+          f.insertRecord(record);
+        }
+        if (f.getRecCnt() != count) {
+          status = FAIL;
+          System.err.print("*** Wrong record count after compaction\n");
+        }
+        f.deleteFile();
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 7 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test7()
+
+  /**
+   * Reuses freed space found through the free space map.
+   */
+  protected boolean test8() {
+
+    System.out.println("\n  Test 8: Reuse free space on earlier pages\n");
+    boolean status = PASS;
+    int count = 3000;
+    byte[] record = new byte[100];
+    RID[] rids = new RID[count];
+    HeapFile f = null;
+
+    System.out.println("  - Insert records, delete a few from an early page, "
+        + "and insert as many");
+    try {
+      f = new HeapFile("fsm_1");
+      for (int i = 0; i < count; i++) {
+        Convert.setIntValue(i, 0, record);
+        rids[i] = f.insertRecord(record);
+      }
+      for (int i = 20; i < 23; i++) {
+        f.deleteRecord(rids[i]);
+      }
+      for (int i = 20; i < 23; i++) {
+        Convert.setIntValue(i, 0, record);
+        RID rid = f.insertRecord(record);
+        if (rid.pageno.pid != rids[20].pageno.pid) {
+          status = FAIL;
+          System.err.print("*** Record " + i + " went to page "
+              + rid.pageno.pid + ", not " + rids[20].pageno.pid + "\n");
+        }
+        rids[i] = rid;
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not set up the heap file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Fill the freed space through another object, "
+          + "then insert through the first");
+      try {
+        HeapFile g = new HeapFile("fsm_1");
+        f.deleteRecord(rids[30]);
+        Convert.setIntValue(30, 0, record);
+        RID rid = g.insertRecord(record);
+        if (rid.pageno.pid != rids[30].pageno.pid) {
+          status = FAIL;
+          System.err.print("*** Expected the freed space to be reused\n");
+        }
+        Convert.setIntValue(-1, 0, record);
+        f.insertRecord(record);
+        rids[30] = rid;
+        for (int i = 0; i < count; i += 10) {
+          if (Convert.getIntValue(0, f.selectRecord(rids[i])) != i) {
+            status = FAIL;
+            System.err.print("*** Wrong record " + i + "\n");
+            break;
+          }
+        }
+        if (g.getRecCnt() != count + 1) {
+          status = FAIL;
+          System.err.print("*** Wrong record count\n");
+        }
+        f.deleteFile();
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 8 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test8()
+
+  /**
+   * Empties data pages in several directory pages, then changes the pages
+   * whose entries moved.
+   */
+  protected boolean test9() {
+
+    System.out.println("\n  Test 9: Update entries after emptied pages\n");
+    boolean status = PASS;
+    int count = 3000;
+    byte[] record = new byte[100];
+    RID[] rids = new RID[count];
+    boolean[] deleted = new boolean[count];
+    int left = count;
+    HeapFile f = null;
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.println("  - Empty a data page in each of three directory "
+        + "pages");
+    try {
+      f = new HeapFile("dir_1");
+      for (int i = 0; i < count; i++) {
+        Convert.setIntValue(i, 0, record);
+        rids[i] = f.insertRecord(record);
+      }
+      for (int victim : new int[] { 100, 1500, 2800 }) {
+        int pid = rids[victim].pageno.pid;
+        for (int i = 0; i < count; i++) {
+          if (rids[i].pageno.pid == pid) {
+            f.deleteRecord(rids[i]);
+            deleted[i] = true;
+            left--;
+          }
+        }
+      }
+      if (f.getRecCnt() != left) {
+        status = FAIL;
+        System.err.print("*** Expected " + left + " records, not "
+            + f.getRecCnt() + "\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not set up the heap file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Delete records after each emptied page, and "
+          + "scan the rest");
+      try {
+        for (int i = 0; i < count; i += 7) {
+          if (!deleted[i]) {
+            f.deleteRecord(rids[i]);
+            deleted[i] = true;
+            left--;
+          }
+        }
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        byte[] next;
+        int found = 0;
+        while ((next = scan.getNext(rid)) != null) {
+          if (deleted[Convert.getIntValue(0, next)]) {
+            status = FAIL;
+          }
+          found++;
+        }
+        scan.close();
+        if ((found != left) || (f.getRecCnt() != left) || (status == FAIL)) {
+          status = FAIL;
+          System.err.print("*** The file is not intact\n");
+        }
+        f.deleteFile();
+        if (Minibase.DiskManager.getAllocCount() != allocs) {
+          status = FAIL;
+          System.err.print("*** The file left pages allocated\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 9 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test9()
+
+  /**
+   * Inserts records in bulk.
+   */
+  protected boolean test10() {
+
+    System.out.println("\n  Test 10: Insert records in bulk\n");
+    boolean status = PASS;
+    int count = 2000;
+    byte[][] records = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      records[i] = new byte[20 + i % 50];
+      Convert.setIntValue(i, 0, records[i]);
+    }
+    RID[] rids = new RID[count / 2];
+    HeapFile f = null;
+
+    System.out.println("  - Insert an array of records, growing the RID "
+        + "array, then again into the same RIDs");
+    try {
+      f = new HeapFile("bulk_1");
+      RID[] grown = f.insertRecords(records, rids);
+      RID first = grown[0];
+      for (int i = 0; i < count && status == PASS; i++) {
+        if (Convert.getIntValue(0, f.selectRecord(grown[i])) != i) {
+          status = FAIL;
+          System.err.print("*** Wrong record " + i + "\n");
+        }
+      }
+      if ((grown.length != count) || (f.insertRecords(records, grown) != grown)
+          || (grown[0] != first) || (f.getRecCnt() != 2 * count)) {
+        status = FAIL;
+        System.err.print("*** Expected the RIDs in the same array\n");
+      }
+      for (int i = 0; i < count && status == PASS; i++) {
+        if (Convert.getIntValue(0, f.selectRecord(grown[i])) != i) {
+          status = FAIL;
+          System.err.print("*** Wrong record " + i + " inserted again\n");
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not insert the records\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert a list of records, and scan the file");
+      try {
+        ArrayList<byte[]> list = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+          list.add(records[i]);
+        }
+        ArrayList<RID> listed = f.insertRecords(list);
+        int[] seen = new int[count];
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        byte[] next;
+        while ((next = scan.getNext(rid)) != null) {
+          seen[Convert.getIntValue(0, next)]++;
+        }
+        scan.close();
+        for (int i = 0; i < count; i++) {
+          if (seen[i] != 3) {
+            status = FAIL;
+          }
+        }
+        if ((listed.size() != count) || (status == FAIL)
+            || (Convert.getIntValue(0, f.selectRecord(listed.get(7))) != 7)) {
+          status = FAIL;
+          System.err.print("*** The file does not hold each record thrice\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert a batch with a record too large");
+      int pinned = Minibase.BufferManager.getNumUnpinned();
+      try {
+        records[count / 2] = new byte[PAGE_SIZE];
+        f.insertRecords(records, rids);
+        status = FAIL;
+        System.err.print("*** The batch was inserted\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != pinned) {
+        status = FAIL;
+        System.err.print("*** The failed batch left a page pinned\n");
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert a list of records holding a null");
+      int pinned = Minibase.BufferManager.getNumUnpinned();
+      try {
+        f.insertRecords(Arrays.asList(records[0], null, records[1]));
+        status = FAIL;
+        System.err.print("*** The null record was skipped\n");
+      } catch (NullPointerException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != pinned) {
+        status = FAIL;
+        System.err.print("*** The failed batch left a page pinned\n");
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 10 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test10()
+
+  /**
+   * Bulk loads records with a fill factor, past the size of the buffer pool.
+   */
+  protected boolean test11() {
+
+    System.out.println("\n  Test 11: Bulk load full pages\n");
+    boolean status = PASS;
+    int count = 6000;
+    RID[] rids = new RID[count];
+    HeapFile f = null;
+
+    System.out.println("  - Load " + count + " records half filling each "
+        + "page, and select them");
+    try {
+      f = new HeapFile("load_1");
+      int writes = Minibase.DiskManager.getWriteCallCount();
+      HeapLoader loader = f.openLoader(0.5);
+      byte[] record = new byte[100];
+      for (int i = 0; i < count; i++) {
+        Convert.setIntValue(i, 0, record);
+        rids[i] = new RID();
+        loader.append(record, rids[i]);
+      }
+      loader.close();
+      writes = Minibase.DiskManager.getWriteCallCount() - writes;
+
+      // 4 records fit in half a page; pages of a run are contiguous
+      if ((loader.getPageCount() != count / 4) || (f.getRecCnt() != count)) {
+        status = FAIL;
+        System.err.print("*** Expected " + count / 4 + " pages, got "
+            + loader.getPageCount() + "\n");
+      }
+      for (int i = 0; i < count && status == PASS; i++) {
+        if ((Convert.getIntValue(0, f.selectRecord(rids[i])) != i)
+            || ((i % 4 == 0) && (i % (4 * HeapLoader.RUN_SIZE) != 0)
+                && (rids[i].pageno.pid != rids[i - 1].pageno.pid + 1))) {
+          status = FAIL;
+          System.err.print("*** Wrong record or page at " + i + "\n");
+        }
+      }
+      if (writes > count / 4 / HeapLoader.RUN_SIZE + BUF_SIZE) {
+        status = FAIL;
+        System.err.print("*** Expected few writes, got " + writes + "\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not load the records\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert into the room left, then load more at "
+          + "the end");
+      try {
+        RID inserted = f.insertRecord(new byte[100]);
+        HeapLoader loader = f.openLoader(1);
+        RID loaded = new RID();
+        byte[] record = new byte[100];
+        for (int i = 0; i < count / 10; i++) {
+          Convert.setIntValue(count + i, 0, record);
+          loader.append(record, loaded);
+        }
+        loader.close();
+        if ((inserted.pageno.pid < rids[0].pageno.pid)
+            || (inserted.pageno.pid > rids[count - 1].pageno.pid)) {
+          status = FAIL;
+          System.err.print("*** Expected the insert on a loaded page\n");
+        }
+        int[] seen = new int[count + count / 10];
+        HeapScan scan = f.openScan();
+        byte[] next;
+        int total = 0;
+        while ((next = scan.getNext(rid)) != null) {
+          int key = Convert.getIntValue(0, next);
+          if (rid.pageno.pid != inserted.pageno.pid || rid.slotno != inserted.slotno) {
+            seen[key]++;
+          }
+          total++;
+        }
+        scan.close();
+        for (int i = 0; i < seen.length; i++) {
+          if (seen[i] != 1) {
+            status = FAIL;
+          }
+        }
+        if ((status == FAIL) || (total != seen.length + 1)
+            || (Convert.getIntValue(0, f.selectRecord(loaded)) != count
+                + count / 10 - 1)) {
+          status = FAIL;
+          System.err.print("*** The file does not hold each record once\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Open a loader with an invalid fill factor");
+      try {
+        f.openLoader(1.5);
+        status = FAIL;
+        System.err.print("*** The loader was opened\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 11 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test11()
+
+  /**
+   * Scans a file on several workers, with a sink each and as one stream.
+   */
+  protected boolean test12() {
+
+    System.out.println("\n  Test 12: Scan a file in parallel\n");
+    boolean status = PASS;
+    int count = 5000;
+    int workers = 4;
+    HeapFile f = null;
+    int pinned = Minibase.BufferManager.getNumUnpinned();
+
+    System.out.println("  - Count the records of each key with a sink per "
+        + "worker");
+    try {
+      f = new HeapFile("parallel_1");
+      byte[][] records = new byte[count][];
+      for (int i = 0; i < count; i++) {
+        records[i] = new byte[8 + i % 60];
+        Convert.setIntValue(i, 0, records[i]);
+      }
+      f.insertRecords(records, null);
+      final int[][] seen = new int[workers][count];
+      ParallelScan.RecordSink[] sinks = new ParallelScan.RecordSink[workers];
+      for (int w = 0; w < workers; w++) {
+        final int[] mine = seen[w];
+        sinks[w] = new ParallelScan.RecordSink() {
+          public void accept(RID rid, byte[] record) {
+            mine[Convert.getIntValue(0, record)]++;
+          }
+        };
+      }
+      ParallelScan scan = f.openParallelScan(workers);
+      scan.forEach(sinks);
+      for (int i = 0; i < count && status == PASS; i++) {
+        int total = 0;
+        for (int w = 0; w < workers; w++) {
+          total += seen[w][i];
+        }
+        if (total != 1) {
+          status = FAIL;
+          System.err.print("*** Record " + i + " seen " + total + " times\n");
+        }
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != pinned) {
+        status = FAIL;
+        System.err.print("*** Pages left pinned\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not scan the file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Read the merged stream, then close one early");
+      try {
+        int[] seen = new int[count];
+        ParallelScan scan = f.openParallelScan(workers);
+        RID rid = new RID();
+        byte[] next;
+        RID[] found = new RID[count];
+        while ((next = scan.getNext(rid)) != null) {
+          int key = Convert.getIntValue(0, next);
+          seen[key]++;
+          found[key] = new RID(rid);
+          if (next.length != 8 + key % 60) {
+            status = FAIL;
+          }
+        }
+        scan.close();
+        for (int i = 0; i < count; i++) {
+          if ((seen[i] != 1)
+              || (Convert.getIntValue(0, f.selectRecord(found[i])) != i)) {
+            status = FAIL;
+          }
+        }
+        scan = f.openParallelScan(workers);
+        for (int i = 0; i < 10; i++) {
+          scan.getNext(rid);
+        }
+        scan.close();
+        if ((status == FAIL) || (scan.getNext(rid) != null)
+            || (Minibase.BufferManager.getNumUnpinned() != pinned)) {
+          status = FAIL;
+          System.err.print("*** The stream does not hold each record once\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Run a scan twice");
+      ParallelScan scan = f.openParallelScan(1);
+      try {
+        scan.getNext(new RID());
+        scan.forEach(new ParallelScan.RecordSink[1]);
+        status = FAIL;
+        System.err.print("*** The scan was run again\n");
+      } catch (IllegalStateException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+      scan.close();
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 12 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test12()
+
+  /**
+   * Reads fixed-format records through views, in scans and point reads.
+   */
+  protected boolean test13() {
+
+    System.out.println("\n  Test 13: Read records through views\n");
+    boolean status = PASS;
+    int count = 1000;
+    RID[] rids = new RID[count];
+    HeapFile f = null;
+    int unpinned = Minibase.BufferManager.getNumUnpinned();
+
+    System.out.println("  - Scan the fields of each record through a view");
+    try {
+      f = new HeapFile("view_1");
+      DummyRecord rec = new DummyRecord();
+      for (int i = 0; i < count; i++) {
+        rec.ival = i;
+        rec.fval = i * 2.5f;
+        rec.name = "record" + i;
+        rids[i] = f.insertRecord(rec.toByteArray());
+      }
+      HeapScan scan = f.openScan();
+      RecordView view = new RecordView();
+      RID rid = new RID();
+      int seen = 0;
+      while (scan.getNext(view)) {
+        int i = view.getInt(0);
+        view.getRID(rid);
+        if ((view.getFloat(4) != i * 2.5f)
+            || !view.getString(8, NAME_MAXLEN).equals("record" + i)
+            || !rid.equals(rids[i])) {
+          status = FAIL;
+          System.err.print("*** Wrong fields in record " + i + "\n");
+          break;
+        }
+        seen++;
+      }
+      scan.close();
+      if (seen != count) {
+        status = FAIL;
+        System.err.print("*** Expected " + count + " records, got " + seen
+            + "\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not scan the file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Read records by RID, pinning each page once");
+      try {
+        RecordView view = new RecordView();
+        f.viewRecord(rids[0], view);
+        f.viewRecord(rids[1], view);
+        if ((Minibase.BufferManager.getNumUnpinned() != unpinned - 1)
+            || (view.getInt(0) != 1)) {
+          status = FAIL;
+          System.err.print("*** Expected one page pinned by the view\n");
+        }
+        for (int i = count - 1; i >= 0 && status == PASS; i -= 7) {
+          f.viewRecord(rids[i], view);
+          byte[] copy = view.toByteArray();
+          if (!Arrays.equals(copy, f.selectRecord(rids[i]))) {
+            status = FAIL;
+            System.err.print("*** Wrong copy of record " + i + "\n");
+          }
+        }
+        view.release();
+        if (Minibase.BufferManager.getNumUnpinned() != unpinned) {
+          status = FAIL;
+          System.err.print("*** The view left its page pinned\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Read a field past the end of a record");
+      RecordView view = new RecordView();
+      try {
+        f.viewRecord(rids[0], view);
+        view.getInt(view.getLength() - 2);
+        status = FAIL;
+        System.err.print("*** The field was read\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+      view.release();
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 13 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test13()
+
+  /**
+   * Scans records in batches, limited by count and by bytes.
+   */
+  protected boolean test14() {
+
+    System.out.println("\n  Test 14: Scan records in batches\n");
+    boolean status = PASS;
+    int count = 3000;
+    HeapFile f = null;
+
+    System.out.println("  - Scan in batches of up to 100 records and a page "
+        + "of bytes");
+    try {
+      f = new HeapFile("batch_1");
+      byte[][] records = new byte[count][];
+      for (int i = 0; i < count; i++) {
+        records[i] = new byte[4 + i % 40];
+        Convert.setIntValue(i, 0, records[i]);
+      }
+      RID[] rids = f.insertRecords(records, null);
+      RecordBatch batch = new RecordBatch(100, PAGE_SIZE);
+      HeapScan scan = f.openScan();
+      RID rid = new RID();
+      int[] seen = new int[count];
+      int batches = 0;
+      int n;
+      while ((n = scan.getNextBatch(batch)) > 0) {
+        batches++;
+        int[] lengths = batch.getLengths();
+        for (int i = 0; i < n; i++) {
+          int key = batch.getInt(i, 0);
+          batch.getRID(i, rid);
+          seen[key]++;
+          if ((lengths[i] != 4 + key % 40) || !rid.equals(rids[key])) {
+            status = FAIL;
+          }
+        }
+      }
+      scan.close();
+      for (int i = 0; i < count; i++) {
+        if (seen[i] != 1) {
+          status = FAIL;
+        }
+      }
+      if (status == FAIL) {
+        System.err.print("*** The batches do not hold each record once\n");
+      }
+
+      // about 70 bytes a page are spare, so pages take several batches
+      if (batches <= count / 100) {
+        status = FAIL;
+        System.err.print("*** Expected batches limited by bytes\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not scan the file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Mix batches with single records");
+      try {
+        // records fill gaps in earlier pages, so get the file's order first
+        int[] order = new int[count];
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        byte[] next;
+        for (int i = 0; (next = scan.getNext(rid)) != null; i++) {
+          order[i] = Convert.getIntValue(0, next);
+        }
+        scan.close();
+
+        RecordBatch batch = new RecordBatch(7);
+        scan = f.openScan();
+        int total = 0;
+        while (true) {
+          int n = scan.getNextBatch(batch);
+          for (int i = 0; i < n; i++) {
+            if (batch.getInt(i, 0) != order[total++]) {
+              status = FAIL;
+            }
+          }
+          next = scan.getNext(rid);
+          if (next == null) {
+            break;
+          }
+          if (Convert.getIntValue(0, next) != order[total++]) {
+            status = FAIL;
+          }
+        }
+        scan.close();
+        if ((status == FAIL) || (total != count)) {
+          status = FAIL;
+          System.err.print("*** Records were lost between calls\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Create a batch with no room");
+      try {
+        new RecordBatch(0);
+        status = FAIL;
+        System.err.print("*** The batch was created\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 14 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test14()
+
+  /**
+   * Scans with conditions on the fields of fixed-format records.
+   */
+  protected boolean test15() {
+
+    System.out.println("\n  Test 15: Scan with predicates\n");
+    boolean status = PASS;
+    int count = 1000;
+    HeapFile f = null;
+
+    System.out.println("  - Scan with comparisons, conjunctions and "
+        + "disjunctions");
+    try {
+      f = new HeapFile("predicate_1");
+      DummyRecord rec = new DummyRecord();
+      for (int i = 0; i < count; i++) {
+        rec.ival = i;
+        rec.fval = (i % 100) * 0.5f;
+        rec.name = "record" + (i % 50);
+        f.insertRecord(rec.toByteArray());
+      }
+      ScanPredicate[] preds = {
+          ScanPredicate.and(
+              ScanPredicate.compare(0, AttrType.INTEGER, AttrOperator.GTE, 100),
+              ScanPredicate.compare(0, AttrType.INTEGER, AttrOperator.LT, 200)),
+          ScanPredicate.or(
+              ScanPredicate.compareString(8, NAME_MAXLEN, AttrOperator.EQ,
+                  "record7"),
+              ScanPredicate.compare(4, AttrType.FLOAT, AttrOperator.GT, 48.5f)),
+          ScanPredicate.compareString(8, NAME_MAXLEN, AttrOperator.LTE,
+              "record2"),
+          ScanPredicate.compare(0, AttrType.INTEGER, AttrOperator.NEQ, 5) };
+      int[] expected = { 100, 20 + 20, 0, count - 1 };
+      for (int i = 0; i < count; i++) {
+        String name = "record" + (i % 50);
+        if (name.compareTo("record2") <= 0) {
+          expected[2]++;
+        }
+      }
+      for (int p = 0; p < preds.length; p++) {
+        HeapScan scan = f.openScan(preds[p]);
+        RID rid = new RID();
+        byte[] next;
+        int found = 0;
+        while ((next = scan.getNext(rid)) != null) {
+          DummyRecord got = new DummyRecord(next);
+          boolean match = (p == 0) ? (got.ival >= 100 && got.ival < 200)
+              : (p == 1) ? (got.name.equals("record7") || got.fval > 48.5f)
+              : (p == 2) ? (got.name.compareTo("record2") <= 0)
+              : (got.ival != 5);
+          if (!match) {
+            status = FAIL;
+          }
+          found++;
+        }
+        scan.close();
+        if ((status == FAIL) || (found != expected[p])) {
+          status = FAIL;
+          System.err.print("*** Predicate " + p + ": expected "
+              + expected[p] + " records, got " + found + "\n");
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not scan the file\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Fill batches through a predicate");
+      try {
+        HeapScan scan = f.openScan(ScanPredicate.compare(0, AttrType.INTEGER,
+            AttrOperator.LT, 250));
+        RecordBatch batch = new RecordBatch(64);
+        int found = 0;
+        int n;
+        while ((n = scan.getNextBatch(batch)) > 0) {
+          for (int i = 0; i < n; i++) {
+            if (batch.getInt(i, 0) >= 250) {
+              status = FAIL;
+            }
+          }
+          found += n;
+        }
+        scan.close();
+        if ((status == FAIL) || (found != 250)) {
+          status = FAIL;
+          System.err.print("*** Expected 250 records, got " + found + "\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Compare a string field without its length");
+      try {
+        ScanPredicate.compare(8, AttrType.STRING, AttrOperator.EQ, "record7");
+        status = FAIL;
+        System.err.print("*** The predicate was created\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 15 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test15()
+
+  /**
+   * Stores records on pages laid out by column, and scans some columns.
+   */
+  protected boolean test16() {
+
+    System.out.println("\n  Test 16: Lay out pages by column\n");
+    boolean status = PASS;
+    int count = 2000;
+    RID[] rids = new RID[count];
+    byte[][] records = new byte[count][];
+    PaxLayout layout = new PaxLayout(new int[] { 4, 4, 8 }, 8);
+    HeapFile f = null;
+
+    System.out.println("  - Insert, select, update and delete records");
+    try {
+      f = new HeapFile("pax_1", layout);
+      for (int i = 0; i < count; i++) {
+        records[i] = new byte[16 + i % 20];
+        Convert.setIntValue(i, 0, records[i]);
+        Convert.setIntValue(-i, 4, records[i]);
+        Convert.setStringValue("row" + i % 1000, 8, records[i]);
+        Arrays.fill(records[i], 16, records[i].length, (byte) i);
+        rids[i] = f.insertRecord(records[i]);
+      }
+      for (int i = 0; i < count; i += 2) {
+        Convert.setIntValue(i * 10, 4, records[i]);
+        f.updateRecord(rids[i], records[i]);
+      }
+      for (int i = 0; i < count; i += 3) {
+        f.deleteRecord(rids[i]);
+      }
+      for (int i = 0; i < count && status == PASS; i++) {
+        if ((i % 3 != 0)
+            && !Arrays.equals(records[i], f.selectRecord(rids[i]))) {
+          status = FAIL;
+          System.err.print("*** Wrong record " + i + "\n");
+        }
+      }
+      if (f.getRecCnt() != count - (count + 2) / 3) {
+        status = FAIL;
+        System.err.print("*** Wrong record count " + f.getRecCnt() + "\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not change the records\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Scan two columns, after opening the file again");
+      try {
+        HeapFile g = new HeapFile("pax_1");
+        HeapScan scan = g.openScan();
+        RecordBatch batch = new RecordBatch(50);
+        RID rid = new RID();
+        int found = 0;
+        int n;
+        while ((n = scan.getNextBatch(batch, new int[] { 2, 0 })) > 0) {
+          for (int i = 0; i < n; i++) {
+            int key = batch.getInt(i, 8);
+            batch.getRID(i, rid);
+            if ((batch.getLengths()[i] != 12) || (key % 3 == 0)
+                || !rid.equals(rids[key])
+                || !Convert.getStringValue(batch.getOffsets()[i],
+                    batch.getData(), 8).equals("row" + key % 1000)) {
+              status = FAIL;
+            }
+          }
+          found += n;
+        }
+        scan.close();
+        if ((status == FAIL) || (found != g.getRecCnt())
+            || (g.getLayout() == null)) {
+          status = FAIL;
+          System.err.print("*** The columns scanned are wrong\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Scan whole records with a predicate, and bulk "
+          + "load more");
+      try {
+        HeapScan scan = f.openScan(ScanPredicate.compare(0, AttrType.INTEGER,
+            AttrOperator.LT, 100));
+        RID rid = new RID();
+        byte[] next;
+        int found = 0;
+        while ((next = scan.getNext(rid)) != null) {
+          int key = Convert.getIntValue(0, next);
+          if ((key >= 100) || !Arrays.equals(next, records[key])) {
+            status = FAIL;
+          }
+          found++;
+        }
+        scan.close();
+        HeapLoader loader = f.openLoader(1);
+        for (int i = 0; i < count; i += 3) {
+          loader.append(records[i], rids[i]);
+        }
+        loader.close();
+        for (int i = 0; i < count && status == PASS; i++) {
+          if (!Arrays.equals(records[i], f.selectRecord(rids[i]))) {
+            status = FAIL;
+          }
+        }
+        if ((status == FAIL) || (found != 100 - 34)
+            || (f.getRecCnt() != count)) {
+          status = FAIL;
+          System.err.print("*** The scan or load is wrong\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert a record shorter than the columns");
+      try {
+        f.insertRecord(new byte[10]);
+        status = FAIL;
+        System.err.print("*** The record was inserted\n");
+      } catch (IllegalArgumentException exc) {
+        System.out.println("  --> Failed as expected \n");
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 16 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test16()
+
+  /**
+   * Grows and shrinks records past their pages, keeping their RIDs.
+   */
+  protected boolean test17() {
+
+    System.out.println("\n  Test 17: Change the length of records\n");
+    boolean status = PASS;
+    int count = 1000;
+    RID[] rids = new RID[count];
+    byte[][] records = new byte[count][];
+    HeapFile f = null;
+
+    System.out.println("  - Grow records past their pages, and read them by "
+        + "their RIDs");
+    try {
+      f = new HeapFile("resize_1");
+      for (int i = 0; i < count; i++) {
+        records[i] = makeRecord(i, 40);
+        rids[i] = f.insertRecord(records[i]);
+      }
+      for (int i = 0; i < count; i += 4) {
+        records[i] = makeRecord(i, 300);
+        f.updateRecord(rids[i], records[i]);
+      }
+      RecordView view = new RecordView();
+      RID rid = new RID();
+      for (int i = 0; i < count && status == PASS; i++) {
+        f.viewRecord(rids[i], view);
+        view.getRID(rid);
+        if (!Arrays.equals(records[i], f.selectRecord(rids[i]))
+            || !Arrays.equals(records[i], view.toByteArray())
+            || !rid.equals(rids[i])) {
+          status = FAIL;
+          System.err.print("*** Wrong record " + i + "\n");
+        }
+      }
+      view.release();
+      if ((f.getForwardCount() == 0) || (f.getHopCount() == 0)
+          || (f.getRecCnt() != count)) {
+        status = FAIL;
+        System.err.print("*** The records didn't move\n");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not grow the records\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Scan the records once each, by their RIDs");
+      status = checkResized(f, rids, records, 1);
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Shrink the moved records back into place, and "
+          + "grow them again");
+      try {
+        for (int i = 0; i < count; i += 4) {
+          records[i] = makeRecord(i, 20);
+          f.updateRecord(rids[i], records[i]);
+        }
+        long collapsed = f.getCollapseCount();
+        for (int i = 0; i < count; i += 4) {
+          records[i] = makeRecord(i, 250 + i % 200);
+          f.updateRecord(rids[i], records[i]);
+          records[i] = makeRecord(i, 200 + i % 300);
+          f.updateRecord(rids[i], records[i]);
+        }
+        if ((collapsed == 0) || (f.getRecCnt() != count)) {
+          status = FAIL;
+          System.err.print("*** The records didn't move back\n");
+        } else {
+          status = checkResized(f, rids, records, 1);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Delete the records left in place, and compact "
+          + "the data pages");
+      try {
+        for (int i = 0; i < count; i++) {
+          if (i % 4 != 0) {
+            f.deleteRecord(rids[i]);
+            rids[i] = null;
+          }
+        }
+        status = checkResized(f, rids, records, 4);
+        new Compactor(new HeapRelocator(true)).compact();
+        HeapScan scan = f.openScan();
+        RID rid = new RID();
+        while (scan.getNext(rid) != null) {
+          rids[Convert.getIntValue(0, f.selectRecord(rid))] = new RID(
+              rid.pageno, rid.slotno);
+        }
+        scan.close();
+        if (status == PASS) {
+          status = checkResized(f, rids, records, 4);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Delete the moved records");
+      try {
+        for (int i = 0; i < count; i += 4) {
+          f.deleteRecord(rids[i]);
+        }
+        HeapScan scan = f.openScan();
+        byte[] next = scan.getNext(new RID());
+        scan.close();
+        if ((f.getRecCnt() != 0) || (next != null)) {
+          status = FAIL;
+          System.err.print("*** The file is not empty\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Grow a record of a full slotted page, in a "
+          + "file now adding PAX pages");
+      try {
+        f = new HeapFile("resize_2");
+        RID[] full = new RID[8];
+        for (int i = 0; i < full.length; i++) {
+          full[i] = f.insertRecord(makeRecord(i, 247));
+        }
+        f = new HeapFile("resize_2", new PaxLayout(new int[] { 4, 4 }, 16));
+        for (int i = 0; i < 20; i++) {
+          f.insertRecord(makeRecord(100 + i, 24));
+        }
+        byte[] record = makeRecord(3, 400);
+        f.updateRecord(full[3], record);
+        if ((f.getForwardCount() != 1)
+            || !Arrays.equals(record, f.selectRecord(full[3]))
+            || (f.getRecCnt() != 28)) {
+          status = FAIL;
+          System.err.print("*** The record didn't move to a slotted page\n");
+        }
+        f.deleteFile();
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Grow a record shorter than a stub, on a full "
+          + "page");
+      try {
+        f = new HeapFile("resize_3");
+        RID[] tiny = new RID[200];
+        for (int i = 0; i < tiny.length; i++) {
+          tiny[i] = f.insertRecord(makeRecord(i, 4));
+        }
+        byte[] record = makeRecord(0, 100);
+        f.updateRecord(tiny[0], record);
+        if ((f.getForwardCount() != 1)
+            || !Arrays.equals(record, f.selectRecord(tiny[0]))
+            || !Arrays.equals(makeRecord(1, 4), f.selectRecord(tiny[1]))) {
+          status = FAIL;
+          System.err.print("*** The record didn't move\n");
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Grow records past the largest that can move");
+      int unpinned = Minibase.BufferManager.getNumUnpinned();
+      RID rid = null;
+      try {
+        rid = f.insertRecord(makeRecord(7, 40));
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+      for (int i = 0; (i < 100) && (status == PASS); i++) {
+        try {
+          f.updateRecord(rid, makeRecord(7, PAGE_SIZE - 24));
+          status = FAIL;
+          System.err.print("*** The record moved\n");
+        } catch (IllegalArgumentException exc) {
+          // expected
+        }
+      }
+      if (status == PASS) {
+        if (Minibase.BufferManager.getNumUnpinned() != unpinned) {
+          status = FAIL;
+          System.err.print("*** The failed updates left pages pinned\n");
+        } else {
+          System.out.println("  --> Failed as expected \n");
+        }
+      }
+      try {
+        f.deleteFile();
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 17 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test17()
+
+  /**
+   * Deletes and reinserts records, reusing empty slots and the holes left
+   * among the records.
+   */
+  protected boolean test18() {
+
+    System.out.println("\n  Test 18: Reuse the space of deleted records\n");
+    boolean status = PASS;
+    RID[] rids = new RID[10];
+    byte[][] records = new byte[10][];
+    HeapFile f = null;
+
+    System.out.println("  - Fill a page, delete every other record, and "
+        + "insert records in their slots");
+    try {
+      f = new HeapFile("reuse_1");
+      for (int i = 0; i < 10; i++) {
+        records[i] = makeRecord(i, 90);
+        rids[i] = f.insertRecord(records[i]);
+      }
+      ArrayList<RID> deleted = new ArrayList<RID>();
+      for (int i = 1; i < 10; i += 2) {
+        f.deleteRecord(rids[i]);
+        deleted.add(rids[i]);
+      }
+      for (int i = 1; i < 10; i += 2) {
+        records[i] = makeRecord(i, 90);
+        rids[i] = f.insertRecord(records[i]);
+        if (!deleted.remove(rids[i])) {
+          status = FAIL;
+          System.err.print("*** An empty slot wasn't reused\n");
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println("*** Could not reuse the slots\n");
+      return FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Insert and grow records into the holes left "
+          + "by deletes");
+      try {
+        for (int i = 0; i < 6; i += 2) {
+          f.deleteRecord(rids[i]);
+          records[i] = null;
+        }
+        records[0] = makeRecord(0, 300);
+        RID rid = f.insertRecord(records[0]);
+        f.deleteRecord(rid);
+        records[0] = null;
+        records[1] = makeRecord(1, 300);
+        f.updateRecord(rids[1], records[1]);
+        if (!rid.pageno.equals(rids[1].pageno) || (f.getForwardCount() != 0)) {
+          status = FAIL;
+          System.err.print("*** The holes weren't reused\n");
+        }
+        for (int i = 0; i < 10 && status == PASS; i++) {
+          if ((records[i] != null)
+              && !Arrays.equals(records[i], f.selectRecord(rids[i]))) {
+            status = FAIL;
+            System.err.print("*** Wrong record " + i + "\n");
+          }
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Delete and reinsert most records of a file, "
+          + "without adding pages");
+      try {
+        f.deleteFile();
+        int count = 1000;
+        rids = new RID[count];
+        records = new byte[count][];
+        f = new HeapFile("reuse_2");
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+          records[i] = makeRecord(i, 40);
+          rids[i] = f.insertRecord(records[i]);
+          if (!pages.contains(rids[i].pageno.pid)) {
+            pages.add(rids[i].pageno.pid);
+          }
+        }
+        for (int i = 0; i < count; i++) {
+          if (i % 4 != 0) {
+            f.deleteRecord(rids[i]);
+          }
+        }
+        for (int i = 0; i < count; i++) {
+          if (i % 4 != 0) {
+            records[i] = makeRecord(i, 20 + i % 21);
+            rids[i] = f.insertRecord(records[i]);
+            if (!pages.contains(rids[i].pageno.pid)) {
+              status = FAIL;
+            }
+          }
+        }
+        if (status == FAIL) {
+          System.err.print("*** The freed space wasn't reused\n");
+        } else {
+          status = checkResized(f, rids, records, 1);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        status = FAIL;
+      }
+    }
+    try {
+      f.deleteFile();
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 18 completed successfully.\n");
+    return (status);
+
+  } // protected boolean test18()
+
+  /**
+   * Makes a record of the given length, holding its key and filled with it.
+   */
+  protected static byte[] makeRecord(int key, int length) {
+    byte[] record = new byte[length];
+    Arrays.fill(record, (byte) key);
+    Convert.setIntValue(key, 0, record);
+    return record;
+  }
+
+  /**
+   * Checks that a scan of the file finds every given step-th record once,
+   * by its RID.
+   */
+  protected static boolean checkResized(HeapFile f, RID[] rids,
+      byte[][] records, int step) {
+    boolean status = PASS;
+    try {
+      HeapScan scan = f.openScan();
+      RID rid = new RID();
+      byte[] next;
+      int found = 0;
+      while ((next = scan.getNext(rid)) != null) {
+        int key = Convert.getIntValue(0, next);
+        if ((key % step != 0) || !rid.equals(rids[key])
+            || !Arrays.equals(next, records[key])
+            || !Arrays.equals(next, f.selectRecord(rid))) {
+          status = FAIL;
+        }
+        found++;
+      }
+      scan.close();
+      if ((found != records.length / step) || (f.getRecCnt() != found)) {
+        status = FAIL;
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      status = FAIL;
+    }
+    if (status == FAIL) {
+      System.err.print("*** The scan is wrong\n");
+    }
+    return status;
+  }
+
   /**
    * Used in fixed-length record test cases.
    */